@@ -0,0 +1,97 @@
+#!/usr/bin/python
+
+# Copies metrics written with ascii row keys (partition:device:group:name[:suffix]) into a column family keyed the way
+# row_key_format: binary expects: metric number (int), partition number (int), partition width code << 4 | resolution
+# (byte). The partition is YYYYMM for months, YYYYMMDD for days, and the Monday's YYYYMMDD followed by W for weeks.
+#
+# usage: ascii_to_binary_row_keys.py [source column family] [target column family]
+#
+# The target column family must already exist with the same comparator and validator as the source. Point
+# column_family at it and set row_key_format: binary once the copy is done.
+
+import sys
+import struct
+import datetime
+
+import MySQLdb
+
+from pycassa.pool import ConnectionPool
+from pycassa.columnfamily import ColumnFamily
+
+# same order as com.metrink.metric.Resolution
+RESOLUTIONS = { None: 0, '5m': 1, '1h': 2, '1d': 3 }
+
+source_name = sys.argv[1] if len(sys.argv) > 1 else 'metrics'
+target_name = sys.argv[2] if len(sys.argv) > 2 else 'metrics_binary'
+
+# connect to mysql
+db = MySQLdb.connect(host="localhost", user="root", passwd="root", db="metrink")
+cur = db.cursor()
+
+# connect to cassandra
+pool = ConnectionPool('metrink')
+
+source = ColumnFamily(pool, source_name)
+target = ColumnFamily(pool, target_name)
+
+EPOCH = datetime.date(1970, 1, 1).toordinal()
+
+numbers = {}
+
+def partition_number(partition):
+    """Returns the partition number and the width code of com.metrink.metric.io.impl.PartitionWidth."""
+    if len(partition) == 6:
+        return (int(partition[0:4]) - 1970) * 12 + int(partition[4:6]) - 1, 0
+
+    days = datetime.date(int(partition[0:4]), int(partition[4:6]), int(partition[6:8])).toordinal() - EPOCH
+
+    if len(partition) == 9:
+        # weeks start on Monday, and 1970-01-01 is a Thursday
+        return (days + 3) // 7, 1
+
+    return days, 2
+
+
+def metric_number(device, group, name):
+    key = (device, group, name)
+
+    if key not in numbers:
+        cur.execute('insert ignore into metric_numbers (device, groupName, name) values (%s, %s, %s)', key)
+        cur.execute('select metricNumber from metric_numbers where device = %s and groupName = %s and name = %s', key)
+        db.commit()
+        numbers[key] = cur.fetchone()[0]
+
+    return numbers[key]
+
+rows = 0
+columns = 0
+
+# only the keys, the columns of each row are paged through below
+for row_key, _ in source.get_range(column_count=1, filter_empty=False):
+    parts = row_key.split(':')
+
+    if len(parts) not in (4, 5):
+        print 'skipping ' + row_key
+        continue
+
+    number, width = partition_number(parts[0])
+    suffix = parts[4] if len(parts) == 5 else None
+
+    binary_key = struct.pack('>iib', metric_number(parts[1], parts[2], parts[3]), number, width << 4 | RESOLUTIONS[suffix])
+
+    batch = target.batch(queue_size=1000)
+
+    for name, value in source.xget(row_key, buffer_size=5000):
+        batch.insert(binary_key, { name: value })
+        columns += 1
+
+    batch.send()
+    rows += 1
+
+print 'copied %d columns in %d rows' % (columns, rows)
+
+# close our cassandra connection
+pool.dispose()
+
+# close our connection to mysql
+db.close()
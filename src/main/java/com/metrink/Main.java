@@ -4,10 +4,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.metrink.config.MetrinkCollectorSettings;
-import com.metrink.config.MetrinkSettings;
 import com.metrink.croquet.CroquetRest;
 import com.metrink.croquet.CroquetRestBuilder;
 import com.metrink.inject.CommonModule;
+import com.metrink.inject.ListenerModule;
 
 /**
  * Class that holds the main method for the collector.
@@ -17,9 +17,16 @@ public class Main {
 
     public static void main(final String[] args) {
         final CroquetRest<MetrinkCollectorSettings> croquetRest = createBuilder(args).build();
-        final MetrinkSettings settings = croquetRest.getSettings();
+        final MetrinkCollectorSettings settings = croquetRest.getSettings();
+        final String walDirectory = settings.getAggregationSettings().getWalDirectory();
+
+        // the write-ahead log is checkpointed once the aggregator's writes return, so they must be on disk by then
+        if(walDirectory != null && !walDirectory.isEmpty()) {
+            settings.getEmbeddedSettings().setForceWrites(true);
+        }
 
         croquetRest.addGuiceModule(new CommonModule(settings));
+        croquetRest.addGuiceModule(new ListenerModule(settings));
 
         croquetRest.run();
     }
@@ -0,0 +1,27 @@
+package com.metrink.aggregation;
+
+/**
+ * What the {@link OneMinuteAggregator} does with points for a minute that has already been written.
+ */
+public enum LateDataPolicy {
+    /**
+     * Discard the point.
+     */
+    DROP,
+
+    /**
+     * Merge the point with the minute's written aggregate and write the minute again. Only possible while the minute
+     * is within the rewrite window; older points are dropped.
+     */
+    REWRITE;
+
+    /**
+     * Parses a policy name, ignoring case.
+     * @param name the name of the policy.
+     * @return the policy.
+     * @throws IllegalArgumentException if the name is not a policy.
+     */
+    public static LateDataPolicy fromString(final String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,150 @@
+package com.metrink.aggregation;
+
+import com.metrink.metric.MetricId;
+import com.metrink.metric.MetricRollup;
+
+/**
+ * Running sum, count, min, max, and last value of one metric for one minute.
+ *
+ * Values are folded in as they arrive, so the memory used is constant no matter how many points are reported. Once
+ * {@link #close()} has been called the accumulator accepts no more values; writers that lose that race must start a
+ * new accumulator.
+ */
+public class MetricAccumulator {
+
+    private final String units;
+    private double sum = 0.0;
+    private long count = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double last = 0.0;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private boolean closed = false;
+
+    public MetricAccumulator(final String units) {
+        this.units = units;
+    }
+
+    /**
+     * Folds a value into the accumulator.
+     * @param timestamp the timestamp of the value, used to find the last value.
+     * @param value the value.
+     * @return false if the accumulator has been closed and the value was not added.
+     */
+    public synchronized boolean add(final long timestamp, final double value) {
+        if(closed) {
+            return false;
+        }
+
+        sum += value;
+        count++;
+
+        if(value < min) {
+            min = value;
+        }
+
+        if(value > max) {
+            max = value;
+        }
+
+        if(timestamp >= lastTimestamp) {
+            last = value;
+            lastTimestamp = timestamp;
+        }
+
+        return true;
+    }
+
+    /**
+     * Folds all of the values of another accumulator into this one.
+     * @param other the accumulator to merge.
+     * @return false if this accumulator has been closed and nothing was merged.
+     */
+    public synchronized boolean merge(final MetricAccumulator other) {
+        if(closed) {
+            return false;
+        }
+
+        synchronized(other) {
+            sum += other.sum;
+            count += other.count;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+
+            if(other.lastTimestamp > lastTimestamp) {
+                last = other.last;
+                lastTimestamp = other.lastTimestamp;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Folds a stored rollup into the accumulator, as its last value at the start of the minute.
+     * @param rollup the rollup to merge.
+     * @return false if the accumulator has been closed and nothing was merged.
+     */
+    public synchronized boolean merge(final MetricRollup rollup) {
+        if(closed) {
+            return false;
+        }
+
+        sum += rollup.getSum();
+        count += rollup.getCount();
+        min = Math.min(min, rollup.getMin());
+        max = Math.max(max, rollup.getMax());
+
+        if(rollup.getTimestamp() > lastTimestamp) {
+            last = rollup.getLast();
+            lastTimestamp = rollup.getTimestamp();
+        }
+
+        return true;
+    }
+
+    /**
+     * Stops the accumulator from accepting any more values, so it can be read without losing any.
+     */
+    public synchronized void close() {
+        closed = true;
+    }
+
+    /**
+     * Creates a rollup of the values in the accumulator.
+     * @param id the id of the metric.
+     * @param timestamp the start of the minute.
+     * @return the rollup.
+     */
+    public synchronized MetricRollup toRollup(final MetricId id, final long timestamp) {
+        return new MetricRollup(id, timestamp, count, sum, min, max, last, units);
+    }
+
+    public synchronized double getSum() {
+        return sum;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized double getMin() {
+        return min;
+    }
+
+    public synchronized double getMax() {
+        return max;
+    }
+
+    public synchronized double getLast() {
+        return last;
+    }
+
+    public synchronized double getMean() {
+        return count == 0 ? 0.0 : sum / count;
+    }
+
+    public String getUnits() {
+        return units;
+    }
+}
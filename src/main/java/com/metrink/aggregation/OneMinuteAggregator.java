@@ -1,25 +1,62 @@
 package com.metrink.aggregation;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.metrink.config.AggregationSettings;
+import com.metrink.config.MetrinkCollectorSettings;
 import com.metrink.inject.DateTimeProvider;
 import com.metrink.metric.Metric;
 import com.metrink.metric.MetricId;
-import com.metrink.metric.MetricValue;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.Resolution;
+import com.metrink.metric.io.MetricReader;
 import com.metrink.metric.io.MetricWriter;
 
+/**
+ * Aggregates incoming metrics into one minute buckets and persists them once the minute has closed.
+ *
+ * Each minute is written as a {@link MetricRollup}, so the mean, min, max, sum, count, and last value can all be read
+ * back.
+ *
+ * A minute is closed, and written by run(), once it is more than the allowed lateness in the past. Points that
+ * arrive for a minute that has already been written are handled according to the {@link LateDataPolicy}. Minutes
+ * that have been written, by this process or an earlier one, are merged with the rollup read back from storage before
+ * they are rewritten. The reads are made by the flush threads when the minute is written, never on ingest; a minute
+ * whose rollup can't be read is kept until a later flush can read it.
+ *
+ * The accumulators are split into stripes by {@link MetricId}, so ingest threads rarely contend on the same map, and
+ * run() flushes and writes the stripes in parallel.
+ *
+ * When a write-ahead log directory is configured every batch is appended to a {@link WriteAheadLog} before it is
+ * accumulated, the log is replayed on startup, and it is truncated once run() has written the closed minutes.
+ *
+ * On shutdown {@link #flushAll(long)} writes the closed minutes, and the open ones too unless the log keeps them.
+ */
 @Singleton
 public class OneMinuteAggregator implements Runnable {
 
@@ -27,114 +64,625 @@ public class OneMinuteAggregator implements Runnable {
     private static final long MS_TO_MIN = TimeUnit.MINUTES.toMillis(1);
 
     private final MetricWriter metricWriter;
+    private final MetricReader metricReader;
     private final DateTimeProvider dateTimeProvider;
-    private final ConcurrentLinkedQueue<Metric> metricsQueue = new ConcurrentLinkedQueue<Metric>();
+    private final long allowedLatenessInMs;
+    private final LateDataPolicy lateDataPolicy;
+    private final long rewriteWindowInMs;
+    private final Stripe[] stripes;
+    private final ExecutorService flushExecutor;
+    private final WriteAheadLog writeAheadLog;
+
+    // held by readMetrics while appending and accumulating, and by run() while rolling the log, so every metric in a
+    // rolled segment is in the accumulators before they are flushed
+    private final ReadWriteLock walLock = new ReentrantReadWriteLock();
+
+    // only one flush at a time
+    private final Lock flushLock = new ReentrantLock();
+
+    // every minute at or before this has been written
+    private volatile long watermark = Long.MIN_VALUE;
+
+    // minutes at or before this may have been written before the aggregator started
+    private volatile long writtenBeforeStart = Long.MIN_VALUE;
+    private final AtomicLong droppedLateMetrics = new AtomicLong();
 
     @Inject
-    public OneMinuteAggregator(final MetricWriter metricWriter, final DateTimeProvider dateTimeProvider) {
+    public OneMinuteAggregator(final MetricWriter metricWriter,
+                               final MetricReader metricReader,
+                               final DateTimeProvider dateTimeProvider,
+                               final MetrinkCollectorSettings settings) {
+        final AggregationSettings aggregationSettings = settings.getAggregationSettings();
+        final int stripeCount = aggregationSettings.getStripes() > 0 ?
+                                aggregationSettings.getStripes() :
+                                Runtime.getRuntime().availableProcessors();
+
         this.metricWriter = metricWriter;
+        this.metricReader = metricReader;
         this.dateTimeProvider = dateTimeProvider;
+        this.allowedLatenessInMs = TimeUnit.SECONDS.toMillis(aggregationSettings.getAllowedLatenessSeconds());
+        this.lateDataPolicy = LateDataPolicy.fromString(aggregationSettings.getLateDataPolicy());
+        this.rewriteWindowInMs = TimeUnit.MINUTES.toMillis(aggregationSettings.getRewriteWindowMinutes());
+        this.stripes = new Stripe[stripeCount];
+
+        for(int i=0; i < stripeCount; ++i) {
+            stripes[i] = new Stripe();
+        }
+
+        this.flushExecutor = Executors.newFixedThreadPool(stripeCount,
+                new ThreadFactoryBuilder().setNameFormat("aggregator-flush-%d").setDaemon(true).build());
+
+        this.writeAheadLog = openWriteAheadLog(aggregationSettings);
+
+        final long now = dateTimeProvider.get().getMillis();
+
+        // what is replayed was never written, so only points that arrive from now on are late
+        this.watermark = getBeforeTimeInMs(now);
+
+        // without a log to keep them, flushAll() wrote the minutes that were still open too
+        this.writtenBeforeStart = writeAheadLog != null ? watermark : floorTimestamp(now);
+    }
+
+    /**
+     * Opens the write-ahead log, if one is configured, and replays it into the accumulators.
+     * @return the log, or null if it is disabled.
+     */
+    private WriteAheadLog openWriteAheadLog(final AggregationSettings aggregationSettings) {
+        final String directory = aggregationSettings.getWalDirectory();
+
+        if(directory == null || directory.isEmpty()) {
+            return null;
+        }
+
+        try {
+            final WriteAheadLog ret = new WriteAheadLog(new File(directory),
+                                                        aggregationSettings.getWalSegmentSizeMb() * 1024 * 1024,
+                                                        aggregationSettings.getWalSyncIntervalMs());
+
+            ret.replay(new WriteAheadLog.Replayer() {
+                @Override
+                public void replay(final List<Metric> metrics) {
+                    accumulate(metrics);
+                }
+            });
+
+            return ret;
+        } catch(final IOException e) {
+            throw new IllegalStateException("Unable to open the write-ahead log in " + directory, e);
+        }
     }
 
     /**
-     * Reads an incoming metric.
+     * Reads incoming metrics.
      *
-     * The metric is enqueued and will be persisted when run() is called.
+     * Each metric is folded into the accumulator for its id and minute, and will be persisted when run() is called
+     * after the minute has closed.
      *
-     * @param metric the incoming metric.
+     * @param metrics the incoming metrics.
      */
     public void readMetrics(final List<Metric> metrics) {
-        metricsQueue.addAll(metrics);
+        if(writeAheadLog == null) {
+            accumulate(metrics);
+            return;
+        }
+
+        walLock.readLock().lock();
+
+        try {
+            WriteAheadLog.Entry entry = null;
+
+            try {
+                entry = writeAheadLog.queue(metrics);
+            } catch(final IOException e) {
+                LOG.error("Error appending to the write-ahead log: {}", e.getMessage(), e);
+            } catch(final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            // accumulate while the log writes, then wait for it to be forced
+            accumulate(metrics);
+
+            try {
+                if(entry != null) {
+                    entry.await();
+                }
+            } catch(final IOException e) {
+                LOG.error("Error appending to the write-ahead log: {}", e.getMessage(), e);
+            } catch(final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            walLock.readLock().unlock();
+        }
+    }
+
+    private void accumulate(final List<Metric> metrics) {
+        for(final Metric metric:metrics) {
+            final AccumulatorKey key = new AccumulatorKey(metric.getId(), floorTimestamp(metric.getTimestamp()));
+            final Stripe stripe = stripes[(key.idHash & Integer.MAX_VALUE) % stripes.length];
+
+            if(!stripe.add(key, metric)) {
+                droppedLateMetrics.incrementAndGet();
+            }
+        }
     }
 
     protected long floorTimestamp(long timestamp) {
         return (timestamp / MS_TO_MIN) * MS_TO_MIN;
     }
 
+    /**
+     * Returns the last minute that is closed, and can be written.
+     * @return the start of the last closed minute.
+     */
     protected long getBeforeTimeInMs() {
-        long ret = dateTimeProvider.get().getMillis();
+        return getBeforeTimeInMs(dateTimeProvider.get().getMillis());
+    }
+
+    private long getBeforeTimeInMs(final long now) {
+        return floorTimestamp(now - allowedLatenessInMs - MS_TO_MIN);
+    }
 
-        return floorTimestamp(ret - MS_TO_MIN);
+    /**
+     * Returns the number of points dropped because their minute had already been written.
+     * @return the number of dropped points.
+     */
+    public long getDroppedLateMetrics() {
+        return droppedLateMetrics.get();
     }
 
     /**
-     * Aggregates the metrics and perists them to storage.
+     * Aggregates the metrics for every closed minute and perists them to storage.
      */
     @Override
     public void run() {
         LOG.debug("Running aggregator...");
 
+        flushLock.lock();
+
         // we need this try - catch block so events
         // will continue to run even with exceptions
         try {
-            // fetch metrics from the queue
-            final List<Metric> metrics = getAllMetrics();
+            final long beforeTime = getBeforeTimeInMs();
 
-            // make sure we have work to do
-            if(metrics.size() == 0) {
-                return;
+            // points for these minutes are now late
+            if(beforeTime > watermark) {
+                watermark = beforeTime;
             }
 
-            LOG.debug("Aggregating {} metrics", metrics.size());
+            // everything appended from here on stays in the log until the next run
+            long rolledAt = Long.MAX_VALUE;
 
-            final Multimap<MetricId, MetricValue> aggregatedMetrics = HashMultimap.create();
+            if(writeAheadLog != null) {
+                walLock.writeLock().lock();
 
-            // sort through all the metrics
-            for(Metric metric:metrics) {
-                aggregatedMetrics.put(metric.getId(), metric.getMetricValue());
+                try {
+                    rolledAt = writeAheadLog.roll();
+                } finally {
+                    walLock.writeLock().unlock();
+                }
             }
 
-            final List<Metric> metricsToWrite = new ArrayList<Metric>(metrics.size());
+            final List<FlushTask> tasks = new ArrayList<FlushTask>(stripes.length);
 
-            // go through and do the aggregation and write the metrics
-            for(Map.Entry<MetricId, Collection<MetricValue>> metric:aggregatedMetrics.asMap().entrySet()) {
-                final MetricValue value = metric.getValue().iterator().next();
-                final double size = metric.getValue().size();
+            for(final Stripe stripe:stripes) {
+                tasks.add(new FlushTask(stripe, beforeTime));
+            }
 
-                if(size > 1) {
-                    double sum = 0.0;
+            int written = 0;
+            boolean failed = false;
 
-                    for(MetricValue v:metric.getValue()) {
-                        sum += v.getValue();
-                    }
+            final List<Future<List<MetricRollup>>> futures = flushExecutor.invokeAll(tasks);
 
-                    value.setValue(sum / size);
+            // flush and write every stripe in parallel, then wait for them all
+            for(int i=0; i < tasks.size(); ++i) {
+                try {
+                    written += futures.get(i).get().size();
+                } catch(final ExecutionException e) {
+                    LOG.error("Error flushing aggregator stripe: {}", e.getCause().getMessage(), e.getCause());
+                    failed = true;
                 }
 
-                // make sure we've floored the timestamp
-                value.setTimestamp(floorTimestamp(value.getTimestamp()));
+                // the minutes kept back are only in the log
+                failed |= tasks.get(i).unreadable > 0;
+            }
 
-                // add the metric to our list to eventually write
-                metricsToWrite.add(new Metric(metric.getKey(), value));
+            // every minute up to and including beforeTime that was accumulated before the roll is now in storage
+            if(writeAheadLog != null && !failed) {
+                writeAheadLog.checkpoint(beforeTime + MS_TO_MIN, rolledAt);
             }
 
-            // write all the metrics at once
-            metricWriter.writeMetrics(metricsToWrite);
+            if(written > 0) {
+                LOG.debug("Aggregated {} metrics", written);
+            }
 
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch(Exception e) {
             LOG.error("Caught top-level exception: {}", e.getMessage(), e);
+        } finally {
+            flushLock.unlock();
         }
     }
 
     /**
-     * Removes all of the metrics from the metrics queue.
+     * Writes the minutes still being accumulated, waiting at most the given time for the writes.
      *
-     * This method *should* work for the following reasons:
-     * 1) it should complete before another invocation from run()
-     * 2) any items added the metrics while this is called will be added
-     *    to the end of the queue.
-     * @return A list of metrics that were in the queue.
+     * Called on shutdown once ingest has stopped. With a write-ahead log only the closed minutes are written: the
+     * log is not checkpointed, so the next process replays the rest and writes each minute in full once it closes.
+     * Without a log the open minutes are written as they stand, and the next process merges the points it gets for
+     * them with what was written.
+     *
+     * @param timeoutInMs how long to wait for run() to finish and the writes to complete.
+     * @return the number of points written, the number left for the write-ahead log to replay, and the number dropped
+     * because their write failed or did not finish in time.
+     * @throws InterruptedException if interrupted while waiting.
      */
-    private List<Metric> getAllMetrics() {
-        final List<Metric> ret = new ArrayList<Metric>(); // we don't set the size because it's O(n) for metrics
-        Metric m = metricsQueue.poll();
+    public FlushResult flushAll(final long timeoutInMs) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutInMs;
+
+        if(!flushLock.tryLock(timeoutInMs, TimeUnit.MILLISECONDS)) {
+            LOG.error("Timed out waiting for the aggregator to finish writing");
+            return createFlushResult(0, countPoints());
+        }
+
+        try {
+            final long beforeTime = writeAheadLog != null ? getBeforeTimeInMs() : Long.MAX_VALUE;
+            final List<FlushTask> tasks = new ArrayList<FlushTask>(stripes.length);
+
+            for(final Stripe stripe:stripes) {
+                tasks.add(new FlushTask(stripe, beforeTime));
+            }
+
+            final long remaining = Math.max(0, deadline - System.currentTimeMillis());
+            final List<Future<List<MetricRollup>>> futures =
+                    flushExecutor.invokeAll(tasks, remaining, TimeUnit.MILLISECONDS);
+
+            long flushed = 0;
+            long unwritten = 0;
+
+            for(int i=0; i < tasks.size(); ++i) {
+                try {
+                    flushed += countPoints(futures.get(i).get());
+                } catch(final ExecutionException e) {
+                    LOG.error("Error flushing aggregator stripe: {}", e.getCause().getMessage(), e.getCause());
+                } catch(final CancellationException e) {
+                    // a write that failed after the timeout has already been put back
+                    if(!tasks.get(i).restored) {
+                        unwritten += countPoints(tasks.get(i).rollups);
+                    }
+                }
+            }
+
+            // the open minutes, and the stripes whose tasks never started or whose writes failed
+            unwritten += countPoints();
 
-        while(m != null) {
-            ret.add(m);
-            m = metricsQueue.poll();
+            return createFlushResult(flushed, unwritten);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Every point accumulated is in the write-ahead log until a checkpoint, so with a log nothing unwritten is lost.
+     */
+    private FlushResult createFlushResult(final long flushed, final long unwritten) {
+        return writeAheadLog != null ? new FlushResult(flushed, unwritten, 0) : new FlushResult(flushed, 0, unwritten);
+    }
+
+    private static long countPoints(final List<MetricRollup> rollups) {
+        long ret = 0;
+
+        if(rollups != null) {
+            for(final MetricRollup rollup:rollups) {
+                ret += rollup.getCount();
+            }
+        }
+
+        return ret;
+    }
+
+    private long countPoints() {
+        long ret = 0;
+
+        for(final Stripe stripe:stripes) {
+            for(final MetricAccumulator accumulator:stripe.accumulators.values()) {
+                ret += accumulator.getCount();
+            }
         }
 
         return ret;
     }
 
+    /**
+     * Stops the flush threads and closes the write-ahead log; run() can no longer be called.
+     */
+    public void shutdown() {
+        flushExecutor.shutdown();
+
+        if(writeAheadLog != null) {
+            try {
+                writeAheadLog.close();
+            } catch(final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The outcome of {@link OneMinuteAggregator#flushAll(long)}.
+     */
+    public static class FlushResult {
+        private final long flushedPoints;
+        private final long loggedPoints;
+        private final long droppedPoints;
+
+        public FlushResult(final long flushedPoints, final long loggedPoints, final long droppedPoints) {
+            this.flushedPoints = flushedPoints;
+            this.loggedPoints = loggedPoints;
+            this.droppedPoints = droppedPoints;
+        }
+
+        /**
+         * Get flushedPoints.
+         * @return the flushedPoints
+         */
+        public long getFlushedPoints() {
+            return flushedPoints;
+        }
+
+        /**
+         * Get loggedPoints, the points left unwritten for the write-ahead log to replay on the next start.
+         * @return the loggedPoints
+         */
+        public long getLoggedPoints() {
+            return loggedPoints;
+        }
+
+        /**
+         * Get droppedPoints.
+         * @return the droppedPoints
+         */
+        public long getDroppedPoints() {
+            return droppedPoints;
+        }
+    }
+
+    /**
+     * Flushes and writes one stripe.
+     */
+    private class FlushTask implements Callable<List<MetricRollup>> {
+        private final Stripe stripe;
+        private final long beforeTime;
+
+        // what was removed from the stripe, even if writing it fails
+        private volatile List<MetricRollup> rollups;
+
+        // whether a failed write was put back in the stripe, to be written by the next flush
+        private volatile boolean restored = false;
+
+        // minutes kept back because their stored rollup couldn't be read
+        private volatile int unreadable = 0;
+
+        FlushTask(final Stripe stripe, final long beforeTime) {
+            this.stripe = stripe;
+            this.beforeTime = beforeTime;
+        }
+
+        @Override
+        public List<MetricRollup> call() {
+            unreadable = stripe.mergeStored(beforeTime);
+
+            final List<MetricRollup> metricsToWrite = stripe.flush(beforeTime);
+
+            rollups = metricsToWrite;
+
+            // make sure we have work to do
+            if(!metricsToWrite.isEmpty()) {
+                try {
+                    metricWriter.writeRollups(metricsToWrite);
+                } catch(final RuntimeException e) {
+                    // keep them for the next flush; the log is not checkpointed, so they are replayed if we stop first
+                    stripe.restore(metricsToWrite);
+                    restored = true;
+                    throw e;
+                }
+            }
+
+            return metricsToWrite;
+        }
+    }
+
+    /**
+     * One stripe of the accumulators.
+     */
+    private class Stripe {
+        private final ConcurrentMap<AccumulatorKey, MetricAccumulator> accumulators =
+                new ConcurrentHashMap<AccumulatorKey, MetricAccumulator>();
+
+        // accumulators of minutes that may have been written, to merge with the stored rollup before they're written;
+        // keyed to the instance, as one that loses the race to be added is never merged
+        private final ConcurrentMap<AccumulatorKey, MetricAccumulator> unmerged =
+                new ConcurrentHashMap<AccumulatorKey, MetricAccumulator>();
+
+        /**
+         * Folds a metric into its accumulator.
+         * @return false if the metric was dropped because it is late.
+         */
+        boolean add(final AccumulatorKey key, final Metric metric) {
+            while(true) {
+                MetricAccumulator accumulator = accumulators.get(key);
+
+                if(accumulator == null) {
+                    final MetricAccumulator newAccumulator = createAccumulator(key, metric.getUnits());
+
+                    if(newAccumulator == null) {
+                        return false;
+                    }
+
+                    accumulator = accumulators.putIfAbsent(key, newAccumulator);
+
+                    if(accumulator == null) {
+                        accumulator = newAccumulator;
+                    } else {
+                        unmerged.remove(key, newAccumulator);
+                    }
+                }
+
+                if(accumulator.add(metric.getTimestamp(), metric.getValue())) {
+                    return true;
+                }
+
+                // run() closed this accumulator after we looked it up, so start a new one
+                accumulators.remove(key, accumulator);
+            }
+        }
+
+        /**
+         * Creates the accumulator for a minute, applying the late data policy if the minute has already been written.
+         * @return the accumulator, or null if the metric should be dropped.
+         */
+        private MetricAccumulator createAccumulator(final AccumulatorKey key, final String units) {
+            final MetricAccumulator ret = new MetricAccumulator(units);
+
+            if(key.timestamp > watermark) {
+                // a minute that was still open when an earlier process wrote it on shutdown
+                if(key.timestamp <= writtenBeforeStart) {
+                    unmerged.put(key, ret);
+                }
+
+                return ret;
+            }
+
+            if(lateDataPolicy == LateDataPolicy.DROP || key.timestamp < watermark - rewriteWindowInMs) {
+                return null;
+            }
+
+            // the rewrite starts from what was written, read back when it's flushed
+            unmerged.put(key, ret);
+
+            return ret;
+        }
+
+        /**
+         * Merges the stored rollups into the accumulators of closed minutes that may have been written.
+         * @param beforeTime the last closed minute.
+         * @return the number of minutes whose stored rollup couldn't be read, which are left for a later flush.
+         */
+        int mergeStored(final long beforeTime) {
+            int unreadable = 0;
+
+            for(final Map.Entry<AccumulatorKey, MetricAccumulator> entry:unmerged.entrySet()) {
+                final AccumulatorKey key = entry.getKey();
+                final MetricAccumulator accumulator = entry.getValue();
+
+                // one not added yet is either about to be, or about to be removed by the thread that lost the race
+                if(key.timestamp > beforeTime || accumulators.get(key) != accumulator) {
+                    continue;
+                }
+
+                final List<MetricRollup> stored;
+
+                try {
+                    stored = metricReader.readRollups(key.id, Resolution.ONE_MINUTE, key.timestamp, key.timestamp + MS_TO_MIN - 1);
+                } catch(final RuntimeException e) {
+                    // rewriting the minute without what was stored would lose it
+                    LOG.error("Error reading the stored rollup of {} at {}, keeping the minute: {}",
+                              new Object[] { key.id, key.timestamp, e.getMessage() });
+                    unreadable++;
+                    continue;
+                }
+
+                for(final MetricRollup rollup:stored) {
+                    accumulator.merge(rollup);
+                }
+
+                unmerged.remove(key, accumulator);
+            }
+
+            return unreadable;
+        }
+
+        /**
+         * Removes every closed minute.
+         * @param beforeTime the last closed minute.
+         * @return the rollups of the closed minutes.
+         */
+        List<MetricRollup> flush(final long beforeTime) {
+            final List<MetricRollup> ret = new ArrayList<MetricRollup>();
+            final Iterator<Map.Entry<AccumulatorKey, MetricAccumulator>> it = accumulators.entrySet().iterator();
+
+            while(it.hasNext()) {
+                final Map.Entry<AccumulatorKey, MetricAccumulator> entry = it.next();
+                final AccumulatorKey key = entry.getKey();
+                final MetricAccumulator accumulator = entry.getValue();
+
+                // not merged with the stored rollup yet, or added since mergeStored()
+                if(key.timestamp > beforeTime || unmerged.get(key) == accumulator) {
+                    continue;
+                }
+
+                // close it before removing it, so new values start a fresh one
+                accumulator.close();
+                it.remove();
+
+                ret.add(accumulator.toRollup(key.id, key.timestamp));
+            }
+
+            return ret;
+        }
+
+        /**
+         * Puts back minutes whose write failed, so the next flush writes them again.
+         *
+         * A minute that already has an accumulator again, for late points, takes the failed rollup. That rollup was
+         * already merged with what was stored, so the accumulator no longer needs to be.
+         */
+        void restore(final List<MetricRollup> rollups) {
+            for(final MetricRollup rollup:rollups) {
+                final AccumulatorKey key = new AccumulatorKey(rollup.getId(), rollup.getTimestamp());
+                final MetricAccumulator accumulator = new MetricAccumulator(rollup.getUnits());
+
+                accumulator.merge(rollup);
+
+                final MetricAccumulator existing = accumulators.putIfAbsent(key, accumulator);
+
+                if(existing != null) {
+                    existing.merge(accumulator);
+                    unmerged.remove(key, existing);
+                }
+            }
+        }
+    }
+
+    /**
+     * Key of an accumulator: a metric id and the minute it is for.
+     */
+    private static final class AccumulatorKey {
+        private final MetricId id;
+        private final int idHash;
+        private final long timestamp;
+
+        AccumulatorKey(final MetricId id, final long timestamp) {
+            this.id = id;
+            this.idHash = id.hashCode();
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if(!(obj instanceof AccumulatorKey)) {
+                return false;
+            }
+
+            final AccumulatorKey key = (AccumulatorKey) obj;
+
+            return timestamp == key.timestamp && idHash == key.idHash && id.equals(key.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * idHash + (int) (timestamp ^ (timestamp >>> 32));
+        }
+    }
 }
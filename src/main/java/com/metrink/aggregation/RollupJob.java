@@ -0,0 +1,254 @@
+package com.metrink.aggregation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.metrink.config.MetrinkCollectorSettings;
+import com.metrink.inject.DateTimeProvider;
+import com.metrink.metric.MetricId;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.Resolution;
+import com.metrink.metric.io.MetricMetadata;
+import com.metrink.metric.io.MetricReaderWriter;
+
+/**
+ * Rolls the stored metrics up into the coarser {@link Resolution}s.
+ *
+ * Each run rolls up every period that has closed since the last run, building each resolution from the next finer
+ * one: five minutes from one minute, one hour from five minutes, and one day from one hour. A period is only rolled
+ * up once the rollup delay has passed, giving the {@link OneMinuteAggregator} time to write its last minute. Rolling
+ * up a period again simply rewrites it.
+ *
+ * The periods are rolled up a day at a time, reading and writing {@link #BATCH_IDS} metrics at once. How far each
+ * resolution has been rolled up is stored after every day, as a rollup of the metric {@link #getMarkId(Resolution)},
+ * so a restart carries on where the last process stopped. The first run ever only rolls up the last closed period;
+ * reads of earlier ranges fall back to the finer resolutions, see {@link Resolution#setBuiltFrom(long)}.
+ */
+@Singleton
+public class RollupJob implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(RollupJob.class);
+
+    // metrics read and written together
+    static final int BATCH_IDS = 500;
+
+    // the most time rolled up before the mark is stored
+    private static final long CHUNK_MS = Resolution.ONE_DAY.getDurationInMs();
+
+    // how far back the stored mark is looked for
+    private static final long MARK_LOOKBACK_MS = TimeUnit.DAYS.toMillis(31);
+
+    private final MetricReaderWriter metricReaderWriter;
+    private final MetricMetadata metadata;
+    private final DateTimeProvider dateTimeProvider;
+    private final long rollupDelayInMs;
+
+    // the end of the last period rolled up for each resolution, loaded from the stored marks on the first run
+    private final Map<Resolution, Long> rolledUpTo = new EnumMap<Resolution, Long>(Resolution.class);
+
+    @Inject
+    public RollupJob(final MetricReaderWriter metricReaderWriter,
+                     final MetricMetadata metadata,
+                     final DateTimeProvider dateTimeProvider,
+                     final MetrinkCollectorSettings settings) {
+        this.metricReaderWriter = metricReaderWriter;
+        this.metadata = metadata;
+        this.dateTimeProvider = dateTimeProvider;
+        this.rollupDelayInMs = TimeUnit.SECONDS.toMillis(settings.getAggregationSettings().getRollupDelaySeconds());
+    }
+
+    @Override
+    public synchronized void run() {
+        // we need this try - catch block so events
+        // will continue to run even with exceptions
+        try {
+            final long closedBefore = dateTimeProvider.get().getMillis() - rollupDelayInMs;
+            List<MetricId> ids = null;
+
+            // finest first, as each resolution is built from the one before it
+            for(final Resolution resolution:Resolution.values()) {
+                if(resolution.getSource() == null) {
+                    continue;
+                }
+
+                // only what has been rolled up at the source can be, the source failing leaves this one behind too
+                final Long sourceEnd = rolledUpTo.get(resolution.getSource());
+                final long end = resolution.floor(sourceEnd == null ? closedBefore : Math.min(closedBefore, sourceEnd));
+
+                if(!rolledUpTo.containsKey(resolution)) {
+                    loadMark(resolution, end);
+                }
+
+                final long start = rolledUpTo.get(resolution);
+
+                if(start >= end) {
+                    continue;
+                }
+
+                if(ids == null) {
+                    ids = new ArrayList<MetricId>(metadata.readUniqueMetrics());
+
+                    // writing the marks adds them to the metadata, they aren't rolled up themselves
+                    for(final Resolution markResolution:Resolution.values()) {
+                        ids.remove(getMarkId(markResolution));
+                    }
+                }
+
+                for(long chunkStart = start; chunkStart < end; ) {
+                    final long chunkEnd = Math.min(end, chunkStart + Math.max(CHUNK_MS, resolution.getDurationInMs()));
+                    final int written = rollup(ids, resolution, chunkStart, chunkEnd);
+
+                    writeMark(resolution, chunkEnd);
+
+                    LOG.debug("Rolled up {} {} periods between {} and {}", new Object[] { written, resolution, chunkStart, chunkEnd });
+
+                    chunkStart = chunkEnd;
+                }
+            }
+        } catch(final Exception e) {
+            LOG.error("Caught top-level exception: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the metric the progress of a resolution is stored under.
+     * @param resolution the resolution.
+     * @return the id of the metric.
+     */
+    static MetricId getMarkId(final Resolution resolution) {
+        return new MetricId("metrink", "rollup", resolution.getSuffix());
+    }
+
+    /**
+     * Loads how far a resolution was rolled up by an earlier process.
+     *
+     * The mark is the last rollup of {@link #getMarkId(Resolution)}, one period long and ending where the rolling up
+     * did, whose value is the start of the first period rolled up. Without one, the last closed period is the first,
+     * or the first one that the source resolution has been rolled up for all of.
+     *
+     * @param resolution the resolution.
+     * @param end the end of the last closed period.
+     */
+    private void loadMark(final Resolution resolution, final long end) {
+        final List<MetricRollup> marks = metricReaderWriter.readRollups(getMarkId(resolution), resolution, end - MARK_LOOKBACK_MS, end);
+
+        if(marks.isEmpty()) {
+            final long sourceBuiltFrom = resolution.getSource().getBuiltFrom();
+            final long start = Math.max(end - resolution.getDurationInMs(),
+                                        resolution.floor(sourceBuiltFrom + resolution.getDurationInMs() - 1));
+
+            LOG.info("No {} rollups found, rolling up from {}", resolution, start);
+            rolledUpTo.put(resolution, start);
+            resolution.setBuiltFrom(start);
+        } else {
+            final MetricRollup mark = marks.get(marks.size() - 1);
+
+            rolledUpTo.put(resolution, mark.getTimestamp() + resolution.getDurationInMs());
+            resolution.setBuiltFrom((long) mark.getLast());
+        }
+    }
+
+    /**
+     * Stores how far a resolution has been rolled up.
+     * @param resolution the resolution.
+     * @param end the end of the last period rolled up.
+     */
+    private void writeMark(final Resolution resolution, final long end) {
+        final double builtFrom = resolution.getBuiltFrom();
+        final MetricRollup mark = new MetricRollup(getMarkId(resolution), end - resolution.getDurationInMs(),
+                                                   1, builtFrom, builtFrom, builtFrom, builtFrom, null);
+
+        metricReaderWriter.writeRollups(resolution, Arrays.asList(mark));
+        rolledUpTo.put(resolution, end);
+    }
+
+    /**
+     * Rolls up every metric for the periods in the given range, {@link #BATCH_IDS} metrics at a time.
+     *
+     * A batch that fails to read or write doesn't stop the others, but the range is rolled up again by the next run.
+     *
+     * @param ids the metrics to roll up.
+     * @param resolution the resolution to write.
+     * @param start the start of the first period.
+     * @param end the end of the last period, exclusive.
+     * @return the number of rollups written.
+     * @throws IllegalStateException if any batch failed.
+     */
+    private int rollup(final List<MetricId> ids, final Resolution resolution, final long start, final long end) {
+        int written = 0;
+        int failed = 0;
+
+        for(int i=0; i < ids.size(); i += BATCH_IDS) {
+            final List<MetricId> batch = ids.subList(i, Math.min(ids.size(), i + BATCH_IDS));
+
+            try {
+                final Map<MetricId, List<MetricRollup>> source =
+                        metricReaderWriter.readRollups(batch, resolution.getSource(), start, end - 1);
+                final List<MetricRollup> rollups = new ArrayList<MetricRollup>();
+
+                for(final MetricId id:batch) {
+                    combine(id, resolution, source.get(id), rollups);
+                }
+
+                if(!rollups.isEmpty()) {
+                    metricReaderWriter.writeRollups(resolution, rollups);
+                }
+
+                written += rollups.size();
+            } catch(final RuntimeException e) {
+                LOG.error("Error rolling up {} metrics at {}: {}", new Object[] { batch.size(), resolution, e.getMessage() });
+                failed += batch.size();
+            }
+        }
+
+        if(failed > 0) {
+            throw new IllegalStateException("Unable to roll up " + failed + " metrics at " + resolution + " from " + start);
+        }
+
+        return written;
+    }
+
+    /**
+     * Combines the source rollups of a metric into one rollup per period.
+     * @param id the metric.
+     * @param resolution the resolution to combine into.
+     * @param source the source rollups in time order, may be null.
+     * @param rollups where the combined rollups are added.
+     */
+    private static void combine(final MetricId id,
+                                final Resolution resolution,
+                                final List<MetricRollup> source,
+                                final List<MetricRollup> rollups) {
+        if(source == null) {
+            return;
+        }
+
+        final List<MetricRollup> period = new ArrayList<MetricRollup>();
+        long periodStart = -1;
+
+        // the source rollups are in time order, so each period is a contiguous run of them
+        for(final MetricRollup rollup:source) {
+            final long rollupPeriod = resolution.floor(rollup.getTimestamp());
+
+            if(rollupPeriod != periodStart && !period.isEmpty()) {
+                rollups.add(MetricRollup.combine(id, periodStart, period));
+                period.clear();
+            }
+
+            periodStart = rollupPeriod;
+            period.add(rollup);
+        }
+
+        if(!period.isEmpty()) {
+            rollups.add(MetricRollup.combine(id, periodStart, period));
+        }
+    }
+}
@@ -0,0 +1,708 @@
+package com.metrink.aggregation;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.metrink.metric.Metric;
+import com.metrink.metric.MetricId;
+
+/**
+ * Append-only log of the metrics the {@link OneMinuteAggregator} has accepted but not yet written.
+ *
+ * The log is a directory of memory-mapped segment files. Each batch passed to {@link #append(List)} becomes one
+ * record:
+ *
+ * <pre>
+ * int       payload length, 0 marks the end of the segment
+ * int       CRC32 of the payload
+ * int       metric count
+ * metric[]  int id, [utf device, utf group, utf name], int units, [utf units], long timestamp, double value
+ * </pre>
+ *
+ * Each record numbers the ids and units it has seen, so they are only spelled out the first time: an id of -1 is
+ * followed by the id's strings and gives it the next number, a units of -2 is followed by the units and gives them
+ * the next number, and a units of -1 means none. Records stand alone so the appending threads can encode them.
+ *
+ * A single writer thread copies the queued records into the mapped segment and forces it to disk, and
+ * {@link #append(List)} returns once its record has been forced. Every batch appended while a force is running shares
+ * the next one (group commit), so the more threads append at once the fewer forces each batch pays for; a single
+ * appending thread pays for one force per batch.
+ *
+ * The aggregator calls {@link #roll()} before it writes the closed minutes, so every record before the position it
+ * returns was accumulated before the write. Once every minute before some time is written it calls
+ * {@link #checkpoint(long, long)} with that time and position, which deletes the closed segments before the position
+ * holding nothing newer. On startup {@link #replay(Replayer)} hands back every metric after the checkpoint's
+ * position, whatever its time, as a late point may not have been written, and the metrics before it that are newer
+ * than the checkpoint's time.
+ */
+public class WriteAheadLog {
+    private static final Logger LOG = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("wal-(\\d+)\\.log");
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAX_QUEUED_BATCHES = 4096;
+    private static final int NEW_ENTRY = -1;
+    private static final int NEW_UNITS = -2;
+
+    /**
+     * Receives the metrics read back from the log.
+     */
+    public interface Replayer {
+        public void replay(List<Metric> metrics);
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final long syncIntervalInMs;
+    private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<Entry>(MAX_QUEUED_BATCHES);
+    private final ThreadLocal<RecordEncoder> encoders = new ThreadLocal<RecordEncoder>() {
+        @Override
+        protected RecordEncoder initialValue() {
+            return new RecordEncoder();
+        }
+    };
+    private final Thread writerThread;
+    private volatile boolean closed;
+
+    // closed segments, by id
+    private final TreeMap<Long, Segment> closedSegments = new TreeMap<Long, Segment>();
+    private Segment current;
+    private long nextSegmentId = 0;
+
+    // the time and position of the last checkpoint; one written without a position has every segment before it
+    private long checkpoint = Long.MIN_VALUE;
+    private long checkpointSegment = Long.MAX_VALUE;
+
+    /**
+     * Opens the log, creating the directory if needed.
+     * @param directory the directory of the segment files.
+     * @param segmentSize the size of each segment file in bytes.
+     * @param syncIntervalInMs the least time between forces, 0 to force as soon as a batch is written.
+     * @throws IOException if the directory or checkpoint cannot be read.
+     */
+    public WriteAheadLog(final File directory, final int segmentSize, final long syncIntervalInMs) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncIntervalInMs = Math.max(0, syncIntervalInMs);
+
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create write-ahead log directory: " + directory);
+        }
+
+        final File checkpointFile = new File(directory, CHECKPOINT_FILE);
+
+        if(checkpointFile.exists()) {
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(checkpointFile.toPath())));
+            checkpoint = in.readLong();
+
+            // checkpoints written before positions were recorded have only the time
+            if(in.available() >= 8) {
+                checkpointSegment = in.readLong();
+                nextSegmentId = checkpointSegment;
+            }
+        }
+
+        this.writerThread = new Thread(new Writer(), "wal-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Reads every segment left by a previous process, handing back the metrics after the last checkpoint.
+     *
+     * Must be called once, before the first append.
+     *
+     * @param replayer receives the metrics, one record at a time.
+     * @return the number of metrics replayed.
+     * @throws IOException if a segment cannot be read.
+     */
+    public synchronized int replay(final Replayer replayer) throws IOException {
+        final TreeMap<Long, File> files = new TreeMap<Long, File>();
+        int replayed = 0;
+
+        for(final File file:listFiles()) {
+            final Matcher matcher = SEGMENT_PATTERN.matcher(file.getName());
+
+            if(matcher.matches()) {
+                files.put(Long.parseLong(matcher.group(1)), file);
+            }
+        }
+
+        for(final Long id:files.keySet()) {
+            final Segment segment = new Segment(id, files.get(id), (int) files.get(id).length());
+            final long after = id >= checkpointSegment ? Long.MIN_VALUE : checkpoint;
+
+            nextSegmentId = Math.max(nextSegmentId, id + 1);
+
+            while(true) {
+                final List<Metric> metrics = segment.readRecord();
+
+                if(metrics == null) {
+                    break;
+                }
+
+                final List<Metric> newer = new ArrayList<Metric>(metrics.size());
+
+                for(final Metric metric:metrics) {
+                    if(metric.getTimestamp() >= after) {
+                        newer.add(metric);
+                    }
+                }
+
+                if(!newer.isEmpty()) {
+                    replayer.replay(newer);
+                    replayed += newer.size();
+                }
+            }
+
+            closedSegments.put(id, segment);
+        }
+
+        if(replayed > 0) {
+            LOG.info("Replayed {} metrics from {} write-ahead log segments", replayed, files.size());
+        }
+
+        return replayed;
+    }
+
+    /**
+     * Writes the metrics as one record, waiting until it has been forced to disk.
+     * @param metrics the metrics.
+     * @throws IOException if the log has been closed, or the record could not be written.
+     * @throws InterruptedException if interrupted while waiting for the writer.
+     */
+    public void append(final List<Metric> metrics) throws IOException, InterruptedException {
+        queue(metrics).await();
+    }
+
+    /**
+     * Encodes the metrics as one record and queues it to be written, without waiting.
+     * @param metrics the metrics.
+     * @return the queued record, whose {@link Entry#await()} returns once it has been forced to disk.
+     * @throws IOException if the log has been closed, or the metrics can't be encoded.
+     * @throws InterruptedException if interrupted while waiting for room in the queue.
+     */
+    Entry queue(final List<Metric> metrics) throws IOException, InterruptedException {
+        if(closed) {
+            throw new IOException("Write-ahead log is closed");
+        }
+
+        Entry entry = new Entry(null, 0);
+
+        if(!metrics.isEmpty()) {
+            final RecordEncoder encoder = encoders.get();
+            final int length = encoder.encode(metrics);
+
+            entry = new Entry(Arrays.copyOf(encoder.buf, length), encoder.maxTimestamp);
+        }
+
+        queue.put(entry);
+
+        return entry;
+    }
+
+    /**
+     * Waits until everything appended so far has been written and forced to disk.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void sync() throws InterruptedException {
+        final Entry entry = new Entry(null, 0);
+
+        queue.put(entry);
+
+        try {
+            entry.await();
+        } catch(final IOException e) {
+            // already logged by the writer
+        }
+    }
+
+    /**
+     * Closes the current segment, so that the next record starts a new one.
+     *
+     * Records still queued are written to the new segment.
+     *
+     * @return the position after every record written so far: the id of the segment the next record starts.
+     */
+    public synchronized long roll() {
+        if(current != null && current.hasRecords()) {
+            current.force();
+            closedSegments.put(current.id, current);
+            current = null;
+        }
+
+        return current != null ? current.id : nextSegmentId;
+    }
+
+    /**
+     * Records that every metric before a position in the log has been accumulated, and that those older than the
+     * given time have been written, and deletes the closed segments before the position that hold nothing newer.
+     * @param writtenBefore every metric before the position with a timestamp before this has been written.
+     * @param position the position returned by {@link #roll()} before the metrics were written.
+     * @throws IOException if the checkpoint cannot be written.
+     */
+    public void checkpoint(final long writtenBefore, final long position) throws IOException {
+        final File checkpointFile = new File(directory, CHECKPOINT_FILE);
+        final File tmpFile = new File(directory, CHECKPOINT_FILE + ".tmp");
+        final FileOutputStream fos = new FileOutputStream(tmpFile);
+
+        try {
+            final DataOutputStream out = new DataOutputStream(fos);
+            out.writeLong(writtenBefore);
+            out.writeLong(position);
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+
+        Files.move(tmpFile.toPath(), checkpointFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        final List<Segment> deletable = new ArrayList<Segment>();
+
+        synchronized(this) {
+            checkpoint = writtenBefore;
+            checkpointSegment = position;
+
+            final Iterator<Segment> it = closedSegments.headMap(position).values().iterator();
+
+            while(it.hasNext()) {
+                final Segment segment = it.next();
+
+                if(segment.maxTimestamp < writtenBefore) {
+                    deletable.add(segment);
+                    it.remove();
+                }
+            }
+        }
+
+        for(final Segment segment:deletable) {
+            if(!segment.file.delete()) {
+                LOG.warn("Unable to delete write-ahead log segment: {}", segment.file);
+            }
+        }
+    }
+
+    /**
+     * Writes and forces everything appended so far, and stops the writer thread. The segments are kept for the next
+     * replay.
+     * @throws InterruptedException if interrupted while waiting for the writer.
+     */
+    public void close() throws InterruptedException {
+        if(closed) {
+            return;
+        }
+
+        closed = true;
+        sync();
+        writerThread.interrupt();
+        writerThread.join();
+    }
+
+    /**
+     * Returns the number of segment files, open or closed.
+     * @return the number of segments.
+     */
+    public synchronized int getSegmentCount() {
+        return closedSegments.size() + (current == null ? 0 : 1);
+    }
+
+    /**
+     * Writes a record, starting a new segment if it does not fit in the current one.
+     */
+    private synchronized void write(final Entry entry) throws IOException {
+        // the record, and the end marker after it, must fit
+        if(current != null && entry.record.length + 4 <= current.remaining()) {
+            current.write(entry);
+            return;
+        }
+
+        roll();
+
+        final long id = nextSegmentId++;
+        final File file = new File(directory, String.format("wal-%019d.log", id));
+
+        current = new Segment(id, file, Math.max(segmentSize, entry.record.length + 4));
+        current.write(entry);
+    }
+
+    private synchronized Segment getCurrent() {
+        return current;
+    }
+
+    private File[] listFiles() {
+        final File[] ret = directory.listFiles();
+        return ret == null ? new File[0] : ret;
+    }
+
+    /**
+     * A queued record, or a request to sync, waiting for the force that covers it.
+     */
+    static class Entry {
+        private final byte[] record;
+        private final long maxTimestamp;
+        private final CountDownLatch forced = new CountDownLatch(1);
+        private volatile IOException error;
+
+        Entry(final byte[] record, final long maxTimestamp) {
+            this.record = record;
+            this.maxTimestamp = maxTimestamp;
+        }
+
+        void done(final IOException error) {
+            this.error = error;
+            forced.countDown();
+        }
+
+        /**
+         * Waits until the record has been forced to disk.
+         * @throws IOException if it could not be written.
+         * @throws InterruptedException if interrupted while waiting.
+         */
+        void await() throws IOException, InterruptedException {
+            forced.await();
+
+            if(error != null) {
+                throw new IOException("Unable to write to the write-ahead log", error);
+            }
+        }
+    }
+
+    /**
+     * Writes the queued batches and forces them, then releases their appenders; the batches queued meanwhile share
+     * the next force.
+     */
+    private class Writer implements Runnable {
+        private final List<Entry> batch = new ArrayList<Entry>();
+        private long lastSync = 0;
+
+        @Override
+        public void run() {
+            try {
+                while(true) {
+                    batch.add(queue.take());
+
+                    // wait out the sync interval, gathering more batches for the force
+                    final long wait = lastSync + syncIntervalInMs - System.currentTimeMillis();
+
+                    if(wait > 0) {
+                        Thread.sleep(wait);
+                    }
+
+                    queue.drainTo(batch);
+
+                    IOException error = null;
+
+                    try {
+                        for(final Entry entry:batch) {
+                            if(entry.record != null) {
+                                write(entry);
+                            }
+                        }
+
+                        final Segment segment = getCurrent();
+
+                        if(segment != null) {
+                            segment.force();
+                        }
+                    } catch(final IOException e) {
+                        LOG.error("Error writing to the write-ahead log: {}", e.getMessage(), e);
+                        error = e;
+                    } catch(final RuntimeException e) {
+                        LOG.error("Error writing to the write-ahead log: {}", e.getMessage(), e);
+                        error = new IOException(e);
+                    }
+
+                    lastSync = System.currentTimeMillis();
+                    release(error);
+                }
+            } catch(final InterruptedException e) {
+                // nothing more is written, so nobody may be left waiting
+                queue.drainTo(batch);
+                release(new IOException("Write-ahead log is closed"));
+            }
+        }
+
+        private void release(final IOException error) {
+            for(final Entry entry:batch) {
+                entry.done(error);
+            }
+
+            batch.clear();
+        }
+    }
+
+    /**
+     * Encodes a record into a reusable buffer, writing strings in the modified UTF-8 read by
+     * {@link DataInputStream#readUTF()}.
+     */
+    private static class RecordEncoder {
+        private final CRC32 crc = new CRC32();
+        private final Map<MetricId, Integer> ids = new HashMap<MetricId, Integer>();
+        private final Map<String, Integer> unitNumbers = new HashMap<String, Integer>();
+        private byte[] buf = new byte[64 * 1024];
+        private int pos;
+        private long maxTimestamp;
+
+        /**
+         * Encodes the metrics as a record, numbering the ids and units in it.
+         * @return the length of the record, including the header.
+         */
+        int encode(final List<Metric> metrics) throws IOException {
+            pos = RECORD_HEADER_SIZE; // the header is filled in below
+            maxTimestamp = Long.MIN_VALUE;
+            ids.clear();
+            unitNumbers.clear();
+
+            writeInt(metrics.size());
+
+            for(final Metric metric:metrics) {
+                final MetricId id = metric.getId();
+                final Integer idNumber = ids.get(id);
+
+                if(idNumber != null) {
+                    writeInt(idNumber);
+                } else {
+                    ids.put(id, ids.size());
+                    writeInt(NEW_ENTRY);
+                    writeString(id.getDevice());
+                    writeString(id.getGroupName());
+                    writeString(id.getName());
+                }
+
+                final String units = metric.getUnits();
+
+                if(units == null) {
+                    writeInt(NEW_ENTRY);
+                } else {
+                    final Integer unitsNumber = unitNumbers.get(units);
+
+                    if(unitsNumber != null) {
+                        writeInt(unitsNumber);
+                    } else {
+                        unitNumbers.put(units, unitNumbers.size());
+                        writeInt(NEW_UNITS);
+                        writeString(units);
+                    }
+                }
+
+                writeLong(metric.getTimestamp());
+                writeLong(Double.doubleToRawLongBits(metric.getValue()));
+
+                maxTimestamp = Math.max(maxTimestamp, metric.getTimestamp());
+            }
+
+            final int length = pos - RECORD_HEADER_SIZE;
+
+            crc.reset();
+            crc.update(buf, RECORD_HEADER_SIZE, length);
+
+            pos = 0;
+            writeInt(length);
+            writeInt((int) crc.getValue());
+            pos = length + RECORD_HEADER_SIZE;
+
+            return pos;
+        }
+
+        void writeInt(final int v) {
+            ensure(4);
+            buf[pos++] = (byte) (v >>> 24);
+            buf[pos++] = (byte) (v >>> 16);
+            buf[pos++] = (byte) (v >>> 8);
+            buf[pos++] = (byte) v;
+        }
+
+        void writeLong(final long v) {
+            writeInt((int) (v >>> 32));
+            writeInt((int) v);
+        }
+
+        void writeString(final String s) throws IOException {
+            final int length = s == null ? 0 : s.length();
+
+            // worst case is three bytes per char, plus the two byte length
+            ensure(2 + length * 3);
+
+            final int start = pos;
+            pos += 2;
+
+            for(int i=0; i < length; ++i) {
+                final char c = s.charAt(i);
+
+                if(c >= 0x0001 && c <= 0x007F) {
+                    buf[pos++] = (byte) c;
+                } else if(c <= 0x07FF) {
+                    buf[pos++] = (byte) (0xC0 | ((c >> 6) & 0x1F));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3F));
+                } else {
+                    buf[pos++] = (byte) (0xE0 | ((c >> 12) & 0x0F));
+                    buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+
+            final int utfLength = pos - start - 2;
+
+            if(utfLength > 0xFFFF) {
+                throw new IOException("String too long for the write-ahead log: " + utfLength + " bytes");
+            }
+
+            buf[start] = (byte) (utfLength >>> 8);
+            buf[start + 1] = (byte) utfLength;
+        }
+
+        private void ensure(final int size) {
+            if(pos + size > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + size));
+            }
+        }
+    }
+
+    /**
+     * One memory-mapped segment file.
+     */
+    private static class Segment {
+        private final long id;
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private long maxTimestamp = Long.MIN_VALUE;
+
+        // the numbered ids and units of the record being read
+        private final List<MetricId> readIds = new ArrayList<MetricId>();
+        private final List<String> readUnits = new ArrayList<String>();
+
+        Segment(final long id, final File file, final int size) throws IOException {
+            this.id = id;
+            this.file = file;
+
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+            try {
+                // the mapping stays valid after the channel is closed
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } finally {
+                raf.close();
+            }
+        }
+
+        int remaining() {
+            return buffer.remaining();
+        }
+
+        boolean hasRecords() {
+            return buffer.position() > 0;
+        }
+
+        void write(final Entry entry) {
+            final int pos = buffer.position();
+
+            // write the length last, so a torn record reads as the end of the segment
+            buffer.position(pos + 4);
+            buffer.put(entry.record, 4, entry.record.length - 4);
+            buffer.putInt(pos, entry.record.length - RECORD_HEADER_SIZE);
+
+            maxTimestamp = Math.max(maxTimestamp, entry.maxTimestamp);
+        }
+
+        /**
+         * Reads the next record.
+         * @return the metrics in the record, or null at the end of the segment.
+         */
+        List<Metric> readRecord() throws IOException {
+            if(buffer.remaining() < RECORD_HEADER_SIZE) {
+                return null;
+            }
+
+            final int pos = buffer.position();
+            final int length = buffer.getInt(pos);
+            final int expectedCrc = buffer.getInt(pos + 4);
+
+            if(length <= 0 || length > buffer.remaining() - RECORD_HEADER_SIZE) {
+                return null;
+            }
+
+            final byte[] payload = new byte[length];
+            final CRC32 crc = new CRC32();
+
+            buffer.position(pos + RECORD_HEADER_SIZE);
+            buffer.get(payload);
+            crc.update(payload);
+
+            if((int) crc.getValue() != expectedCrc) {
+                LOG.warn("Corrupt record in write-ahead log segment {} at {}, ignoring the rest", file, pos);
+                buffer.position(pos);
+                return null;
+            }
+
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            final int count = in.readInt();
+
+            readIds.clear();
+            readUnits.clear();
+            final List<Metric> ret = new ArrayList<Metric>(count);
+
+            for(int i=0; i < count; ++i) {
+                final int idNumber = in.readInt();
+                final MetricId metricId;
+
+                if(idNumber == NEW_ENTRY) {
+                    metricId = new MetricId(in.readUTF(), in.readUTF(), in.readUTF());
+                    readIds.add(metricId);
+                } else {
+                    metricId = readIds.get(idNumber);
+                }
+
+                final int unitsNumber = in.readInt();
+                final String units;
+
+                if(unitsNumber == NEW_ENTRY) {
+                    units = null;
+                } else if(unitsNumber == NEW_UNITS) {
+                    units = in.readUTF();
+                    readUnits.add(units);
+                } else {
+                    units = readUnits.get(unitsNumber);
+                }
+
+                final long timestamp = in.readLong();
+                final double value = in.readDouble();
+
+                ret.add(new Metric(metricId, timestamp, value, units));
+                maxTimestamp = Math.max(maxTimestamp, timestamp);
+            }
+
+            return ret;
+        }
+
+        void force() {
+            buffer.force();
+        }
+    }
+}
@@ -1,8 +1,9 @@
 package com.metrink.api;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.zip.GZIPInputStream;
 
@@ -20,11 +21,16 @@ import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import com.google.inject.servlet.RequestScoped;
 import com.metrink.aggregation.OneMinuteAggregator;
 import com.metrink.alert.AlertEngine;
 import com.metrink.alert.AlertTablePoller;
+import com.metrink.ingest.GracefulShutdown;
+import com.metrink.ingest.IngestPipeline;
+import com.metrink.metric.BinaryMetricEncoder;
 import com.metrink.metric.Metric;
 import com.metrink.metric.io.MetricMetadata;
 import com.metrink.metric.io.MetricReader;
@@ -39,75 +45,175 @@ import com.metrink.parser.ParserException;
 public class MetricApi {
     public static final Logger LOG = LoggerFactory.getLogger(MetricApi.class);
 
+    // JAX-RS 2.0 doesn't define 429 Too Many Requests
+    private static final int TOO_MANY_REQUESTS = 429;
+
     private final Parser parser;
+    private final Parser binaryParser;
     private final OneMinuteAggregator aggregator;
     private final MetricMetadata metricMetadata;
     private final MetricReader metricReader;
     private final AlertEngine alertEngine;
     private final AlertTablePoller alertTablePoller;
+    private final IngestPipeline ingestPipeline;
+    private final GracefulShutdown gracefulShutdown;
 
     @Inject
     public MetricApi(final Parser parser,
+                     @Named("binary") final Parser binaryParser,
                      final OneMinuteAggregator aggregator,
                      final MetricMetadata metricMetadata,
                      final MetricReader metricReader,
                      final AlertEngine alertEngine,
-                     final AlertTablePoller alertTablePoller) {
+                     final AlertTablePoller alertTablePoller,
+                     final IngestPipeline ingestPipeline,
+                     final GracefulShutdown gracefulShutdown) {
         this.parser = parser;
+        this.binaryParser = binaryParser;
         this.aggregator = aggregator;
         this.metricMetadata = metricMetadata;
         this.metricReader = metricReader;
         this.alertEngine = alertEngine;
         this.alertTablePoller = alertTablePoller;
+        this.ingestPipeline = ingestPipeline;
+        this.gracefulShutdown = gracefulShutdown;
     }
 
     public static String convertBodyToString(final byte[] body) {
         try {
-            final GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(body));
-            return IOUtils.toString(gzip);
-        } catch (final IOException e1) {
-            try {
-                return new String(body, "UTF-8");
-            } catch (final UnsupportedEncodingException e) {
-                LOG.error("Cannot read body of POST");
-                throw new WebApplicationException(Response.serverError().entity("Cannot read POST body").build());
-            }
+            return IOUtils.toString(decodeBody(new ByteArrayInputStream(body), null), "UTF-8");
+        } catch (final IOException e) {
+            LOG.error("Cannot read body of POST");
+            throw new WebApplicationException(Response.serverError().entity("Cannot read POST body").build());
         }
     }
 
+    /**
+     * Wraps the body of a POST in a {@link GZIPInputStream} if it is compressed.
+     *
+     * Compression is detected from the Content-Encoding header, falling back to the gzip magic bytes for clients that
+     * compress without setting the header. Nothing is copied; the returned stream reads straight from the body.
+     *
+     * @param body the body of the POST.
+     * @param contentEncoding the Content-Encoding header, possibly null.
+     * @return a stream of the uncompressed body.
+     * @throws IOException if the gzip header cannot be read.
+     */
+    public static InputStream decodeBody(final InputStream body, final String contentEncoding) throws IOException {
+        if(contentEncoding != null && contentEncoding.toLowerCase().contains("gzip")) {
+            return new GZIPInputStream(body);
+        }
+
+        // peek at the first two bytes to look for the gzip magic number
+        final InputStream in = body.markSupported() ? body : new BufferedInputStream(body);
+
+        in.mark(2);
+        final int b1 = in.read();
+        final int b2 = in.read();
+        in.reset();
+
+        if(b1 == (GZIPInputStream.GZIP_MAGIC & 0xFF) && b2 == (GZIPInputStream.GZIP_MAGIC >> 8)) {
+            return new GZIPInputStream(in);
+        }
+
+        return in;
+    }
+
     @POST
     @Path("api")
     @Consumes(MediaType.APPLICATION_JSON)
-    public Response readMetrics(final byte[] body, @HeaderParam(HttpHeaders.AUTHORIZATION) final String authorizationHeader) {
-        final String bodyAsString = convertBodyToString(body);
+    public Response readMetrics(final InputStream body,
+                                @HeaderParam(HttpHeaders.CONTENT_ENCODING) final String contentEncoding,
+                                @HeaderParam(HttpHeaders.AUTHORIZATION) final String authorizationHeader) {
+        return readMetrics(parser, body, contentEncoding);
+    }
 
-        // parse out the metrics
-        boolean metricsRemoved = false;
-        try {
-            // we need to change this method so it takes a string
-            final List<Metric> metrics = parser.parse(bodyAsString.getBytes());
+    @POST
+    @Path("api")
+    @Consumes(BinaryMetricEncoder.MEDIA_TYPE)
+    public Response readBinaryMetrics(final InputStream body,
+                                      @HeaderParam(HttpHeaders.CONTENT_ENCODING) final String contentEncoding,
+                                      @HeaderParam(HttpHeaders.AUTHORIZATION) final String authorizationHeader) {
+        return readMetrics(binaryParser, body, contentEncoding);
+    }
+
+    /**
+     * Parses the body with the given parser, and hands the metrics to the aggregator and alert engine.
+     * @param bodyParser the parser for the body's Content-Type.
+     * @param body the body of the POST.
+     * @param contentEncoding the Content-Encoding header, possibly null.
+     * @return the response.
+     */
+    private Response readMetrics(final Parser bodyParser, final InputStream body, final String contentEncoding) {
+        // once shutdown has started the agent should send to another collector
+        if(!gracefulShutdown.beginRequest()) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                           .header(HttpHeaders.RETRY_AFTER, ingestPipeline.getRetryAfterSeconds())
+                           .build();
+        }
 
-            // write the metric to the aggregator
-            aggregator.readMetrics(metrics);
+        try {
+            return readMetricsWhileAccepting(bodyParser, body, contentEncoding);
+        } finally {
+            gracefulShutdown.endRequest();
+        }
+    }
 
-            // send the metrics to the alert engine
-            alertEngine.processMetrics(metrics);
+    private Response readMetricsWhileAccepting(final Parser bodyParser,
+                                               final InputStream body,
+                                               final String contentEncoding) {
+        // parse out the metrics
+        ResponseBuilder response = Response.ok();
+
+        try (final InputStream decodedBody = decodeBody(body, contentEncoding)) {
+            final List<Metric> metrics = bodyParser.parse(decodedBody);
+
+            if(ingestPipeline.isEnabled()) {
+                // a batch that can never fit would be retried forever
+                if(metrics.size() > ingestPipeline.getMaxQueuedMetrics()) {
+                    return Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE).build();
+                }
+
+                // hand the metrics off to the pipeline, and let the agent know if it needs to back off and resend
+                if(!ingestPipeline.submit(metrics)) {
+                    return Response.status(TOO_MANY_REQUESTS)
+                                   .header(HttpHeaders.RETRY_AFTER, ingestPipeline.getRetryAfterSeconds())
+                                   .build();
+                }
+
+                response = Response.accepted();
+            } else {
+                // write the metric to the aggregator
+                aggregator.readMetrics(metrics);
+
+                // send the metrics to the alert engine
+                alertEngine.processMetrics(metrics);
+            }
 
         } catch (final ParserException e) {
+            // a body cut short, or a corrupt gzip stream, is the client's fault like an unreadable body
+            if(isReadError(e)) {
+                LOG.error("Cannot read body of POST: {}", e.getMessage(), e);
+                throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
+            }
+
             LOG.error("Parse error reading metrics: {}", e.getMessage(), e);
             throw new WebApplicationException(e);
+        } catch (final IOException e) {
+            LOG.error("Cannot read body of POST: {}", e.getMessage(), e);
+            throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
         } catch (final Exception e) {
             LOG.error("Error reading metrics: {}", e.getMessage(), e);
             throw new WebApplicationException(e);
         }
 
-        final ResponseBuilder response = Response.ok();
-
-        // add the warning header if metrics were removed
-        if (metricsRemoved) {
-            response.header("Warning", "199 Metrics were discarded because you are over your quota.");
-        }
-
         return response.build();
     }
+
+    /**
+     * The parsers wrap errors reading the body in a {@link ParserException}, as they do errors in what was read.
+     */
+    private static boolean isReadError(final ParserException e) {
+        return e.getCause() instanceof IOException && !(e.getCause() instanceof JsonProcessingException);
+    }
 }
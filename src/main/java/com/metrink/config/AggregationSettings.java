@@ -0,0 +1,161 @@
+package com.metrink.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * One minute aggregation configuration options.
+ */
+public class AggregationSettings {
+
+    @JsonProperty("allowed_lateness_seconds")
+    private int allowedLatenessSeconds = 60;
+
+    @JsonProperty("late_data_policy")
+    private String lateDataPolicy = "rewrite";
+
+    @JsonProperty("rewrite_window_minutes")
+    private int rewriteWindowMinutes = 60;
+
+    @JsonProperty("stripes")
+    private int stripes = 0;
+
+    @JsonProperty("rollup_delay_seconds")
+    private int rollupDelaySeconds = 300;
+
+    @JsonProperty("wal_directory")
+    private String walDirectory;
+
+    @JsonProperty("wal_segment_size_mb")
+    private int walSegmentSizeMb = 64;
+
+    @JsonProperty("wal_sync_interval_ms")
+    private int walSyncIntervalMs = 0;
+
+    /**
+     * Get allowedLatenessSeconds.
+     * @return the allowedLatenessSeconds
+     */
+    public int getAllowedLatenessSeconds() {
+        return allowedLatenessSeconds;
+    }
+
+    /**
+     * Set allowedLatenessSeconds.
+     * @param allowedLatenessSeconds the allowedLatenessSeconds to set
+     */
+    public void setAllowedLatenessSeconds(final int allowedLatenessSeconds) {
+        this.allowedLatenessSeconds = allowedLatenessSeconds;
+    }
+
+    /**
+     * Get lateDataPolicy.
+     * @return the lateDataPolicy
+     */
+    public String getLateDataPolicy() {
+        return lateDataPolicy;
+    }
+
+    /**
+     * Set lateDataPolicy.
+     * @param lateDataPolicy the lateDataPolicy to set
+     */
+    public void setLateDataPolicy(final String lateDataPolicy) {
+        this.lateDataPolicy = lateDataPolicy;
+    }
+
+    /**
+     * Get rewriteWindowMinutes.
+     * @return the rewriteWindowMinutes
+     */
+    public int getRewriteWindowMinutes() {
+        return rewriteWindowMinutes;
+    }
+
+    /**
+     * Set rewriteWindowMinutes.
+     * @param rewriteWindowMinutes the rewriteWindowMinutes to set
+     */
+    public void setRewriteWindowMinutes(final int rewriteWindowMinutes) {
+        this.rewriteWindowMinutes = rewriteWindowMinutes;
+    }
+
+    /**
+     * Get rollupDelaySeconds.
+     * @return the rollupDelaySeconds
+     */
+    public int getRollupDelaySeconds() {
+        return rollupDelaySeconds;
+    }
+
+    /**
+     * Set rollupDelaySeconds.
+     * @param rollupDelaySeconds the rollupDelaySeconds to set
+     */
+    public void setRollupDelaySeconds(final int rollupDelaySeconds) {
+        this.rollupDelaySeconds = rollupDelaySeconds;
+    }
+
+    /**
+     * Get stripes, 0 means one per available processor.
+     * @return the stripes
+     */
+    public int getStripes() {
+        return stripes;
+    }
+
+    /**
+     * Set stripes.
+     * @param stripes the stripes to set
+     */
+    public void setStripes(final int stripes) {
+        this.stripes = stripes;
+    }
+
+    /**
+     * Get walDirectory, null or empty disables the write-ahead log.
+     * @return the walDirectory
+     */
+    public String getWalDirectory() {
+        return walDirectory;
+    }
+
+    /**
+     * Set walDirectory.
+     * @param walDirectory the walDirectory to set
+     */
+    public void setWalDirectory(final String walDirectory) {
+        this.walDirectory = walDirectory;
+    }
+
+    /**
+     * Get walSegmentSizeMb.
+     * @return the walSegmentSizeMb
+     */
+    public int getWalSegmentSizeMb() {
+        return walSegmentSizeMb;
+    }
+
+    /**
+     * Set walSegmentSizeMb.
+     * @param walSegmentSizeMb the walSegmentSizeMb to set
+     */
+    public void setWalSegmentSizeMb(final int walSegmentSizeMb) {
+        this.walSegmentSizeMb = walSegmentSizeMb;
+    }
+
+    /**
+     * Get walSyncIntervalMs.
+     * @return the walSyncIntervalMs
+     */
+    public int getWalSyncIntervalMs() {
+        return walSyncIntervalMs;
+    }
+
+    /**
+     * Set walSyncIntervalMs.
+     * @param walSyncIntervalMs the walSyncIntervalMs to set
+     */
+    public void setWalSyncIntervalMs(final int walSyncIntervalMs) {
+        this.walSyncIntervalMs = walSyncIntervalMs;
+    }
+}
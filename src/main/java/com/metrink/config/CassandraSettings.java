@@ -1,5 +1,8 @@
 package com.metrink.config;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 /**
@@ -28,6 +31,33 @@ public class CassandraSettings {
     @JsonProperty("seed")
     private String seed = "127.0.0.1:9160";
 
+    @JsonProperty("max_concurrent_reads")
+    private int maxConcurrentReads = 16;
+
+    @JsonProperty("read_page_size")
+    private int readPageSize = 5000;
+
+    @JsonProperty("row_key_format")
+    private String rowKeyFormat = "ascii";
+
+    @JsonProperty("compress_closed_days")
+    private boolean compressClosedDays = false;
+
+    @JsonProperty("compress_delay_hours")
+    private int compressDelayHours = 2;
+
+    @JsonProperty("ttl_days")
+    private int ttlDays = 0;
+
+    @JsonProperty("group_ttl_days")
+    private Map<String, Integer> groupTtlDays = new HashMap<String, Integer>();
+
+    @JsonProperty("row_partition")
+    private String rowPartition = "month";
+
+    @JsonProperty("group_row_partition")
+    private Map<String, String> groupRowPartition = new HashMap<String, String>();
+
     /**
      * Get clusterName.
      * @return the clusterName
@@ -139,4 +169,148 @@ public class CassandraSettings {
     public void setSeed(final String seed) {
         this.seed = seed;
     }
+
+    /**
+     * Get maxConcurrentReads, the most queries a single read keeps in flight.
+     * @return the maxConcurrentReads
+     */
+    public int getMaxConcurrentReads() {
+        return maxConcurrentReads;
+    }
+
+    /**
+     * Set maxConcurrentReads.
+     * @param maxConcurrentReads the maxConcurrentReads to set
+     */
+    public void setMaxConcurrentReads(final int maxConcurrentReads) {
+        this.maxConcurrentReads = maxConcurrentReads;
+    }
+
+    /**
+     * Get readPageSize, the most columns fetched from a row per query.
+     * @return the readPageSize
+     */
+    public int getReadPageSize() {
+        return readPageSize;
+    }
+
+    /**
+     * Set readPageSize.
+     * @param readPageSize the readPageSize to set
+     */
+    public void setReadPageSize(final int readPageSize) {
+        this.readPageSize = readPageSize;
+    }
+
+    /**
+     * Get rowKeyFormat, either ascii or binary.
+     * @return the rowKeyFormat
+     */
+    public String getRowKeyFormat() {
+        return rowKeyFormat;
+    }
+
+    /**
+     * Set rowKeyFormat.
+     * @param rowKeyFormat the rowKeyFormat to set
+     */
+    public void setRowKeyFormat(final String rowKeyFormat) {
+        this.rowKeyFormat = rowKeyFormat;
+    }
+
+    /**
+     * Get compressClosedDays.
+     * @return the compressClosedDays
+     */
+    public boolean isCompressClosedDays() {
+        return compressClosedDays;
+    }
+
+    /**
+     * Set compressClosedDays.
+     * @param compressClosedDays the compressClosedDays to set
+     */
+    public void setCompressClosedDays(final boolean compressClosedDays) {
+        this.compressClosedDays = compressClosedDays;
+    }
+
+    /**
+     * Get compressDelayHours, how long after a day ends before it is compressed.
+     * @return the compressDelayHours
+     */
+    public int getCompressDelayHours() {
+        return compressDelayHours;
+    }
+
+    /**
+     * Set compressDelayHours.
+     * @param compressDelayHours the compressDelayHours to set
+     */
+    public void setCompressDelayHours(final int compressDelayHours) {
+        this.compressDelayHours = compressDelayHours;
+    }
+
+    /**
+     * Get ttlDays, how long after its period a column expires; 0 writes columns without a TTL.
+     * @return the ttlDays
+     */
+    public int getTtlDays() {
+        return ttlDays;
+    }
+
+    /**
+     * Set ttlDays.
+     * @param ttlDays the ttlDays to set
+     */
+    public void setTtlDays(final int ttlDays) {
+        this.ttlDays = ttlDays;
+    }
+
+    /**
+     * Get groupTtlDays, the ttlDays of groups that differ from the default.
+     * @return the groupTtlDays
+     */
+    public Map<String, Integer> getGroupTtlDays() {
+        return groupTtlDays;
+    }
+
+    /**
+     * Set groupTtlDays.
+     * @param groupTtlDays the groupTtlDays to set
+     */
+    public void setGroupTtlDays(final Map<String, Integer> groupTtlDays) {
+        this.groupTtlDays = groupTtlDays;
+    }
+
+    /**
+     * Get rowPartition, how much time each row of a series holds: month, week, or day.
+     * @return the rowPartition
+     */
+    public String getRowPartition() {
+        return rowPartition;
+    }
+
+    /**
+     * Set rowPartition.
+     * @param rowPartition the rowPartition to set
+     */
+    public void setRowPartition(final String rowPartition) {
+        this.rowPartition = rowPartition;
+    }
+
+    /**
+     * Get groupRowPartition, the rowPartition of groups that differ from the default.
+     * @return the groupRowPartition
+     */
+    public Map<String, String> getGroupRowPartition() {
+        return groupRowPartition;
+    }
+
+    /**
+     * Set groupRowPartition.
+     * @param groupRowPartition the groupRowPartition to set
+     */
+    public void setGroupRowPartition(final Map<String, String> groupRowPartition) {
+        this.groupRowPartition = groupRowPartition;
+    }
 }
@@ -0,0 +1,66 @@
+package com.metrink.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Embedded metric storage configuration options, used when metrics_storage is embedded.
+ */
+public class EmbeddedSettings {
+
+    @JsonProperty("directory")
+    private String directory = "metrics";
+
+    @JsonProperty("seal_delay_hours")
+    private int sealDelayHours = 2;
+
+    @JsonProperty("force_writes")
+    private boolean forceWrites = false;
+
+    /**
+     * Get directory, where the series index and block files are kept.
+     * @return the directory
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Set directory.
+     * @param directory the directory to set
+     */
+    public void setDirectory(final String directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Get sealDelayHours, how long after a block ends before it is compressed.
+     * @return the sealDelayHours
+     */
+    public int getSealDelayHours() {
+        return sealDelayHours;
+    }
+
+    /**
+     * Set sealDelayHours.
+     * @param sealDelayHours the sealDelayHours to set
+     */
+    public void setSealDelayHours(final int sealDelayHours) {
+        this.sealDelayHours = sealDelayHours;
+    }
+
+    /**
+     * Get forceWrites, whether each write forces the blocks it touched to disk before returning.
+     * @return the forceWrites
+     */
+    public boolean isForceWrites() {
+        return forceWrites;
+    }
+
+    /**
+     * Set forceWrites.
+     * @param forceWrites the forceWrites to set
+     */
+    public void setForceWrites(final boolean forceWrites) {
+        this.forceWrites = forceWrites;
+    }
+}
@@ -0,0 +1,123 @@
+package com.metrink.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Graphite plaintext listener configuration options.
+ */
+public class GraphiteSettings {
+
+    @JsonProperty("enabled")
+    private boolean enabled = false;
+
+    @JsonProperty("bind_address")
+    private String bindAddress = "0.0.0.0";
+
+    @JsonProperty("port")
+    private int port = 2003;
+
+    @JsonProperty("skip_segments")
+    private int skipSegments = 0;
+
+    @JsonProperty("batch_size")
+    private int batchSize = 1000;
+
+    @JsonProperty("buffer_size")
+    private int bufferSize = 64 * 1024;
+
+    /**
+     * Get enabled.
+     * @return the enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Set enabled.
+     * @param enabled the enabled to set
+     */
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Get bindAddress.
+     * @return the bindAddress
+     */
+    public String getBindAddress() {
+        return bindAddress;
+    }
+
+    /**
+     * Set bindAddress.
+     * @param bindAddress the bindAddress to set
+     */
+    public void setBindAddress(final String bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+
+    /**
+     * Get port.
+     * @return the port
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Set port.
+     * @param port the port to set
+     */
+    public void setPort(final int port) {
+        this.port = port;
+    }
+
+    /**
+     * Get skipSegments, the number of leading path segments to drop before the device.
+     * @return the skipSegments
+     */
+    public int getSkipSegments() {
+        return skipSegments;
+    }
+
+    /**
+     * Set skipSegments.
+     * @param skipSegments the skipSegments to set
+     */
+    public void setSkipSegments(final int skipSegments) {
+        this.skipSegments = skipSegments;
+    }
+
+    /**
+     * Get batchSize.
+     * @return the batchSize
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set batchSize.
+     * @param batchSize the batchSize to set
+     */
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Get bufferSize, the per-connection buffer size in bytes. Lines longer than this are discarded.
+     * @return the bufferSize
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Set bufferSize.
+     * @param bufferSize the bufferSize to set
+     */
+    public void setBufferSize(final int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+}
@@ -0,0 +1,47 @@
+package com.metrink.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Hot tier configuration options: recent minutes kept in memory in front of metrics_storage.
+ */
+public class HotTierSettings {
+
+    @JsonProperty("hours")
+    private int hours = 0;
+
+    @JsonProperty("max_memory_mb")
+    private int maxMemoryMb = 256;
+
+    /**
+     * Get hours, how many hours of minutes are kept for each series; 0 turns the hot tier off.
+     * @return the hours
+     */
+    public int getHours() {
+        return hours;
+    }
+
+    /**
+     * Set hours.
+     * @param hours the hours to set
+     */
+    public void setHours(final int hours) {
+        this.hours = hours;
+    }
+
+    /**
+     * Get maxMemoryMb, the memory the series' buffers may take, which caps how many series are kept.
+     * @return the maxMemoryMb
+     */
+    public int getMaxMemoryMb() {
+        return maxMemoryMb;
+    }
+
+    /**
+     * Set maxMemoryMb.
+     * @param maxMemoryMb the maxMemoryMb to set
+     */
+    public void setMaxMemoryMb(final int maxMemoryMb) {
+        this.maxMemoryMb = maxMemoryMb;
+    }
+}
@@ -0,0 +1,123 @@
+package com.metrink.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Ingest pipeline configuration options.
+ */
+public class IngestSettings {
+
+    @JsonProperty("async")
+    private boolean async = false;
+
+    @JsonProperty("max_queued_metrics")
+    private int maxQueuedMetrics = 1000000;
+
+    @JsonProperty("aggregation_threads")
+    private int aggregationThreads = 1;
+
+    @JsonProperty("alert_threads")
+    private int alertThreads = 1;
+
+    @JsonProperty("retry_after_seconds")
+    private int retryAfterSeconds = 5;
+
+    @JsonProperty("shutdown_timeout_seconds")
+    private int shutdownTimeoutSeconds = 30;
+
+    /**
+     * Get async.
+     * @return the async
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * Set async.
+     * @param async the async to set
+     */
+    public void setAsync(final boolean async) {
+        this.async = async;
+    }
+
+    /**
+     * Get maxQueuedMetrics.
+     * @return the maxQueuedMetrics
+     */
+    public int getMaxQueuedMetrics() {
+        return maxQueuedMetrics;
+    }
+
+    /**
+     * Set maxQueuedMetrics.
+     * @param maxQueuedMetrics the maxQueuedMetrics to set
+     */
+    public void setMaxQueuedMetrics(final int maxQueuedMetrics) {
+        this.maxQueuedMetrics = maxQueuedMetrics;
+    }
+
+    /**
+     * Get aggregationThreads.
+     * @return the aggregationThreads
+     */
+    public int getAggregationThreads() {
+        return aggregationThreads;
+    }
+
+    /**
+     * Set aggregationThreads.
+     * @param aggregationThreads the aggregationThreads to set
+     */
+    public void setAggregationThreads(final int aggregationThreads) {
+        this.aggregationThreads = aggregationThreads;
+    }
+
+    /**
+     * Get alertThreads.
+     * @return the alertThreads
+     */
+    public int getAlertThreads() {
+        return alertThreads;
+    }
+
+    /**
+     * Set alertThreads.
+     * @param alertThreads the alertThreads to set
+     */
+    public void setAlertThreads(final int alertThreads) {
+        this.alertThreads = alertThreads;
+    }
+
+    /**
+     * Get retryAfterSeconds.
+     * @return the retryAfterSeconds
+     */
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /**
+     * Set retryAfterSeconds.
+     * @param retryAfterSeconds the retryAfterSeconds to set
+     */
+    public void setRetryAfterSeconds(final int retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Get shutdownTimeoutSeconds.
+     * @return the shutdownTimeoutSeconds
+     */
+    public int getShutdownTimeoutSeconds() {
+        return shutdownTimeoutSeconds;
+    }
+
+    /**
+     * Set shutdownTimeoutSeconds.
+     * @param shutdownTimeoutSeconds the shutdownTimeoutSeconds to set
+     */
+    public void setShutdownTimeoutSeconds(final int shutdownTimeoutSeconds) {
+        this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+    }
+}
@@ -0,0 +1,86 @@
+package com.metrink.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Metric metadata configuration options.
+ */
+public class MetadataSettings {
+
+    @JsonProperty("max_known_ids")
+    private int maxKnownIds = 1000000;
+
+    @JsonProperty("bloom_filter")
+    private boolean bloomFilter = false;
+
+    @JsonProperty("bloom_filter_fpp")
+    private double bloomFilterFpp = 0.0001;
+
+    @JsonProperty("bloom_filter_rebuild_minutes")
+    private int bloomFilterRebuildMinutes = 60;
+
+    /**
+     * Get maxKnownIds, how many metric ids are remembered as already written; 0 writes every id every time.
+     * @return the maxKnownIds
+     */
+    public int getMaxKnownIds() {
+        return maxKnownIds;
+    }
+
+    /**
+     * Set maxKnownIds.
+     * @param maxKnownIds the maxKnownIds to set
+     */
+    public void setMaxKnownIds(final int maxKnownIds) {
+        this.maxKnownIds = maxKnownIds;
+    }
+
+    /**
+     * Get bloomFilter.
+     * @return the bloomFilter
+     */
+    public boolean isBloomFilter() {
+        return bloomFilter;
+    }
+
+    /**
+     * Set bloomFilter.
+     * @param bloomFilter the bloomFilter to set
+     */
+    public void setBloomFilter(final boolean bloomFilter) {
+        this.bloomFilter = bloomFilter;
+    }
+
+    /**
+     * Get bloomFilterFpp, the chance a new metric id is taken for a known one.
+     * @return the bloomFilterFpp
+     */
+    public double getBloomFilterFpp() {
+        return bloomFilterFpp;
+    }
+
+    /**
+     * Set bloomFilterFpp.
+     * @param bloomFilterFpp the bloomFilterFpp to set
+     */
+    public void setBloomFilterFpp(final double bloomFilterFpp) {
+        this.bloomFilterFpp = bloomFilterFpp;
+    }
+
+    /**
+     * Get bloomFilterRebuildMinutes, how often the Bloom filter is started over so a new metric id taken for a known one
+     * is written; 0 only starts it over when it's full.
+     * @return the bloomFilterRebuildMinutes
+     */
+    public int getBloomFilterRebuildMinutes() {
+        return bloomFilterRebuildMinutes;
+    }
+
+    /**
+     * Set bloomFilterRebuildMinutes.
+     * @param bloomFilterRebuildMinutes the bloomFilterRebuildMinutes to set
+     */
+    public void setBloomFilterRebuildMinutes(final int bloomFilterRebuildMinutes) {
+        this.bloomFilterRebuildMinutes = bloomFilterRebuildMinutes;
+    }
+}
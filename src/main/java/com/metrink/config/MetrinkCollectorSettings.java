@@ -10,13 +10,61 @@ public class MetrinkCollectorSettings extends RestSettings implements MetrinkSet
     @JsonProperty("retention_days")
     private Integer retentionDays = 90;
 
+    @JsonProperty("metrics_storage")
+    private String metricsStorage = "cassandra";
+
     // The technology specific naming as there isn't a ODBC for no-SQL that makes them easily swappable.
     @JsonProperty("cassandra")
     private CassandraSettings cassandraSettings = new CassandraSettings();
 
+    @JsonProperty("embedded")
+    private EmbeddedSettings embeddedSettings = new EmbeddedSettings();
+
+    @JsonProperty("sql_storage")
+    private SqlStorageSettings sqlStorageSettings = new SqlStorageSettings();
+
+    @JsonProperty("hot_tier")
+    private HotTierSettings hotTierSettings = new HotTierSettings();
+
+    @JsonProperty("read_cache")
+    private ReadCacheSettings readCacheSettings = new ReadCacheSettings();
+
     @JsonProperty("email")
     private EmailSettings emailSettings = new EmailSettings();
 
+    @JsonProperty("metadata")
+    private MetadataSettings metadataSettings = new MetadataSettings();
+
+    @JsonProperty("ingest")
+    private IngestSettings ingestSettings = new IngestSettings();
+
+    @JsonProperty("aggregation")
+    private AggregationSettings aggregationSettings = new AggregationSettings();
+
+    @JsonProperty("graphite")
+    private GraphiteSettings graphiteSettings = new GraphiteSettings();
+
+    @JsonProperty("statsd")
+    private StatsdSettings statsdSettings = new StatsdSettings();
+
+    /**
+     * Get metricsStorage, where metrics are stored: cassandra, embedded, or sql.
+     * @return the metricsStorage
+     */
+    @Override
+    public String getMetricsStorage() {
+        return metricsStorage;
+    }
+
+    /**
+     * Set metricsStorage.
+     * @param metricsStorage the metricsStorage to set
+     */
+    @Override
+    public void setMetricsStorage(final String metricsStorage) {
+        this.metricsStorage = metricsStorage;
+    }
+
     /**
      * Get cassandra.
      * @return the cassandra
@@ -35,6 +83,78 @@ public class MetrinkCollectorSettings extends RestSettings implements MetrinkSet
         this.cassandraSettings = cassandra;
     }
 
+    /**
+     * Get embedded.
+     * @return the embedded
+     */
+    @Override
+    public EmbeddedSettings getEmbeddedSettings() {
+        return embeddedSettings;
+    }
+
+    /**
+     * Set embedded.
+     * @param embeddedSettings the embedded to set
+     */
+    @Override
+    public void setEmbeddedSettings(final EmbeddedSettings embeddedSettings) {
+        this.embeddedSettings = embeddedSettings;
+    }
+
+    /**
+     * Get sql_storage.
+     * @return the sql_storage
+     */
+    @Override
+    public SqlStorageSettings getSqlStorageSettings() {
+        return sqlStorageSettings;
+    }
+
+    /**
+     * Set sql_storage.
+     * @param sqlStorageSettings the sql_storage to set
+     */
+    @Override
+    public void setSqlStorageSettings(final SqlStorageSettings sqlStorageSettings) {
+        this.sqlStorageSettings = sqlStorageSettings;
+    }
+
+    /**
+     * Get hot_tier.
+     * @return the hot_tier
+     */
+    @Override
+    public HotTierSettings getHotTierSettings() {
+        return hotTierSettings;
+    }
+
+    /**
+     * Set hot_tier.
+     * @param hotTierSettings the hot_tier to set
+     */
+    @Override
+    public void setHotTierSettings(final HotTierSettings hotTierSettings) {
+        this.hotTierSettings = hotTierSettings;
+    }
+
+    /**
+     * Get read_cache.
+     * @return the read_cache
+     */
+    @Override
+    public ReadCacheSettings getReadCacheSettings() {
+        return readCacheSettings;
+    }
+
+    /**
+     * Set read_cache.
+     * @param readCacheSettings the read_cache to set
+     */
+    @Override
+    public void setReadCacheSettings(final ReadCacheSettings readCacheSettings) {
+        this.readCacheSettings = readCacheSettings;
+    }
+
     @Override
     public EmailSettings getEmailSettings() {
         return emailSettings;
@@ -45,6 +165,88 @@ public class MetrinkCollectorSettings extends RestSettings implements MetrinkSet
         this.emailSettings = emailSettings;
     }
 
+    /**
+     * Get metadata.
+     * @return the metadata
+     */
+    @Override
+    public MetadataSettings getMetadataSettings() {
+        return metadataSettings;
+    }
+
+    /**
+     * Set metadata.
+     * @param metadataSettings the metadata to set
+     */
+    @Override
+    public void setMetadataSettings(final MetadataSettings metadataSettings) {
+        this.metadataSettings = metadataSettings;
+    }
+
+    /**
+     * Get ingest.
+     * @return the ingest
+     */
+    public IngestSettings getIngestSettings() {
+        return ingestSettings;
+    }
+
+    /**
+     * Set ingest.
+     * @param ingestSettings the ingest to set
+     */
+    public void setIngestSettings(final IngestSettings ingestSettings) {
+        this.ingestSettings = ingestSettings;
+    }
+
+    /**
+     * Get aggregation.
+     * @return the aggregation
+     */
+    public AggregationSettings getAggregationSettings() {
+        return aggregationSettings;
+    }
+
+    /**
+     * Set aggregation.
+     * @param aggregationSettings the aggregation to set
+     */
+    public void setAggregationSettings(final AggregationSettings aggregationSettings) {
+        this.aggregationSettings = aggregationSettings;
+    }
+
+    /**
+     * Get graphite.
+     * @return the graphite
+     */
+    public GraphiteSettings getGraphiteSettings() {
+        return graphiteSettings;
+    }
+
+    /**
+     * Set graphite.
+     * @param graphiteSettings the graphite to set
+     */
+    public void setGraphiteSettings(final GraphiteSettings graphiteSettings) {
+        this.graphiteSettings = graphiteSettings;
+    }
+
+    /**
+     * Get statsd.
+     * @return the statsd
+     */
+    public StatsdSettings getStatsdSettings() {
+        return statsdSettings;
+    }
+
+    /**
+     * Set statsd.
+     * @param statsdSettings the statsd to set
+     */
+    public void setStatsdSettings(final StatsdSettings statsdSettings) {
+        this.statsdSettings = statsdSettings;
+    }
+
     public Integer getRetentionDays() {
         return retentionDays;
     }
@@ -3,6 +3,26 @@ package com.metrink.config;
 
 public interface MetrinkSettings {
 
+    public String getMetricsStorage();
+
+    public void setMetricsStorage(final String metricsStorage);
+
+    public EmbeddedSettings getEmbeddedSettings();
+
+    public void setEmbeddedSettings(final EmbeddedSettings embeddedSettings);
+
+    public SqlStorageSettings getSqlStorageSettings();
+
+    public void setSqlStorageSettings(final SqlStorageSettings sqlStorageSettings);
+
+    public HotTierSettings getHotTierSettings();
+
+    public void setHotTierSettings(final HotTierSettings hotTierSettings);
+
+    public ReadCacheSettings getReadCacheSettings();
+
+    public void setReadCacheSettings(final ReadCacheSettings readCacheSettings);
+
     public CassandraSettings getCassandraSettings();
 
     public void setCassandraSettings(final CassandraSettings cassandra);
@@ -10,4 +30,8 @@ public interface MetrinkSettings {
     public EmailSettings getEmailSettings();
 
     public void setEmailSettings(final EmailSettings emailSettings);
+
+    public MetadataSettings getMetadataSettings();
+
+    public void setMetadataSettings(final MetadataSettings metadataSettings);
 }
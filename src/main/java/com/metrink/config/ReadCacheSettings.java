@@ -0,0 +1,66 @@
+package com.metrink.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Read cache configuration options: closed months of metrics kept in memory once read.
+ */
+public class ReadCacheSettings {
+
+    @JsonProperty("max_memory_mb")
+    private int maxMemoryMb = 0;
+
+    @JsonProperty("closed_delay_hours")
+    private int closedDelayHours = 48;
+
+    @JsonProperty("expire_hours")
+    private int expireHours = 24;
+
+    /**
+     * Get maxMemoryMb, the memory the cached months may take; 0 turns the cache off.
+     * @return the maxMemoryMb
+     */
+    public int getMaxMemoryMb() {
+        return maxMemoryMb;
+    }
+
+    /**
+     * Set maxMemoryMb.
+     * @param maxMemoryMb the maxMemoryMb to set
+     */
+    public void setMaxMemoryMb(final int maxMemoryMb) {
+        this.maxMemoryMb = maxMemoryMb;
+    }
+
+    /**
+     * Get closedDelayHours, how long after a month ends before it's cached, so rollups of it are written first.
+     * @return the closedDelayHours
+     */
+    public int getClosedDelayHours() {
+        return closedDelayHours;
+    }
+
+    /**
+     * Set closedDelayHours.
+     * @param closedDelayHours the closedDelayHours to set
+     */
+    public void setClosedDelayHours(final int closedDelayHours) {
+        this.closedDelayHours = closedDelayHours;
+    }
+
+    /**
+     * Get expireHours, how long a month stays cached, bounding how stale writes from elsewhere leave it.
+     * @return the expireHours
+     */
+    public int getExpireHours() {
+        return expireHours;
+    }
+
+    /**
+     * Set expireHours.
+     * @param expireHours the expireHours to set
+     */
+    public void setExpireHours(final int expireHours) {
+        this.expireHours = expireHours;
+    }
+}
@@ -0,0 +1,47 @@
+package com.metrink.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * SQL metric storage configuration options, used when metrics_storage is sql.
+ */
+public class SqlStorageSettings {
+
+    @JsonProperty("dialect")
+    private String dialect = "h2";
+
+    @JsonProperty("insert_batch_rows")
+    private int insertBatchRows = 500;
+
+    /**
+     * Get dialect, h2 or mysql, which picks the upsert statement.
+     * @return the dialect
+     */
+    public String getDialect() {
+        return dialect;
+    }
+
+    /**
+     * Set dialect.
+     * @param dialect the dialect to set
+     */
+    public void setDialect(final String dialect) {
+        this.dialect = dialect;
+    }
+
+    /**
+     * Get insertBatchRows, the most rows written by one insert statement.
+     * @return the insertBatchRows
+     */
+    public int getInsertBatchRows() {
+        return insertBatchRows;
+    }
+
+    /**
+     * Set insertBatchRows.
+     * @param insertBatchRows the insertBatchRows to set
+     */
+    public void setInsertBatchRows(final int insertBatchRows) {
+        this.insertBatchRows = insertBatchRows;
+    }
+}
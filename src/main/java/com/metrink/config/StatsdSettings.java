@@ -0,0 +1,161 @@
+package com.metrink.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * StatsD listener configuration options.
+ */
+public class StatsdSettings {
+
+    @JsonProperty("enabled")
+    private boolean enabled = false;
+
+    @JsonProperty("bind_address")
+    private String bindAddress = "0.0.0.0";
+
+    @JsonProperty("port")
+    private int port = 8125;
+
+    @JsonProperty("device")
+    private String device = "statsd";
+
+    @JsonProperty("group")
+    private String group = "statsd";
+
+    @JsonProperty("flush_interval_seconds")
+    private int flushIntervalSeconds = 60;
+
+    @JsonProperty("max_buckets")
+    private int maxBuckets = 100000;
+
+    @JsonProperty("max_timer_samples")
+    private int maxTimerSamples = 100000;
+
+    /**
+     * Get enabled.
+     * @return the enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Set enabled.
+     * @param enabled the enabled to set
+     */
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Get bindAddress.
+     * @return the bindAddress
+     */
+    public String getBindAddress() {
+        return bindAddress;
+    }
+
+    /**
+     * Set bindAddress.
+     * @param bindAddress the bindAddress to set
+     */
+    public void setBindAddress(final String bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+
+    /**
+     * Get port.
+     * @return the port
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Set port.
+     * @param port the port to set
+     */
+    public void setPort(final int port) {
+        this.port = port;
+    }
+
+    /**
+     * Get device, the device all statsd metrics are recorded under.
+     * @return the device
+     */
+    public String getDevice() {
+        return device;
+    }
+
+    /**
+     * Set device.
+     * @param device the device to set
+     */
+    public void setDevice(final String device) {
+        this.device = device;
+    }
+
+    /**
+     * Get group, the group all statsd metrics are recorded under.
+     * @return the group
+     */
+    public String getGroup() {
+        return group;
+    }
+
+    /**
+     * Set group.
+     * @param group the group to set
+     */
+    public void setGroup(final String group) {
+        this.group = group;
+    }
+
+    /**
+     * Get flushIntervalSeconds.
+     * @return the flushIntervalSeconds
+     */
+    public int getFlushIntervalSeconds() {
+        return flushIntervalSeconds;
+    }
+
+    /**
+     * Set flushIntervalSeconds.
+     * @param flushIntervalSeconds the flushIntervalSeconds to set
+     */
+    public void setFlushIntervalSeconds(final int flushIntervalSeconds) {
+        this.flushIntervalSeconds = flushIntervalSeconds;
+    }
+
+    /**
+     * Get maxBuckets, the maximum number of distinct buckets per type; new buckets beyond this are dropped.
+     * @return the maxBuckets
+     */
+    public int getMaxBuckets() {
+        return maxBuckets;
+    }
+
+    /**
+     * Set maxBuckets.
+     * @param maxBuckets the maxBuckets to set
+     */
+    public void setMaxBuckets(final int maxBuckets) {
+        this.maxBuckets = maxBuckets;
+    }
+
+    /**
+     * Get maxTimerSamples, the maximum number of samples per timer per flush interval that percentiles are taken from.
+     * @return the maxTimerSamples
+     */
+    public int getMaxTimerSamples() {
+        return maxTimerSamples;
+    }
+
+    /**
+     * Set maxTimerSamples.
+     * @param maxTimerSamples the maxTimerSamples to set
+     */
+    public void setMaxTimerSamples(final int maxTimerSamples) {
+        this.maxTimerSamples = maxTimerSamples;
+    }
+}
@@ -0,0 +1,120 @@
+package com.metrink.ingest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Helpers for reading ASCII fields and numbers straight out of a {@link ByteBuffer} without allocating.
+ */
+class AsciiBytes {
+
+    private static final String RESERVED_CHARACTERS = "'\"`~!@#$%^&*()[]{}<>:;|\\";
+    private static final boolean[] VALID_FIELD_BYTE = new boolean[128];
+
+    // powers of ten that are exactly representable as doubles
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        // the same rules as ParserUtils.validateField, applied a byte at a time; spaces are separators here
+        for(int b=0x21; b < 0x7F; ++b) {
+            VALID_FIELD_BYTE[b] = RESERVED_CHARACTERS.indexOf(b) == -1;
+        }
+
+        POWERS_OF_TEN[0] = 1.0;
+
+        for(int i=1; i < POWERS_OF_TEN.length; ++i) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1] * 10.0;
+        }
+    }
+
+    private AsciiBytes() { }
+
+    /**
+     * Checks that every byte in the range is printable and not a reserved character.
+     * @param buffer the buffer.
+     * @param start the first byte, inclusive.
+     * @param end the last byte, exclusive.
+     * @return true if the range is a valid device, group, or name.
+     */
+    static boolean isValidField(final ByteBuffer buffer, final int start, final int end) {
+        for(int i=start; i < end; ++i) {
+            final byte b = buffer.get(i);
+
+            if(b < 0 || !VALID_FIELD_BYTE[b]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Copies the range into a new String.
+     * @param buffer the buffer.
+     * @param start the first byte, inclusive.
+     * @param end the last byte, exclusive.
+     * @return the range as a String.
+     */
+    static String toString(final ByteBuffer buffer, final int start, final int end) {
+        final byte[] bytes = new byte[end - start];
+
+        for(int i=0; i < bytes.length; ++i) {
+            bytes[i] = buffer.get(start + i);
+        }
+
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Parses plain decimals without allocating, falling back to {@link Double#parseDouble(String)} for anything
+     * else (exponents, NaN, very long mantissas).
+     * @param buffer the buffer.
+     * @param start the first byte, inclusive.
+     * @param end the last byte, exclusive.
+     * @return the parsed double.
+     * @throws NumberFormatException if the range is not a number.
+     */
+    static double parseDouble(final ByteBuffer buffer, final int start, final int end) {
+        if(start >= end) {
+            throw new NumberFormatException("empty String");
+        }
+
+        int pos = start;
+        boolean negative = false;
+
+        if(buffer.get(pos) == '-' || buffer.get(pos) == '+') {
+            negative = buffer.get(pos) == '-';
+            pos++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean seenDot = false;
+
+        for(; pos < end; ++pos) {
+            final byte b = buffer.get(pos);
+
+            if(b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+
+                if(seenDot) {
+                    fractionDigits++;
+                }
+            } else if(b == '.' && !seenDot) {
+                seenDot = true;
+            } else {
+                break;
+            }
+        }
+
+        // 15 digits always fit exactly in a double's 53 bit mantissa, so one division is correctly rounded
+        if(pos == end && digits > 0 && digits <= 15) {
+            final double value = mantissa / POWERS_OF_TEN[fractionDigits];
+            return negative ? -value : value;
+        }
+
+        return Double.parseDouble(toString(buffer, start, end));
+    }
+}
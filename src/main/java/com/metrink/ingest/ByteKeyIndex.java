@@ -0,0 +1,206 @@
+package com.metrink.ingest;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An open addressing map from ASCII keys, read straight out of a {@link ByteBuffer}, to dense integer ids.
+ *
+ * Looking up an existing key allocates nothing; the key's bytes and String are only created the first time it is
+ * seen. Ids are assigned densely from zero so callers can keep per-key state in primitive arrays. The id of a removed
+ * key is given to the next new key, so callers must reset their state for an id when they remove its key.
+ *
+ * This class is <b>NOT</b> thread safe.
+ */
+class ByteKeyIndex {
+
+    private final int maxSize;
+    private int[] table; // id + 1 for each slot, 0 for empty
+    private int[] hashes;
+    private byte[][] keys;
+    private String[] names;
+    private int size = 0;  // ids handed out, including removed ones
+    private int count = 0; // keys in the index
+    private int[] freeIds = new int[8];
+    private int freeCount = 0;
+
+    /**
+     * Creates an index.
+     * @param maxSize the maximum number of keys the index will accept.
+     */
+    ByteKeyIndex(final int maxSize) {
+        this.maxSize = maxSize;
+        this.table = new int[64];
+        this.hashes = new int[32];
+        this.keys = new byte[32][];
+        this.names = new String[32];
+    }
+
+    /**
+     * Returns the id of the key, adding it if it has not been seen before.
+     * @param buffer the buffer.
+     * @param start the first byte of the key, inclusive.
+     * @param end the last byte of the key, exclusive.
+     * @return the id of the key, or -1 if the key is new and the index is full.
+     */
+    int indexOf(final ByteBuffer buffer, final int start, final int end) {
+        final int hash = hash(buffer, start, end);
+        int slot = hash & (table.length - 1);
+
+        while(table[slot] != 0) {
+            final int id = table[slot] - 1;
+
+            if(hashes[id] == hash && equals(keys[id], buffer, start, end)) {
+                return id;
+            }
+
+            slot = (slot + 1) & (table.length - 1);
+        }
+
+        if(count >= maxSize) {
+            return -1;
+        }
+
+        final int id = freeCount > 0 ? freeIds[--freeCount] : size++;
+
+        if(id == keys.length) {
+            hashes = Arrays.copyOf(hashes, id * 2);
+            keys = Arrays.copyOf(keys, id * 2);
+            names = Arrays.copyOf(names, id * 2);
+        }
+
+        count++;
+
+        final byte[] key = new byte[end - start];
+
+        for(int i=0; i < key.length; ++i) {
+            key[i] = buffer.get(start + i);
+        }
+
+        hashes[id] = hash;
+        keys[id] = key;
+        names[id] = AsciiBytes.toString(buffer, start, end);
+        table[slot] = id + 1;
+
+        // keep the load factor at or below one half
+        if(count * 2 > table.length) {
+            rehash();
+        }
+
+        return id;
+    }
+
+    /**
+     * Removes the key with an id, freeing the id for the next new key.
+     * @param id the id of a key in the index.
+     */
+    void remove(final int id) {
+        final int mask = table.length - 1;
+        int hole = hashes[id] & mask;
+
+        while(table[hole] != id + 1) {
+            hole = (hole + 1) & mask;
+        }
+
+        // shift back the keys after the hole that would no longer be found past it
+        for(int slot = (hole + 1) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            final int home = hashes[table[slot] - 1] & mask;
+
+            if(((slot - home) & mask) >= ((slot - hole) & mask)) {
+                table[hole] = table[slot];
+                hole = slot;
+            }
+        }
+
+        table[hole] = 0;
+        keys[id] = null;
+        names[id] = null;
+        count--;
+
+        if(freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+
+        freeIds[freeCount++] = id;
+    }
+
+    /**
+     * Returns the key for an id.
+     * @param id the id.
+     * @return the key as a String, or null if the id is not in use.
+     */
+    String name(final int id) {
+        return names[id];
+    }
+
+    /**
+     * Returns true if the id is held by a key.
+     * @param id an id less than {@link #size()}.
+     * @return true if the id is in use.
+     */
+    boolean contains(final int id) {
+        return keys[id] != null;
+    }
+
+    /**
+     * Returns the number of ids handed out, including those of removed keys; ids are always less than this.
+     * @return the number of ids.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if no more keys can be added.
+     * @return true if the index holds its maximum number of keys.
+     */
+    boolean isFull() {
+        return count >= maxSize;
+    }
+
+    private void rehash() {
+        final int[] newTable = new int[table.length * 2];
+
+        for(int id=0; id < size; ++id) {
+            if(keys[id] == null) {
+                continue;
+            }
+
+            int slot = hashes[id] & (newTable.length - 1);
+
+            while(newTable[slot] != 0) {
+                slot = (slot + 1) & (newTable.length - 1);
+            }
+
+            newTable[slot] = id + 1;
+        }
+
+        table = newTable;
+    }
+
+    private static int hash(final ByteBuffer buffer, final int start, final int end) {
+        int hash = 0x811C9DC5; // FNV-1a
+
+        for(int i=start; i < end; ++i) {
+            hash ^= buffer.get(i);
+            hash *= 0x01000193;
+        }
+
+        // spread the bits, as the table size is a power of two
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(final byte[] key, final ByteBuffer buffer, final int start, final int end) {
+        if(key.length != end - start) {
+            return false;
+        }
+
+        for(int i=0; i < key.length; ++i) {
+            if(key[i] != buffer.get(start + i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,160 @@
+package com.metrink.ingest;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.metrink.aggregation.OneMinuteAggregator;
+import com.metrink.aggregation.OneMinuteAggregator.FlushResult;
+import com.metrink.config.MetrinkCollectorSettings;
+import com.metrink.metric.io.MetricWriter;
+
+/**
+ * Shuts the collector down without losing the minutes it is holding.
+ *
+ * In order, {@link #shutdown()}:
+ * <ol>
+ * <li>stops accepting /api requests and waits for the ones in progress,</li>
+ * <li>shuts down the socket {@link Listener}s, which flush their partial batches,</li>
+ * <li>drains the {@link IngestPipeline},</li>
+ * <li>writes the minutes the {@link OneMinuteAggregator} holds, leaving the open ones to its write-ahead log if it
+ * has one,</li>
+ * <li>shuts down the aggregator and the {@link MetricWriter}.</li>
+ * </ol>
+ *
+ * Everything up to the writes shares one deadline, after which whatever remains is dropped and counted. When
+ * installed by Guice it runs from a JVM shutdown hook.
+ */
+@Singleton
+public class GracefulShutdown {
+    private static final Logger LOG = LoggerFactory.getLogger(GracefulShutdown.class);
+
+    private final IngestPipeline ingestPipeline;
+    private final OneMinuteAggregator aggregator;
+    private final MetricWriter metricWriter;
+    private final long timeoutInMs;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    private final AtomicInteger requestsInProgress = new AtomicInteger();
+    private volatile boolean accepting = true;
+
+    @Inject
+    public GracefulShutdown(final IngestPipeline ingestPipeline,
+                            final OneMinuteAggregator aggregator,
+                            final MetricWriter metricWriter,
+                            final MetrinkCollectorSettings settings) {
+        this.ingestPipeline = ingestPipeline;
+        this.aggregator = aggregator;
+        this.metricWriter = metricWriter;
+        this.timeoutInMs = TimeUnit.SECONDS.toMillis(settings.getIngestSettings().getShutdownTimeoutSeconds());
+    }
+
+    /**
+     * Runs {@link #shutdown()} when the JVM exits. Called by Guice once the instance is created.
+     */
+    @Inject
+    void installShutdownHook() {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                shutdown();
+            }
+        }, "graceful-shutdown"));
+    }
+
+    /**
+     * Adds a listener to shut down.
+     * @param listener the started listener.
+     */
+    public void addListener(final Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Marks the start of an /api request.
+     * @return false if the collector is shutting down and the request should be refused; otherwise
+     * {@link #endRequest()} must be called when the request is done.
+     */
+    public boolean beginRequest() {
+        requestsInProgress.incrementAndGet();
+
+        // checked after counting the request, so shutdown() either sees it or it sees the flag
+        if(!accepting) {
+            requestsInProgress.decrementAndGet();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Marks the end of an /api request started with {@link #beginRequest()}.
+     */
+    public void endRequest() {
+        requestsInProgress.decrementAndGet();
+    }
+
+    /**
+     * Stops ingest and writes everything held, logging how many points were written, left in the write-ahead log, and
+     * dropped.
+     *
+     * Only the first call does anything.
+     */
+    public void shutdown() {
+        synchronized(this) {
+            if(!accepting) {
+                return;
+            }
+
+            accepting = false;
+        }
+
+        final long deadline = System.currentTimeMillis() + timeoutInMs;
+
+        LOG.info("Shutting down, waiting up to {}ms for metrics to be written", timeoutInMs);
+
+        try {
+            // requests that got in before the flag flipped
+            while(requestsInProgress.get() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            if(requestsInProgress.get() > 0) {
+                LOG.warn("{} /api requests still in progress", requestsInProgress.get());
+            }
+
+            for(final Listener listener:listeners) {
+                listener.shutdown();
+            }
+
+            final int pipelineDropped = ingestPipeline.drain(remaining(deadline));
+            final FlushResult result = aggregator.flushAll(remaining(deadline));
+            final long dropped = result.getDroppedPoints() + pipelineDropped;
+
+            if(dropped > 0) {
+                LOG.warn("Shutdown wrote {} points, left {} in the write-ahead log, and dropped {} ({} still queued, {} not written)",
+                         new Object[] { result.getFlushedPoints(), result.getLoggedPoints(), dropped,
+                                        pipelineDropped, result.getDroppedPoints() });
+            } else {
+                LOG.info("Shutdown wrote {} points and left {} in the write-ahead log",
+                         result.getFlushedPoints(), result.getLoggedPoints());
+            }
+        } catch(final InterruptedException e) {
+            LOG.error("Interrupted while shutting down, unwritten points were dropped");
+            Thread.currentThread().interrupt();
+        } finally {
+            aggregator.shutdown();
+            metricWriter.shutdown();
+        }
+    }
+
+    private static long remaining(final long deadline) {
+        return Math.max(0, deadline - System.currentTimeMillis());
+    }
+}
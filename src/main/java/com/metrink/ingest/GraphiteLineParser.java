@@ -0,0 +1,237 @@
+package com.metrink.ingest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.metrink.inject.DateTimeProvider;
+import com.metrink.metric.Metric;
+
+/**
+ * Parses Graphite plaintext lines, {@code path value [timestamp]}, straight out of a {@link ByteBuffer}.
+ *
+ * The dotted path is mapped onto a {@link Metric} by dropping the first {@code skipSegments} segments, then taking
+ * the next segment as the device, the one after as the group, and everything remaining as the name. Timestamps are
+ * in seconds; a missing or negative timestamp means now.
+ *
+ * This class is <b>NOT</b> thread safe; each listener thread needs its own instance.
+ */
+public class GraphiteLineParser {
+    private static final Logger LOG = LoggerFactory.getLogger(GraphiteLineParser.class);
+
+    private final int skipSegments;
+    private final DateTimeProvider dateTimeProvider;
+    private byte[] scratch = new byte[256];
+
+    public GraphiteLineParser(final int skipSegments, final DateTimeProvider dateTimeProvider) {
+        this.skipSegments = skipSegments;
+        this.dateTimeProvider = dateTimeProvider;
+    }
+
+    /**
+     * Parses all of the complete lines between the buffer's position and limit.
+     *
+     * On return the buffer's position is at the start of the first incomplete line, ready for
+     * {@link ByteBuffer#compact()}.
+     *
+     * @param buffer the buffer to read lines from.
+     * @param metrics the list to add parsed metrics to.
+     * @return the number of malformed lines that were discarded.
+     */
+    public int parse(final ByteBuffer buffer, final List<Metric> metrics) {
+        final int limit = buffer.limit();
+        int lineStart = buffer.position();
+        int discarded = 0;
+        long now = -1;
+
+        for(int i=lineStart; i < limit; ++i) {
+            if(buffer.get(i) != '\n') {
+                continue;
+            }
+
+            int lineEnd = i;
+
+            if(lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+
+            if(now == -1) {
+                now = dateTimeProvider.get().getMillis();
+            }
+
+            if(lineEnd > lineStart && !parseLine(buffer, lineStart, lineEnd, now, metrics)) {
+                discarded++;
+            }
+
+            lineStart = i + 1;
+        }
+
+        buffer.position(lineStart);
+
+        return discarded;
+    }
+
+    /**
+     * Parses all of the lines between the buffer's position and limit, including a last line without a newline, as
+     * is left when a client closes the connection.
+     *
+     * On return the buffer has nothing remaining.
+     *
+     * @param buffer the buffer to read lines from.
+     * @param metrics the list to add parsed metrics to.
+     * @return the number of malformed lines that were discarded.
+     */
+    public int parseAll(final ByteBuffer buffer, final List<Metric> metrics) {
+        int discarded = parse(buffer, metrics);
+
+        final int lineStart = buffer.position();
+        int lineEnd = buffer.limit();
+
+        if(lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') {
+            lineEnd--;
+        }
+
+        if(lineEnd > lineStart && !parseLine(buffer, lineStart, lineEnd, dateTimeProvider.get().getMillis(), metrics)) {
+            discarded++;
+        }
+
+        buffer.position(buffer.limit());
+
+        return discarded;
+    }
+
+    /**
+     * Parses a single line.
+     * @return true if a metric was added.
+     */
+    private boolean parseLine(final ByteBuffer buffer, final int start, final int end, final long now, final List<Metric> metrics) {
+        final int pathStart = skipWhitespace(buffer, start, end);
+        final int pathEnd = skipToken(buffer, pathStart, end);
+        final int valueStart = skipWhitespace(buffer, pathEnd, end);
+        final int valueEnd = skipToken(buffer, valueStart, end);
+        final int timestampStart = skipWhitespace(buffer, valueEnd, end);
+        final int timestampEnd = skipToken(buffer, timestampStart, end);
+
+        if(pathStart == pathEnd || valueStart == valueEnd) {
+            LOG.debug("Discarding malformed graphite line");
+            return false;
+        }
+
+        // find the device, group, and name
+        int segmentStart = pathStart;
+
+        for(int s=0; s < skipSegments && segmentStart < pathEnd; ++s) {
+            segmentStart = indexOfDot(buffer, segmentStart, pathEnd) + 1;
+        }
+
+        final int deviceEnd = indexOfDot(buffer, segmentStart, pathEnd);
+        final int groupEnd = indexOfDot(buffer, deviceEnd + 1, pathEnd);
+
+        if(deviceEnd >= pathEnd || groupEnd >= pathEnd || deviceEnd == segmentStart || groupEnd == deviceEnd + 1 || groupEnd + 1 == pathEnd) {
+            LOG.debug("Discarding graphite path without a device, group, and name");
+            return false;
+        }
+
+        if(!AsciiBytes.isValidField(buffer, segmentStart, pathEnd)) {
+            LOG.debug("Discarding graphite path with a reserved character");
+            return false;
+        }
+
+        final double value;
+        final long timestamp;
+
+        try {
+            value = AsciiBytes.parseDouble(buffer, valueStart, valueEnd);
+            timestamp = timestampStart == timestampEnd ? now : parseTimestamp(buffer, timestampStart, timestampEnd, now);
+        } catch(final NumberFormatException e) {
+            LOG.debug("Discarding graphite line with a malformed number: {}", e.getMessage());
+            return false;
+        }
+
+        metrics.add(new Metric(toString(buffer, segmentStart, deviceEnd),
+                               toString(buffer, deviceEnd + 1, groupEnd),
+                               toString(buffer, groupEnd + 1, pathEnd),
+                               timestamp,
+                               value,
+                               ""));
+
+        return true;
+    }
+
+    private static boolean isWhitespace(final byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static int skipWhitespace(final ByteBuffer buffer, int pos, final int end) {
+        while(pos < end && isWhitespace(buffer.get(pos))) {
+            pos++;
+        }
+
+        return pos;
+    }
+
+    private static int skipToken(final ByteBuffer buffer, int pos, final int end) {
+        while(pos < end && !isWhitespace(buffer.get(pos))) {
+            pos++;
+        }
+
+        return pos;
+    }
+
+    private static int indexOfDot(final ByteBuffer buffer, int pos, final int end) {
+        while(pos < end && buffer.get(pos) != '.') {
+            pos++;
+        }
+
+        return pos;
+    }
+
+    private String toString(final ByteBuffer buffer, final int start, final int end) {
+        final int length = end - start;
+
+        if(scratch.length < length) {
+            scratch = new byte[length];
+        }
+
+        for(int i=0; i < length; ++i) {
+            scratch[i] = buffer.get(start + i);
+        }
+
+        return new String(scratch, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    private long parseTimestamp(final ByteBuffer buffer, final int start, final int end, final long now) {
+        int pos = start;
+        boolean negative = false;
+
+        if(buffer.get(pos) == '-') {
+            negative = true;
+            pos++;
+        }
+
+        long seconds = 0;
+        int digits = 0;
+
+        // fractional seconds are truncated
+        for(; pos < end && buffer.get(pos) != '.'; ++pos) {
+            final byte b = buffer.get(pos);
+
+            if(b < '0' || b > '9' || ++digits > 12) {
+                throw new NumberFormatException("Bad timestamp: " + toString(buffer, start, end));
+            }
+
+            seconds = seconds * 10 + (b - '0');
+        }
+
+        if(digits == 0) {
+            throw new NumberFormatException("Bad timestamp: " + toString(buffer, start, end));
+        }
+
+        // graphite uses -1 to mean now
+        return negative ? now : TimeUnit.SECONDS.toMillis(seconds);
+    }
+}
@@ -0,0 +1,262 @@
+package com.metrink.ingest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.metrink.config.GraphiteSettings;
+import com.metrink.config.MetrinkCollectorSettings;
+import com.metrink.inject.DateTimeProvider;
+import com.metrink.metric.Metric;
+
+/**
+ * Non-blocking TCP listener for the Graphite plaintext protocol.
+ *
+ * A single selector thread accepts connections and reads each one into its own direct {@link ByteBuffer}, which
+ * {@link GraphiteLineParser} parses in place. Metrics are handed off to the {@link MetricDispatcher} in batches.
+ *
+ * When the ingest pipeline is full the batch is held and the connections stop being read, so TCP pushes back on the
+ * senders instead of their metrics being discarded; the batch is offered again every {@link #PAUSED_RETRY_MS}.
+ */
+@Singleton
+public class GraphiteListener implements Listener, Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(GraphiteListener.class);
+
+    static final long PAUSED_RETRY_MS = 100;
+
+    private final GraphiteSettings settings;
+    private final MetricDispatcher dispatcher;
+    private final GraphiteLineParser lineParser;
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread thread;
+    private volatile boolean running;
+    private List<Metric> batch;
+    private boolean paused = false;
+
+    @Inject
+    public GraphiteListener(final MetrinkCollectorSettings settings,
+                            final MetricDispatcher dispatcher,
+                            final DateTimeProvider dateTimeProvider) {
+        this.settings = settings.getGraphiteSettings();
+        this.dispatcher = dispatcher;
+        this.lineParser = new GraphiteLineParser(this.settings.getSkipSegments(), dateTimeProvider);
+        this.batch = new ArrayList<Metric>(this.settings.getBatchSize());
+    }
+
+    /**
+     * Binds the listening socket and starts the selector thread.
+     * @throws IOException if the socket cannot be bound.
+     */
+    @Override
+    public synchronized void start() throws IOException {
+        if(thread != null) {
+            return;
+        }
+
+        final InetSocketAddress address = new InetSocketAddress(settings.getBindAddress(), settings.getPort());
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(address);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+        thread = new Thread(this, "graphite-listener");
+        thread.setDaemon(true);
+        thread.start();
+
+        LOG.info("Listening for graphite metrics on {}", address);
+    }
+
+    /**
+     * Closes the listening socket and all connections, flushing any partial batch.
+     */
+    @Override
+    public synchronized void shutdown() {
+        if(thread == null) {
+            return;
+        }
+
+        LOG.info("Shutting down graphite listener");
+
+        running = false;
+        selector.wakeup();
+
+        try {
+            thread.join();
+        } catch(final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        thread = null;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while(running) {
+                if(paused) {
+                    selector.select(PAUSED_RETRY_MS);
+                } else {
+                    selector.select();
+                }
+
+                final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+
+                while(it.hasNext()) {
+                    final SelectionKey key = it.next();
+                    it.remove();
+
+                    if(!key.isValid()) {
+                        continue;
+                    }
+
+                    if(key.isAcceptable()) {
+                        accept();
+                    } else if(key.isReadable() && !paused) {
+                        read(key);
+                    }
+                }
+
+                // don't let a partial batch sit around while the connections are idle
+                flush();
+            }
+        } catch(final IOException e) {
+            LOG.error("Graphite listener failed: {}", e.getMessage(), e);
+        } finally {
+            // nothing is read any more, so what can't be taken is discarded
+            if(!batch.isEmpty()) {
+                dispatcher.dispatch("graphite", batch);
+            }
+
+            closeQuietly();
+        }
+    }
+
+    private void accept() throws IOException {
+        final SocketChannel channel = serverChannel.accept();
+
+        if(channel == null) {
+            return;
+        }
+
+        channel.configureBlocking(false);
+        channel.register(selector, paused ? 0 : SelectionKey.OP_READ, ByteBuffer.allocateDirect(settings.getBufferSize()));
+
+        LOG.debug("Accepted graphite connection from {}", channel.socket().getRemoteSocketAddress());
+    }
+
+    private void read(final SelectionKey key) {
+        final SocketChannel channel = (SocketChannel) key.channel();
+        final ByteBuffer buffer = (ByteBuffer) key.attachment();
+
+        try {
+            final int read = channel.read(buffer);
+
+            buffer.flip();
+
+            // once the client has closed the connection, what is left is its last line
+            final int discarded = read == -1 ? lineParser.parseAll(buffer, batch) : lineParser.parse(buffer, batch);
+
+            if(discarded > 0) {
+                LOG.warn("Discarded {} malformed graphite lines from {}", discarded, channel.socket().getRemoteSocketAddress());
+            }
+
+            // a full buffer with no newline is a line we can never parse
+            if(buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+                LOG.warn("Discarding graphite line longer than {} bytes", buffer.capacity());
+                buffer.clear();
+            } else {
+                buffer.compact();
+            }
+
+            if(batch.size() >= settings.getBatchSize()) {
+                flush();
+            }
+
+            if(read == -1) {
+                key.cancel();
+                channel.close();
+            }
+        } catch(final IOException e) {
+            LOG.debug("Closing graphite connection: {}", e.getMessage());
+            key.cancel();
+
+            try {
+                channel.close();
+            } catch(final IOException ce) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Hands the current batch off for aggregation and alerting, pausing reads while the pipeline has no room for it.
+     */
+    private void flush() {
+        if(batch.isEmpty()) {
+            return;
+        }
+
+        if(!dispatcher.offer("graphite", batch)) {
+            if(!paused) {
+                LOG.warn("Ingest pipeline full, pausing reads of graphite connections");
+                setReading(false);
+            }
+
+            return;
+        }
+
+        batch = new ArrayList<Metric>(settings.getBatchSize());
+
+        if(paused) {
+            LOG.info("Resuming reads of graphite connections");
+            setReading(true);
+        }
+    }
+
+    /**
+     * Starts or stops reading every connection; what the senders write meanwhile waits in the socket buffers.
+     */
+    private void setReading(final boolean reading) {
+        paused = !reading;
+
+        for(final SelectionKey key:selector.keys()) {
+            if(key.isValid() && key.channel() instanceof SocketChannel) {
+                key.interestOps(reading ? SelectionKey.OP_READ : 0);
+            }
+        }
+    }
+
+    private void closeQuietly() {
+        for(final SelectionKey key:selector.keys()) {
+            try {
+                key.channel().close();
+            } catch(final IOException e) {
+                LOG.debug("Error closing graphite connection: {}", e.getMessage());
+            }
+        }
+
+        try {
+            selector.close();
+        } catch(final IOException e) {
+            LOG.debug("Error closing graphite selector: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.metrink.ingest;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.metrink.aggregation.OneMinuteAggregator;
+import com.metrink.alert.AlertEngine;
+import com.metrink.config.IngestSettings;
+import com.metrink.config.MetrinkCollectorSettings;
+import com.metrink.metric.Metric;
+
+/**
+ * Bounded, two stage pipeline that moves parsed metrics off of the request thread.
+ *
+ * Batches are first handed to the {@link OneMinuteAggregator} and then to the {@link AlertEngine}, each stage
+ * running on its own executor. The pipeline is bounded by the number of metrics in flight rather than the number of
+ * batches, so a few huge batches cannot exhaust the heap. A metric holds its permit until it has passed through
+ * both stages.
+ */
+@Singleton
+public class IngestPipeline {
+    private static final Logger LOG = LoggerFactory.getLogger(IngestPipeline.class);
+
+    private final OneMinuteAggregator aggregator;
+    private final AlertEngine alertEngine;
+    private final IngestSettings settings;
+    private final Semaphore permits;
+    private final ExecutorService aggregationExecutor;
+    private final ExecutorService alertExecutor;
+
+    @Inject
+    public IngestPipeline(final OneMinuteAggregator aggregator,
+                          final AlertEngine alertEngine,
+                          final MetrinkCollectorSettings settings) {
+        this.aggregator = aggregator;
+        this.alertEngine = alertEngine;
+        this.settings = settings.getIngestSettings();
+        this.permits = new Semaphore(this.settings.getMaxQueuedMetrics());
+
+        // metrics are processed on the request thread when async ingest is off, so no threads are started
+        if(this.settings.isAsync()) {
+            this.aggregationExecutor = createExecutor("ingest-aggregation-%d", this.settings.getAggregationThreads());
+            this.alertExecutor = createExecutor("ingest-alert-%d", this.settings.getAlertThreads());
+        } else {
+            this.aggregationExecutor = null;
+            this.alertExecutor = null;
+        }
+    }
+
+    private static ExecutorService createExecutor(final String nameFormat, final int threads) {
+        // the queues are bounded by the permits, not by the executors
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                                      new LinkedBlockingQueue<Runnable>(),
+                                      new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build());
+    }
+
+    /**
+     * Returns true if the API should hand metrics to this pipeline rather than processing them inline.
+     * @return true if async ingest is enabled.
+     */
+    public boolean isEnabled() {
+        return settings.isAsync();
+    }
+
+    /**
+     * The number of seconds a client should wait before retrying a rejected batch.
+     * @return the number of seconds to wait.
+     */
+    public int getRetryAfterSeconds() {
+        return settings.getRetryAfterSeconds();
+    }
+
+    /**
+     * The number of metrics currently in the pipeline.
+     * @return the number of metrics that have been accepted but not completely processed.
+     */
+    public int getQueuedMetrics() {
+        return settings.getMaxQueuedMetrics() - permits.availablePermits();
+    }
+
+    /**
+     * The most metrics the pipeline holds at once; larger batches are never accepted.
+     * @return the maximum number of metrics in the pipeline.
+     */
+    public int getMaxQueuedMetrics() {
+        return settings.getMaxQueuedMetrics();
+    }
+
+    /**
+     * Enqueues the metrics without blocking.
+     *
+     * The batch is accepted whole or not at all, so a client told to back off can resend exactly what it sent.
+     *
+     * @param metrics the metrics to enqueue.
+     * @return true if the batch was accepted, false if there is not room for all of it or async ingest is off.
+     */
+    public boolean submit(final List<Metric> metrics) {
+        if(!isEnabled()) {
+            return false;
+        }
+
+        if(metrics.isEmpty()) {
+            return true;
+        }
+
+        if(!permits.tryAcquire(metrics.size())) {
+            LOG.warn("Ingest pipeline full, rejecting batch of {} metrics with {} queued", metrics.size(), getQueuedMetrics());
+            return false;
+        }
+
+        try {
+            aggregationExecutor.execute(new AggregationTask(metrics));
+        } catch(final RejectedExecutionException e) {
+            LOG.error("Ingest pipeline is shut down, rejecting batch of {} metrics", metrics.size());
+            permits.release(metrics.size());
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Stops accepting metrics and waits for the ones already queued to pass through both stages, then stops both
+     * stages.
+     * @param timeoutInMs how long to wait for the queued metrics.
+     * @return the number of metrics discarded without being aggregated because the time ran out.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public int drain(final long timeoutInMs) throws InterruptedException {
+        if(!isEnabled()) {
+            return 0;
+        }
+
+        final long deadline = System.currentTimeMillis() + timeoutInMs;
+
+        LOG.info("Draining ingest pipeline with {} metrics queued", getQueuedMetrics());
+
+        // the aggregation stage feeds the alert stage, so it has to finish first
+        aggregationExecutor.shutdown();
+        aggregationExecutor.awaitTermination(timeoutInMs, TimeUnit.MILLISECONDS);
+        alertExecutor.shutdown();
+        alertExecutor.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+
+        int dropped = 0;
+
+        for(final Runnable task:aggregationExecutor.shutdownNow()) {
+            dropped += ((AggregationTask) task).metrics.size();
+        }
+
+        alertExecutor.shutdownNow();
+
+        if(dropped > 0) {
+            LOG.warn("Ingest pipeline did not drain in time, discarded {} metrics", dropped);
+        }
+
+        return dropped;
+    }
+
+    /**
+     * Stops both stages, discarding anything still queued.
+     */
+    public void shutdown() {
+        if(!isEnabled()) {
+            return;
+        }
+
+        LOG.info("Shutting down ingest pipeline with {} metrics queued", getQueuedMetrics());
+        aggregationExecutor.shutdownNow();
+        alertExecutor.shutdownNow();
+    }
+
+    /**
+     * First stage: hands the batch to the aggregator, then to the alert stage.
+     */
+    private class AggregationTask implements Runnable {
+        private final List<Metric> metrics;
+
+        public AggregationTask(final List<Metric> metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void run() {
+            try {
+                aggregator.readMetrics(metrics);
+            } catch(final Exception e) {
+                LOG.error("Error aggregating metrics: {}", e.getMessage(), e);
+            }
+
+            try {
+                alertExecutor.execute(new AlertTask(metrics));
+            } catch(final RejectedExecutionException e) {
+                LOG.error("Alert stage is shut down, skipping alerts for {} metrics", metrics.size());
+                permits.release(metrics.size());
+            }
+        }
+    }
+
+    /**
+     * Second stage: runs the batch through the alert engine and releases the batch's permits.
+     */
+    private class AlertTask implements Runnable {
+        private final List<Metric> metrics;
+
+        public AlertTask(final List<Metric> metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void run() {
+            try {
+                alertEngine.processMetrics(metrics);
+            } catch(final Exception e) {
+                LOG.error("Error processing alerts: {}", e.getMessage(), e);
+            } finally {
+                permits.release(metrics.size());
+            }
+        }
+    }
+}
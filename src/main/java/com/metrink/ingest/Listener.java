@@ -0,0 +1,20 @@
+package com.metrink.ingest;
+
+import java.io.IOException;
+
+/**
+ * A socket listener that feeds metrics into the collector outside of the REST API.
+ */
+public interface Listener {
+
+    /**
+     * Binds the socket and starts accepting metrics.
+     * @throws IOException if the socket cannot be bound.
+     */
+    public void start() throws IOException;
+
+    /**
+     * Stops accepting metrics and closes the socket.
+     */
+    public void shutdown();
+}
@@ -0,0 +1,92 @@
+package com.metrink.ingest;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.metrink.aggregation.OneMinuteAggregator;
+import com.metrink.alert.AlertEngine;
+import com.metrink.metric.Metric;
+
+/**
+ * Hands metrics from the socket {@link Listener}s off for aggregation and alerting: to the {@link IngestPipeline}
+ * when async ingest is enabled, otherwise straight to the {@link OneMinuteAggregator} and {@link AlertEngine}.
+ */
+@Singleton
+public class MetricDispatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(MetricDispatcher.class);
+
+    private final OneMinuteAggregator aggregator;
+    private final AlertEngine alertEngine;
+    private final IngestPipeline ingestPipeline;
+
+    @Inject
+    public MetricDispatcher(final OneMinuteAggregator aggregator,
+                            final AlertEngine alertEngine,
+                            final IngestPipeline ingestPipeline) {
+        this.aggregator = aggregator;
+        this.alertEngine = alertEngine;
+        this.ingestPipeline = ingestPipeline;
+    }
+
+    /**
+     * Dispatches the metrics, never throwing.
+     * @param source the name of the source, for logging.
+     * @param metrics the metrics to dispatch.
+     * @return the number of metrics accepted.
+     */
+    public int dispatch(final String source, final List<Metric> metrics) {
+        if(metrics.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            if(ingestPipeline.isEnabled()) {
+                if(!ingestPipeline.submit(metrics)) {
+                    LOG.warn("Ingest pipeline full, discarded {} {} metrics", metrics.size(), source);
+                    return 0;
+                }
+
+                return metrics.size();
+            }
+
+            aggregator.readMetrics(metrics);
+            alertEngine.processMetrics(metrics);
+
+            return metrics.size();
+        } catch(final Exception e) {
+            LOG.error("Error processing {} metrics: {}", source, e.getMessage(), e);
+            return 0;
+        }
+    }
+
+    /**
+     * Dispatches the metrics unless the ingest pipeline is full, so a listener that can stop reading holds on to them
+     * rather than having them discarded. Never throws.
+     * @param source the name of the source, for logging.
+     * @param metrics the metrics to dispatch.
+     * @return false if the pipeline is full and the metrics were not taken.
+     */
+    public boolean offer(final String source, final List<Metric> metrics) {
+        // a batch bigger than the whole pipeline would never be taken
+        if(!ingestPipeline.isEnabled() || metrics.size() > ingestPipeline.getMaxQueuedMetrics()) {
+            dispatch(source, metrics);
+            return true;
+        }
+
+        // checked first so a listener waiting for room doesn't log every rejected retry
+        if(ingestPipeline.getQueuedMetrics() + metrics.size() > ingestPipeline.getMaxQueuedMetrics()) {
+            return false;
+        }
+
+        try {
+            return ingestPipeline.submit(metrics);
+        } catch(final Exception e) {
+            LOG.error("Error processing {} metrics: {}", source, e.getMessage(), e);
+            return true;
+        }
+    }
+}
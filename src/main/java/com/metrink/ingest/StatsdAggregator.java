@@ -0,0 +1,305 @@
+package com.metrink.ingest;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.metrink.metric.Metric;
+import com.metrink.metric.MetricId;
+
+/**
+ * Aggregates StatsD counters, gauges, and timers between flushes.
+ *
+ * Lines have the form {@code bucket:value|type[|@rate]}, where type is {@code c} (counter), {@code g} (gauge, with a
+ * leading sign meaning a relative change), or {@code ms}/{@code h} (timer). All state is kept in primitive arrays
+ * indexed by a {@link ByteKeyIndex}, so a packet for buckets that have been seen before allocates nothing.
+ *
+ * On flush counters become {@code bucket.rate} (per second), gauges are reported as {@code bucket}, and timers become
+ * {@code bucket.mean}, {@code bucket.p50}, and {@code bucket.p99}. Only buckets updated since the last flush are
+ * reported. Counters and timers that were not updated are evicted, so buckets that are gone don't use up
+ * {@code maxBuckets}; gauges keep their value for relative updates, so idle gauges are only evicted when no new gauge
+ * would fit.
+ *
+ * The mean of a timer is exact. Its percentiles come from a uniform sample of at most {@code maxTimerSamples}
+ * values, kept by reservoir sampling.
+ *
+ * This class is <b>NOT</b> thread safe.
+ */
+public class StatsdAggregator {
+    private static final Logger LOG = LoggerFactory.getLogger(StatsdAggregator.class);
+
+    private final String device;
+    private final String group;
+    private final int maxTimerSamples;
+
+    private final ByteKeyIndex counters;
+    private double[] counterSums = new double[32];
+    private boolean[] counterTouched = new boolean[32];
+
+    private final ByteKeyIndex gauges;
+    private double[] gaugeValues = new double[32];
+    private boolean[] gaugeTouched = new boolean[32];
+
+    private final ByteKeyIndex timers;
+    private double[][] timerSamples = new double[32][];
+    private int[] timerCounts = new int[32];
+    private double[] timerSums = new double[32];
+    private final Random random = new Random();
+
+    public StatsdAggregator(final String device, final String group, final int maxBuckets, final int maxTimerSamples) {
+        this.device = device;
+        this.group = group;
+        this.maxTimerSamples = maxTimerSamples;
+        this.counters = new ByteKeyIndex(maxBuckets);
+        this.gauges = new ByteKeyIndex(maxBuckets);
+        this.timers = new ByteKeyIndex(maxBuckets);
+    }
+
+    /**
+     * Reads every line between the buffer's position and limit.
+     * @param buffer the packet.
+     * @return the number of malformed or dropped lines.
+     */
+    public int readPacket(final ByteBuffer buffer) {
+        final int limit = buffer.limit();
+        int lineStart = buffer.position();
+        int discarded = 0;
+
+        for(int i=lineStart; i <= limit; ++i) {
+            if(i < limit && buffer.get(i) != '\n') {
+                continue;
+            }
+
+            int lineEnd = i;
+
+            if(lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+
+            if(lineEnd > lineStart && !readLine(buffer, lineStart, lineEnd)) {
+                discarded++;
+            }
+
+            lineStart = i + 1;
+        }
+
+        buffer.position(limit);
+
+        return discarded;
+    }
+
+    private boolean readLine(final ByteBuffer buffer, final int start, final int end) {
+        final int colon = indexOf(buffer, ':', start, end);
+        final int pipe = indexOf(buffer, '|', colon, end);
+        final int typeEnd = indexOf(buffer, '|', pipe + 1, end);
+
+        if(colon == start || colon >= end || pipe >= end || pipe == colon + 1 || typeEnd == pipe + 1) {
+            LOG.debug("Discarding malformed statsd line");
+            return false;
+        }
+
+        if(!AsciiBytes.isValidField(buffer, start, colon)) {
+            LOG.debug("Discarding statsd bucket with a reserved character");
+            return false;
+        }
+
+        final double value;
+        double sampleRate = 1.0;
+
+        try {
+            value = AsciiBytes.parseDouble(buffer, colon + 1, pipe);
+
+            if(typeEnd + 2 < end && buffer.get(typeEnd + 1) == '@') {
+                sampleRate = AsciiBytes.parseDouble(buffer, typeEnd + 2, end);
+            }
+        } catch(final NumberFormatException e) {
+            LOG.debug("Discarding statsd line with a malformed number: {}", e.getMessage());
+            return false;
+        }
+
+        if(Double.isNaN(value) || Double.isInfinite(value) || sampleRate <= 0.0 || sampleRate > 1.0) {
+            return false;
+        }
+
+        final byte type = buffer.get(pipe + 1);
+        final int typeLength = typeEnd - pipe - 1;
+
+        if(type == 'c' && typeLength == 1) {
+            final int id = counters.indexOf(buffer, start, colon);
+
+            if(id == -1) {
+                return false;
+            }
+
+            ensureCounterCapacity(id);
+            counterSums[id] += value / sampleRate;
+            counterTouched[id] = true;
+        } else if(type == 'g' && typeLength == 1) {
+            final int id = gauges.indexOf(buffer, start, colon);
+
+            if(id == -1) {
+                return false;
+            }
+
+            ensureGaugeCapacity(id);
+
+            // a leading sign means the value is a delta
+            final byte sign = buffer.get(colon + 1);
+            gaugeValues[id] = sign == '+' || sign == '-' ? gaugeValues[id] + value : value;
+            gaugeTouched[id] = true;
+        } else if((type == 'm' && typeLength == 2 && buffer.get(pipe + 2) == 's') || (type == 'h' && typeLength == 1)) {
+            final int id = timers.indexOf(buffer, start, colon);
+
+            if(id == -1) {
+                return false;
+            }
+
+            addTimerSample(id, value);
+        } else {
+            LOG.debug("Discarding statsd line with an unknown type");
+            return false;
+        }
+
+        return true;
+    }
+
+    private void addTimerSample(final int id, final double value) {
+        ensureTimerCapacity(id);
+
+        double[] samples = timerSamples[id];
+        final int count = timerCounts[id];
+
+        timerCounts[id] = count + 1;
+        timerSums[id] += value;
+
+        if(count >= maxTimerSamples) {
+            // replace a kept sample with probability maxTimerSamples / (count + 1), so every sample is equally likely
+            final int slot = random.nextInt(count + 1);
+
+            if(slot < maxTimerSamples) {
+                samples[slot] = value;
+            }
+
+            return;
+        }
+
+        if(samples == null) {
+            samples = timerSamples[id] = new double[Math.min(16, maxTimerSamples)];
+        } else if(count == samples.length) {
+            samples = timerSamples[id] = Arrays.copyOf(samples, Math.min(samples.length * 2, maxTimerSamples));
+        }
+
+        samples[count] = value;
+    }
+
+    /**
+     * Produces the metrics for the interval and resets the counters and timers.
+     * @param timestamp the timestamp for the metrics.
+     * @param intervalInMs how long the counters were collected for, used to turn them into rates.
+     * @return the metrics for the buckets updated during the interval.
+     */
+    public List<Metric> flush(final long timestamp, final long intervalInMs) {
+        final List<Metric> ret = new ArrayList<Metric>();
+        final double intervalInSeconds = intervalInMs / (double) TimeUnit.SECONDS.toMillis(1);
+
+        for(int id=0; id < counters.size(); ++id) {
+            if(counterTouched[id]) {
+                ret.add(createMetric(counters.name(id) + ".rate", timestamp, counterSums[id] / intervalInSeconds));
+                counterSums[id] = 0.0;
+                counterTouched[id] = false;
+            } else if(counters.contains(id)) {
+                counters.remove(id);
+            }
+        }
+
+        final boolean evictGauges = gauges.isFull();
+
+        for(int id=0; id < gauges.size(); ++id) {
+            if(gaugeTouched[id]) {
+                ret.add(createMetric(gauges.name(id), timestamp, gaugeValues[id]));
+                gaugeTouched[id] = false;
+            } else if(evictGauges && gauges.contains(id)) {
+                gauges.remove(id);
+                gaugeValues[id] = 0.0;
+            }
+        }
+
+        for(int id=0; id < timers.size(); ++id) {
+            final int count = timerCounts[id];
+
+            if(count == 0) {
+                if(timers.contains(id)) {
+                    timers.remove(id);
+                    timerSamples[id] = null;
+                }
+
+                continue;
+            }
+
+            final double[] samples = timerSamples[id];
+            final int kept = Math.min(count, maxTimerSamples);
+
+            Arrays.sort(samples, 0, kept);
+
+            final String name = timers.name(id);
+
+            ret.add(createMetric(name + ".mean", timestamp, timerSums[id] / count));
+            ret.add(createMetric(name + ".p50", timestamp, percentile(samples, kept, 0.50)));
+            ret.add(createMetric(name + ".p99", timestamp, percentile(samples, kept, 0.99)));
+
+            timerCounts[id] = 0;
+            timerSums[id] = 0.0;
+        }
+
+        return ret;
+    }
+
+    /**
+     * Nearest-rank percentile of the sorted samples.
+     */
+    private static double percentile(final double[] sorted, final int count, final double p) {
+        final int rank = (int) Math.ceil(p * count);
+
+        return sorted[Math.max(0, Math.min(count, rank) - 1)];
+    }
+
+    private Metric createMetric(final String name, final long timestamp, final double value) {
+        return new Metric(new MetricId(device, group, name), timestamp, value, "");
+    }
+
+    private static int indexOf(final ByteBuffer buffer, final char c, int pos, final int end) {
+        while(pos < end && buffer.get(pos) != c) {
+            pos++;
+        }
+
+        return pos;
+    }
+
+    private void ensureCounterCapacity(final int id) {
+        if(id >= counterSums.length) {
+            counterSums = Arrays.copyOf(counterSums, counterSums.length * 2);
+            counterTouched = Arrays.copyOf(counterTouched, counterTouched.length * 2);
+        }
+    }
+
+    private void ensureGaugeCapacity(final int id) {
+        if(id >= gaugeValues.length) {
+            gaugeValues = Arrays.copyOf(gaugeValues, gaugeValues.length * 2);
+            gaugeTouched = Arrays.copyOf(gaugeTouched, gaugeTouched.length * 2);
+        }
+    }
+
+    private void ensureTimerCapacity(final int id) {
+        if(id >= timerCounts.length) {
+            timerSamples = Arrays.copyOf(timerSamples, timerSamples.length * 2);
+            timerCounts = Arrays.copyOf(timerCounts, timerCounts.length * 2);
+            timerSums = Arrays.copyOf(timerSums, timerSums.length * 2);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.metrink.ingest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.metrink.config.MetrinkCollectorSettings;
+import com.metrink.config.StatsdSettings;
+import com.metrink.inject.DateTimeProvider;
+import com.metrink.metric.Metric;
+
+/**
+ * Non-blocking UDP listener for the StatsD protocol.
+ *
+ * A single thread reads datagrams into one direct {@link ByteBuffer} and feeds them to a {@link StatsdAggregator}.
+ * At the end of every flush interval, aligned to the wall clock, the aggregated values are stamped with the start of
+ * the interval and handed to the {@link MetricDispatcher}. Counter rates are worked out over the time actually
+ * collected since the last flush, which is longer than the interval when a flush runs late.
+ */
+@Singleton
+public class StatsdListener implements Listener, Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(StatsdListener.class);
+
+    private static final int MAX_DATAGRAM_SIZE = 65536;
+
+    // datagrams drained between checks of the clock, so a busy socket can't hold off the flush
+    static final int PACKETS_PER_CLOCK_CHECK = 64;
+
+    private final StatsdSettings settings;
+    private final MetricDispatcher dispatcher;
+    private final DateTimeProvider dateTimeProvider;
+    private final StatsdAggregator aggregator;
+    private final long flushIntervalInMs;
+
+    private Selector selector;
+    private DatagramChannel channel;
+    private Thread thread;
+    private volatile boolean running;
+
+    @Inject
+    public StatsdListener(final MetrinkCollectorSettings settings,
+                          final MetricDispatcher dispatcher,
+                          final DateTimeProvider dateTimeProvider) {
+        this.settings = settings.getStatsdSettings();
+        this.dispatcher = dispatcher;
+        this.dateTimeProvider = dateTimeProvider;
+        this.flushIntervalInMs = TimeUnit.SECONDS.toMillis(this.settings.getFlushIntervalSeconds());
+        this.aggregator = new StatsdAggregator(this.settings.getDevice(),
+                                               this.settings.getGroup(),
+                                               this.settings.getMaxBuckets(),
+                                               this.settings.getMaxTimerSamples());
+    }
+
+    /**
+     * Binds the UDP socket and starts the receiver thread.
+     * @throws IOException if the socket cannot be bound.
+     */
+    @Override
+    public synchronized void start() throws IOException {
+        if(thread != null) {
+            return;
+        }
+
+        final InetSocketAddress address = new InetSocketAddress(settings.getBindAddress(), settings.getPort());
+
+        selector = Selector.open();
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.socket().setReuseAddress(true);
+        channel.socket().bind(address);
+        channel.register(selector, SelectionKey.OP_READ);
+
+        running = true;
+        thread = new Thread(this, "statsd-listener");
+        thread.setDaemon(true);
+        thread.start();
+
+        LOG.info("Listening for statsd metrics on {}", address);
+    }
+
+    /**
+     * Closes the socket, flushing whatever has been aggregated so far.
+     */
+    @Override
+    public synchronized void shutdown() {
+        if(thread == null) {
+            return;
+        }
+
+        LOG.info("Shutting down statsd listener");
+
+        running = false;
+        selector.wakeup();
+
+        try {
+            thread.join();
+        } catch(final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        thread = null;
+    }
+
+    @Override
+    public void run() {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+        long collectedSince = dateTimeProvider.get().getMillis();
+        long intervalStart = alignToInterval(collectedSince);
+
+        try {
+            while(running) {
+                final long now = dateTimeProvider.get().getMillis();
+                final long nextFlush = intervalStart + flushIntervalInMs;
+
+                if(now >= nextFlush) {
+                    flush(intervalStart, now - collectedSince);
+                    collectedSince = now;
+                    intervalStart = alignToInterval(now);
+                    continue;
+                }
+
+                selector.select(nextFlush - now);
+                selector.selectedKeys().clear();
+
+                // drain what is queued before going back to the selector, until it's time to flush
+                int received = 0;
+
+                while(channel.receive(buffer) != null) {
+                    buffer.flip();
+
+                    final int discarded = aggregator.readPacket(buffer);
+
+                    if(discarded > 0) {
+                        LOG.debug("Discarded {} malformed statsd lines", discarded);
+                    }
+
+                    buffer.clear();
+
+                    if(++received % PACKETS_PER_CLOCK_CHECK == 0 && dateTimeProvider.get().getMillis() >= nextFlush) {
+                        break;
+                    }
+                }
+            }
+        } catch(final IOException e) {
+            LOG.error("Statsd listener failed: {}", e.getMessage(), e);
+        } finally {
+            flush(intervalStart, dateTimeProvider.get().getMillis() - collectedSince);
+            closeQuietly();
+        }
+    }
+
+    private long alignToInterval(final long millis) {
+        return millis - (millis % flushIntervalInMs);
+    }
+
+    /**
+     * Hands the aggregated interval off for aggregation and alerting.
+     * @param intervalStart the start of the interval, which the metrics are stamped with
+     * @param collectedInMs how long the metrics were collected for, which the counter rates are over
+     */
+    private void flush(final long intervalStart, final long collectedInMs) {
+        final List<Metric> metrics = aggregator.flush(intervalStart, Math.max(1, collectedInMs));
+
+        if(metrics.isEmpty()) {
+            return;
+        }
+
+        LOG.debug("Flushing {} statsd metrics", metrics.size());
+
+        dispatcher.dispatch("statsd", metrics);
+    }
+
+    private void closeQuietly() {
+        try {
+            channel.close();
+        } catch(final IOException e) {
+            LOG.debug("Error closing statsd channel: {}", e.getMessage());
+        }
+
+        try {
+            selector.close();
+        } catch(final IOException e) {
+            LOG.debug("Error closing statsd selector: {}", e.getMessage());
+        }
+    }
+}
@@ -12,9 +12,11 @@ import org.slf4j.LoggerFactory;
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
 import com.google.inject.name.Named;
+import com.google.inject.name.Names;
 import com.metrink.grammar.alert.AlertQueryFunctionFactory;
 import com.metrink.grammar.query.QueryFunctionFactory;
-import com.metrink.parser.MetrinkJsonParser;
+import com.metrink.parser.MetrinkBinaryParser;
+import com.metrink.parser.MetrinkStreamingJsonParser;
 import com.metrink.parser.Parser;
 import com.sop4j.dbutils.QueryRunner;
 
@@ -26,7 +28,8 @@ public class CollectorGuiceModule extends AbstractModule {
 
     @Override
     protected void configure() {
-        bind(Parser.class).to(MetrinkJsonParser.class);
+        bind(Parser.class).to(MetrinkStreamingJsonParser.class);
+        bind(Parser.class).annotatedWith(Names.named("binary")).to(MetrinkBinaryParser.class);
 
         bind(QueryFunctionFactory.class).to(AlertQueryFunctionFactory.class);
 
@@ -1,5 +1,7 @@
 package com.metrink.inject;
 
+import java.util.concurrent.Executors;
+
 import org.apache.commons.mail.Email;
 import org.apache.commons.mail.EmailException;
 import org.apache.commons.mail.HtmlEmail;
@@ -8,22 +10,42 @@ import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.Provides;
+import com.google.inject.Singleton;
 import com.google.inject.assistedinject.FactoryModuleBuilder;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
 import com.metrink.config.CassandraSettings;
 import com.metrink.config.EmailSettings;
+import com.metrink.config.EmbeddedSettings;
+import com.metrink.config.HotTierSettings;
+import com.metrink.config.MetadataSettings;
 import com.metrink.config.MetrinkSettings;
+import com.metrink.config.ReadCacheSettings;
+import com.metrink.config.SqlStorageSettings;
 import com.metrink.grammar.alert.AlertQuery.AlertQueryFactory;
+import com.metrink.metric.io.MetricDeleteListener;
+import com.metrink.metric.io.MetricIdDictionary;
 import com.metrink.metric.io.MetricMetadata;
 import com.metrink.metric.io.MetricReader;
 import com.metrink.metric.io.MetricReaderWriter;
 import com.metrink.metric.io.MetricWriter;
+import com.metrink.metric.io.impl.CachingReaderWriter;
 import com.metrink.metric.io.impl.CassandraReaderWriter;
+import com.metrink.metric.io.impl.CassandraReaderWriter.BinaryMetricRowKeySerializer;
 import com.metrink.metric.io.impl.CassandraReaderWriter.MetricRowIdSerializer;
 import com.metrink.metric.io.impl.CassandraReaderWriter.MetricRowKey;
+import com.metrink.metric.io.impl.CoalescingReaderWriter;
+import com.metrink.metric.io.impl.HotTierReaderWriter;
+import com.metrink.metric.io.impl.MappedFileReaderWriter;
+import com.metrink.metric.io.impl.MySqlMetricIdDictionary;
 import com.metrink.metric.io.impl.MySqlMetricMetadata;
+import com.metrink.metric.io.impl.RollupCache;
+import com.metrink.metric.io.impl.SqlReaderWriter;
 import com.netflix.astyanax.AstyanaxContext;
 import com.netflix.astyanax.Keyspace;
 import com.netflix.astyanax.Serializer;
@@ -58,16 +80,67 @@ public class CommonModule extends AbstractModule {
             }
         });
 
+        bind(CassandraSettings.class).toInstance(settings.getCassandraSettings());
+        bind(MetadataSettings.class).toInstance(settings.getMetadataSettings());
+        bind(ReadCacheSettings.class).toInstance(settings.getReadCacheSettings());
+
         // Metric meta-data (i.e., unique devices, groups, owners) is stored in a SQL backend.
         bind(MetricMetadata.class).to(MySqlMetricMetadata.class);
+        bind(MetricIdDictionary.class).to(MySqlMetricIdDictionary.class);
+
+        // the read cache keeps deleted metrics' values until told
+        bind(MetricDeleteListener.class).to(RollupCache.class);
 
-        bind(MetricReaderWriter.class).to(CassandraReaderWriter.class);
-        bind(MetricReader.class).to(CassandraReaderWriter.class);
-        bind(MetricWriter.class).to(CassandraReaderWriter.class);
+        bind(EmbeddedSettings.class).toInstance(settings.getEmbeddedSettings());
+        bind(SqlStorageSettings.class).toInstance(settings.getSqlStorageSettings());
+
+        final String storage = settings.getMetricsStorage();
+        final Class<? extends MetricReaderWriter> storageClass;
+
+        if("embedded".equalsIgnoreCase(storage)) {
+            storageClass = MappedFileReaderWriter.class;
+        } else if("sql".equalsIgnoreCase(storage)) {
+            storageClass = SqlReaderWriter.class;
+        } else if("cassandra".equalsIgnoreCase(storage)) {
+            storageClass = CassandraReaderWriter.class;
+        } else {
+            throw new IllegalArgumentException("Unknown metrics_storage: " + storage);
+        }
+
+        // the storage is wrapped by providesMetricReaderWriter
+        bind(MetricReaderWriter.class).annotatedWith(Names.named("storage")).to(storageClass);
+        bind(MetricReader.class).to(MetricReaderWriter.class);
+        bind(MetricWriter.class).to(MetricReaderWriter.class);
 
         install(new FactoryModuleBuilder().build(AlertQueryFactory.class));
     }
 
+    /**
+     * Obtain the {@link MetricReaderWriter} everything reads and writes metrics through: the configured storage,
+     * behind the read cache and then the hot tier when they're on, with concurrent identical reads coalesced.
+     * @param storage the configured storage
+     * @param rollupCache the read cache
+     * @param dateTimeProvider the current time
+     * @return the metric reader/writer
+     */
+    @Provides @Singleton @Inject
+    MetricReaderWriter providesMetricReaderWriter(@Named("storage") final MetricReaderWriter storage,
+                                                  final RollupCache rollupCache,
+                                                  final DateTimeProvider dateTimeProvider) {
+        final HotTierSettings hotTierSettings = settings.getHotTierSettings();
+        MetricReaderWriter ret = storage;
+
+        if(rollupCache.isEnabled()) {
+            ret = new CachingReaderWriter(ret, rollupCache, dateTimeProvider, settings.getReadCacheSettings());
+        }
+
+        if(hotTierSettings.getHours() > 0) {
+            ret = new HotTierReaderWriter(ret, hotTierSettings);
+        }
+
+        return new CoalescingReaderWriter(ret);
+    }
+
     /**
      * Obtain an unstarted astyanax context for cassandra.
      * @return the configured context
@@ -82,6 +155,9 @@ public class CommonModule extends AbstractModule {
             .withAstyanaxConfiguration(new AstyanaxConfigurationImpl()
                 .setDiscoveryType(NodeDiscoveryType.RING_DESCRIBE)
                 .setCqlVersion("3.0.0")
+                // executeAsync runs every query on this pool, the default of 5 threads would cap max_concurrent_reads
+                .setAsyncExecutor(Executors.newFixedThreadPool(Math.max(1, cassandraSettings.getMaxConcurrentReads()),
+                    new ThreadFactoryBuilder().setNameFormat("astyanax-async-%d").setDaemon(true).build()))
             )
             .withConnectionPoolConfiguration(new ConnectionPoolConfigurationImpl(cassandraSettings.getConnectionPool())
                 .setPort(cassandraSettings.getPort())
@@ -94,10 +170,21 @@ public class CommonModule extends AbstractModule {
 
     /**
      * Obtain the cassandra serializer used to translate the {@link MetricRowKey}.
+     * @param dictionary the dictionary numbering metrics, only used for binary row keys
      * @return the cassandra metric row id serializer
      */
-    @Provides
-    Serializer<MetricRowKey> providesMetricsRowKeySerializer() {
+    @Provides @Inject
+    Serializer<MetricRowKey> providesMetricsRowKeySerializer(final Provider<MetricIdDictionary> dictionary) {
+        final String format = settings.getCassandraSettings().getRowKeyFormat();
+
+        if("binary".equalsIgnoreCase(format)) {
+            return new BinaryMetricRowKeySerializer(dictionary.get());
+        }
+
+        if(!"ascii".equalsIgnoreCase(format)) {
+            throw new IllegalArgumentException("Unknown cassandra row_key_format: " + format);
+        }
+
         return new MetricRowIdSerializer();
     }
 
@@ -0,0 +1,72 @@
+package com.metrink.inject;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Provider;
+import com.google.inject.TypeLiteral;
+import com.google.inject.matcher.Matchers;
+import com.google.inject.spi.InjectionListener;
+import com.google.inject.spi.TypeEncounter;
+import com.google.inject.spi.TypeListener;
+import com.metrink.config.MetrinkCollectorSettings;
+import com.metrink.ingest.GracefulShutdown;
+import com.metrink.ingest.GraphiteListener;
+import com.metrink.ingest.Listener;
+import com.metrink.ingest.StatsdListener;
+
+/**
+ * Guice module that starts the configured socket {@link Listener}s when the injector is created, and installs the
+ * {@link GracefulShutdown} that stops them.
+ */
+public class ListenerModule extends AbstractModule {
+    private static final Logger LOG = LoggerFactory.getLogger(ListenerModule.class);
+
+    private final MetrinkCollectorSettings settings;
+
+    public ListenerModule(final MetrinkCollectorSettings settings) {
+        this.settings = settings;
+    }
+
+    @Override
+    protected void configure() {
+        // start every listener as soon as Guice has constructed it
+        bindListener(Matchers.any(), new TypeListener() {
+            @Override
+            public <I> void hear(final TypeLiteral<I> type, final TypeEncounter<I> encounter) {
+                if(!Listener.class.isAssignableFrom(type.getRawType())) {
+                    return;
+                }
+
+                final Provider<GracefulShutdown> gracefulShutdown = encounter.getProvider(GracefulShutdown.class);
+
+                encounter.register(new InjectionListener<I>() {
+                    @Override
+                    public void afterInjection(final I injectee) {
+                        try {
+                            ((Listener) injectee).start();
+                        } catch (final IOException e) {
+                            LOG.error("Error starting {}: {}", injectee.getClass().getSimpleName(), e.getMessage(), e);
+                            throw new IllegalStateException("Error starting " + injectee.getClass().getSimpleName(), e);
+                        }
+
+                        gracefulShutdown.get().addListener((Listener) injectee);
+                    }
+                });
+            }
+        });
+
+        bind(GracefulShutdown.class).asEagerSingleton();
+
+        if(settings.getGraphiteSettings().isEnabled()) {
+            bind(GraphiteListener.class).asEagerSingleton();
+        }
+
+        if(settings.getStatsdSettings().isEnabled()) {
+            bind(StatsdListener.class).asEagerSingleton();
+        }
+    }
+}
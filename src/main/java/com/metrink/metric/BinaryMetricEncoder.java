@@ -0,0 +1,167 @@
+package com.metrink.metric;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes a batch of metrics for a single device into the compact Metrink binary format.
+ *
+ * All multi-byte values are big-endian. Varints are unsigned LEB128; signed varints are zig-zag encoded first.
+ *
+ * <pre>
+ * int       magic (MAGIC)
+ * byte      version (VERSION)
+ * varint    dictionary size
+ * utf[]     dictionary entries, as written by {@link DataOutputStream#writeUTF(String)}
+ * varint    device dictionary index
+ * varint    metric count
+ * long      base timestamp in ms
+ * metric[]  varint group index, varint name index, varint units index + 1 (0 for no units),
+ *           signed varint timestamp delta from the previous metric (the first from the base), double value
+ * </pre>
+ *
+ * This class is <b>NOT</b> thread safe.
+ */
+public class BinaryMetricEncoder {
+
+    public static final String MEDIA_TYPE = "application/x-metrink-binary";
+    public static final int MAGIC = 0x4D54524B; // "MTRK"
+    public static final byte VERSION = 1;
+
+    private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+    private final List<String> dictionaryEntries = new ArrayList<String>();
+    private final int deviceIndex;
+
+    private final ByteArrayOutputStream metricBytes = new ByteArrayOutputStream();
+    private final DataOutputStream metricOut = new DataOutputStream(metricBytes);
+    private long baseTimestamp;
+    private long prevTimestamp;
+    private int count = 0;
+
+    /**
+     * Creates an encoder for the given device.
+     * @param device the device all metrics in the batch belong to.
+     */
+    public BinaryMetricEncoder(final String device) {
+        this.deviceIndex = indexOf(device);
+    }
+
+    /**
+     * Adds a metric to the batch.
+     * @param group the group.
+     * @param name the name.
+     * @param value the value.
+     * @param timestamp the timestamp in ms.
+     * @param units the units, possibly null.
+     * @return this
+     */
+    public BinaryMetricEncoder add(final String group,
+                                   final String name,
+                                   final double value,
+                                   final long timestamp,
+                                   final String units) {
+        if(count == 0) {
+            baseTimestamp = timestamp;
+            prevTimestamp = timestamp;
+        }
+
+        try {
+            writeVarLong(metricOut, indexOf(group));
+            writeVarLong(metricOut, indexOf(name));
+            writeVarLong(metricOut, units == null || units.isEmpty() ? 0 : indexOf(units) + 1);
+            writeVarLong(metricOut, zigZag(timestamp - prevTimestamp));
+            metricOut.writeDouble(value);
+        } catch (final IOException e) {
+            // cannot happen writing to a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+
+        prevTimestamp = timestamp;
+        count++;
+
+        return this;
+    }
+
+    /**
+     * Returns the number of metrics in the batch.
+     * @return the number of metrics in the batch.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Writes the batch to the stream.
+     * @param out the stream to write to.
+     * @throws IOException if the stream cannot be written to.
+     */
+    public void writeTo(final OutputStream out) throws IOException {
+        final DataOutputStream dataOut = new DataOutputStream(out);
+
+        dataOut.writeInt(MAGIC);
+        dataOut.writeByte(VERSION);
+
+        writeVarLong(dataOut, dictionaryEntries.size());
+
+        for(final String entry:dictionaryEntries) {
+            dataOut.writeUTF(entry);
+        }
+
+        writeVarLong(dataOut, deviceIndex);
+        writeVarLong(dataOut, count);
+        dataOut.writeLong(baseTimestamp);
+
+        metricOut.flush();
+        metricBytes.writeTo(dataOut);
+
+        dataOut.flush();
+    }
+
+    /**
+     * Encodes the batch.
+     * @return the encoded bytes.
+     */
+    public byte[] toByteArray() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(metricBytes.size() + 64 * dictionaryEntries.size());
+
+        try {
+            writeTo(out);
+        } catch (final IOException e) {
+            // cannot happen writing to a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+
+        return out.toByteArray();
+    }
+
+    private int indexOf(final String value) {
+        Integer index = dictionary.get(value);
+
+        if(index == null) {
+            index = dictionaryEntries.size();
+            dictionary.put(value, index);
+            dictionaryEntries.add(value);
+        }
+
+        return index;
+    }
+
+    private static long zigZag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static void writeVarLong(final DataOutputStream out, long value) throws IOException {
+        while((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        out.writeByte((int) value);
+    }
+}
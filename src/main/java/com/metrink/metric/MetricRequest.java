@@ -2,17 +2,48 @@ package com.metrink.metric;
 
 /**
  * A request to read a set of metrics.
+ *
+ * Each stored minute keeps several {@link Statistic}s; the request selects which one is read, the mean by default.
+ *
+ * A request may also limit the number of points it wants, in which case the reader picks the finest
+ * {@link Resolution} that returns no more than that many.
  */
 public class MetricRequest {
 
     private final MetricId id;
     private final long start;
     private final long end;
+    private final Statistic statistic;
+    private final int maxPoints;
+    private final Resolution resolution;
 
     public MetricRequest(MetricId id, long start, long end) {
+        this(id, start, end, Statistic.MEAN);
+    }
+
+    public MetricRequest(MetricId id, long start, long end, Statistic statistic) {
+        this(id, start, end, statistic, 0);
+    }
+
+    public MetricRequest(MetricId id, long start, long end, Statistic statistic, int maxPoints) {
+        this.id = id;
+        this.start = start;
+        this.end = end;
+        this.statistic = statistic;
+        this.maxPoints = maxPoints;
+        this.resolution = null;
+    }
+
+    /**
+     * Creates a request read at a given resolution, whatever its length; used to read part of another request.
+     */
+    public MetricRequest(MetricId id, long start, long end, Statistic statistic, Resolution resolution) {
         this.id = id;
         this.start = start;
         this.end = end;
+        this.statistic = statistic;
+        this.maxPoints = 0;
+        this.resolution = resolution;
     }
 
     @Override
@@ -25,6 +56,12 @@ public class MetricRequest {
         sb.append(": ");
         sb.append(id.toString());
 
+        if(statistic != Statistic.MEAN) {
+            sb.append(" (");
+            sb.append(statistic.name().toLowerCase());
+            sb.append(")");
+        }
+
         return sb.toString();
     }
 
@@ -39,4 +76,24 @@ public class MetricRequest {
     public long getEnd() {
         return end;
     }
+
+    public Statistic getStatistic() {
+        return statistic;
+    }
+
+    /**
+     * Returns the most points the request wants.
+     * @return the most points, or 0 for every minute.
+     */
+    public int getMaxPoints() {
+        return maxPoints;
+    }
+
+    /**
+     * Returns the resolution that satisfies the request's point budget.
+     * @return the resolution to read.
+     */
+    public Resolution getResolution() {
+        return resolution != null ? resolution : Resolution.select(start, end, maxPoints);
+    }
 }
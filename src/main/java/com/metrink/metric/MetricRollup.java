@@ -0,0 +1,207 @@
+package com.metrink.metric;
+
+import java.io.Serializable;
+import java.util.Collection;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+/**
+ * The aggregated statistics of a metric over one period.
+ *
+ * A single {@link Metric} is the rollup of one point: its count is one, and its min, max, sum, and last are its
+ * value.
+ */
+public class MetricRollup implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final MetricId id;
+    private final long timestamp;
+    private final long count;
+    private final double sum;
+    private final double min;
+    private final double max;
+    private final double last;
+    private final String units;
+
+    public MetricRollup(final MetricId id,
+                        final long timestamp,
+                        final long count,
+                        final double sum,
+                        final double min,
+                        final double max,
+                        final double last,
+                        final String units) {
+        this.id = id;
+        this.timestamp = timestamp;
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+        this.last = last;
+        this.units = units;
+    }
+
+    public MetricRollup(final Metric metric) {
+        this(metric.getId(),
+             metric.getTimestamp(),
+             1,
+             metric.getValue(),
+             metric.getValue(),
+             metric.getValue(),
+             metric.getValue(),
+             metric.getUnits());
+    }
+
+    /**
+     * Combines several rollups into one covering all of them, for example twelve five minute rollups into an hour.
+     * @param id the id of the metric.
+     * @param timestamp the start of the combined period.
+     * @param rollups the rollups to combine, must not be empty.
+     * @return the combined rollup.
+     */
+    public static MetricRollup combine(final MetricId id, final long timestamp, final Collection<MetricRollup> rollups) {
+        long count = 0;
+        double sum = 0.0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double last = 0.0;
+        long lastTimestamp = Long.MIN_VALUE;
+        String units = null;
+
+        for(final MetricRollup rollup:rollups) {
+            count += rollup.count;
+            sum += rollup.sum;
+            min = Math.min(min, rollup.min);
+            max = Math.max(max, rollup.max);
+
+            if(rollup.timestamp >= lastTimestamp) {
+                last = rollup.last;
+                lastTimestamp = rollup.timestamp;
+            }
+
+            if(units == null) {
+                units = rollup.units;
+            }
+        }
+
+        return new MetricRollup(id, timestamp, count, sum, min, max, last, units);
+    }
+
+    /**
+     * Returns the value of one of the statistics.
+     * @param statistic the statistic.
+     * @return the value.
+     */
+    public double get(final Statistic statistic) {
+        switch(statistic) {
+        case MEAN:
+            return getMean();
+        case MIN:
+            return min;
+        case MAX:
+            return max;
+        case SUM:
+            return sum;
+        case COUNT:
+            return count;
+        case LAST:
+            return last;
+        default:
+            throw new IllegalArgumentException("Unknown statistic: " + statistic);
+        }
+    }
+
+    /**
+     * Converts the rollup into a {@link Metric} holding one of the statistics.
+     * @param statistic the statistic.
+     * @return the metric.
+     */
+    public Metric toMetric(final Statistic statistic) {
+        return new Metric(id, timestamp, get(statistic), units);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+
+        sb.append(timestamp).append('\t').append(id.toString());
+        sb.append(" mean=").append(getMean());
+        sb.append(" min=").append(min);
+        sb.append(" max=").append(max);
+        sb.append(" sum=").append(sum);
+        sb.append(" count=").append(count);
+        sb.append(" last=").append(last);
+
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (obj == null) { return false; }
+        if (obj == this) { return true; }
+        if (obj.getClass() != getClass()) {
+          return false;
+        }
+
+        final MetricRollup rhs = (MetricRollup) obj;
+
+        return new EqualsBuilder()
+            .append(id, rhs.id)
+            .append(timestamp, rhs.timestamp)
+            .append(count, rhs.count)
+            .append(sum, rhs.sum)
+            .append(min, rhs.min)
+            .append(max, rhs.max)
+            .append(last, rhs.last)
+            .append(units, rhs.units)
+            .isEquals();
+    }
+
+    @Override
+    public int hashCode() {
+        return new HashCodeBuilder(19, 41)
+            .append(id)
+            .append(timestamp)
+            .append(count)
+            .append(sum)
+            .toHashCode();
+    }
+
+    public MetricId getId() {
+        return id;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getLast() {
+        return last;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0.0 : sum / count;
+    }
+
+    public String getUnits() {
+        return units;
+    }
+}
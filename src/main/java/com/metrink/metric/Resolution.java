@@ -0,0 +1,135 @@
+package com.metrink.metric;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The resolutions metrics are stored at.
+ *
+ * Every minute is written at {@link #ONE_MINUTE}; the coarser resolutions are rolled up from the next finer one in
+ * the background, so long time ranges can be read without reading every minute. A coarser resolution is only read
+ * once it has been rolled up for the whole range, see {@link #setBuiltFrom(long)}.
+ */
+public enum Resolution {
+    ONE_MINUTE(TimeUnit.MINUTES.toMillis(1), null),
+    FIVE_MINUTES(TimeUnit.MINUTES.toMillis(5), "5m"),
+    ONE_HOUR(TimeUnit.HOURS.toMillis(1), "1h"),
+    ONE_DAY(TimeUnit.DAYS.toMillis(1), "1d");
+
+    private final long durationInMs;
+    private final String suffix;
+
+    // the start of the first period rolled up, earlier ranges are read at a finer resolution
+    private volatile long builtFrom;
+
+    private Resolution(final long durationInMs, final String suffix) {
+        this.durationInMs = durationInMs;
+        this.suffix = suffix;
+        this.builtFrom = suffix == null ? Long.MIN_VALUE : Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the length of one period.
+     * @return the length of one period in ms.
+     */
+    public long getDurationInMs() {
+        return durationInMs;
+    }
+
+    /**
+     * Returns the length of one period.
+     * @return the length of one period in seconds.
+     */
+    public long getDurationInSeconds() {
+        return TimeUnit.MILLISECONDS.toSeconds(durationInMs);
+    }
+
+    /**
+     * Returns the short name used to tell stored resolutions apart, null for {@link #ONE_MINUTE}.
+     * @return the suffix.
+     */
+    public String getSuffix() {
+        return suffix;
+    }
+
+    /**
+     * Rounds a timestamp down to the start of its period.
+     * @param timestamp the timestamp.
+     * @return the start of the period.
+     */
+    public long floor(final long timestamp) {
+        return (timestamp / durationInMs) * durationInMs;
+    }
+
+    /**
+     * Returns the resolution this one is rolled up from.
+     * @return the next finer resolution, or null for {@link #ONE_MINUTE}.
+     */
+    public Resolution getSource() {
+        return ordinal() == 0 ? null : values()[ordinal() - 1];
+    }
+
+    /**
+     * Returns the start of the first period that has been rolled up.
+     * @return the start of the first period, {@link Long#MAX_VALUE} if none has been.
+     */
+    public long getBuiltFrom() {
+        return builtFrom;
+    }
+
+    /**
+     * Sets the start of the first period that has been rolled up, called by the job that rolls them up. Until it is
+     * called nothing has been, and every read falls back to a finer resolution.
+     * @param builtFrom the start of the first period.
+     */
+    public void setBuiltFrom(final long builtFrom) {
+        if(suffix != null) {
+            this.builtFrom = builtFrom;
+        }
+    }
+
+    /**
+     * Picks the finest resolution that returns no more than the given number of points for a time range, from those
+     * that have been rolled up for all of it.
+     * @param start the start of the range.
+     * @param end the end of the range.
+     * @param maxPoints the most points wanted, or 0 for no limit.
+     * @return the resolution, the coarsest one rolled up for the range if even that returns too many points.
+     */
+    public static Resolution select(final long start, final long end, final int maxPoints) {
+        if(maxPoints <= 0) {
+            return ONE_MINUTE;
+        }
+
+        Resolution ret = ONE_MINUTE;
+
+        for(final Resolution resolution:values()) {
+            if(resolution.builtFrom > start) {
+                continue;
+            }
+
+            ret = resolution;
+
+            if((end - start) / resolution.durationInMs + 1 <= maxPoints) {
+                break;
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Finds a resolution by its suffix.
+     * @param suffix the suffix, null for {@link #ONE_MINUTE}.
+     * @return the resolution.
+     * @throws IllegalArgumentException if no resolution has the suffix.
+     */
+    public static Resolution fromSuffix(final String suffix) {
+        for(final Resolution resolution:values()) {
+            if(suffix == null ? resolution.suffix == null : suffix.equals(resolution.suffix)) {
+                return resolution;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown resolution: " + suffix);
+    }
+}
@@ -0,0 +1,23 @@
+package com.metrink.metric;
+
+/**
+ * The statistics stored for each minute of a metric.
+ */
+public enum Statistic {
+    MEAN,
+    MIN,
+    MAX,
+    SUM,
+    COUNT,
+    LAST;
+
+    /**
+     * Parses a statistic name, ignoring case.
+     * @param name the name of the statistic.
+     * @return the statistic.
+     * @throws IllegalArgumentException if the name is not a statistic.
+     */
+    public static Statistic fromString(final String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,16 @@
+package com.metrink.metric.io;
+
+import com.metrink.metric.MetricId;
+
+/**
+ * Interface for what keeps copies of a metric's values and must drop them when the metric is deleted.
+ */
+public interface MetricDeleteListener {
+
+    /**
+     * Called after a metric and its values are deleted.
+     * @param id the id of the deleted metric.
+     */
+    public void onMetricDeleted(final MetricId id);
+
+}
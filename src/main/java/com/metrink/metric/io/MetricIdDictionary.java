@@ -0,0 +1,34 @@
+package com.metrink.metric.io;
+
+import com.metrink.metric.MetricId;
+
+/**
+ * Interface defining a dictionary that gives each {@link MetricId} a small, permanent number.
+ */
+public interface MetricIdDictionary {
+
+    /**
+     * Gets the number of a metric, assigning one if the metric doesn't have one yet.
+     * @param id the metric id.
+     * @return the metric's number.
+     * @throws IllegalStateException if the number can't be read or assigned.
+     */
+    public int getNumber(final MetricId id);
+
+    /**
+     * Gets the number of a metric without assigning one, for reads of metrics that may never have been written.
+     * @param id the metric id.
+     * @return the metric's number, or null if it doesn't have one.
+     * @throws IllegalStateException if the number can't be read.
+     */
+    public Integer findNumber(final MetricId id);
+
+    /**
+     * Gets the metric with a number.
+     * @param number the number.
+     * @return the metric id.
+     * @throws IllegalStateException if the number can't be read or was never assigned.
+     */
+    public MetricId getMetricId(final int number);
+
+}
@@ -6,7 +6,9 @@ import java.util.Map;
 import com.metrink.metric.Metric;
 import com.metrink.metric.MetricId;
 import com.metrink.metric.MetricRequest;
+import com.metrink.metric.MetricRollup;
 import com.metrink.metric.MetricValueList;
+import com.metrink.metric.Resolution;
 
 /**
  * Reads {@link Metric}s from a source.
@@ -25,6 +27,9 @@ public interface MetricReader {
 
     /**
      * Reads the {@link Metric}s in the request returning a possibly empty map.
+     *
+     * Each request is read at the {@link Resolution} that satisfies its point budget.
+     *
      * @param requests A list of requests to be read.
      * @return a map of results.
      */
@@ -39,4 +44,25 @@ public interface MetricReader {
      */
     public MetricValueList readMetrics(MetricId id, long start, long end);
 
+    /**
+     * Reads the stored {@link MetricRollup}s of a metric at a given resolution and time range.
+     * @param id the id of the metric.
+     * @param resolution the resolution to read.
+     * @param start the start time.
+     * @param end the end time.
+     * @return the rollups in time order, possibly empty.
+     */
+    public List<MetricRollup> readRollups(MetricId id, Resolution resolution, long start, long end);
+
+    /**
+     * Reads the stored {@link MetricRollup}s of several metrics at a given resolution and time range, together where
+     * the source can.
+     * @param ids the ids of the metrics.
+     * @param resolution the resolution to read.
+     * @param start the start time.
+     * @param end the end time.
+     * @return the rollups of each metric in time order, possibly empty.
+     */
+    public Map<MetricId, List<MetricRollup>> readRollups(List<MetricId> ids, Resolution resolution, long start, long end);
+
 }
@@ -3,6 +3,8 @@ package com.metrink.metric.io;
 import java.util.List;
 
 import com.metrink.metric.Metric;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.Resolution;
 
 
 /**
@@ -25,6 +27,21 @@ public interface MetricWriter {
      */
     public void writeMetrics(List<Metric> metrics);
 
+    /**
+     * Writes one minute {@link MetricRollup}s to the source, keeping every statistic.
+     * @param rollups the {@link MetricRollup}s to write.
+     * @throws IllegalStateException if the {@link MetricRollup}s could not all be written; writing them again is safe.
+     */
+    public void writeRollups(List<MetricRollup> rollups);
+
+    /**
+     * Writes the {@link MetricRollup}s to the source at the given {@link Resolution}.
+     * @param resolution the resolution of the rollups.
+     * @param rollups the {@link MetricRollup}s to write.
+     * @throws IllegalStateException if the {@link MetricRollup}s could not all be written; writing them again is safe.
+     */
+    public void writeRollups(Resolution resolution, List<MetricRollup> rollups);
+
     /**
      * Deletes all of the {@link Metric}s before a given time.
      * @param before the timestamp which to delete {@link Metric}s before.
@@ -0,0 +1,241 @@
+package com.metrink.metric.io.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.metrink.config.ReadCacheSettings;
+import com.metrink.inject.DateTimeProvider;
+import com.metrink.metric.Metric;
+import com.metrink.metric.MetricId;
+import com.metrink.metric.MetricRequest;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.MetricValue;
+import com.metrink.metric.MetricValueList;
+import com.metrink.metric.Resolution;
+import com.metrink.metric.io.MetricReaderWriter;
+import com.metrink.metric.io.impl.RollupCache.Partition;
+import com.metrink.utils.MilliSecondUtils;
+
+/**
+ * {@link MetricReaderWriter} that reads the closed months of metrics through a {@link RollupCache}.
+ *
+ * A month is closed once closed_delay_hours have passed since it ended, by when its rollups have been written and it
+ * only changes by being purged. The first read of a closed month of a metric reads the whole month at the request's
+ * resolution from the storage, and later reads of any part of it are answered from the cache. The open months of a
+ * read always come from the storage.
+ *
+ * Writes of periods in closed months, deletes, and deleted metrics drop the partitions they change.
+ */
+public class CachingReaderWriter implements MetricReaderWriter {
+
+    public static final Logger LOG = LoggerFactory.getLogger(CachingReaderWriter.class);
+
+    private final MetricReaderWriter storage;
+    private final RollupCache cache;
+    private final DateTimeProvider dateTimeProvider;
+    private final long closedDelayInMs;
+
+    /**
+     * Initialize the caching reader/writer.
+     * @param storage the storage holding everything
+     * @param cache the cache of closed partitions
+     * @param dateTimeProvider the current time, for which months are closed
+     * @param settings read cache settings
+     */
+    public CachingReaderWriter(final MetricReaderWriter storage,
+                               final RollupCache cache,
+                               final DateTimeProvider dateTimeProvider,
+                               final ReadCacheSettings settings) {
+        this.storage = storage;
+        this.cache = cache;
+        this.dateTimeProvider = dateTimeProvider;
+        this.closedDelayInMs = TimeUnit.HOURS.toMillis(settings.getClosedDelayHours());
+    }
+
+    @Override
+    public void init() {
+        storage.init();
+    }
+
+    @Override
+    public void shutdown() {
+        storage.shutdown();
+    }
+
+    @Override
+    public Map<MetricId, MetricValueList> readMetrics(final List<MetricRequest> requests) {
+        final long closedEnd = getClosedEnd();
+        final Map<MetricId, MetricValueList> results = new HashMap<MetricId, MetricValueList>();
+        final Map<MetricId, List<MetricValue>> fromCache = new HashMap<MetricId, List<MetricValue>>();
+        final List<MetricRequest> storageRequests = new ArrayList<MetricRequest>();
+
+        for(final MetricRequest request:requests) {
+            final Resolution resolution = request.getResolution();
+            final long firstPeriod = resolution.floor(request.getStart());
+            final List<MetricValue> values = new ArrayList<MetricValue>();
+
+            if(firstPeriod < closedEnd) {
+                final long cachedEnd = Math.min(request.getEnd(), closedEnd - 1);
+
+                for(long partitionStart = MilliSecondUtils.roundDown1Month(firstPeriod);
+                    partitionStart <= cachedEnd;
+                    partitionStart = MilliSecondUtils.plusMonths(partitionStart, 1)) {
+                    final Partition partition = getPartition(request.getId(), resolution, partitionStart);
+
+                    for(int i = partition.indexOf(firstPeriod); i < partition.size() && partition.getTimestamp(i) <= cachedEnd; ++i) {
+                        values.add(new MetricValue(partition.getTimestamp(i), partition.getStatistic(i, request.getStatistic()), null));
+                    }
+                }
+            }
+
+            fromCache.put(request.getId(), values);
+
+            if(request.getEnd() < closedEnd) {
+                continue;
+            }
+
+            storageRequests.add(firstPeriod >= closedEnd
+                    ? request
+                    : new MetricRequest(request.getId(), closedEnd, request.getEnd(), request.getStatistic(), resolution));
+        }
+
+        LOG.debug("Reading {} of {} requests from storage (hit ratio {}, {} bytes cached)",
+                  new Object[] { storageRequests.size(), requests.size(), cache.getHitRatio(), cache.getMemoryUsed() });
+
+        final Map<MetricId, MetricValueList> fromStorage = storageRequests.isEmpty()
+                ? Collections.<MetricId, MetricValueList>emptyMap()
+                : storage.readMetrics(storageRequests);
+
+        for(final MetricRequest request:requests) {
+            final MetricValueList values = new MetricValueList(request.getStart(),
+                                                               request.getEnd(),
+                                                               request.getResolution().getDurationInSeconds());
+            final MetricValueList stored = fromStorage.get(request.getId());
+
+            values.addMetricValues(fromCache.get(request.getId()));
+
+            if(stored != null) {
+                values.addMetricValues(stored.getValues());
+            }
+
+            results.put(request.getId(), values);
+        }
+
+        return results;
+    }
+
+    @Override
+    public MetricValueList readMetrics(final MetricId id, final long start, final long end) {
+        return readMetrics(Arrays.asList(new MetricRequest(id, start, end))).get(id);
+    }
+
+    @Override
+    public List<MetricRollup> readRollups(final MetricId id, final Resolution resolution, final long start, final long end) {
+        final long closedEnd = getClosedEnd();
+        final List<MetricRollup> ret = new ArrayList<MetricRollup>();
+
+        if(start < closedEnd) {
+            final long cachedEnd = Math.min(end, closedEnd - 1);
+
+            for(long partitionStart = MilliSecondUtils.roundDown1Month(start);
+                partitionStart <= cachedEnd;
+                partitionStart = MilliSecondUtils.plusMonths(partitionStart, 1)) {
+                final Partition partition = getPartition(id, resolution, partitionStart);
+
+                for(int i = partition.indexOf(start); i < partition.size() && partition.getTimestamp(i) <= cachedEnd; ++i) {
+                    ret.add(partition.getRollup(id, i));
+                }
+            }
+        }
+
+        if(end >= closedEnd) {
+            ret.addAll(storage.readRollups(id, resolution, Math.max(start, closedEnd), end));
+        }
+
+        return ret;
+    }
+
+    @Override
+    public Map<MetricId, List<MetricRollup>> readRollups(final List<MetricId> ids, final Resolution resolution, final long start, final long end) {
+        final Map<MetricId, List<MetricRollup>> ret = new HashMap<MetricId, List<MetricRollup>>();
+
+        for(final MetricId id:ids) {
+            ret.put(id, readRollups(id, resolution, start, end));
+        }
+
+        return ret;
+    }
+
+    @Override
+    public void writeMetrics(final List<Metric> metrics) {
+        final List<MetricRollup> rollups = new ArrayList<MetricRollup>(metrics.size());
+
+        for(final Metric metric:metrics) {
+            rollups.add(new MetricRollup(metric));
+        }
+
+        writeRollups(rollups);
+    }
+
+    @Override
+    public void writeRollups(final List<MetricRollup> rollups) {
+        writeRollups(Resolution.ONE_MINUTE, rollups);
+    }
+
+    @Override
+    public void writeRollups(final Resolution resolution, final List<MetricRollup> rollups) {
+        try {
+            storage.writeRollups(resolution, rollups);
+        } finally {
+            // a failed write may still have written some of the rollups
+            final long closedEnd = getClosedEnd();
+
+            // nearly every write is of open months, and only costs the comparison
+            for(final MetricRollup rollup:rollups) {
+                if(rollup.getTimestamp() < closedEnd) {
+                    cache.invalidate(rollup.getId(), resolution, MilliSecondUtils.roundDown1Month(rollup.getTimestamp()));
+                }
+            }
+        }
+    }
+
+    @Override
+    public int deleteMetrics(final long before) {
+        final int ret = storage.deleteMetrics(before);
+
+        cache.invalidateBefore(before);
+
+        return ret;
+    }
+
+    /**
+     * Returns the start of the first month that isn't closed.
+     */
+    private long getClosedEnd() {
+        return MilliSecondUtils.roundDown1Month(dateTimeProvider.get().getMillis() - closedDelayInMs);
+    }
+
+    /**
+     * Gets a closed partition from the cache, reading it from the storage if it isn't cached.
+     */
+    private Partition getPartition(final MetricId id, final Resolution resolution, final long partitionStart) {
+        final Partition cached = cache.get(id, resolution, partitionStart);
+
+        if(cached != null) {
+            return cached;
+        }
+
+        final long partitionEnd = MilliSecondUtils.plusMonths(partitionStart, 1) - 1;
+        final long generation = cache.getGeneration(id);
+
+        return cache.put(id, resolution, partitionStart, storage.readRollups(id, resolution, partitionStart, partitionEnd), generation);
+    }
+}
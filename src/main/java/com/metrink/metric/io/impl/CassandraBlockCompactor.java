@@ -0,0 +1,162 @@
+package com.metrink.metric.io.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.metrink.config.CassandraSettings;
+import com.metrink.inject.DateTimeProvider;
+import com.metrink.metric.MetricId;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.Resolution;
+import com.metrink.metric.io.MetricMetadata;
+import com.metrink.utils.MilliSecondUtils;
+
+/**
+ * Compresses each closed day of every metric into a {@link RollupBlock} with
+ * {@link CassandraReaderWriter#compactDay(MetricId, Resolution, long)}.
+ *
+ * Each run compacts every day that has closed since the last run, at every resolution finer than a day. A day is
+ * closed once the compress delay has passed since it ended, so late points and rollups have been written. Does
+ * nothing unless compress_closed_days is set.
+ *
+ * How far the days have been compacted is stored after every day, as a rollup of the metric {@link #MARK_ID}, so a
+ * restart carries on where the last process stopped. A day with any row that fails to compact isn't marked, and is
+ * compacted again by the next run. The first run ever only compacts the last closed day.
+ */
+@Singleton
+public class CassandraBlockCompactor implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(CassandraBlockCompactor.class);
+
+    // the metric the progress is stored under, a day long rollup per day compacted
+    static final MetricId MARK_ID = new MetricId("metrink", "compaction", "days");
+
+    // how far back the stored mark is looked for
+    private static final long MARK_LOOKBACK_MS = TimeUnit.DAYS.toMillis(31);
+
+    private final CassandraReaderWriter readerWriter;
+    private final MetricMetadata metadata;
+    private final DateTimeProvider dateTimeProvider;
+    private final boolean enabled;
+    private final long delayInMs;
+
+    // the end of the last day compacted, loaded from the stored mark on the first run
+    private Long compactedTo = null;
+
+    @Inject
+    public CassandraBlockCompactor(final CassandraReaderWriter readerWriter,
+                                   final MetricMetadata metadata,
+                                   final DateTimeProvider dateTimeProvider,
+                                   final CassandraSettings settings) {
+        this.readerWriter = readerWriter;
+        this.metadata = metadata;
+        this.dateTimeProvider = dateTimeProvider;
+        this.enabled = settings.isCompressClosedDays();
+        this.delayInMs = TimeUnit.HOURS.toMillis(settings.getCompressDelayHours());
+    }
+
+    @Override
+    public synchronized void run() {
+        if(!enabled) {
+            return;
+        }
+
+        // we need this try - catch block so events
+        // will continue to run even with exceptions
+        try {
+            final long end = MilliSecondUtils.roundDown1Day(dateTimeProvider.get().getMillis() - delayInMs);
+
+            if(compactedTo == null) {
+                loadMark(end);
+            }
+
+            if(compactedTo >= end) {
+                return;
+            }
+
+            // writing the mark adds it to the metadata, it only has day rollups which aren't compacted
+            final List<MetricId> ids = new ArrayList<MetricId>(metadata.readUniqueMetrics());
+
+            ids.remove(MARK_ID);
+
+            for(long day = compactedTo; day < end; day += MilliSecondUtils.DAY_IN_MS) {
+                final int blocks = compactDay(ids, day);
+
+                writeMark(day, blocks);
+
+                LOG.debug("Compacted {} rows into blocks on {}", blocks, day);
+            }
+        } catch(final Exception e) {
+            LOG.error("Caught top-level exception: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Loads how far the days were compacted by an earlier process. Without a stored mark, the last closed day is the
+     * first compacted.
+     * @param end the end of the last closed day.
+     */
+    private void loadMark(final long end) {
+        final List<MetricRollup> marks = readerWriter.readRollups(MARK_ID, Resolution.ONE_DAY, end - MARK_LOOKBACK_MS, end);
+
+        if(marks.isEmpty()) {
+            LOG.info("No compacted days found, compacting from {}", end - MilliSecondUtils.DAY_IN_MS);
+            compactedTo = end - MilliSecondUtils.DAY_IN_MS;
+        } else {
+            compactedTo = marks.get(marks.size() - 1).getTimestamp() + MilliSecondUtils.DAY_IN_MS;
+        }
+    }
+
+    /**
+     * Stores that a day has been compacted.
+     * @param day the start of the day.
+     * @param blocks the number of blocks written for it.
+     */
+    private void writeMark(final long day, final int blocks) {
+        final MetricRollup mark = new MetricRollup(MARK_ID, day, 1, blocks, blocks, blocks, blocks, null);
+
+        readerWriter.writeRollups(Resolution.ONE_DAY, Arrays.asList(mark));
+        compactedTo = day + MilliSecondUtils.DAY_IN_MS;
+    }
+
+    /**
+     * Compacts one day of every metric, at every resolution finer than a day. A row that fails doesn't stop the others.
+     * @param ids the metrics.
+     * @param day the start of the day.
+     * @return the number of blocks written.
+     * @throws IllegalStateException if any row failed.
+     */
+    private int compactDay(final List<MetricId> ids, final long day) {
+        int blocks = 0;
+        int failed = 0;
+
+        for(final MetricId id:ids) {
+            for(final Resolution resolution:Resolution.values()) {
+                if(resolution == Resolution.ONE_DAY) {
+                    continue;
+                }
+
+                try {
+                    if(readerWriter.compactDay(id, resolution, day)) {
+                        blocks++;
+                    }
+                } catch(final RuntimeException e) {
+                    LOG.error("Error compacting {} at {} on {}: {}", new Object[] { id, resolution, day, e.getMessage() });
+                    failed++;
+                }
+            }
+        }
+
+        if(failed > 0) {
+            throw new IllegalStateException("Unable to compact " + failed + " rows on " + day);
+        }
+
+        return blocks;
+    }
+}
@@ -3,35 +3,53 @@ package com.metrink.metric.io.impl;
 import static com.google.common.base.Preconditions.checkArgument;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
-import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.metrink.config.CassandraSettings;
+import com.metrink.inject.DateTimeProvider;
 import com.metrink.metric.Metric;
 import com.metrink.metric.MetricId;
 import com.metrink.metric.MetricRequest;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.MetricValue;
 import com.metrink.metric.MetricValueList;
+import com.metrink.metric.Resolution;
+import com.metrink.metric.Statistic;
+import com.metrink.metric.io.MetricIdDictionary;
 import com.metrink.metric.io.MetricMetadata;
 import com.metrink.metric.io.MetricReaderWriter;
 import com.metrink.utils.MilliSecondUtils;
 import com.netflix.astyanax.AstyanaxContext;
+import com.netflix.astyanax.ColumnListMutation;
 import com.netflix.astyanax.Keyspace;
 import com.netflix.astyanax.MutationBatch;
+import com.netflix.astyanax.Serializer;
+import com.netflix.astyanax.connectionpool.OperationResult;
 import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
 import com.netflix.astyanax.model.ByteBufferRange;
 import com.netflix.astyanax.model.Column;
 import com.netflix.astyanax.model.ColumnFamily;
 import com.netflix.astyanax.model.ColumnList;
+import com.netflix.astyanax.query.RowQuery;
 import com.netflix.astyanax.serializers.AbstractSerializer;
 import com.netflix.astyanax.serializers.AnnotatedCompositeSerializer;
 import com.netflix.astyanax.serializers.AsciiSerializer;
@@ -41,29 +59,82 @@ import com.netflix.astyanax.util.RangeBuilder;
  * Fetcher that pulls metrics from the Cassandra cluster.
  *
  * The fetcher uses the client from Netflix: https://github.com/Netflix/astyanax
+ *
+ * Each column holds one minute as a {@link MetricRollup}: the count as a long followed by the sum, min, max, and last
+ * value as doubles. Columns written before rollups were stored hold a single double, which is read as a rollup of one
+ * point.
+ *
+ * Each partition of each requested series is its own row, a month unless {@link CassandraSettings#getRowPartition()}
+ * or {@link CassandraSettings#getGroupRowPartition()} say otherwise for the resolutions finer than an hour; the rows of a read are queried in parallel with
+ * {@code executeAsync}, at most {@link CassandraSettings#getMaxConcurrentReads()} at a time, and each row is paged
+ * through {@link CassandraSettings#getReadPageSize()} columns at a time so memory stays flat however long the range.
+ *
+ * With {@link CassandraSettings#isCompressClosedDays()}, {@link #compactDay(MetricId, Resolution, long)} replaces the
+ * columns of a closed day with one {@link RollupBlock} column. Periods are named by their start, which is never
+ * negative, so blocks are named -1 minus the number of the day since 1970 and can't be mistaken for one. Reads fetch
+ * the blocks of a row's days with a query of their own, next to the query for its columns, and columns written to a
+ * day after it was compacted replace the periods they share with its block.
+ *
+ * With {@link CassandraSettings#getTtlDays()}, every column is written with a TTL that expires it that many days
+ * after its period. {@link #deleteMetrics(long)} still deletes the rows of those metrics once the TTL has passed too,
+ * for the columns written before the TTL was set.
  */
 @Singleton
 public class CassandraReaderWriter implements MetricReaderWriter {
 
     public static final Logger LOG = LoggerFactory.getLogger(CassandraReaderWriter.class);
 
+    private static final int ROLLUP_SIZE = 8 * 5;
+
+    // rows deleted per mutation by deleteMetrics
+    private static final int DELETE_BATCH_ROWS = 1000;
+
+    // how far before the purge time the first deleteMetrics looks for rows
+    private static final long DELETE_LOOKBACK_MS = TimeUnit.DAYS.toMillis(366);
+
     private final AstyanaxContext<Keyspace> context;
     private final ColumnFamily<MetricRowKey, Long> columnFamily;
     private final MetricMetadata metadata;
+    private final DateTimeProvider dateTimeProvider;
+    private final int maxConcurrentReads;
+    private final int readPageSize;
+    private final boolean compressClosedDays;
+    private final int ttlDays;
+    private final Map<String, Integer> groupTtlDays;
+    private final PartitionWidth partitionWidth;
+    private final Map<String, PartitionWidth> groupPartitionWidths = new HashMap<String, PartitionWidth>();
+
+    // the time the last deleteMetrics deleted before for each TTL in days, the partitions before it are gone
+    private final Map<Integer, Long> purgedBefore = new ConcurrentHashMap<Integer, Long>();
 
     /**
      * Initialize the {@link MetricReaderWriter}.
      * @param context Cassandra context used to query metrics
      * @param columnFamily column family of the metrics
      * @param metadata delegate for obtaining metric meta-data (e.g., unique devices, groups, etc)
+     * @param dateTimeProvider the current time, for TTLs
+     * @param settings Cassandra settings
      */
     @Inject
     public CassandraReaderWriter(final AstyanaxContext<Keyspace> context,
                                  final ColumnFamily<MetricRowKey, Long> columnFamily,
-                                 final MetricMetadata metadata) {
+                                 final MetricMetadata metadata,
+                                 final DateTimeProvider dateTimeProvider,
+                                 final CassandraSettings settings) {
         this.context = context;
         this.columnFamily = columnFamily;
         this.metadata = metadata;
+        this.dateTimeProvider = dateTimeProvider;
+        this.maxConcurrentReads = Math.max(1, settings.getMaxConcurrentReads());
+        this.readPageSize = Math.max(2, settings.getReadPageSize());
+        this.compressClosedDays = settings.isCompressClosedDays();
+        this.ttlDays = settings.getTtlDays();
+        this.groupTtlDays = new HashMap<String, Integer>(settings.getGroupTtlDays());
+        this.partitionWidth = PartitionWidth.fromString(settings.getRowPartition());
+
+        for(final Map.Entry<String, String> entry:settings.getGroupRowPartition().entrySet()) {
+            groupPartitionWidths.put(entry.getKey(), PartitionWidth.fromString(entry.getValue()));
+        }
     }
 
     @Override
@@ -84,27 +155,66 @@ public class CassandraReaderWriter implements MetricReaderWriter {
     public Map<MetricId, MetricValueList> readMetrics(final List<MetricRequest> requests) {
         final Map<MetricId, MetricValueList> results = new HashMap<MetricId, MetricValueList>();
 
+        // every partition of every request, read together
+        final List<RowRange> ranges = new ArrayList<RowRange>();
+        final List<PeriodSlots> slots = new ArrayList<PeriodSlots>();
+
+        long start = 0, end;
+
+        if(LOG.isDebugEnabled()) {
+            LOG.debug("Loading {} metrics from cassandra", requests.size());
+            start = System.currentTimeMillis();
+        }
+
         for (final MetricRequest request : requests) {
-            final MetricValueList values = new MetricValueList(request.getStart(), request.getEnd());
+            final Resolution resolution = request.getResolution();
+            final long firstColumn = resolution.floor(request.getStart());
+            final MetricValueList values = new MetricValueList(request.getStart(), request.getEnd(), resolution.getDurationInSeconds());
 
-            long start = 0, end;
+            LOG.debug("Getting metrics: {} {} -> {} at {}", new Object[] { request.getId(), request.getStart(), request.getEnd(), resolution });
 
-            if(LOG.isDebugEnabled()) {
-                LOG.debug("Loading metrics from cassandra: {}", request.getId());
-                LOG.debug("Getting metrics: {} -> {}", request.getStart(), request.getEnd());
-                start = System.currentTimeMillis();
-            }
+            results.put(request.getId(), values);
 
-            for (final String yearMonth : MilliSecondUtils.generateYearMonthSet(request.getStart(), request.getEnd())) {
-                readMetricsByYearMonth(request, values, yearMonth);
+            if (!hasRows(request.getId())) {
+                continue;
             }
 
-            if(LOG.isDebugEnabled()) {
-                end = System.currentTimeMillis();
-                LOG.debug("Fetched {} metrics in {}ms", values.size(), (end-start));
+            final PeriodSlots periods = new PeriodSlots(values, firstColumn, request.getEnd(), resolution.getDurationInMs());
+            final PartitionWidth width = getPartitionWidth(request.getId(), resolution);
+            final int lastPartition = width.getNumber(request.getEnd());
+
+            slots.add(periods);
+
+            for (int partition = width.getNumber(firstColumn); partition <= lastPartition; ++partition) {
+                final MetricRowKey rowKey = new MetricRowKey(request.getId(), width, partition, resolution);
+
+                ranges.add(new RowRange(rowKey, firstColumn, request.getEnd()) {
+                    @Override
+                    void addColumn(final Column<Long> column) {
+                        periods.set(column.getName(), decodeStatistic(column.getByteBufferValue(), request.getStatistic()));
+                    }
+
+                    @Override
+                    void addBlock(final RollupBlock block) {
+                        for (int i = 0; i < block.size(); ++i) {
+                            if (contains(block.getTimestamp(i))) {
+                                periods.set(block.getTimestamp(i), block.getStatistic(i, request.getStatistic()));
+                            }
+                        }
+                    }
+                });
             }
+        }
 
-            results.put(request.getId(), values);
+        readColumns(ranges);
+
+        for (final PeriodSlots periods : slots) {
+            periods.addTo();
+        }
+
+        if(LOG.isDebugEnabled()) {
+            end = System.currentTimeMillis();
+            LOG.debug("Fetched {} partitions in {}ms", ranges.size(), (end-start));
         }
 
         return results;
@@ -115,23 +225,124 @@ public class CassandraReaderWriter implements MetricReaderWriter {
         return readMetrics(Arrays.asList(new MetricRequest(id, start, end))).get(id);
     }
 
+    @Override
+    public List<MetricRollup> readRollups(final MetricId id, final Resolution resolution, final long start, final long end) {
+        return readRollups(Arrays.asList(id), resolution, start, end).get(id);
+    }
+
+    @Override
+    public Map<MetricId, List<MetricRollup>> readRollups(final List<MetricId> ids, final Resolution resolution, final long start, final long end) {
+        final Map<MetricId, List<MetricRollup>> results = new HashMap<MetricId, List<MetricRollup>>();
+
+        // every partition of every metric, read together
+        final List<RowRange> ranges = new ArrayList<RowRange>();
+
+        for (final MetricId id : ids) {
+            final List<MetricRollup> ret = new ArrayList<MetricRollup>();
+
+            results.put(id, ret);
+
+            if (!hasRows(id)) {
+                continue;
+            }
+
+            final PartitionWidth width = getPartitionWidth(id, resolution);
+            final int lastPartition = width.getNumber(end);
+
+            for (int partition = width.getNumber(start); partition <= lastPartition; ++partition) {
+                ranges.add(new RowRange(new MetricRowKey(id, width, partition, resolution), start, end) {
+                    // where each period read from a block is in ret, for columns written after the day was compacted
+                    private final Map<Long, Integer> fromBlocks = new HashMap<Long, Integer>();
+
+                    @Override
+                    void addColumn(final Column<Long> column) {
+                        final MetricRollup rollup = decodeRollup(id, column.getName(), column.getByteBufferValue());
+                        final Integer index = fromBlocks.get(column.getName());
+
+                        if (index == null) {
+                            ret.add(rollup);
+                        } else {
+                            ret.set(index, rollup);
+                        }
+                    }
+
+                    @Override
+                    void addBlock(final RollupBlock block) {
+                        for (int i = 0; i < block.size(); ++i) {
+                            if (contains(block.getTimestamp(i))) {
+                                fromBlocks.put(block.getTimestamp(i), ret.size());
+                                ret.add(block.getRollup(id, i));
+                            }
+                        }
+                    }
+                });
+            }
+        }
+
+        readColumns(ranges);
+
+        // rollups are combined and rewritten, so part of a series must not pass for all of it
+        for (final RowRange range : ranges) {
+            if (range.failed) {
+                throw new IllegalStateException("Unable to read the rollups of " + range.rowKey);
+            }
+        }
+
+        return results;
+    }
+
     @Override
     public void writeMetrics(final List<Metric> metrics) {
+        final List<MetricRollup> rollups = new ArrayList<MetricRollup>(metrics.size());
+
+        for (final Metric metric : metrics) {
+            rollups.add(new MetricRollup(metric));
+        }
+
+        writeRollups(rollups);
+    }
+
+    @Override
+    public void writeRollups(final List<MetricRollup> rollups) {
+        writeRollups(Resolution.ONE_MINUTE, rollups);
+    }
+
+    @Override
+    public void writeRollups(final Resolution resolution, final List<MetricRollup> rollups) {
         final Set<MetricId> metricIds = Sets.newHashSet();
         final MutationBatch mutation = context.getClient().prepareMutationBatch();
 
-        for (final Metric metric : metrics) {
-            final MetricRowKey metricRowKey = new MetricRowKey(metric.getId(), MilliSecondUtils.millisToYearMonth(metric.getTimestamp()));
+        final long now = dateTimeProvider.get().getMillis();
+        int expired = 0;
 
-            LOG.trace("Writing metric: {} to {}", metric, metricRowKey);
+        for (final MetricRollup rollup : rollups) {
+            final Integer ttl = getTtl(rollup.getId(), rollup.getTimestamp(), now);
 
-            metricIds.add(metric.getId());
+            if (ttl != null && ttl == 0) {
+                expired++;
+                continue;
+            }
+
+            final PartitionWidth width = getPartitionWidth(rollup.getId(), resolution);
+            final MetricRowKey metricRowKey = new MetricRowKey(rollup.getId(), width, width.getNumber(rollup.getTimestamp()), resolution);
+
+            LOG.trace("Writing metric: {} to {}", rollup, metricRowKey);
+
+            metricIds.add(rollup.getId());
 
             mutation.withRow(columnFamily, metricRowKey)
-                .putColumn(metric.getTimestamp(), metric.getValue(), null);
+                .putColumn(rollup.getTimestamp(), encodeRollup(rollup), ttl);
+        }
+
+        if (expired > 0) {
+            LOG.debug("Skipped {} metrics older than their TTL", expired);
         }
 
-        LOG.debug("Wrote {} metrics", metrics.size());
+        LOG.debug("Wrote {} metrics", rollups.size() - expired);
+
+        if (metricIds.isEmpty()) {
+            return;
+        }
 
         /*
          * I think we want to "commit" the Cassandra data before the MySQL data.
@@ -139,7 +350,7 @@ public class CassandraReaderWriter implements MetricReaderWriter {
         try {
             mutation.execute();
         } catch (final ConnectionException e) {
-            LOG.error("Cassandra connection exception: {}", e.getMessage(), e);
+            throw new IllegalStateException("Unable to write " + (rollups.size() - expired) + " metrics", e);
         }
 
         if (!metadata.writeMetricIds(metricIds)) {
@@ -150,135 +361,678 @@ public class CassandraReaderWriter implements MetricReaderWriter {
 
     @Override
     public int deleteMetrics(final long before) {
-        // go back one year, which should cover everything
-        final long start = new DateTime(before).minusYears(1).getMillis();
-        final SortedSet<String> yearMonthRange = MilliSecondUtils.generateYearMonthSet(start, before);
+        final long now = dateTimeProvider.get().getMillis();
 
-        final MutationBatch mutation = context.getClient().prepareMutationBatch();
+        // the time deleted before for each TTL in days
+        final Map<Integer, Long> cutoffs = new HashMap<Integer, Long>();
+
+        MutationBatch mutation = context.getClient().prepareMutationBatch();
 
         int count = 0; // this count is kinda BS
 
         // need to read in all (dev, group, name) tuples first
         for(final MetricId id:metadata.readUniqueMetrics()) {
-            for(final String yearMonth:yearMonthRange) {
-                final MetricRowKey metricRowKey = new MetricRowKey(id, yearMonth);
-                mutation.withRow(columnFamily, metricRowKey).delete();
-                count++;
+            final int ttlDays = Math.max(0, getTtlDays(id));
+            Long cutoff = cutoffs.get(ttlDays);
+
+            // columns with a TTL expire on their own, their rows only hold columns written before it was set once it
+            // has passed, and a TTL longer than the retention mustn't be cut short
+            if(cutoff == null) {
+                cutoff = ttlDays == 0 ? before : Math.min(before, now - TimeUnit.DAYS.toMillis(ttlDays));
+                cutoffs.put(ttlDays, cutoff);
+            }
+
+            // go back one year, which should cover everything, or to where the last purge stopped
+            final Long purged = purgedBefore.get(ttlDays);
+            final long start = purged == null ? cutoff - DELETE_LOOKBACK_MS : Math.max(cutoff - DELETE_LOOKBACK_MS, purged);
+
+            for(final Resolution resolution:Resolution.values()) {
+                final PartitionWidth width = getPartitionWidth(id, resolution);
+
+                // the partition of the cutoff still holds metrics newer than it
+                for(int partition = width.getNumber(start); partition < width.getNumber(cutoff); ++partition) {
+                    final MetricRowKey metricRowKey = new MetricRowKey(id, width, partition, resolution);
+                    mutation.withRow(columnFamily, metricRowKey).delete();
+                    count++;
+                }
+            }
+
+            // send the deletes in pieces rather than one enormous batch
+            if(mutation.getRowCount() >= DELETE_BATCH_ROWS) {
+                if(!executeDeletes(mutation)) {
+                    return 0;
+                }
+
+                mutation = context.getClient().prepareMutationBatch();
             }
         }
+
+        if(!executeDeletes(mutation)) {
+            return 0;
+        }
+
+        for(final Map.Entry<Integer, Long> entry:cutoffs.entrySet()) {
+            final Long purged = purgedBefore.get(entry.getKey());
+
+            if(purged == null || purged < entry.getValue()) {
+                purgedBefore.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Executes a batch of deletes.
+     * @param mutation the deletes
+     * @return true if successful
+     */
+    private boolean executeDeletes(final MutationBatch mutation) {
         try {
             mutation.execute();
         } catch (final ConnectionException e) {
             LOG.error("Cassandra connection exception: {}", e.getMessage(), e);
-            return 0;
+            return false;
         }
 
-        return count;
+        return true;
     }
 
     /**
-     * Read the metrics for a given year.
-     *
-     * NOTE: This does not perform bounds checking on the start and end of the {@link MetricRequest}.
-     *
-     * @param request the metric request
-     * @param values the value list to populate
-     * @param year the year to query
+     * Rewrites the period columns of one closed day of a row into a single {@link RollupBlock} column. Columns written
+     * after an earlier compaction of the day are merged into its block, replacing the periods they share.
+     * @param id the metric
+     * @param resolution the resolution of the row
+     * @param dayStart the start of the day
+     * @return true if a block was written, false if there was nothing to compact
+     * @throws IllegalStateException if the day couldn't be read or written
      */
-    private void readMetricsByYearMonth(final MetricRequest request, final MetricValueList values, final String yearMonth) {
-        final MetricRowKey metricRowKey = new MetricRowKey(request.getId(), yearMonth);
+    public boolean compactDay(final MetricId id, final Resolution resolution, final long dayStart) {
+        final PartitionWidth width = getPartitionWidth(id, resolution);
+        final MetricRowKey rowKey = new MetricRowKey(id, width, width.getNumber(dayStart), resolution);
+        final Map<Long, MetricRollup> rollups = new TreeMap<Long, MetricRollup>();
+        final List<Long> columns = new ArrayList<Long>();
+
+        final RowRange day = new RowRange(rowKey, dayStart, dayStart + MilliSecondUtils.DAY_IN_MS - 1) {
+            @Override
+            void addColumn(final Column<Long> column) {
+                columns.add(column.getName());
+                rollups.put(column.getName(), decodeRollup(id, column.getName(), column.getByteBufferValue()));
+            }
+
+            @Override
+            void addBlock(final RollupBlock block) {
+                // the block is read before the day's columns, which are newer and replace it
+                for (int i = 0; i < block.size(); ++i) {
+                    rollups.put(block.getTimestamp(i), block.getRollup(id, i));
+                }
+            }
+        };
+
+        readColumns(Arrays.asList(day));
+
+        // writing a block from part of the day would lose the rest when it replaced the old one
+        if (day.failed) {
+            throw new IllegalStateException("Unable to read the day " + dayStart + " of " + rowKey);
+        }
+
+        if (columns.isEmpty()) {
+            return false;
+        }
+
+        // the block lives as long as the day's last period
+        final Integer ttl = getTtl(id, dayStart + MilliSecondUtils.DAY_IN_MS - resolution.getDurationInMs(), dateTimeProvider.get().getMillis());
+
+        if (ttl != null && ttl == 0) {
+            return false;
+        }
+
+        final MutationBatch mutation = context.getClient().prepareMutationBatch();
+        final ColumnListMutation<Long> row = mutation.withRow(columnFamily, rowKey);
+
+        row.putColumn(getBlockColumn(dayStart), RollupBlock.encode(new ArrayList<MetricRollup>(rollups.values())), ttl);
+
+        for (final Long column : columns) {
+            row.deleteColumn(column);
+        }
 
         try {
-            final ByteBufferRange range = new RangeBuilder()
-                .setStart(request.getStart())
-                .setEnd(request.getEnd())
-                //.setMaxSize() // TODO: Do we want to set an upper limit?
-                .build();
-
-            final ColumnList<Long> searchResults = context.getClient()
-                    .prepareQuery(columnFamily)
-                    .getKey(metricRowKey)
-                    .withColumnRange(range)
-                    .execute().getResult();
-
-            for (final Column<Long> result : searchResults) {
-                // later we might want result.getDoubleValue to actually return JSON or some packaging of value & unit
-                values.addMetric(new Metric(request.getId(), result.getName(), result.getDoubleValue(), null));
+            mutation.execute();
+        } catch (final ConnectionException e) {
+            throw new IllegalStateException("Unable to write the block of the day " + dayStart + " of " + rowKey, e);
+        }
+
+        LOG.trace("Compacted {} columns of {} into a block", columns.size(), rowKey);
+
+        return true;
+    }
+
+    /**
+     * Reads the columns of many rows, keeping at most maxConcurrentReads queries in flight. Each row is fetched
+     * readPageSize columns at a time and its columns are handed to {@link RowRange#addColumn(Column)}, or
+     * {@link RowRange#addBlock(RollupBlock)} for compacted days, on the calling thread, one row after another in the
+     * order given. A row that fails part way keeps the columns read so far and
+     * is marked failed.
+     * @param ranges the rows and columns to read
+     */
+    private void readColumns(final List<RowRange> ranges) {
+        final Deque<PendingRead> pending = new ArrayDeque<PendingRead>();
+        final Iterator<RowRange> it = ranges.iterator();
+
+        // with compressed days each row is two queries, one for its blocks and one for its columns
+        final int maxRows = Math.max(1, compressClosedDays ? maxConcurrentReads / 2 : maxConcurrentReads);
+
+        try {
+            while (it.hasNext() || !pending.isEmpty()) {
+                // the next rows' first pages load while this one is consumed
+                while (pending.size() < maxRows && it.hasNext()) {
+                    pending.add(startRead(it.next()));
+                }
+
+                final PendingRead read = pending.removeFirst();
+
+                readPages(read);
             }
+        } catch (final InterruptedException e) {
+            LOG.error("Interrupted reading from cassandra");
+            Thread.currentThread().interrupt();
+        }
+    }
 
+    /**
+     * Starts reading the first page of a row, and the blocks of its days if they are compressed.
+     * @param range the row and columns to read
+     * @return the pending read; its futures are null if the read could not be started
+     */
+    private PendingRead startRead(final RowRange range) {
+        final ByteBufferRange columnRange = new RangeBuilder()
+            .setStart(range.start)
+            .setEnd(range.end)
+            .setLimit(readPageSize)
+            .build();
+
+        final RowQuery<MetricRowKey, Long> query = context.getClient()
+                .prepareQuery(columnFamily)
+                .getKey(range.rowKey)
+                .withColumnRange(columnRange)
+                .autoPaginate(true);
+
+        try {
+            final ListenableFuture<OperationResult<ColumnList<Long>>> blocks = compressClosedDays ? startBlockRead(range) : null;
+
+            return new PendingRead(range, query, query.executeAsync(), blocks);
+        } catch (final ConnectionException e) {
+            LOG.error("Cassandra connection exception: {}", e.getMessage(), e);
+            range.failed = true;
+            return new PendingRead(range, query, null, null);
+        }
+    }
+
+    /**
+     * Starts reading the block columns of the days of a row that overlap the range, at most a partition's worth.
+     * @param range the row and columns to read
+     * @return the future blocks
+     * @throws ConnectionException if the read could not be started
+     */
+    private ListenableFuture<OperationResult<ColumnList<Long>>> startBlockRead(final RowRange range) throws ConnectionException {
+        final PartitionWidth width = range.rowKey.getPartitionWidth();
+        final int partition = range.rowKey.getPartitionNumber();
+        final long firstDay = MilliSecondUtils.roundDown1Day(Math.max(range.start, width.getStart(partition)));
+        final long lastDay = MilliSecondUtils.roundDown1Day(Math.min(range.end, width.getStart(partition + 1) - 1));
+
+        // later days have lower names
+        final ByteBufferRange blockRange = new RangeBuilder()
+            .setStart(getBlockColumn(lastDay))
+            .setEnd(getBlockColumn(firstDay))
+            .setLimit((int) ((lastDay - firstDay) / MilliSecondUtils.DAY_IN_MS) + 1)
+            .build();
+
+        return context.getClient()
+                .prepareQuery(columnFamily)
+                .getKey(range.rowKey)
+                .withColumnRange(blockRange)
+                .executeAsync();
+    }
+
+    /**
+     * Waits for the first page of a read, then fetches the remaining pages, passing each column on as it arrives.
+     * @param read the read started by {@link #startRead(RowRange)}
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void readPages(final PendingRead read) throws InterruptedException {
+        if (read.firstPage == null) {
+            return;
+        }
+
+        try {
+            // the blocks first, as the columns are newer and replace the periods they share
+            if (read.blocks != null) {
+                for (final Column<Long> column : read.blocks.get().getResult()) {
+                    read.range.addBlock(RollupBlock.decode(column.getByteBufferValue()));
+                }
+            }
+
+            ColumnList<Long> page = read.firstPage.get().getResult();
+            long last = Long.MIN_VALUE;
+
+            // the query keeps its place, so each execute returns the next page; an empty one means the row is done
+            while (!page.isEmpty()) {
+                for (final Column<Long> column : page) {
+                    // a page starts at the previous page's last column, don't pass it on twice
+                    if (column.getName() <= last) {
+                        continue;
+                    }
+
+                    last = column.getName();
+                    read.range.addColumn(column);
+                }
+
+                page = read.query.execute().getResult();
+            }
+        } catch (final ExecutionException e) {
+            LOG.error("Cassandra connection exception: {}", e.getCause().getMessage(), e.getCause());
+            read.range.failed = true;
         } catch (final ConnectionException e) {
             LOG.error("Cassandra connection exception: {}", e.getMessage(), e);
+            read.range.failed = true;
+        }
+    }
+
+    /**
+     * Checks if a metric may have rows. With binary row keys a metric that was never written has no number, and
+     * reading it must not give it one.
+     * @param id the metric
+     * @return false if the metric has no rows
+     */
+    private boolean hasRows(final MetricId id) {
+        final Serializer<MetricRowKey> serializer = columnFamily.getKeySerializer();
+
+        return !(serializer instanceof BinaryMetricRowKeySerializer) || ((BinaryMetricRowKeySerializer) serializer).isNumbered(id);
+    }
+
+    /**
+     * Works out how much time the rows of a metric hold at a resolution. Hours and days are always a month a row, a
+     * narrower row would hold only a few of them.
+     * @param id the metric
+     * @param resolution the resolution of the rows
+     * @return the width of the metric's partitions
+     */
+    PartitionWidth getPartitionWidth(final MetricId id, final Resolution resolution) {
+        if (resolution.getDurationInMs() >= Resolution.ONE_HOUR.getDurationInMs()) {
+            return PartitionWidth.MONTH;
+        }
+
+        final PartitionWidth groupWidth = groupPartitionWidths.get(id.getGroupName());
+
+        return groupWidth == null ? partitionWidth : groupWidth;
+    }
+
+    /**
+     * Works out the TTL of a column, so it expires ttlDays after the period it holds rather than after it is written.
+     * @param id the metric
+     * @param timestamp the start of the period
+     * @param now the current time
+     * @return the TTL in seconds, null for no TTL, or 0 if the period has already expired
+     */
+    Integer getTtl(final MetricId id, final long timestamp, final long now) {
+        final int days = getTtlDays(id);
+
+        if (days <= 0) {
+            return null;
+        }
+
+        final long remaining = timestamp + TimeUnit.DAYS.toMillis(days) - now;
+
+        return (int) Math.max(0, TimeUnit.MILLISECONDS.toSeconds(remaining));
+    }
+
+    /**
+     * Works out how many days after its period a column of a metric expires.
+     * @param id the metric
+     * @return the days, 0 or less for never
+     */
+    private int getTtlDays(final MetricId id) {
+        final Integer groupDays = groupTtlDays.get(id.getGroupName());
+
+        return groupDays == null ? ttlDays : groupDays;
+    }
+
+    /**
+     * Names the {@link RollupBlock} column of a compacted day.
+     * @param dayStart the start of the day
+     * @return the column name, which is negative
+     */
+    static long getBlockColumn(final long dayStart) {
+        return -1 - dayStart / MilliSecondUtils.DAY_IN_MS;
+    }
+
+    /**
+     * Encodes the statistics of a rollup into a column value.
+     * @param rollup the rollup.
+     * @return the column value.
+     */
+    static ByteBuffer encodeRollup(final MetricRollup rollup) {
+        final ByteBuffer ret = ByteBuffer.allocate(ROLLUP_SIZE);
+
+        ret.putLong(rollup.getCount());
+        ret.putDouble(rollup.getSum());
+        ret.putDouble(rollup.getMin());
+        ret.putDouble(rollup.getMax());
+        ret.putDouble(rollup.getLast());
+        ret.flip();
+
+        return ret;
+    }
+
+    /**
+     * Decodes a column value into a rollup.
+     * @param id the id of the metric.
+     * @param timestamp the column name.
+     * @param value the column value.
+     * @return the rollup.
+     */
+    static MetricRollup decodeRollup(final MetricId id, final long timestamp, final ByteBuffer value) {
+        final int pos = value.position();
+
+        // a column from before rollups were stored: a single value
+        if(value.remaining() < ROLLUP_SIZE) {
+            final double v = value.getDouble(pos);
+            return new MetricRollup(id, timestamp, 1, v, v, v, v, null);
+        }
+
+        return new MetricRollup(id,
+                                timestamp,
+                                value.getLong(pos),
+                                value.getDouble(pos + 8),
+                                value.getDouble(pos + 16),
+                                value.getDouble(pos + 24),
+                                value.getDouble(pos + 32),
+                                null);
+    }
+
+    /**
+     * Decodes one statistic from a column value.
+     * @param value the column value.
+     * @param statistic the statistic to read.
+     * @return the value of the statistic.
+     */
+    static double decodeStatistic(final ByteBuffer value, final Statistic statistic) {
+        final int pos = value.position();
+
+        // a column from before rollups were stored: a single value
+        if(value.remaining() < ROLLUP_SIZE) {
+            final double ret = value.getDouble(pos);
+            return statistic == Statistic.COUNT ? 1.0 : ret;
+        }
+
+        final long count = value.getLong(pos);
+
+        switch(statistic) {
+        case MEAN:
+            return count == 0 ? 0.0 : value.getDouble(pos + 8) / count;
+        case SUM:
+            return value.getDouble(pos + 8);
+        case MIN:
+            return value.getDouble(pos + 16);
+        case MAX:
+            return value.getDouble(pos + 24);
+        case LAST:
+            return value.getDouble(pos + 32);
+        case COUNT:
+            return count;
+        default:
+            throw new IllegalArgumentException("Unknown statistic: " + statistic);
+        }
+    }
+
+    /**
+     * A row and the range of columns to read from it, and what to do with each column read.
+     */
+    private abstract static class RowRange {
+        private final MetricRowKey rowKey;
+        private final long start;
+        private final long end;
+        private boolean failed = false;
+
+        RowRange(final MetricRowKey rowKey, final long start, final long end) {
+            this.rowKey = rowKey;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Checks if a time is in the range.
+         * @param timestamp the time.
+         * @return true if it is in the range.
+         */
+        boolean contains(final long timestamp) {
+            return timestamp >= start && timestamp <= end;
+        }
+
+        /**
+         * Called for each column in the range, in order.
+         * @param column the column.
+         */
+        abstract void addColumn(Column<Long> column);
+
+        /**
+         * Called for each compacted day that overlaps the range, which may hold periods outside it.
+         * @param block the decoded block.
+         */
+        abstract void addBlock(RollupBlock block);
+    }
+
+    /**
+     * The value of each period read for a request, one primitive slot per period. A column written over a compacted
+     * day is read after the block and replaces its period.
+     */
+    private static class PeriodSlots {
+        private final MetricValueList values;
+        private final long firstPeriod;
+        private final long duration;
+        private final double[] slots;
+        private final boolean[] present;
+
+        PeriodSlots(final MetricValueList values, final long firstPeriod, final long end, final long duration) {
+            final int size = (int) ((end - firstPeriod) / duration) + 1;
+
+            this.values = values;
+            this.firstPeriod = firstPeriod;
+            this.duration = duration;
+            this.slots = new double[size];
+            this.present = new boolean[size];
+        }
+
+        /**
+         * Sets the value of a period.
+         * @param timestamp the start of the period, in the range read.
+         * @param value the value.
+         */
+        void set(final long timestamp, final double value) {
+            final int slot = (int) ((timestamp - firstPeriod) / duration);
+
+            slots[slot] = value;
+            present[slot] = true;
+        }
+
+        /**
+         * Adds the periods read to the request's values.
+         */
+        void addTo() {
+            final List<MetricValue> found = new ArrayList<MetricValue>();
+
+            for (int i = 0; i < slots.length; ++i) {
+                if (present[i]) {
+                    found.add(new MetricValue(firstPeriod + i * duration, slots[i], null));
+                }
+            }
+
+            values.addMetricValues(found);
+        }
+    }
+
+    /**
+     * A row read whose first page, and blocks if days are compressed, have been requested.
+     */
+    private static class PendingRead {
+        private final RowRange range;
+        private final RowQuery<MetricRowKey, Long> query;
+        private final ListenableFuture<OperationResult<ColumnList<Long>>> firstPage;
+        private final ListenableFuture<OperationResult<ColumnList<Long>>> blocks;
+
+        PendingRead(final RowRange range,
+                    final RowQuery<MetricRowKey, Long> query,
+                    final ListenableFuture<OperationResult<ColumnList<Long>>> firstPage,
+                    final ListenableFuture<OperationResult<ColumnList<Long>>> blocks) {
+            this.range = range;
+            this.query = query;
+            this.firstPage = firstPage;
+            this.blocks = blocks;
         }
     }
 
     /**
      * Class used to identify a row key.
+     *
+     * Rows of rolled up resolutions have the resolution's suffix appended, one minute rows do not.
      */
     public static class MetricRowKey {
-        private String yearMonth;
+        private PartitionWidth partitionWidth;
+        private int partition;
         private String device;
         private String group;
         private String name;
+        private MetricId metricId;
+        private Resolution resolution = Resolution.ONE_MINUTE;
 
         /**
          * Initialize the instance.
-         * @param yearMonth YYYYMM
+         * @param partition the partition as formatted by {@link PartitionWidth#format(int)}, e.g. YYYYMM
          * @param device the device
          * @param group the group
          * @param name the name
          */
-        public MetricRowKey(final String yearMonth,
+        public MetricRowKey(final String partition,
                             final String device,
                             final String group,
                             final String name) {
-            this.yearMonth = yearMonth;
-            this.device = device;
-            this.group = group;
-            this.name = name;
+            this(new MetricId(device, group, name), partition);
+        }
+
+        /**
+         * Initialize the instance.
+         * @param metricId the metric id
+         * @param partition the partition as formatted by {@link PartitionWidth#format(int)}, e.g. YYYYMM
+         */
+        public MetricRowKey(final MetricId metricId, final String partition) {
+            this(metricId, partition, Resolution.ONE_MINUTE);
+        }
+
+        /**
+         * Initialize the instance.
+         * @param metricId the metric id
+         * @param partition the partition as formatted by {@link PartitionWidth#format(int)}, e.g. YYYYMM
+         * @param resolution the resolution of the row
+         */
+        public MetricRowKey(final MetricId metricId, final String partition, final Resolution resolution) {
+            this(metricId, PartitionWidth.fromPartition(partition), PartitionWidth.fromPartition(partition).parse(partition), resolution);
+        }
+
+        /**
+         * Initialize the instance.
+         * @param metricId the metric id
+         * @param partitionWidth how much time the row holds
+         * @param partition the number of the partition the row holds
+         * @param resolution the resolution of the row
+         */
+        public MetricRowKey(final MetricId metricId,
+                            final PartitionWidth partitionWidth,
+                            final int partition,
+                            final Resolution resolution) {
+            this.partitionWidth = partitionWidth;
+            this.partition = partition;
+            this.device = metricId.getDevice();
+            this.group = metricId.getGroupName();
+            this.name = metricId.getName();
+            this.metricId = metricId;
+            this.resolution = resolution;
 
             checkArgument(-1 == device.indexOf(':'), "Device not found: %s", device);
             checkArgument(-1 == group.indexOf(':'), "Group not found: %s", group);
             checkArgument(-1 == name.indexOf(':'), "Name not found: %s", name);
-            checkArgument(yearMonth.length() == 6, "Year month length not 6: %s", yearMonth);
         }
 
         /**
-         * Initialize the instance.
-         * @param metricId the metric id
-         * @param yearMonth YYYYMM
+         * Get the id of the metric stored in the row.
+         * @return the metric id
+         */
+        public MetricId getMetricId() {
+            return metricId;
+        }
+
+        /**
+         * Get partitionWidth.
+         * @return how much time the row holds
          */
-        public MetricRowKey(final MetricId metricId, final String yearMonth) {
-            this(yearMonth,
-                 metricId.getDevice(),
-                 metricId.getGroupName(),
-                 metricId.getName());
+        public PartitionWidth getPartitionWidth() {
+            return partitionWidth;
+        }
+
+        /**
+         * Get the partition of the row as a number, counted from the one holding the start of 1970.
+         * @return the partition number
+         */
+        public int getPartitionNumber() {
+            return partition;
+        }
+
+        /**
+         * Get the partition of the row as a string.
+         * @return the partition, e.g. YYYYMM
+         */
+        public String getPartition() {
+            return partitionWidth.format(partition);
+        }
+
+        /**
+         * Get resolution.
+         * @return the resolution of the row
+         */
+        public Resolution getResolution() {
+            return resolution;
         }
 
         @Override
         public String toString() {
-            return new StringBuffer()
-                .append(yearMonth).append(':')
+            final StringBuilder sb = new StringBuilder()
+                .append(getPartition()).append(':')
                 .append(device).append(':')
                 .append(group).append(':')
-                .append(name)
-                .toString();
+                .append(name);
+
+            if(resolution.getSuffix() != null) {
+                sb.append(':').append(resolution.getSuffix());
+            }
+
+            return sb.toString();
         }
 
         /**
-         * Helper method not actually utilized by Cassandra.
-         * @param rowKey the string row key
+         * Parses the string form of a row key, as written by {@link MetricRowIdSerializer}.
+         * @param rowKey the string row key: partition:device:group:name, followed by :suffix for rolled up resolutions
          * @return the row key
          */
         public static MetricRowKey of(final String rowKey) {
             final String[] split = rowKey.split(":");
 
-            checkArgument(split.length == 6, "Row key doesn't match the Metric Id format: {}", rowKey);
+            checkArgument(split.length == 4 || split.length == 5, "Row key doesn't match the Metric Id format: %s", rowKey);
 
             return new MetricRowKey(
-                        split[2],  // YYYYMM
-                        split[3],  // device
-                        split[4],  // group
-                        split[5]); // name
+                        new MetricId(split[1],  // device
+                                     split[2],  // group
+                                     split[3]), // name
+                        split[0],               // partition
+                        Resolution.fromSuffix(split.length == 5 ? split[4] : null));
         }
     }
 
@@ -301,4 +1055,64 @@ public class CassandraReaderWriter implements MetricReaderWriter {
             return MetricRowKey.of(AsciiSerializer.get().fromByteBuffer(byteBuffer));
         }
     }
+
+    /**
+     * Serializes {@link MetricRowKey}s into 9 bytes: the metric's number from a {@link MetricIdDictionary} as an int,
+     * the partition number as an int, and a byte holding the resolution in the low four bits and the
+     * {@link PartitionWidth#getCode() partition width} in the high four, which is 0 for months.
+     *
+     * The keys are a fraction of the size of the ASCII ones on disk, on the wire, and in the key cache, and are built
+     * without any string handling once the metric's number is cached. The price is that they can no longer be read in
+     * the CLI. Rows written with {@link MetricRowIdSerializer} are copied over with scripts/ascii_to_binary_row_keys.py.
+     */
+    public static class BinaryMetricRowKeySerializer extends AbstractSerializer<MetricRowKey> {
+        private static final int KEY_SIZE = 4 + 4 + 1;
+
+        private final MetricIdDictionary dictionary;
+
+        /**
+         * Initialize the serializer.
+         * @param dictionary the dictionary that numbers the metrics
+         */
+        public BinaryMetricRowKeySerializer(final MetricIdDictionary dictionary) {
+            this.dictionary = dictionary;
+        }
+
+        /**
+         * Checks if a metric has a number, without giving it one.
+         * @param id the metric
+         * @return true if the metric has been numbered
+         */
+        public boolean isNumbered(final MetricId id) {
+            return dictionary.findNumber(id) != null;
+        }
+
+        @Override
+        public ByteBuffer toByteBuffer(final MetricRowKey obj) {
+            final ByteBuffer ret = ByteBuffer.allocate(KEY_SIZE);
+
+            ret.putInt(dictionary.getNumber(obj.getMetricId()));
+            ret.putInt(obj.getPartitionNumber());
+            ret.put((byte) (obj.getPartitionWidth().getCode() << 4 | obj.getResolution().ordinal()));
+            ret.flip();
+
+            return ret;
+        }
+
+        @Override
+        public MetricRowKey fromByteBuffer(final ByteBuffer byteBuffer) {
+            final ByteBuffer key = byteBuffer.duplicate();
+
+            checkArgument(key.remaining() == KEY_SIZE, "Row key is not %s bytes: %s", KEY_SIZE, key.remaining());
+
+            final MetricId id = dictionary.getMetricId(key.getInt());
+            final int partition = key.getInt();
+            final byte widthAndResolution = key.get();
+
+            return new MetricRowKey(id,
+                                    PartitionWidth.fromCode(widthAndResolution >> 4),
+                                    partition,
+                                    Resolution.values()[widthAndResolution & 0x0F]);
+        }
+    }
 }
@@ -0,0 +1,281 @@
+package com.metrink.metric.io.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.metrink.metric.Metric;
+import com.metrink.metric.MetricId;
+import com.metrink.metric.MetricRequest;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.MetricValue;
+import com.metrink.metric.MetricValueList;
+import com.metrink.metric.Resolution;
+import com.metrink.metric.Statistic;
+import com.metrink.metric.io.MetricReaderWriter;
+
+/**
+ * {@link MetricReaderWriter} that shares reads already in flight with concurrent reads of the same values.
+ *
+ * A request is coalesced when another thread is reading the same metric and statistic, at the same resolution, over
+ * a range covering the request's; it waits for that read and takes its values instead of reading them again. This is
+ * what a dashboard open on many screens, or everyone following an alert's graph link, looks like. Every caller gets
+ * its own copy of the values, as callers may change them.
+ */
+public class CoalescingReaderWriter implements MetricReaderWriter {
+
+    public static final Logger LOG = LoggerFactory.getLogger(CoalescingReaderWriter.class);
+
+    private final MetricReaderWriter storage;
+
+    // guarded by itself
+    private final Map<ReadKey, List<InFlightRead>> inFlight = new HashMap<ReadKey, List<InFlightRead>>();
+
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong coalescedReads = new AtomicLong();
+
+    /**
+     * Initialize the coalescing reader/writer.
+     * @param storage the reader/writer that does the reads
+     */
+    public CoalescingReaderWriter(final MetricReaderWriter storage) {
+        this.storage = storage;
+    }
+
+    @Override
+    public void init() {
+        storage.init();
+    }
+
+    @Override
+    public void shutdown() {
+        storage.shutdown();
+    }
+
+    @Override
+    public Map<MetricId, MetricValueList> readMetrics(final List<MetricRequest> requests) {
+        final List<MetricRequest> leading = new ArrayList<MetricRequest>();
+        final List<InFlightRead> led = new ArrayList<InFlightRead>();
+        final Map<MetricRequest, InFlightRead> followed = new HashMap<MetricRequest, InFlightRead>();
+
+        synchronized(inFlight) {
+            for(final MetricRequest request:requests) {
+                final ReadKey key = new ReadKey(request);
+                List<InFlightRead> reading = inFlight.get(key);
+
+                if(reading == null) {
+                    reading = new LinkedList<InFlightRead>();
+                    inFlight.put(key, reading);
+                }
+
+                final InFlightRead covering = findCovering(reading, request);
+
+                if(covering != null) {
+                    followed.put(request, covering);
+                    continue;
+                }
+
+                final InFlightRead read = new InFlightRead(key, request.getStart(), request.getEnd());
+
+                reading.add(read);
+                leading.add(request);
+                led.add(read);
+            }
+        }
+
+        final long totalReads = reads.addAndGet(requests.size());
+
+        if(!followed.isEmpty()) {
+            final long totalCoalesced = coalescedReads.addAndGet(followed.size());
+
+            LOG.debug("Coalesced {} of {} requests with reads in flight ({} of {} in total)",
+                      new Object[] { followed.size(), requests.size(), totalCoalesced, totalReads });
+        }
+
+        final Map<MetricId, MetricValueList> results = new HashMap<MetricId, MetricValueList>();
+
+        if(!leading.isEmpty()) {
+            try {
+                final Map<MetricId, MetricValueList> fromStorage = storage.readMetrics(leading);
+
+                for(int i=0; i < leading.size(); ++i) {
+                    led.get(i).values.set(fromStorage.get(leading.get(i).getId()));
+                }
+            } catch(final Throwable e) {
+                // the coalesced requests fail with the read they waited for
+                for(final InFlightRead read:led) {
+                    read.values.setException(e);
+                }
+
+                Throwables.throwIfUnchecked(e);
+                throw new RuntimeException(e);
+            } finally {
+                synchronized(inFlight) {
+                    for(final InFlightRead read:led) {
+                        final List<InFlightRead> reading = inFlight.get(read.key);
+
+                        reading.remove(read);
+
+                        if(reading.isEmpty()) {
+                            inFlight.remove(read.key);
+                        }
+                    }
+                }
+            }
+
+            for(int i=0; i < leading.size(); ++i) {
+                results.put(leading.get(i).getId(), copyValues(getValues(led.get(i)), leading.get(i)));
+            }
+        }
+
+        for(final Map.Entry<MetricRequest, InFlightRead> entry:followed.entrySet()) {
+            results.put(entry.getKey().getId(), copyValues(getValues(entry.getValue()), entry.getKey()));
+        }
+
+        return results;
+    }
+
+    @Override
+    public MetricValueList readMetrics(final MetricId id, final long start, final long end) {
+        return readMetrics(Arrays.asList(new MetricRequest(id, start, end))).get(id);
+    }
+
+    @Override
+    public List<MetricRollup> readRollups(final MetricId id, final Resolution resolution, final long start, final long end) {
+        return storage.readRollups(id, resolution, start, end);
+    }
+
+    @Override
+    public Map<MetricId, List<MetricRollup>> readRollups(final List<MetricId> ids, final Resolution resolution, final long start, final long end) {
+        return storage.readRollups(ids, resolution, start, end);
+    }
+
+    @Override
+    public void writeMetrics(final List<Metric> metrics) {
+        storage.writeMetrics(metrics);
+    }
+
+    @Override
+    public void writeRollups(final List<MetricRollup> rollups) {
+        storage.writeRollups(rollups);
+    }
+
+    @Override
+    public void writeRollups(final Resolution resolution, final List<MetricRollup> rollups) {
+        storage.writeRollups(resolution, rollups);
+    }
+
+    @Override
+    public int deleteMetrics(final long before) {
+        return storage.deleteMetrics(before);
+    }
+
+    /**
+     * Returns the number of requests read.
+     * @return the number of requests.
+     */
+    public long getReads() {
+        return reads.get();
+    }
+
+    /**
+     * Returns the number of requests that took the values of a read already in flight.
+     * @return the number of coalesced requests.
+     */
+    public long getCoalescedReads() {
+        return coalescedReads.get();
+    }
+
+    private static InFlightRead findCovering(final List<InFlightRead> reading, final MetricRequest request) {
+        for(final InFlightRead read:reading) {
+            if(read.start <= request.getStart() && read.end >= request.getEnd()) {
+                return read;
+            }
+        }
+
+        return null;
+    }
+
+    private static MetricValueList getValues(final InFlightRead read) {
+        try {
+            return Uninterruptibles.getUninterruptibly(read.values);
+        } catch(final ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Copies the values of a read that are in a request's range.
+     */
+    private static MetricValueList copyValues(final MetricValueList values, final MetricRequest request) {
+        final MetricValueList ret = new MetricValueList(request.getStart(),
+                                                        request.getEnd(),
+                                                        request.getResolution().getDurationInSeconds());
+
+        if(values == null) {
+            return ret;
+        }
+
+        for(final MetricValue value:values.getValues()) {
+            if(value.getTimestamp() >= ret.getStartTime() && value.getTimestamp() <= request.getEnd()) {
+                ret.addMetricValue(new MetricValue(value));
+            }
+        }
+
+        return ret;
+    }
+
+    private static class InFlightRead {
+        private final ReadKey key;
+        private final long start;
+        private final long end;
+        private final SettableFuture<MetricValueList> values = SettableFuture.create();
+
+        InFlightRead(final ReadKey key, final long start, final long end) {
+            this.key = key;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static class ReadKey {
+        private final MetricId id;
+        private final Statistic statistic;
+        private final Resolution resolution;
+
+        ReadKey(final MetricRequest request) {
+            this.id = request.getId();
+            this.statistic = request.getStatistic();
+            this.resolution = request.getResolution();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if(!(obj instanceof ReadKey)) {
+                return false;
+            }
+
+            final ReadKey other = (ReadKey) obj;
+
+            return statistic == other.statistic && resolution == other.resolution && id.equals(other.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(id, statistic, resolution);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.metrink.metric.io.impl;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -17,7 +18,10 @@ import com.google.inject.Singleton;
 import com.metrink.metric.Metric;
 import com.metrink.metric.MetricId;
 import com.metrink.metric.MetricRequest;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.MetricValue;
 import com.metrink.metric.MetricValueList;
+import com.metrink.metric.Resolution;
 import com.metrink.metric.io.MetricReader;
 
 @Singleton
@@ -142,6 +146,34 @@ public class FakeReader implements MetricReader {
         return readMetrics(Arrays.asList(new MetricRequest(id, start, end))).get(id);
     }
 
+    @Override
+    public List<MetricRollup> readRollups(final MetricId id, final Resolution resolution, final long start, final long end) {
+        final List<MetricRollup> ret = new ArrayList<MetricRollup>();
+        final MetricValueList values = readMetrics(id, start, end);
+
+        if(values == null) {
+            return ret;
+        }
+
+        // every generated value is a rollup of itself
+        for(final MetricValue value:values) {
+            ret.add(new MetricRollup(new Metric(id, value)));
+        }
+
+        return ret;
+    }
+
+    @Override
+    public Map<MetricId, List<MetricRollup>> readRollups(final List<MetricId> ids, final Resolution resolution, final long start, final long end) {
+        final Map<MetricId, List<MetricRollup>> ret = new HashMap<MetricId, List<MetricRollup>>();
+
+        for(final MetricId id:ids) {
+            ret.put(id, readRollups(id, resolution, start, end));
+        }
+
+        return ret;
+    }
+
 /*
     @Override
     public List<MetricOwner> readOwners() {
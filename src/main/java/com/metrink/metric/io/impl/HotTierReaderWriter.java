@@ -0,0 +1,473 @@
+package com.metrink.metric.io.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.metrink.config.HotTierSettings;
+import com.metrink.metric.Metric;
+import com.metrink.metric.MetricId;
+import com.metrink.metric.MetricRequest;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.MetricValue;
+import com.metrink.metric.MetricValueList;
+import com.metrink.metric.Resolution;
+import com.metrink.metric.io.MetricReaderWriter;
+
+/**
+ * {@link MetricReaderWriter} that keeps the last few hours of every series in memory in front of the configured
+ * storage, so the usual dashboard reads of recent data don't go to it.
+ *
+ * Every one minute rollup written is passed on to the storage and also kept in the series' ring buffer, one slot per
+ * minute for hours minutes, held as primitive arrays. Coarser resolutions are combined from the minutes when read.
+ *
+ * A series' buffer only covers the minutes from the first one this process wrote, and at most hours back from the
+ * newest one. Reads entirely inside that are answered from memory; reads that start earlier get the earlier part from
+ * the storage and the rest from memory. This assumes a series is only written by one collector, as the aggregation
+ * already does.
+ *
+ * Each series takes a fixed amount of memory, so max_memory_mb caps the number of series. Once full, series that
+ * haven't been written for hours are dropped to make room, and series that still don't fit are only read from the
+ * storage.
+ */
+public class HotTierReaderWriter implements MetricReaderWriter {
+
+    public static final Logger LOG = LoggerFactory.getLogger(HotTierReaderWriter.class);
+
+    private static final long MINUTE_IN_MS = Resolution.ONE_MINUTE.getDurationInMs();
+
+    // a long and five statistics per minute, and a rough allowance for the series object and its map entry
+    static final int BYTES_PER_MINUTE = 8 * 6;
+    static final int BYTES_PER_SERIES = 256;
+
+    private final MetricReaderWriter storage;
+    private final int minutes;
+    private final int maxSeries;
+
+    private final ConcurrentMap<MetricId, Series> series = new ConcurrentHashMap<MetricId, Series>();
+
+    // guarded by this
+    private long newestPeriod = Long.MIN_VALUE;
+    private long lastSweep = Long.MIN_VALUE;
+
+    private final AtomicLong memoryReads = new AtomicLong();
+    private final AtomicLong storageReads = new AtomicLong();
+
+    /**
+     * Initialize the hot tier.
+     * @param storage the storage holding everything
+     * @param settings hot tier settings
+     */
+    public HotTierReaderWriter(final MetricReaderWriter storage, final HotTierSettings settings) {
+        this.storage = storage;
+        this.minutes = (int) TimeUnit.HOURS.toMinutes(Math.max(1, settings.getHours()));
+
+        final long maxBytes = settings.getMaxMemoryMb() * 1024L * 1024L;
+
+        this.maxSeries = (int) Math.min(Integer.MAX_VALUE, maxBytes / getBytesPerSeries());
+    }
+
+    @Override
+    public void init() {
+        LOG.info("Initializing hot tier of {} minutes for up to {} series", minutes, maxSeries);
+
+        storage.init();
+    }
+
+    @Override
+    public void shutdown() {
+        storage.shutdown();
+    }
+
+    @Override
+    public Map<MetricId, MetricValueList> readMetrics(final List<MetricRequest> requests) {
+        final Map<MetricId, MetricValueList> results = new HashMap<MetricId, MetricValueList>();
+        final Map<MetricId, List<MetricRollup>> fromMemory = new HashMap<MetricId, List<MetricRollup>>();
+        final List<MetricRequest> storageRequests = new ArrayList<MetricRequest>();
+
+        for(final MetricRequest request:requests) {
+            final Resolution resolution = request.getResolution();
+            final long firstPeriod = resolution.floor(request.getStart());
+            final Series s = series.get(request.getId());
+            List<MetricRollup> rollups = Collections.emptyList();
+            long split = Long.MAX_VALUE;
+
+            if(s != null) {
+                synchronized(s) {
+                    split = Math.max(firstPeriod, s.getFirstServed(resolution));
+                    rollups = s.read(request.getId(), resolution, split, request.getEnd());
+                }
+            }
+
+            fromMemory.put(request.getId(), rollups);
+
+            if(split <= firstPeriod) {
+                memoryReads.incrementAndGet();
+                continue;
+            }
+
+            storageReads.incrementAndGet();
+
+            if(split > request.getEnd()) {
+                storageRequests.add(request);
+            } else {
+                storageRequests.add(new MetricRequest(request.getId(), firstPeriod, split - 1, request.getStatistic(), resolution));
+            }
+        }
+
+        LOG.debug("Reading {} of {} requests from storage ({} memory reads, {} storage reads)",
+                  new Object[] { storageRequests.size(), requests.size(), memoryReads.get(), storageReads.get() });
+
+        final Map<MetricId, MetricValueList> fromStorage = storageRequests.isEmpty()
+                ? Collections.<MetricId, MetricValueList>emptyMap()
+                : storage.readMetrics(storageRequests);
+
+        for(final MetricRequest request:requests) {
+            final MetricValueList values = new MetricValueList(request.getStart(),
+                                                               request.getEnd(),
+                                                               request.getResolution().getDurationInSeconds());
+            final MetricValueList stored = fromStorage.get(request.getId());
+
+            if(stored != null) {
+                values.addMetricValues(stored.getValues());
+            }
+
+            final List<MetricValue> found = new ArrayList<MetricValue>();
+
+            for(final MetricRollup rollup:fromMemory.get(request.getId())) {
+                found.add(new MetricValue(rollup.getTimestamp(), rollup.get(request.getStatistic()), null));
+            }
+
+            results.put(request.getId(), values.addMetricValues(found));
+        }
+
+        return results;
+    }
+
+    @Override
+    public MetricValueList readMetrics(final MetricId id, final long start, final long end) {
+        return readMetrics(Arrays.asList(new MetricRequest(id, start, end))).get(id);
+    }
+
+    @Override
+    public List<MetricRollup> readRollups(final MetricId id, final Resolution resolution, final long start, final long end) {
+        final Series s = series.get(id);
+        final List<MetricRollup> rollups;
+        final long split;
+
+        if(s == null) {
+            storageReads.incrementAndGet();
+            return storage.readRollups(id, resolution, start, end);
+        }
+
+        // the first period starting in the range
+        final long firstPeriod = resolution.floor(start + resolution.getDurationInMs() - 1);
+
+        synchronized(s) {
+            split = Math.max(firstPeriod, s.getFirstServed(resolution));
+            rollups = s.read(id, resolution, split, end);
+        }
+
+        if(split <= firstPeriod) {
+            memoryReads.incrementAndGet();
+            return rollups;
+        }
+
+        storageReads.incrementAndGet();
+
+        final List<MetricRollup> ret = new ArrayList<MetricRollup>(storage.readRollups(id, resolution, start, Math.min(end, split - 1)));
+
+        ret.addAll(rollups);
+
+        return ret;
+    }
+
+    @Override
+    public Map<MetricId, List<MetricRollup>> readRollups(final List<MetricId> ids, final Resolution resolution, final long start, final long end) {
+        final Map<MetricId, List<MetricRollup>> ret = new HashMap<MetricId, List<MetricRollup>>();
+        final List<MetricId> storageIds = new ArrayList<MetricId>();
+
+        for(final MetricId id:ids) {
+            if(series.containsKey(id)) {
+                ret.put(id, readRollups(id, resolution, start, end));
+            } else {
+                storageIds.add(id);
+            }
+        }
+
+        // the series not held in memory are read from the storage together
+        if(!storageIds.isEmpty()) {
+            storageReads.addAndGet(storageIds.size());
+            ret.putAll(storage.readRollups(storageIds, resolution, start, end));
+        }
+
+        return ret;
+    }
+
+    @Override
+    public void writeMetrics(final List<Metric> metrics) {
+        final List<MetricRollup> rollups = new ArrayList<MetricRollup>(metrics.size());
+
+        for(final Metric metric:metrics) {
+            rollups.add(new MetricRollup(metric));
+        }
+
+        writeRollups(rollups);
+    }
+
+    @Override
+    public void writeRollups(final List<MetricRollup> rollups) {
+        writeRollups(Resolution.ONE_MINUTE, rollups);
+    }
+
+    @Override
+    public void writeRollups(final Resolution resolution, final List<MetricRollup> rollups) {
+        storage.writeRollups(resolution, rollups);
+
+        // coarser resolutions are combined from the minutes when read
+        if(resolution != Resolution.ONE_MINUTE) {
+            return;
+        }
+
+        long newest = Long.MIN_VALUE;
+
+        for(final MetricRollup rollup:rollups) {
+            newest = Math.max(newest, Resolution.ONE_MINUTE.floor(rollup.getTimestamp()));
+        }
+
+        synchronized(this) {
+            newestPeriod = Math.max(newestPeriod, newest);
+        }
+
+        for(final MetricRollup rollup:rollups) {
+            final long period = Resolution.ONE_MINUTE.floor(rollup.getTimestamp());
+            final Series s = getSeries(rollup.getId(), period);
+
+            if(s == null) {
+                continue;
+            }
+
+            synchronized(s) {
+                s.put(period, rollup);
+            }
+        }
+    }
+
+    @Override
+    public int deleteMetrics(final long before) {
+        final int ret = storage.deleteMetrics(before);
+
+        // what's left in memory before then has to read as deleted
+        for(final Series s:series.values()) {
+            synchronized(s) {
+                s.coveredFrom = Math.max(s.coveredFrom, before);
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Returns the number of reads answered entirely from memory.
+     * @return the number of memory reads.
+     */
+    public long getMemoryReads() {
+        return memoryReads.get();
+    }
+
+    /**
+     * Returns the number of reads that went to the storage for some or all of their range.
+     * @return the number of storage reads.
+     */
+    public long getStorageReads() {
+        return storageReads.get();
+    }
+
+    /**
+     * Returns the memory taken by the series kept.
+     * @return the memory in bytes.
+     */
+    public long getMemoryUsed() {
+        return series.size() * getBytesPerSeries();
+    }
+
+    private long getBytesPerSeries() {
+        return (long) minutes * BYTES_PER_MINUTE + BYTES_PER_SERIES;
+    }
+
+    /**
+     * Gets the buffer of a series, creating it covering the given period if there's room.
+     * @return the series, or null if it doesn't fit.
+     */
+    private Series getSeries(final MetricId id, final long firstPeriod) {
+        final Series s = series.get(id);
+
+        if(s != null) {
+            return s;
+        }
+
+        if(series.size() >= maxSeries && !sweep()) {
+            return null;
+        }
+
+        final Series created = new Series(minutes, firstPeriod);
+        final Series existing = series.putIfAbsent(id, created);
+
+        return existing == null ? created : existing;
+    }
+
+    /**
+     * Drops the series that haven't been written in the last hours, at most once a minute.
+     * @return true if there's room for another series.
+     */
+    private synchronized boolean sweep() {
+        if(series.size() < maxSeries) {
+            return true;
+        }
+
+        if(newestPeriod < lastSweep + MINUTE_IN_MS) {
+            return false;
+        }
+
+        lastSweep = newestPeriod;
+
+        final long oldest = newestPeriod - (minutes - 1) * MINUTE_IN_MS;
+        int dropped = 0;
+
+        for(final Iterator<Series> it = series.values().iterator(); it.hasNext(); ) {
+            final Series s = it.next();
+
+            synchronized(s) {
+                if(s.newest < oldest) {
+                    it.remove();
+                    dropped++;
+                }
+            }
+        }
+
+        LOG.info("Dropped {} idle series from the hot tier, {} left", dropped, series.size());
+
+        if(series.size() >= maxSeries) {
+            LOG.warn("Hot tier is full with {} series; new series are only read from storage", maxSeries);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * The ring buffer of one series' minutes: the slot of a minute is its number modulo the buffer's length, and holds
+     * that minute only while periods has it.
+     */
+    private static class Series {
+        private final long[] periods;
+        private final long[] counts;
+        private final double[] sums;
+        private final double[] mins;
+        private final double[] maxs;
+        private final double[] lasts;
+
+        // guarded by this
+        private long coveredFrom;
+        private long newest = Long.MIN_VALUE;
+
+        Series(final int minutes, final long coveredFrom) {
+            this.periods = new long[minutes];
+            this.counts = new long[minutes];
+            this.sums = new double[minutes];
+            this.mins = new double[minutes];
+            this.maxs = new double[minutes];
+            this.lasts = new double[minutes];
+            this.coveredFrom = coveredFrom;
+
+            Arrays.fill(periods, Long.MIN_VALUE);
+        }
+
+        /**
+         * Keeps a minute, unless it's older than the buffer reaches back.
+         */
+        void put(final long period, final MetricRollup rollup) {
+            if(newest != Long.MIN_VALUE && period <= newest - periods.length * MINUTE_IN_MS) {
+                return;
+            }
+
+            final int slot = getSlot(period);
+
+            periods[slot] = period;
+            counts[slot] = rollup.getCount();
+            sums[slot] = rollup.getSum();
+            mins[slot] = rollup.getMin();
+            maxs[slot] = rollup.getMax();
+            lasts[slot] = rollup.getLast();
+            newest = Math.max(newest, period);
+        }
+
+        /**
+         * Returns the first period at the resolution whose minutes are all held, or could still be written.
+         */
+        long getFirstServed(final Resolution resolution) {
+            if(newest == Long.MIN_VALUE) {
+                return Long.MAX_VALUE;
+            }
+
+            final long first = Math.max(coveredFrom, newest - (periods.length - 1) * MINUTE_IN_MS);
+            final long duration = resolution.getDurationInMs();
+
+            return resolution.floor(first + duration - 1);
+        }
+
+        /**
+         * Reads the periods from start to end at the resolution, combining the minutes of each.
+         */
+        List<MetricRollup> read(final MetricId id, final Resolution resolution, final long start, final long end) {
+            final List<MetricRollup> ret = new ArrayList<MetricRollup>();
+            final long duration = resolution.getDurationInMs();
+            final long last = Math.min(end, newest);
+
+            for(long period = start; period <= last; period += duration) {
+                long count = 0;
+                double sum = 0.0;
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                double lastValue = 0.0;
+                boolean found = false;
+
+                for(long minute = period; minute < period + duration && minute <= newest; minute += MINUTE_IN_MS) {
+                    final int slot = getSlot(minute);
+
+                    if(periods[slot] != minute) {
+                        continue;
+                    }
+
+                    count += counts[slot];
+                    sum += sums[slot];
+                    min = Math.min(min, mins[slot]);
+                    max = Math.max(max, maxs[slot]);
+                    lastValue = lasts[slot];
+                    found = true;
+                }
+
+                if(found) {
+                    ret.add(new MetricRollup(id, period, count, sum, min, max, lastValue, null));
+                }
+            }
+
+            return ret;
+        }
+
+        private int getSlot(final long period) {
+            return (int) ((period / MINUTE_IN_MS) % periods.length);
+        }
+    }
+}
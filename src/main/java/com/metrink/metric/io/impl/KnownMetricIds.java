@@ -0,0 +1,195 @@
+package com.metrink.metric.io.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.PrimitiveSink;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.metrink.config.MetadataSettings;
+import com.metrink.metric.MetricId;
+
+/**
+ * The {@link MetricId}s known to already be in the metadata, so only new ones are written.
+ *
+ * Ids are held in a set of at most max_known_ids, dropping the least recently used first; an id that was dropped is
+ * just written again. With bloom_filter, a Bloom filter sized for max_known_ids replaces the set. It takes a couple of
+ * bytes per id instead of a hundred or so, at the price of taking a new id for a known one bloom_filter_fpp of the
+ * time, which leaves it out of the metadata until the filter is next rebuilt. The filter is rebuilt empty every
+ * bloom_filter_rebuild_minutes, so such an id is written within that long, as well as once it holds max_known_ids and
+ * whenever an id is forgotten. Each rebuild writes every id seen again, once.
+ */
+@Singleton
+public class KnownMetricIds {
+    private static final Logger LOG = LoggerFactory.getLogger(KnownMetricIds.class);
+
+    private final int maxKnownIds;
+    private final double bloomFilterFpp;
+    private final long rebuildNanos;
+    private final Ticker ticker;
+
+    // exactly one of these is used, unless maxKnownIds is 0
+    private final Cache<MetricId, Boolean> knownIds;
+    private BloomFilter<MetricId> bloomFilter;
+    private int bloomFilterSize;
+    private long bloomFilterBuiltAt;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @Inject
+    public KnownMetricIds(final MetadataSettings settings) {
+        this(settings, Ticker.systemTicker());
+    }
+
+    KnownMetricIds(final MetadataSettings settings, final Ticker ticker) {
+        this.maxKnownIds = Math.max(0, settings.getMaxKnownIds());
+        this.bloomFilterFpp = settings.getBloomFilterFpp();
+        this.rebuildNanos = TimeUnit.MINUTES.toNanos(settings.getBloomFilterRebuildMinutes());
+        this.ticker = ticker;
+
+        if(maxKnownIds > 0 && settings.isBloomFilter()) {
+            this.knownIds = null;
+            rebuildBloomFilter();
+        } else {
+            this.knownIds = CacheBuilder.newBuilder().maximumSize(maxKnownIds).<MetricId, Boolean>build();
+        }
+    }
+
+    /**
+     * Finds the ids that aren't known, counting a hit for each known id and a miss for each one that isn't.
+     * @param metricIds the ids about to be written.
+     * @return the ids that need writing.
+     */
+    public Set<MetricId> filterUnknown(final Set<MetricId> metricIds) {
+        final Set<MetricId> ret = new HashSet<MetricId>();
+
+        // a new id taken for a known one is only written once the filter starts over
+        if(knownIds == null && rebuildNanos > 0) {
+            synchronized(this) {
+                if(ticker.read() - bloomFilterBuiltAt >= rebuildNanos) {
+                    LOG.info("Known metric id filter is {} minutes old, starting a new one", TimeUnit.NANOSECONDS.toMinutes(rebuildNanos));
+                    rebuildBloomFilter();
+                }
+            }
+        }
+
+        for(final MetricId metricId:metricIds) {
+            if(!isKnown(metricId)) {
+                ret.add(metricId);
+            }
+        }
+
+        hits.addAndGet(metricIds.size() - ret.size());
+        misses.addAndGet(ret.size());
+
+        return ret;
+    }
+
+    /**
+     * Remembers ids that have been written.
+     * @param metricIds the written ids.
+     */
+    public void addAll(final Collection<MetricId> metricIds) {
+        if(maxKnownIds == 0) {
+            return;
+        }
+
+        if(knownIds != null) {
+            for(final MetricId metricId:metricIds) {
+                knownIds.put(metricId, Boolean.TRUE);
+            }
+
+            return;
+        }
+
+        synchronized(this) {
+            for(final MetricId metricId:metricIds) {
+                // past its expected size the false positive rate climbs, start over and let ids be written again
+                if(bloomFilterSize >= maxKnownIds) {
+                    LOG.info("Known metric id filter is full, starting a new one");
+                    rebuildBloomFilter();
+                }
+
+                if(bloomFilter.put(metricId)) {
+                    bloomFilterSize++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets an id, so it's written the next time it's seen.
+     * @param metricId the id removed from the metadata.
+     */
+    public void remove(final MetricId metricId) {
+        if(knownIds != null) {
+            knownIds.invalidate(metricId);
+            return;
+        }
+
+        // a Bloom filter can't remove, so forget everything
+        synchronized(this) {
+            rebuildBloomFilter();
+        }
+    }
+
+    /**
+     * Returns the number of ids that were known, and not written.
+     * @return the number of hits.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of ids that weren't known, and were written.
+     * @return the number of misses.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private boolean isKnown(final MetricId metricId) {
+        if(knownIds != null) {
+            return knownIds.getIfPresent(metricId) != null;
+        }
+
+        synchronized(this) {
+            return bloomFilter.mightContain(metricId);
+        }
+    }
+
+    private void rebuildBloomFilter() {
+        bloomFilter = BloomFilter.create(MetricIdFunnel.INSTANCE, maxKnownIds, bloomFilterFpp);
+        bloomFilterSize = 0;
+        bloomFilterBuiltAt = ticker.read();
+    }
+
+    /**
+     * Feeds the device, group, and name of a {@link MetricId} to the Bloom filter.
+     */
+    private enum MetricIdFunnel implements Funnel<MetricId> {
+        INSTANCE;
+
+        @Override
+        public void funnel(final MetricId metricId, final PrimitiveSink into) {
+            // the separators keep ("ab", "c") and ("a", "bc") apart
+            into.putString(metricId.getDevice(), StandardCharsets.UTF_8).putByte((byte) 0)
+                .putString(metricId.getGroupName(), StandardCharsets.UTF_8).putByte((byte) 0)
+                .putString(metricId.getName(), StandardCharsets.UTF_8);
+        }
+    }
+}
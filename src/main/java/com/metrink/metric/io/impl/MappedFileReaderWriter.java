@@ -0,0 +1,820 @@
+package com.metrink.metric.io.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.CountingInputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.metrink.config.EmbeddedSettings;
+import com.metrink.inject.DateTimeProvider;
+import com.metrink.metric.Metric;
+import com.metrink.metric.MetricId;
+import com.metrink.metric.MetricRequest;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.MetricValue;
+import com.metrink.metric.MetricValueList;
+import com.metrink.metric.Resolution;
+import com.metrink.metric.Statistic;
+import com.metrink.metric.io.MetricMetadata;
+import com.metrink.metric.io.MetricReaderWriter;
+
+/**
+ * {@link MetricReaderWriter} that keeps metrics in local files, for running without Cassandra.
+ *
+ * Each metric is numbered by its position in series.idx, an append-only file of device, group, and name strings.
+ * Each resolution of a series is split into blocks of {@link #POINTS_PER_BLOCK} periods, so a day of minutes, and
+ * each block is kept in up to two files under resolution/series/:
+ *
+ * <ul>
+ * <li>blockStart.open, the block while it is being written: memory-mapped fixed size records appended in write order.
+ * A period written again is appended again, and the last record of a period wins.</li>
+ * <li>blockStart.sealed, the block once it has closed, as a {@link RollupBlock}.</li>
+ * </ul>
+ *
+ * <pre>
+ * int       version (VERSION)
+ * int       number of records
+ * record[]  long timestamp, long count, double sum, double min, double max, double last
+ * </pre>
+ *
+ * A background thread seals the blocks that ended more than seal_delay_hours ago, merging in the sealed file when
+ * there already is one. A write to a sealed block starts a new open file, which reads lay over the sealed one until
+ * the block is sealed again.
+ *
+ * Reads go straight from the mapped records, or the decoded block's arrays, into one primitive slot per period, so
+ * the only objects allocated per point are the {@link MetricValue}s of the result. Open files aren't forced on every
+ * write: the operating system writes them back, and {@link #shutdown()} forces them. With force_writes, which the
+ * collector sets when it has a write-ahead log as the log is checkpointed once a write returns, each write forces the
+ * blocks it touched before returning. The new series of a write are added to the index with a single sync.
+ */
+@Singleton
+public class MappedFileReaderWriter implements MetricReaderWriter {
+
+    public static final Logger LOG = LoggerFactory.getLogger(MappedFileReaderWriter.class);
+
+    static final int POINTS_PER_BLOCK = 1440;
+
+    private static final String SERIES_INDEX_FILE = "series.idx";
+    private static final String OPEN_SUFFIX = ".open";
+    private static final String SEALED_SUFFIX = ".sealed";
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4;
+    private static final int RECORD_SIZE = 8 * 6;
+    private static final long SEAL_INTERVAL_IN_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private final File directory;
+    private final long sealDelayInMs;
+    private final boolean forceWrites;
+    private final MetricMetadata metadata;
+    private final DateTimeProvider dateTimeProvider;
+
+    private final ConcurrentMap<MetricId, Series> series = new ConcurrentHashMap<MetricId, Series>();
+
+    // guarded by this
+    private final List<Series> seriesByNumber = new ArrayList<Series>();
+    private FileOutputStream seriesIndexFile;
+    private DataOutputStream seriesIndex;
+
+    private ScheduledExecutorService sealer;
+
+    /**
+     * Initialize the {@link MetricReaderWriter}.
+     * @param metadata delegate for obtaining metric meta-data (e.g., unique devices, groups, etc)
+     * @param dateTimeProvider the current time, for sealing blocks
+     * @param settings embedded storage settings
+     */
+    @Inject
+    public MappedFileReaderWriter(final MetricMetadata metadata,
+                                  final DateTimeProvider dateTimeProvider,
+                                  final EmbeddedSettings settings) {
+        this.directory = new File(settings.getDirectory());
+        this.sealDelayInMs = TimeUnit.HOURS.toMillis(settings.getSealDelayHours());
+        this.forceWrites = settings.isForceWrites();
+        this.metadata = metadata;
+        this.dateTimeProvider = dateTimeProvider;
+    }
+
+    @Override
+    public void init() {
+        LOG.info("Initializing embedded reader/writer in {}", directory);
+
+        try {
+            openSeriesIndex();
+        } catch(final IOException e) {
+            throw new IllegalStateException("Unable to open the series index in " + directory, e);
+        }
+
+        sealer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("embedded-sealer").setDaemon(true).build());
+
+        sealer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                // we need this try - catch block so the sealer
+                // will continue to run even with exceptions
+                try {
+                    sealClosedBlocks(dateTimeProvider.get().getMillis());
+                } catch(final Exception e) {
+                    LOG.error("Caught top-level exception: {}", e.getMessage(), e);
+                }
+            }
+        }, SEAL_INTERVAL_IN_MS, SEAL_INTERVAL_IN_MS, TimeUnit.MILLISECONDS);
+
+        metadata.init();
+    }
+
+    @Override
+    public void shutdown() {
+        LOG.info("Shutting down embedded reader/writer");
+
+        if(sealer != null) {
+            sealer.shutdownNow();
+        }
+
+        for(final Series s:getAllSeries()) {
+            synchronized(s) {
+                for(final OpenBlock block:s.openBlocks.values()) {
+                    block.force();
+                }
+            }
+        }
+
+        synchronized(this) {
+            try {
+                if(seriesIndex != null) {
+                    seriesIndex.close();
+                }
+            } catch(final IOException e) {
+                LOG.error("Error closing the series index: {}", e.getMessage(), e);
+            }
+        }
+
+        metadata.shutdown();
+    }
+
+    @Override
+    public Map<MetricId, MetricValueList> readMetrics(final List<MetricRequest> requests) {
+        final Map<MetricId, MetricValueList> results = new HashMap<MetricId, MetricValueList>();
+
+        for(final MetricRequest request:requests) {
+            final Resolution resolution = request.getResolution();
+            final long duration = resolution.getDurationInMs();
+            final long firstPeriod = resolution.floor(request.getStart());
+            final Statistic statistic = request.getStatistic();
+
+            // one slot per period, written over by later records of the same period
+            final int slots = (int) ((request.getEnd() - firstPeriod) / duration) + 1;
+            final double[] values = new double[slots];
+            final boolean[] present = new boolean[slots];
+
+            readSeries(request.getId(), resolution, firstPeriod, request.getEnd(), new PointVisitor() {
+                @Override
+                public void visit(final long timestamp, final long count, final double sum, final double min, final double max, final double last) {
+                    final int slot = (int) ((timestamp - firstPeriod) / duration);
+
+                    values[slot] = getStatistic(statistic, count, sum, min, max, last);
+                    present[slot] = true;
+                }
+            });
+
+            final List<MetricValue> found = new ArrayList<MetricValue>();
+
+            for(int i=0; i < slots; ++i) {
+                if(present[i]) {
+                    found.add(new MetricValue(firstPeriod + i * duration, values[i], null));
+                }
+            }
+
+            results.put(request.getId(),
+                        new MetricValueList(request.getStart(), request.getEnd(), resolution.getDurationInSeconds())
+                            .addMetricValues(found));
+        }
+
+        return results;
+    }
+
+    @Override
+    public MetricValueList readMetrics(final MetricId id, final long start, final long end) {
+        return readMetrics(Arrays.asList(new MetricRequest(id, start, end))).get(id);
+    }
+
+    @Override
+    public List<MetricRollup> readRollups(final MetricId id, final Resolution resolution, final long start, final long end) {
+        final TreeMap<Long, MetricRollup> ret = new TreeMap<Long, MetricRollup>();
+
+        readSeries(id, resolution, start, end, new PointVisitor() {
+            @Override
+            public void visit(final long timestamp, final long count, final double sum, final double min, final double max, final double last) {
+                ret.put(timestamp, new MetricRollup(id, timestamp, count, sum, min, max, last, null));
+            }
+        });
+
+        return new ArrayList<MetricRollup>(ret.values());
+    }
+
+    @Override
+    public Map<MetricId, List<MetricRollup>> readRollups(final List<MetricId> ids, final Resolution resolution, final long start, final long end) {
+        final Map<MetricId, List<MetricRollup>> ret = new HashMap<MetricId, List<MetricRollup>>();
+
+        for(final MetricId id:ids) {
+            ret.put(id, readRollups(id, resolution, start, end));
+        }
+
+        return ret;
+    }
+
+    @Override
+    public void writeMetrics(final List<Metric> metrics) {
+        final List<MetricRollup> rollups = new ArrayList<MetricRollup>(metrics.size());
+
+        for(final Metric metric:metrics) {
+            rollups.add(new MetricRollup(metric));
+        }
+
+        writeRollups(rollups);
+    }
+
+    @Override
+    public void writeRollups(final List<MetricRollup> rollups) {
+        writeRollups(Resolution.ONE_MINUTE, rollups);
+    }
+
+    @Override
+    public void writeRollups(final Resolution resolution, final List<MetricRollup> rollups) {
+        final Set<MetricId> metricIds = new HashSet<MetricId>();
+        final Map<OpenBlock, Series> written = new HashMap<OpenBlock, Series>();
+        IOException error = null;
+        Map<MetricId, Series> seriesById = new HashMap<MetricId, Series>();
+
+        try {
+            seriesById = getSeries(rollups);
+        } catch(final IOException e) {
+            error = e;
+        }
+
+        for(final MetricRollup rollup:rollups) {
+            final Series s = seriesById.get(rollup.getId());
+
+            if(s == null) {
+                continue;
+            }
+
+            try {
+                synchronized(s) {
+                    final OpenBlock block = getOpenBlock(s, resolution, getBlockStart(resolution, rollup.getTimestamp()), true);
+
+                    block.append(rollup);
+                    written.put(block, s);
+                }
+
+                metricIds.add(rollup.getId());
+            } catch(final IOException e) {
+                error = e;
+            }
+        }
+
+        if(forceWrites) {
+            for(final Map.Entry<OpenBlock, Series> entry:written.entrySet()) {
+                synchronized(entry.getValue()) {
+                    entry.getKey().force();
+                }
+            }
+        }
+
+        LOG.debug("Wrote {} metrics", metricIds.size());
+
+        if(!metricIds.isEmpty() && !metadata.writeMetricIds(metricIds)) {
+            LOG.error("Failed to persist metric metadata");
+        }
+
+        // periods written again are appended again, so the caller can write the whole list again
+        if(error != null) {
+            throw new IllegalStateException("Unable to write " + (rollups.size() - metricIds.size()) + " of "
+                                            + rollups.size() + " metrics", error);
+        }
+    }
+
+    @Override
+    public int deleteMetrics(final long before) {
+        int count = 0;
+
+        for(final Resolution resolution:Resolution.values()) {
+            final long blockLength = getBlockLength(resolution);
+
+            for(final Series s:getAllSeries()) {
+                synchronized(s) {
+                    for(final File file:listFiles(getSeriesDirectory(s, resolution))) {
+                        final long blockStart = getBlockStart(file);
+
+                        if(blockStart == Long.MIN_VALUE || blockStart + blockLength > before) {
+                            continue;
+                        }
+
+                        s.openBlocks.remove(file);
+
+                        if(file.delete()) {
+                            count++;
+                        } else {
+                            LOG.warn("Unable to delete block file: {}", file);
+                        }
+                    }
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Seals every open block that ended at least seal_delay_hours before the given time.
+     * @param now the current time
+     * @return the number of blocks sealed
+     */
+    public int sealClosedBlocks(final long now) {
+        int sealed = 0;
+
+        for(final Resolution resolution:Resolution.values()) {
+            final long blockLength = getBlockLength(resolution);
+
+            for(final Series s:getAllSeries()) {
+                for(final File file:listFiles(getSeriesDirectory(s, resolution))) {
+                    final long blockStart = getBlockStart(file);
+
+                    if(!file.getName().endsWith(OPEN_SUFFIX) || blockStart + blockLength + sealDelayInMs > now) {
+                        continue;
+                    }
+
+                    try {
+                        seal(s, resolution, blockStart);
+                        sealed++;
+                    } catch(final IOException e) {
+                        LOG.error("Error sealing block {}: {}", file, e.getMessage(), e);
+                    }
+                }
+            }
+        }
+
+        if(sealed > 0) {
+            LOG.info("Sealed {} blocks", sealed);
+        }
+
+        return sealed;
+    }
+
+    /**
+     * Rewrites the open file of a block, merged with its sealed file if it has one, as a sealed file.
+     */
+    private void seal(final Series s, final Resolution resolution, final long blockStart) throws IOException {
+        synchronized(s) {
+            final Map<Long, MetricRollup> rollups = new TreeMap<Long, MetricRollup>();
+
+            readBlock(s, resolution, blockStart, new PointVisitor() {
+                @Override
+                public void visit(final long timestamp, final long count, final double sum, final double min, final double max, final double last) {
+                    rollups.put(timestamp, new MetricRollup(s.id, timestamp, count, sum, min, max, last, null));
+                }
+            });
+
+            final File openFile = getBlockFile(s, resolution, blockStart, OPEN_SUFFIX);
+
+            if(!rollups.isEmpty()) {
+                writeSealed(getBlockFile(s, resolution, blockStart, SEALED_SUFFIX),
+                            RollupBlock.encode(new ArrayList<MetricRollup>(rollups.values())));
+            }
+
+            s.openBlocks.remove(openFile);
+
+            if(!openFile.delete()) {
+                LOG.warn("Unable to delete sealed block file: {}", openFile);
+            }
+        }
+    }
+
+    /**
+     * Reads the periods of a series in a time range, handing each record to the visitor in the order written. A
+     * series that has never been written has no periods.
+     */
+    private void readSeries(final MetricId id,
+                            final Resolution resolution,
+                            final long start,
+                            final long end,
+                            final PointVisitor visitor) {
+        final Series s = series.get(id);
+
+        if(s == null) {
+            return;
+        }
+
+        // only pass on the periods in the range
+        final PointVisitor inRange = new PointVisitor() {
+            @Override
+            public void visit(final long timestamp, final long count, final double sum, final double min, final double max, final double last) {
+                if(timestamp >= start && timestamp <= end) {
+                    visitor.visit(timestamp, count, sum, min, max, last);
+                }
+            }
+        };
+
+        try {
+            for(long blockStart = getBlockStart(resolution, start); blockStart <= end; blockStart += getBlockLength(resolution)) {
+                synchronized(s) {
+                    readBlock(s, resolution, blockStart, inRange);
+                }
+            }
+        } catch(final IOException e) {
+            LOG.error("Error reading {}: {}", id, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads a block's sealed file and then its open file, which is newer.
+     */
+    private void readBlock(final Series s,
+                           final Resolution resolution,
+                           final long blockStart,
+                           final PointVisitor visitor) throws IOException {
+        final File sealedFile = getBlockFile(s, resolution, blockStart, SEALED_SUFFIX);
+
+        if(sealedFile.exists()) {
+            final RollupBlock block = readSealed(sealedFile);
+
+            for(int i=0; i < block.size(); ++i) {
+                visitor.visit(block.getTimestamp(i),
+                              block.getCount(i),
+                              block.getStatistic(i, Statistic.SUM),
+                              block.getStatistic(i, Statistic.MIN),
+                              block.getStatistic(i, Statistic.MAX),
+                              block.getStatistic(i, Statistic.LAST));
+            }
+        }
+
+        final OpenBlock openBlock = getOpenBlock(s, resolution, blockStart, false);
+
+        if(openBlock != null) {
+            openBlock.visit(visitor);
+        }
+    }
+
+    private static RollupBlock readSealed(final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            return RollupBlock.decode(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void writeSealed(final File file, final ByteBuffer block) throws IOException {
+        final File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        final FileOutputStream fos = new FileOutputStream(tmpFile);
+
+        try {
+            fos.getChannel().write(block);
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Gets the open file of a block, mapping it the first time.
+     * @param create true to create the file if there isn't one
+     * @return the open block, or null if there is none and create is false
+     */
+    private OpenBlock getOpenBlock(final Series s,
+                                   final Resolution resolution,
+                                   final long blockStart,
+                                   final boolean create) throws IOException {
+        final File file = getBlockFile(s, resolution, blockStart, OPEN_SUFFIX);
+        OpenBlock ret = s.openBlocks.get(file);
+
+        if(ret == null) {
+            if(!create && !file.exists()) {
+                return null;
+            }
+
+            if(!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+                throw new IOException("Unable to create block directory: " + file.getParentFile());
+            }
+
+            ret = new OpenBlock(file);
+            s.openBlocks.put(file, ret);
+        }
+
+        return ret;
+    }
+
+    /**
+     * Gets the series of the metrics of some rollups, numbering the new ones in the series index together.
+     */
+    private Map<MetricId, Series> getSeries(final List<MetricRollup> rollups) throws IOException {
+        final Map<MetricId, Series> ret = new HashMap<MetricId, Series>();
+        final Set<MetricId> missing = new LinkedHashSet<MetricId>();
+
+        for(final MetricRollup rollup:rollups) {
+            final Series s = series.get(rollup.getId());
+
+            if(s != null) {
+                ret.put(rollup.getId(), s);
+            } else {
+                missing.add(rollup.getId());
+            }
+        }
+
+        if(missing.isEmpty()) {
+            return ret;
+        }
+
+        synchronized(this) {
+            if(seriesIndex == null) {
+                throw new IOException("Embedded storage has not been initialized");
+            }
+
+            final List<MetricId> added = new ArrayList<MetricId>();
+
+            for(final MetricId id:missing) {
+                final Series s = series.get(id);
+
+                // numbered by another write while this one waited
+                if(s != null) {
+                    ret.put(id, s);
+                    continue;
+                }
+
+                seriesIndex.writeUTF(id.getDevice());
+                seriesIndex.writeUTF(id.getGroupName());
+                seriesIndex.writeUTF(id.getName());
+                added.add(id);
+            }
+
+            if(added.isEmpty()) {
+                return ret;
+            }
+
+            seriesIndex.flush();
+
+            // the block files are named by the number, which mustn't be lost
+            seriesIndexFile.getFD().sync();
+
+            for(final MetricId id:added) {
+                final Series s = new Series(seriesByNumber.size(), id);
+
+                seriesByNumber.add(s);
+                series.put(id, s);
+                ret.put(id, s);
+            }
+        }
+
+        return ret;
+    }
+
+    private synchronized List<Series> getAllSeries() {
+        return new ArrayList<Series>(seriesByNumber);
+    }
+
+    /**
+     * Reads the series index, dropping a torn entry at the end, and opens it for appending.
+     */
+    private synchronized void openSeriesIndex() throws IOException {
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create metrics directory: " + directory);
+        }
+
+        final File file = new File(directory, SERIES_INDEX_FILE);
+
+        if(file.exists()) {
+            final CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+            final DataInputStream in = new DataInputStream(counter);
+            long length = 0;
+
+            try {
+                while(true) {
+                    final MetricId id = new MetricId(in.readUTF(), in.readUTF(), in.readUTF());
+                    final Series s = new Series(seriesByNumber.size(), id);
+
+                    seriesByNumber.add(s);
+                    series.put(id, s);
+                    length = counter.getCount();
+                }
+            } catch(final EOFException e) {
+                // the end of the index
+            } finally {
+                in.close();
+            }
+
+            if(length < file.length()) {
+                LOG.warn("Dropping a torn entry at the end of {}", file);
+
+                final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+                try {
+                    raf.setLength(length);
+                } finally {
+                    raf.close();
+                }
+            }
+
+            LOG.info("Read {} series from {}", seriesByNumber.size(), file);
+        }
+
+        seriesIndexFile = new FileOutputStream(file, true);
+        seriesIndex = new DataOutputStream(new BufferedOutputStream(seriesIndexFile));
+    }
+
+    private File getSeriesDirectory(final Series s, final Resolution resolution) {
+        return new File(new File(directory, resolution.name().toLowerCase()), Integer.toString(s.number));
+    }
+
+    private File getBlockFile(final Series s, final Resolution resolution, final long blockStart, final String suffix) {
+        return new File(getSeriesDirectory(s, resolution), blockStart + suffix);
+    }
+
+    private static File[] listFiles(final File dir) {
+        final File[] ret = dir.listFiles();
+        return ret == null ? new File[0] : ret;
+    }
+
+    private static long getBlockLength(final Resolution resolution) {
+        return resolution.getDurationInMs() * POINTS_PER_BLOCK;
+    }
+
+    private static long getBlockStart(final Resolution resolution, final long timestamp) {
+        final long blockLength = getBlockLength(resolution);
+        return (timestamp / blockLength) * blockLength;
+    }
+
+    /**
+     * Parses the start of a block from the name of one of its files.
+     * @return the start, or Long.MIN_VALUE if it's not a block file
+     */
+    private static long getBlockStart(final File file) {
+        final String name = file.getName();
+        final int dot = name.indexOf('.');
+
+        if(!name.endsWith(OPEN_SUFFIX) && !name.endsWith(SEALED_SUFFIX)) {
+            return Long.MIN_VALUE;
+        }
+
+        try {
+            return Long.parseLong(name.substring(0, dot));
+        } catch(final NumberFormatException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private static double getStatistic(final Statistic statistic,
+                                       final long count,
+                                       final double sum,
+                                       final double min,
+                                       final double max,
+                                       final double last) {
+        switch(statistic) {
+        case MEAN:
+            return count == 0 ? 0.0 : sum / count;
+        case SUM:
+            return sum;
+        case MIN:
+            return min;
+        case MAX:
+            return max;
+        case LAST:
+            return last;
+        case COUNT:
+            return count;
+        default:
+            throw new IllegalArgumentException("Unknown statistic: " + statistic);
+        }
+    }
+
+    /**
+     * Receives the periods read from a block, without allocating a rollup for each.
+     */
+    private interface PointVisitor {
+        public void visit(long timestamp, long count, double sum, double min, double max, double last);
+    }
+
+    /**
+     * A numbered metric and the open files of its blocks.
+     */
+    private static class Series {
+        private final int number;
+        private final MetricId id;
+
+        // guarded by the series, as is every file of the series
+        private final Map<File, OpenBlock> openBlocks = new HashMap<File, OpenBlock>();
+
+        Series(final int number, final MetricId id) {
+            this.number = number;
+            this.id = id;
+        }
+    }
+
+    /**
+     * The memory-mapped open file of a block.
+     */
+    private static class OpenBlock {
+        private final File file;
+        private MappedByteBuffer buffer;
+        private int size;
+
+        OpenBlock(final File file) throws IOException {
+            this.file = file;
+
+            final boolean created = file.length() < HEADER_SIZE;
+
+            map(created ? HEADER_SIZE + POINTS_PER_BLOCK * RECORD_SIZE : (int) file.length());
+
+            if(created) {
+                buffer.putInt(0, VERSION);
+                buffer.putInt(4, 0);
+            } else if(buffer.getInt(0) != VERSION) {
+                throw new IOException("Not a block file: " + file);
+            }
+
+            // a count past the end of the file can only be from a torn write
+            size = Math.min(buffer.getInt(4), (buffer.capacity() - HEADER_SIZE) / RECORD_SIZE);
+        }
+
+        private void map(final int length) throws IOException {
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+            try {
+                // the mapping stays valid after the file is closed
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            } finally {
+                raf.close();
+            }
+        }
+
+        void append(final MetricRollup rollup) throws IOException {
+            final int pos = HEADER_SIZE + size * RECORD_SIZE;
+
+            // periods written again are appended again, so a block can outgrow its first mapping
+            if(pos + RECORD_SIZE > buffer.capacity()) {
+                map(buffer.capacity() + POINTS_PER_BLOCK * RECORD_SIZE);
+            }
+
+            buffer.putLong(pos, rollup.getTimestamp());
+            buffer.putLong(pos + 8, rollup.getCount());
+            buffer.putDouble(pos + 16, rollup.getSum());
+            buffer.putDouble(pos + 24, rollup.getMin());
+            buffer.putDouble(pos + 32, rollup.getMax());
+            buffer.putDouble(pos + 40, rollup.getLast());
+
+            // the count is written last, so a record is complete before it is read
+            buffer.putInt(4, ++size);
+        }
+
+        void visit(final PointVisitor visitor) {
+            for(int i=0; i < size; ++i) {
+                final int pos = HEADER_SIZE + i * RECORD_SIZE;
+
+                visitor.visit(buffer.getLong(pos),
+                              buffer.getLong(pos + 8),
+                              buffer.getDouble(pos + 16),
+                              buffer.getDouble(pos + 24),
+                              buffer.getDouble(pos + 32),
+                              buffer.getDouble(pos + 40));
+            }
+        }
+
+        void force() {
+            buffer.force();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.metrink.metric.io.impl;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.metrink.metric.MetricId;
+import com.metrink.metric.io.MetricIdDictionary;
+import com.sop4j.dbutils.QueryRunner;
+import com.sop4j.dbutils.handlers.ArrayListHandler;
+import com.sop4j.dbutils.handlers.ColumnListHandler;
+
+/**
+ * {@link MetricIdDictionary} kept in the metric_numbers table (see scripts/schema.mysql).
+ *
+ * Numbers never change once assigned, so both directions are cached and SQL is only hit the first time a metric is
+ * seen. Collectors racing to number the same new metric are settled by the table's unique key: the insert of the
+ * loser fails and it reads the winner's number.
+ */
+@Singleton
+public class MySqlMetricIdDictionary implements MetricIdDictionary {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MySqlMetricIdDictionary.class);
+
+    private final QueryRunner runner;
+    private final ConcurrentMap<MetricId, Integer> numbers = new ConcurrentHashMap<MetricId, Integer>();
+    private final ConcurrentMap<Integer, MetricId> metricIds = new ConcurrentHashMap<Integer, MetricId>();
+
+    @Inject
+    public MySqlMetricIdDictionary(final QueryRunner runner) {
+        this.runner = runner;
+    }
+
+    @Override
+    public int getNumber(final MetricId id) {
+        final Integer found = findNumber(id);
+
+        if(found != null) {
+            return found;
+        }
+
+        try {
+            runner.update("insert into metric_numbers (device, groupName, name) values (:device, :group, :name)")
+                  .bind("device", id.getDevice())
+                  .bind("group", id.getGroupName())
+                  .bind("name", id.getName())
+                  .execute();
+        } catch (final SQLException e) {
+            // most likely another collector numbered it first, which the read below picks up
+            LOG.debug("Error numbering metric {}: {}", id, e.getMessage());
+        }
+
+        final Integer number = readNumber(id);
+
+        if(number == null) {
+            throw new IllegalStateException("Unable to number metric " + id);
+        }
+
+        numbers.put(id, number);
+        metricIds.put(number, id);
+
+        return number;
+    }
+
+    @Override
+    public Integer findNumber(final MetricId id) {
+        final Integer cached = numbers.get(id);
+
+        if(cached != null) {
+            return cached;
+        }
+
+        final Integer number = readNumber(id);
+
+        // a metric without a number isn't cached, another collector may number it at any time
+        if(number != null) {
+            numbers.put(id, number);
+            metricIds.put(number, id);
+        }
+
+        return number;
+    }
+
+    @Override
+    public MetricId getMetricId(final int number) {
+        final MetricId cached = metricIds.get(number);
+
+        if(cached != null) {
+            return cached;
+        }
+
+        final List<Object[]> results;
+
+        try {
+            results = runner.query("select device, groupName, name from metric_numbers where metricNumber = :number")
+                            .bind("number", number)
+                            .execute(new ArrayListHandler());
+        } catch (final SQLException e) {
+            LOG.error("Error reading metric number {}: {}", number, e.getMessage(), e);
+            throw new IllegalStateException("Unable to read metric number " + number, e);
+        }
+
+        if(results.isEmpty()) {
+            throw new IllegalStateException("Unknown metric number " + number);
+        }
+
+        final Object[] res = results.get(0);
+        final MetricId id = new MetricId(res[0].toString(), res[1].toString(), res[2].toString());
+
+        numbers.put(id, number);
+        metricIds.put(number, id);
+
+        return id;
+    }
+
+    /**
+     * Reads the number of a metric from SQL.
+     * @param id the metric id.
+     * @return the number, or null if the metric has none.
+     */
+    private Integer readNumber(final MetricId id) {
+        try {
+            final List<Number> results =
+                runner.query("select metricNumber from metric_numbers where device = :device and groupName = :group and name = :name")
+                      .bind("device", id.getDevice())
+                      .bind("group", id.getGroupName())
+                      .bind("name", id.getName())
+                      .execute(new ColumnListHandler<Number>(1));
+
+            return results.isEmpty() ? null : results.get(0).intValue();
+        } catch (final SQLException e) {
+            LOG.error("Error reading number of metric {}: {}", id, e.getMessage(), e);
+            throw new IllegalStateException("Unable to read number of metric " + id, e);
+        }
+    }
+}
@@ -13,6 +13,7 @@ import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.metrink.metric.MetricId;
+import com.metrink.metric.io.MetricDeleteListener;
 import com.metrink.metric.io.MetricMetadata;
 import com.sop4j.dbutils.BatchExecutor;
 import com.sop4j.dbutils.QueryRunner;
@@ -20,20 +21,35 @@ import com.sop4j.dbutils.handlers.ArrayListHandler;
 import com.sop4j.dbutils.handlers.BeanListHandler;
 import com.sop4j.dbutils.handlers.ColumnListHandler;
 
+/**
+ * Metric metadata stored in MySQL.
+ *
+ * Every write sends the ids of a whole batch of metrics, nearly all of which were sent the minute before, so writes
+ * are filtered through {@link KnownMetricIds}, which is loaded with the stored ids at startup.
+ */
 @Singleton
 public class MySqlMetricMetadata implements MetricMetadata {
 
     private static final Logger LOG = LoggerFactory.getLogger(MySqlMetricMetadata.class);
 
     private final QueryRunner runner;
+    private final KnownMetricIds knownIds;
+    private final MetricDeleteListener deleteListener;
 
     @Inject
-    public MySqlMetricMetadata(final QueryRunner runner) {
+    public MySqlMetricMetadata(final QueryRunner runner, final KnownMetricIds knownIds, final MetricDeleteListener deleteListener) {
         this.runner = runner;
+        this.knownIds = knownIds;
+        this.deleteListener = deleteListener;
     }
 
     @Override
     public void init() {
+        final List<MetricId> metricIds = readUniqueMetrics();
+
+        knownIds.addAll(metricIds);
+
+        LOG.info("Loaded {} known metric ids", metricIds.size());
     }
 
     @Override
@@ -158,14 +174,23 @@ public class MySqlMetricMetadata implements MetricMetadata {
     }
 
     @Override
-    public boolean writeMetricIds(final Set<MetricId> metricIds) {
+    public boolean writeMetricIds(final Set<MetricId> allMetricIds) {
         BatchExecutor executor = null;
 
-        if(metricIds.isEmpty()) {
+        if(allMetricIds.isEmpty()) {
             LOG.warn("Attempted to write empty set of metric IDs");
             return true;
         }
 
+        final Set<MetricId> metricIds = knownIds.filterUnknown(allMetricIds);
+
+        LOG.debug("Writing {} of {} metric IDs ({} hits, {} misses in total)",
+                  new Object[] { metricIds.size(), allMetricIds.size(), knownIds.getHits(), knownIds.getMisses() });
+
+        if(metricIds.isEmpty()) {
+            return true;
+        }
+
         try {
             executor = runner.batch("call add_metric_ids(:device, :group, :name)");
         } catch (final SQLException e) {
@@ -194,6 +219,8 @@ public class MySqlMetricMetadata implements MetricMetadata {
             return false;
         }
 
+        knownIds.addAll(metricIds);
+
         return true;
     }
 
@@ -208,6 +235,11 @@ public class MySqlMetricMetadata implements MetricMetadata {
         } catch (SQLException e) {
             LOG.error("Error executing delete_metric({}): {}", metricId, e.getMessage());
             return 0;
+        } finally {
+            // after the delete, so a read racing it can't put the deleted values back, nor a write racing it keep the
+            // deleted id known; a failed delete may have run
+            knownIds.remove(metricId);
+            deleteListener.onMetricDeleted(metricId);
         }
     }
 }
@@ -0,0 +1,250 @@
+package com.metrink.metric.io.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.metrink.utils.MilliSecondUtils;
+
+/**
+ * How much time each Cassandra row of a series holds. Busy series want narrow rows so they don't grow huge, sparse
+ * series wide ones so a read doesn't look up many near-empty rows.
+ *
+ * Partitions are numbered from the one holding the start of 1970 UTC, and the number of the partition holding a time
+ * and the start of a partition are worked out arithmetically. Each width has its own string form in ASCII row keys
+ * and its own code in binary row keys; months keep the YYYYMM and code 0 used before widths were configurable.
+ */
+public enum PartitionWidth {
+    /**
+     * Calendar months in UTC, keyed YYYYMM.
+     */
+    MONTH(0) {
+        @Override
+        public int getNumber(final long ms) {
+            final int[] date = civilFromDays(floorDiv(ms, MilliSecondUtils.DAY_IN_MS));
+
+            return (date[0] - 1970) * 12 + date[1] - 1;
+        }
+
+        @Override
+        public long getStart(final int number) {
+            final int year = 1970 + floorDiv(number, 12);
+            final int month = number - (year - 1970) * 12 + 1;
+
+            return daysFromCivil(year, month, 1) * MilliSecondUtils.DAY_IN_MS;
+        }
+
+        @Override
+        public String format(final int number) {
+            final int year = 1970 + floorDiv(number, 12);
+            final int month = number - (year - 1970) * 12 + 1;
+
+            return year + pad(month);
+        }
+
+        @Override
+        int parse(final String partition) {
+            checkArgument(partition.length() == 6, "Month partition length not 6: %s", partition);
+
+            final int year = Integer.parseInt(partition.substring(0, 4));
+            final int month = Integer.parseInt(partition.substring(4, 6));
+
+            return (year - 1970) * 12 + month - 1;
+        }
+    },
+
+    /**
+     * Weeks starting on Monday in UTC, keyed by the Monday's YYYYMMDD followed by W.
+     */
+    WEEK(1) {
+        @Override
+        public int getNumber(final long ms) {
+            // 1970-01-01 is a Thursday, so the week holding it starts three days before
+            return (int) floorDiv(floorDiv(ms, MilliSecondUtils.DAY_IN_MS) + 3, 7);
+        }
+
+        @Override
+        public long getStart(final int number) {
+            return (number * 7L - 3) * MilliSecondUtils.DAY_IN_MS;
+        }
+
+        @Override
+        public String format(final int number) {
+            return formatDay(number * 7L - 3) + "W";
+        }
+
+        @Override
+        int parse(final String partition) {
+            checkArgument(partition.length() == 9 && partition.charAt(8) == 'W', "Not a week partition: %s", partition);
+
+            return (int) floorDiv(parseDay(partition.substring(0, 8)) + 3, 7);
+        }
+    },
+
+    /**
+     * Days in UTC, keyed YYYYMMDD.
+     */
+    DAY(2) {
+        @Override
+        public int getNumber(final long ms) {
+            return (int) floorDiv(ms, MilliSecondUtils.DAY_IN_MS);
+        }
+
+        @Override
+        public long getStart(final int number) {
+            return number * MilliSecondUtils.DAY_IN_MS;
+        }
+
+        @Override
+        public String format(final int number) {
+            return formatDay(number);
+        }
+
+        @Override
+        int parse(final String partition) {
+            checkArgument(partition.length() == 8, "Day partition length not 8: %s", partition);
+
+            return (int) parseDay(partition);
+        }
+    };
+
+    private final int code;
+
+    private PartitionWidth(final int code) {
+        this.code = code;
+    }
+
+    /**
+     * Returns the number of the partition holding a time.
+     * @param ms the time.
+     * @return the partition number.
+     */
+    public abstract int getNumber(long ms);
+
+    /**
+     * Returns the start of a partition.
+     * @param number the partition number.
+     * @return the start of the partition in ms.
+     */
+    public abstract long getStart(int number);
+
+    /**
+     * Formats a partition number for ASCII row keys.
+     * @param number the partition number.
+     * @return the partition as a string.
+     */
+    public abstract String format(int number);
+
+    /**
+     * Parses a partition formatted by {@link #format(int)}.
+     */
+    abstract int parse(String partition);
+
+    /**
+     * Get the code of the width in binary row keys.
+     * @return the code
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Parses a width name, ignoring case.
+     * @param name the name of the width.
+     * @return the width.
+     * @throws IllegalArgumentException if the name is not a width.
+     */
+    public static PartitionWidth fromString(final String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+
+    /**
+     * Finds the width with a code.
+     * @param code the code of the width.
+     * @return the width.
+     * @throws IllegalArgumentException if no width has the code.
+     */
+    public static PartitionWidth fromCode(final int code) {
+        for(final PartitionWidth width:values()) {
+            if(width.code == code) {
+                return width;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown partition width code: " + code);
+    }
+
+    /**
+     * Finds the width of a formatted partition from its length.
+     * @param partition the partition as a string.
+     * @return the width.
+     * @throws IllegalArgumentException if the partition isn't of any width.
+     */
+    public static PartitionWidth fromPartition(final String partition) {
+        switch(partition.length()) {
+        case 6:
+            return MONTH;
+        case 8:
+            return DAY;
+        case 9:
+            return WEEK;
+        default:
+            throw new IllegalArgumentException("Unknown partition: " + partition);
+        }
+    }
+
+    private static long floorDiv(final long x, final long y) {
+        final long ret = x / y;
+
+        return (x % y != 0 && (x < 0) != (y < 0)) ? ret - 1 : ret;
+    }
+
+    private static int floorDiv(final int x, final int y) {
+        return (int) floorDiv((long) x, (long) y);
+    }
+
+    private static String pad(final int n) {
+        return n < 10 ? "0" + n : Integer.toString(n);
+    }
+
+    private static String formatDay(final long days) {
+        final int[] date = civilFromDays(days);
+
+        return date[0] + pad(date[1]) + pad(date[2]);
+    }
+
+    private static long parseDay(final String day) {
+        return daysFromCivil(Integer.parseInt(day.substring(0, 4)),
+                             Integer.parseInt(day.substring(4, 6)),
+                             Integer.parseInt(day.substring(6, 8)));
+    }
+
+    /**
+     * Returns the days since 1970-01-01 of a date in the proleptic Gregorian calendar.
+     */
+    private static long daysFromCivil(final int year, final int month, final int day) {
+        // count years from March, so the leap day is the last of the year
+        final long y = month <= 2 ? year - 1 : year;
+        final long era = floorDiv(y, 400);
+        final long yearOfEra = y - era * 400;
+        final long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Returns the year, month, and day of the days since 1970-01-01, the inverse of {@link #daysFromCivil}.
+     */
+    private static int[] civilFromDays(final long days) {
+        final long z = days + 719468;
+        final long era = floorDiv(z, 146097);
+        final long dayOfEra = z - era * 146097;
+        final long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final long mp = (5 * dayOfYear + 2) / 153;
+        final int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        final int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        final int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+        return new int[] { year, month, day };
+    }
+}
@@ -0,0 +1,371 @@
+package com.metrink.metric.io.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import com.metrink.metric.MetricId;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.Statistic;
+
+/**
+ * A run of {@link MetricRollup}s compressed into one value the way Facebook's Gorilla compresses time series.
+ *
+ * Timestamps are stored as the difference between successive deltas, which is zero for evenly spaced periods, and
+ * counts as the difference from the previous count. Both use the same variable length code: a '0' bit for zero,
+ * otherwise a prefix of '10', '110', '1110', or '1111' followed by the zig-zag encoded difference in 7, 9, 12, or 64
+ * bits. The sum, min, max, and last are each XORed with their previous value: a '0' bit when unchanged, otherwise
+ * '1' and either '0' followed by the changed bits when they fit inside the previous value's window, or '1', 5 bits
+ * of leading zeros, 6 bits of length - 1, and the changed bits.
+ *
+ * <pre>
+ * byte      version (VERSION)
+ * int       number of rollups
+ * long      timestamp unit in ms, every timestamp is a multiple of it
+ * long      first timestamp, in units
+ * bits[]    per rollup: timestamp delta-of-delta (not for the first), count delta, sum, min, max, last
+ * </pre>
+ *
+ * A decoded block holds its rollups in primitive arrays.
+ */
+public class RollupBlock {
+
+    public static final byte VERSION = 1;
+
+    private static final int HEADER_SIZE = 1 + 4 + 8 + 8;
+    private static final long MINUTE_IN_MS = 60000L;
+
+    private final long[] timestamps;
+    private final long[] counts;
+    private final double[] sums;
+    private final double[] mins;
+    private final double[] maxes;
+    private final double[] lasts;
+
+    private RollupBlock(final int size) {
+        this.timestamps = new long[size];
+        this.counts = new long[size];
+        this.sums = new double[size];
+        this.mins = new double[size];
+        this.maxes = new double[size];
+        this.lasts = new double[size];
+    }
+
+    /**
+     * Returns the number of rollups in the block.
+     * @return the number of rollups.
+     */
+    public int size() {
+        return timestamps.length;
+    }
+
+    /**
+     * Returns the timestamp of a rollup.
+     * @param index the index of the rollup.
+     * @return the timestamp in ms.
+     */
+    public long getTimestamp(final int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * Returns the count of a rollup.
+     * @param index the index of the rollup.
+     * @return the number of points in the rollup.
+     */
+    public long getCount(final int index) {
+        return counts[index];
+    }
+
+    /**
+     * Returns one statistic of a rollup.
+     * @param index the index of the rollup.
+     * @param statistic the statistic to read.
+     * @return the value of the statistic.
+     */
+    public double getStatistic(final int index, final Statistic statistic) {
+        switch(statistic) {
+        case MEAN:
+            return counts[index] == 0 ? 0.0 : sums[index] / counts[index];
+        case SUM:
+            return sums[index];
+        case MIN:
+            return mins[index];
+        case MAX:
+            return maxes[index];
+        case LAST:
+            return lasts[index];
+        case COUNT:
+            return counts[index];
+        default:
+            throw new IllegalArgumentException("Unknown statistic: " + statistic);
+        }
+    }
+
+    /**
+     * Returns a rollup.
+     * @param id the id of the metric the block belongs to.
+     * @param index the index of the rollup.
+     * @return the rollup.
+     */
+    public MetricRollup getRollup(final MetricId id, final int index) {
+        return new MetricRollup(id,
+                                timestamps[index],
+                                counts[index],
+                                sums[index],
+                                mins[index],
+                                maxes[index],
+                                lasts[index],
+                                null);
+    }
+
+    /**
+     * Encodes rollups into a block.
+     * @param rollups the rollups, in time order.
+     * @return the encoded block.
+     */
+    public static ByteBuffer encode(final List<MetricRollup> rollups) {
+        checkArgument(!rollups.isEmpty(), "Cannot encode an empty block");
+
+        // periods start on whole minutes, which keeps the deltas small; anything else is stored in ms
+        long unit = MINUTE_IN_MS;
+
+        for(final MetricRollup rollup:rollups) {
+            if(rollup.getTimestamp() % MINUTE_IN_MS != 0) {
+                unit = 1;
+                break;
+            }
+        }
+
+        final BitWriter out = new BitWriter(HEADER_SIZE + rollups.size() * 8);
+        final XorState sum = new XorState(), min = new XorState(), max = new XorState(), last = new XorState();
+
+        out.writeByte(VERSION);
+        out.writeBits(rollups.size(), 32);
+        out.writeBits(unit, 64);
+        out.writeBits(rollups.get(0).getTimestamp() / unit, 64);
+
+        long prevTimestamp = rollups.get(0).getTimestamp() / unit;
+        long prevDelta = 0;
+        long prevCount = 0;
+
+        for(int i=0; i < rollups.size(); ++i) {
+            final MetricRollup rollup = rollups.get(i);
+
+            if(i > 0) {
+                final long timestamp = rollup.getTimestamp() / unit;
+                final long delta = timestamp - prevTimestamp;
+
+                checkArgument(delta > 0, "Rollups must be in time order: %s", rollup);
+
+                writeDifference(out, delta - prevDelta);
+
+                prevTimestamp = timestamp;
+                prevDelta = delta;
+            }
+
+            writeDifference(out, rollup.getCount() - prevCount);
+            prevCount = rollup.getCount();
+
+            sum.write(out, rollup.getSum());
+            min.write(out, rollup.getMin());
+            max.write(out, rollup.getMax());
+            last.write(out, rollup.getLast());
+        }
+
+        return out.toByteBuffer();
+    }
+
+    /**
+     * Decodes a block.
+     * @param value the encoded block, which is not modified.
+     * @return the decoded block.
+     * @throws IllegalArgumentException if the value is not a block.
+     */
+    public static RollupBlock decode(final ByteBuffer value) {
+        final BitReader in = new BitReader(value);
+
+        checkArgument(in.readBits(8) == VERSION, "Not a rollup block");
+
+        final RollupBlock ret = new RollupBlock((int) in.readBits(32));
+        final long unit = in.readBits(64);
+        final XorState sum = new XorState(), min = new XorState(), max = new XorState(), last = new XorState();
+
+        long timestamp = in.readBits(64);
+        long delta = 0;
+        long count = 0;
+
+        for(int i=0; i < ret.size(); ++i) {
+            if(i > 0) {
+                delta += readDifference(in);
+                timestamp += delta;
+            }
+
+            count += readDifference(in);
+
+            ret.timestamps[i] = timestamp * unit;
+            ret.counts[i] = count;
+            ret.sums[i] = sum.read(in);
+            ret.mins[i] = min.read(in);
+            ret.maxes[i] = max.read(in);
+            ret.lasts[i] = last.read(in);
+        }
+
+        return ret;
+    }
+
+    private static void writeDifference(final BitWriter out, final long difference) {
+        final long zigZag = (difference << 1) ^ (difference >> 63);
+
+        if(zigZag == 0) {
+            out.writeBits(0, 1);
+        } else if((zigZag >>> 7) == 0) {
+            out.writeBits(0x2, 2);
+            out.writeBits(zigZag, 7);
+        } else if((zigZag >>> 9) == 0) {
+            out.writeBits(0x6, 3);
+            out.writeBits(zigZag, 9);
+        } else if((zigZag >>> 12) == 0) {
+            out.writeBits(0xE, 4);
+            out.writeBits(zigZag, 12);
+        } else {
+            out.writeBits(0xF, 4);
+            out.writeBits(zigZag, 64);
+        }
+    }
+
+    private static long readDifference(final BitReader in) {
+        final long zigZag;
+
+        if(in.readBits(1) == 0) {
+            return 0;
+        } else if(in.readBits(1) == 0) {
+            zigZag = in.readBits(7);
+        } else if(in.readBits(1) == 0) {
+            zigZag = in.readBits(9);
+        } else if(in.readBits(1) == 0) {
+            zigZag = in.readBits(12);
+        } else {
+            zigZag = in.readBits(64);
+        }
+
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+
+    /**
+     * The previous value and window of one XOR compressed series.
+     */
+    private static class XorState {
+        private long prev = 0;
+        private int prevLeading = -1;
+        private int prevTrailing = 0;
+
+        void write(final BitWriter out, final double value) {
+            final long bits = Double.doubleToRawLongBits(value);
+            final long xor = bits ^ prev;
+
+            prev = bits;
+
+            if(xor == 0) {
+                out.writeBits(0, 1);
+                return;
+            }
+
+            out.writeBits(1, 1);
+
+            final int leading = Math.min(31, Long.numberOfLeadingZeros(xor));
+            final int trailing = Long.numberOfTrailingZeros(xor);
+
+            if(prevLeading >= 0 && leading >= prevLeading && trailing >= prevTrailing) {
+                out.writeBits(0, 1);
+                out.writeBits(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+            } else {
+                final int length = 64 - leading - trailing;
+
+                out.writeBits(1, 1);
+                out.writeBits(leading, 5);
+                out.writeBits(length - 1, 6);
+                out.writeBits(xor >>> trailing, length);
+
+                prevLeading = leading;
+                prevTrailing = trailing;
+            }
+        }
+
+        double read(final BitReader in) {
+            if(in.readBits(1) == 1) {
+                if(in.readBits(1) == 1) {
+                    prevLeading = (int) in.readBits(5);
+                    prevTrailing = 64 - prevLeading - ((int) in.readBits(6) + 1);
+                }
+
+                prev ^= in.readBits(64 - prevLeading - prevTrailing) << prevTrailing;
+            }
+
+            return Double.longBitsToDouble(prev);
+        }
+    }
+
+    /**
+     * Appends bits, most significant first, to a growing array.
+     */
+    private static class BitWriter {
+        private byte[] bytes;
+        private int bitPosition = 0;
+
+        BitWriter(final int initialSize) {
+            this.bytes = new byte[initialSize];
+        }
+
+        void writeByte(final int value) {
+            writeBits(value, 8);
+        }
+
+        void writeBits(final long value, final int count) {
+            if(bitPosition + count > bytes.length * 8) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, (bitPosition + count) / 8 + 1));
+            }
+
+            for(int i=count - 1; i >= 0; --i) {
+                if(((value >>> i) & 1) != 0) {
+                    bytes[bitPosition >>> 3] |= 0x80 >>> (bitPosition & 7);
+                }
+
+                bitPosition++;
+            }
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(bytes, 0, (bitPosition + 7) / 8).slice();
+        }
+    }
+
+    /**
+     * Reads bits, most significant first.
+     */
+    private static class BitReader {
+        private final ByteBuffer bytes;
+        private final int start;
+        private int bitPosition = 0;
+
+        BitReader(final ByteBuffer bytes) {
+            this.bytes = bytes;
+            this.start = bytes.position();
+        }
+
+        long readBits(final int count) {
+            long ret = 0;
+
+            for(int i=0; i < count; ++i) {
+                final int b = bytes.get(start + (bitPosition >>> 3));
+
+                ret = (ret << 1) | ((b >>> (7 - (bitPosition & 7))) & 1);
+                bitPosition++;
+            }
+
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.metrink.metric.io.impl;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.metrink.config.ReadCacheSettings;
+import com.metrink.metric.MetricId;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.Resolution;
+import com.metrink.metric.Statistic;
+import com.metrink.metric.io.MetricDeleteListener;
+
+/**
+ * The closed partitions of metrics that have been read, kept for {@link CachingReaderWriter}.
+ *
+ * A partition is the periods of one metric at one resolution in one month, held as primitive arrays. The cache is
+ * bounded by the memory the arrays take, max_memory_mb, dropping the least recently used partitions first, and
+ * partitions are dropped expire_hours after they were read regardless. Partitions are dropped when their metric is
+ * deleted, or their periods are deleted or written again.
+ *
+ * A partition read from the storage before its periods were written or deleted, and put after they were dropped, would
+ * put back the old periods. So every drop bumps the generation of the partition's metric, and a partition is only kept
+ * if the generation of its metric is the same as before it was read. Generations are striped by metric, so a drop may
+ * also keep another metric's partition out of the cache once, costing a read.
+ */
+@Singleton
+public class RollupCache implements MetricDeleteListener {
+
+    // a timestamp and five statistics per period, and a rough allowance for the key, entry, and arrays
+    static final int BYTES_PER_PERIOD = 8 * 6;
+    static final int BYTES_PER_PARTITION = 256;
+
+    static final int GENERATION_STRIPES = 256;
+
+    // null when the cache is off
+    private final Cache<PartitionKey, Partition> partitions;
+    private final AtomicLong memoryUsed = new AtomicLong();
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    @Inject
+    public RollupCache(final ReadCacheSettings settings) {
+        if(settings.getMaxMemoryMb() <= 0) {
+            this.partitions = null;
+            return;
+        }
+
+        final CacheBuilder<PartitionKey, Partition> builder = CacheBuilder.newBuilder()
+            .maximumWeight(settings.getMaxMemoryMb() * 1024L * 1024L)
+            .weigher(new Weigher<PartitionKey, Partition>() {
+                @Override
+                public int weigh(final PartitionKey key, final Partition partition) {
+                    return partition.getWeight();
+                }
+            })
+            .removalListener(new RemovalListener<PartitionKey, Partition>() {
+                @Override
+                public void onRemoval(final RemovalNotification<PartitionKey, Partition> notification) {
+                    memoryUsed.addAndGet(-notification.getValue().getWeight());
+                }
+            })
+            .recordStats();
+
+        if(settings.getExpireHours() > 0) {
+            builder.expireAfterWrite(settings.getExpireHours(), TimeUnit.HOURS);
+        }
+
+        this.partitions = builder.build();
+    }
+
+    /**
+     * Returns true if the cache keeps anything.
+     * @return true if the cache is on.
+     */
+    public boolean isEnabled() {
+        return partitions != null;
+    }
+
+    /**
+     * Gets a cached partition.
+     * @param id the id of the metric.
+     * @param resolution the resolution of the partition.
+     * @param partitionStart the start of the partition.
+     * @return the partition, or null if it isn't cached.
+     */
+    Partition get(final MetricId id, final Resolution resolution, final long partitionStart) {
+        return partitions == null ? null : partitions.getIfPresent(new PartitionKey(id, resolution, partitionStart));
+    }
+
+    /**
+     * Gets the generation of a metric's partitions, taken before reading a partition to put.
+     * @param id the id of the metric.
+     * @return the generation.
+     */
+    long getGeneration(final MetricId id) {
+        return generations.get(getStripe(id));
+    }
+
+    /**
+     * Caches a partition, unless its metric's partitions were dropped since it was read.
+     * @param id the id of the metric.
+     * @param resolution the resolution of the partition.
+     * @param partitionStart the start of the partition.
+     * @param rollups every period of the partition, in time order.
+     * @param generation the generation of the metric from before the partition was read.
+     * @return the partition.
+     */
+    Partition put(final MetricId id,
+                  final Resolution resolution,
+                  final long partitionStart,
+                  final List<MetricRollup> rollups,
+                  final long generation) {
+        final Partition partition = new Partition(rollups);
+
+        // an empty partition is as likely a failed read as a sparse metric, so it's read again next time
+        if(partitions == null || rollups.isEmpty() || getGeneration(id) != generation) {
+            return partition;
+        }
+
+        final PartitionKey key = new PartitionKey(id, resolution, partitionStart);
+
+        memoryUsed.addAndGet(partition.getWeight());
+        partitions.put(key, partition);
+
+        // a drop that bumped the generation before the put may have missed it, a drop after sees it
+        if(getGeneration(id) != generation) {
+            partitions.invalidate(key);
+        }
+
+        return partition;
+    }
+
+    /**
+     * Drops a partition, when its periods are written.
+     * @param id the id of the metric.
+     * @param resolution the resolution of the partition.
+     * @param partitionStart the start of the partition.
+     */
+    public void invalidate(final MetricId id, final Resolution resolution, final long partitionStart) {
+        if(partitions != null) {
+            generations.incrementAndGet(getStripe(id));
+            partitions.invalidate(new PartitionKey(id, resolution, partitionStart));
+        }
+    }
+
+    /**
+     * Drops every partition of a metric, when it's deleted.
+     * @param id the id of the metric.
+     */
+    public void invalidate(final MetricId id) {
+        if(partitions == null) {
+            return;
+        }
+
+        generations.incrementAndGet(getStripe(id));
+
+        for(final PartitionKey key:partitions.asMap().keySet()) {
+            if(key.id.equals(id)) {
+                partitions.invalidate(key);
+            }
+        }
+    }
+
+    /**
+     * Drops every partition holding periods before a time, when they're deleted.
+     * @param before the time periods are deleted before.
+     */
+    public void invalidateBefore(final long before) {
+        if(partitions == null) {
+            return;
+        }
+
+        for(int i=0; i < GENERATION_STRIPES; ++i) {
+            generations.incrementAndGet(i);
+        }
+
+        for(final PartitionKey key:partitions.asMap().keySet()) {
+            if(key.partitionStart < before) {
+                partitions.invalidate(key);
+            }
+        }
+    }
+
+    @Override
+    public void onMetricDeleted(final MetricId id) {
+        invalidate(id);
+    }
+
+    /**
+     * Returns the fraction of partition reads that were cached.
+     * @return the hit ratio, 1.0 when nothing has been read and 0.0 when the cache is off.
+     */
+    public double getHitRatio() {
+        return partitions == null ? 0.0 : partitions.stats().hitRate();
+    }
+
+    /**
+     * Returns the memory taken by the cached partitions.
+     * @return the memory in bytes.
+     */
+    public long getMemoryUsed() {
+        return memoryUsed.get();
+    }
+
+    private static int getStripe(final MetricId id) {
+        return (id.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    /**
+     * The periods of one partition, in time order.
+     */
+    static class Partition {
+        private final long[] timestamps;
+        private final long[] counts;
+        private final double[] sums;
+        private final double[] mins;
+        private final double[] maxs;
+        private final double[] lasts;
+
+        Partition(final List<MetricRollup> rollups) {
+            final int size = rollups.size();
+
+            this.timestamps = new long[size];
+            this.counts = new long[size];
+            this.sums = new double[size];
+            this.mins = new double[size];
+            this.maxs = new double[size];
+            this.lasts = new double[size];
+
+            for(int i=0; i < size; ++i) {
+                final MetricRollup rollup = rollups.get(i);
+
+                timestamps[i] = rollup.getTimestamp();
+                counts[i] = rollup.getCount();
+                sums[i] = rollup.getSum();
+                mins[i] = rollup.getMin();
+                maxs[i] = rollup.getMax();
+                lasts[i] = rollup.getLast();
+            }
+        }
+
+        int size() {
+            return timestamps.length;
+        }
+
+        int getWeight() {
+            return timestamps.length * BYTES_PER_PERIOD + BYTES_PER_PARTITION;
+        }
+
+        /**
+         * Returns the index of the first period at or after a time, which may be the size.
+         */
+        int indexOf(final long timestamp) {
+            final int index = Arrays.binarySearch(timestamps, timestamp);
+
+            return index >= 0 ? index : -index - 1;
+        }
+
+        long getTimestamp(final int index) {
+            return timestamps[index];
+        }
+
+        double getStatistic(final int index, final Statistic statistic) {
+            switch(statistic) {
+            case MEAN:
+                return counts[index] == 0 ? 0.0 : sums[index] / counts[index];
+            case SUM:
+                return sums[index];
+            case MIN:
+                return mins[index];
+            case MAX:
+                return maxs[index];
+            case LAST:
+                return lasts[index];
+            case COUNT:
+                return counts[index];
+            default:
+                throw new IllegalArgumentException("Unknown statistic: " + statistic);
+            }
+        }
+
+        MetricRollup getRollup(final MetricId id, final int index) {
+            return new MetricRollup(id, timestamps[index], counts[index], sums[index], mins[index], maxs[index], lasts[index], null);
+        }
+    }
+
+    private static class PartitionKey {
+        private final MetricId id;
+        private final Resolution resolution;
+        private final long partitionStart;
+
+        PartitionKey(final MetricId id, final Resolution resolution, final long partitionStart) {
+            this.id = id;
+            this.resolution = resolution;
+            this.partitionStart = partitionStart;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if(!(obj instanceof PartitionKey)) {
+                return false;
+            }
+
+            final PartitionKey other = (PartitionKey) obj;
+
+            return partitionStart == other.partitionStart && resolution == other.resolution && id.equals(other.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(id, resolution, partitionStart);
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.metrink.metric.io.impl;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.metrink.config.SqlStorageSettings;
+import com.metrink.metric.Metric;
+import com.metrink.metric.MetricId;
+import com.metrink.metric.MetricRequest;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.MetricValue;
+import com.metrink.metric.MetricValueList;
+import com.metrink.metric.Resolution;
+import com.metrink.metric.Statistic;
+import com.metrink.metric.io.MetricIdDictionary;
+import com.metrink.metric.io.MetricMetadata;
+import com.metrink.metric.io.MetricReaderWriter;
+import com.sop4j.dbutils.BatchExecutor;
+import com.sop4j.dbutils.QueryRunner;
+import com.sop4j.dbutils.handlers.ArrayListHandler;
+
+/**
+ * {@link MetricReaderWriter} that keeps metrics in the SQL database, for small installs and testing without Cassandra.
+ *
+ * Each period is a row of metric_rollups, keyed by the metric's number in metric_numbers, the resolution in seconds,
+ * and the period's start. The key is the table's clustered index in both H2 and InnoDB, so the periods of a series
+ * are stored together in time order and a read is a single range scan of it.
+ *
+ * Rows are written insert_batch_rows to a statement, as one multi-row upsert, and the statements of a write are sent
+ * as one JDBC batch. A period written again replaces the stored one.
+ */
+@Singleton
+public class SqlReaderWriter implements MetricReaderWriter {
+
+    public static final Logger LOG = LoggerFactory.getLogger(SqlReaderWriter.class);
+
+    private static final String COLUMNS = "metricNumber, resolution, periodStart, pointCount, sumValue, minValue, maxValue, lastValue";
+    private static final String[] PARAMS = { "m", "r", "t", "c", "s", "n", "x", "l" };
+
+    private final QueryRunner runner;
+    private final MetricMetadata metadata;
+    private final MetricIdDictionary dictionary;
+    private final boolean mysql;
+    private final int insertBatchRows;
+    private final String batchInsert;
+
+    /**
+     * Initialize the {@link MetricReaderWriter}.
+     * @param runner the query runner for the SQL database
+     * @param metadata delegate for obtaining metric meta-data (e.g., unique devices, groups, etc)
+     * @param dictionary the dictionary numbering metrics
+     * @param settings sql storage settings
+     */
+    @Inject
+    public SqlReaderWriter(final QueryRunner runner,
+                           final MetricMetadata metadata,
+                           final MetricIdDictionary dictionary,
+                           final SqlStorageSettings settings) {
+        final String dialect = settings.getDialect();
+
+        if(!"h2".equalsIgnoreCase(dialect) && !"mysql".equalsIgnoreCase(dialect)) {
+            throw new IllegalArgumentException("Unknown sql_storage dialect: " + dialect);
+        }
+
+        this.runner = runner;
+        this.metadata = metadata;
+        this.dictionary = dictionary;
+        this.mysql = "mysql".equalsIgnoreCase(dialect);
+        this.insertBatchRows = Math.max(1, settings.getInsertBatchRows());
+        this.batchInsert = buildInsert(insertBatchRows);
+    }
+
+    @Override
+    public void init() {
+        LOG.info("Initializing SQL reader/writer");
+
+        // the same statements create the tables in H2 and MySQL, for installs without scripts/schema.mysql
+        try {
+            runner.update("create table if not exists metric_numbers ("
+                        + "metricNumber int not null auto_increment, "
+                        + "device varchar(64) not null, "
+                        + "groupName varchar(64) not null, "
+                        + "name varchar(64) not null, "
+                        + "primary key (metricNumber), "
+                        + "unique (device, groupName, name))")
+                  .execute();
+
+            runner.update("create table if not exists metric_rollups ("
+                        + "metricNumber int not null, "
+                        + "resolution int not null, "
+                        + "periodStart bigint not null, "
+                        + "pointCount bigint not null, "
+                        + "sumValue double not null, "
+                        + "minValue double not null, "
+                        + "maxValue double not null, "
+                        + "lastValue double not null, "
+                        + "primary key (metricNumber, resolution, periodStart))")
+                  .execute();
+        } catch(final SQLException e) {
+            throw new IllegalStateException("Unable to create the metric tables", e);
+        }
+
+        metadata.init();
+    }
+
+    @Override
+    public void shutdown() {
+        LOG.info("Shutting down SQL reader/writer");
+
+        metadata.shutdown();
+    }
+
+    @Override
+    public Map<MetricId, MetricValueList> readMetrics(final List<MetricRequest> requests) {
+        final Map<MetricId, MetricValueList> results = new HashMap<MetricId, MetricValueList>();
+
+        for(final MetricRequest request:requests) {
+            final Resolution resolution = request.getResolution();
+            final Statistic statistic = request.getStatistic();
+            final List<MetricValue> found = new ArrayList<MetricValue>();
+
+            for(final Object[] row:readRows(request.getId(), resolution, resolution.floor(request.getStart()), request.getEnd())) {
+                final MetricRollup rollup = toRollup(request.getId(), row);
+
+                found.add(new MetricValue(rollup.getTimestamp(), rollup.get(statistic), null));
+            }
+
+            results.put(request.getId(),
+                        new MetricValueList(request.getStart(), request.getEnd(), resolution.getDurationInSeconds())
+                            .addMetricValues(found));
+        }
+
+        return results;
+    }
+
+    @Override
+    public MetricValueList readMetrics(final MetricId id, final long start, final long end) {
+        return readMetrics(Arrays.asList(new MetricRequest(id, start, end))).get(id);
+    }
+
+    @Override
+    public List<MetricRollup> readRollups(final MetricId id, final Resolution resolution, final long start, final long end) {
+        final List<MetricRollup> ret = new ArrayList<MetricRollup>();
+
+        for(final Object[] row:readRows(id, resolution, start, end)) {
+            ret.add(toRollup(id, row));
+        }
+
+        return ret;
+    }
+
+    @Override
+    public Map<MetricId, List<MetricRollup>> readRollups(final List<MetricId> ids, final Resolution resolution, final long start, final long end) {
+        final Map<MetricId, List<MetricRollup>> ret = new HashMap<MetricId, List<MetricRollup>>();
+
+        for(final MetricId id:ids) {
+            ret.put(id, readRollups(id, resolution, start, end));
+        }
+
+        return ret;
+    }
+
+    @Override
+    public void writeMetrics(final List<Metric> metrics) {
+        final List<MetricRollup> rollups = new ArrayList<MetricRollup>(metrics.size());
+
+        for(final Metric metric:metrics) {
+            rollups.add(new MetricRollup(metric));
+        }
+
+        writeRollups(rollups);
+    }
+
+    @Override
+    public void writeRollups(final List<MetricRollup> rollups) {
+        writeRollups(Resolution.ONE_MINUTE, rollups);
+    }
+
+    @Override
+    public void writeRollups(final Resolution resolution, final List<MetricRollup> rollups) {
+        if(rollups.isEmpty()) {
+            return;
+        }
+
+        final Set<MetricId> metricIds = new HashSet<MetricId>();
+        final int fullRows = rollups.size() - rollups.size() % insertBatchRows;
+
+        try {
+            // full statements share one batch, the rows left over go in a shorter statement
+            if(fullRows > 0) {
+                final BatchExecutor executor = runner.batch(batchInsert);
+
+                for(int i=0; i < fullRows; i += insertBatchRows) {
+                    bindRows(executor, resolution, rollups.subList(i, i + insertBatchRows), metricIds).addBatch();
+                }
+
+                executor.execute();
+            }
+
+            if(fullRows < rollups.size()) {
+                final List<MetricRollup> rest = rollups.subList(fullRows, rollups.size());
+
+                final BatchExecutor executor = runner.batch(buildInsert(rest.size()));
+
+                bindRows(executor, resolution, rest, metricIds).addBatch();
+                executor.execute();
+            }
+        } catch(final SQLException e) {
+            throw new IllegalStateException("Unable to write " + rollups.size() + " metrics", e);
+        }
+
+        LOG.debug("Wrote {} metrics", rollups.size());
+
+        if(!metadata.writeMetricIds(metricIds)) {
+            LOG.error("Failed to persist metric metadata");
+        }
+    }
+
+    @Override
+    public int deleteMetrics(final long before) {
+        try {
+            return runner.update("delete from metric_rollups where periodStart < :before")
+                         .bind("before", before)
+                         .execute();
+        } catch(final SQLException e) {
+            LOG.error("Error deleting metrics before {}: {}", before, e.getMessage(), e);
+            return 0;
+        }
+    }
+
+    /**
+     * Reads the rows of a series in a time range, in time order.
+     */
+    private List<Object[]> readRows(final MetricId id, final Resolution resolution, final long start, final long end) {
+        try {
+            // a metric without a number was never written, and reading it mustn't number it
+            final Integer number = dictionary.findNumber(id);
+
+            if(number == null) {
+                return new ArrayList<Object[]>();
+            }
+
+            return runner.query("select periodStart, pointCount, sumValue, minValue, maxValue, lastValue from metric_rollups "
+                              + "where metricNumber = :number and resolution = :resolution and periodStart between :start and :end "
+                              + "order by periodStart")
+                         .bind("number", number)
+                         .bind("resolution", (int) resolution.getDurationInSeconds())
+                         .bind("start", start)
+                         .bind("end", end)
+                         .execute(new ArrayListHandler());
+        } catch(final SQLException | IllegalStateException e) {
+            LOG.error("Error reading {}: {}", id, e.getMessage(), e);
+            return new ArrayList<Object[]>();
+        }
+    }
+
+    private static MetricRollup toRollup(final MetricId id, final Object[] row) {
+        return new MetricRollup(id,
+                                ((Number) row[0]).longValue(),
+                                ((Number) row[1]).longValue(),
+                                ((Number) row[2]).doubleValue(),
+                                ((Number) row[3]).doubleValue(),
+                                ((Number) row[4]).doubleValue(),
+                                ((Number) row[5]).doubleValue(),
+                                null);
+    }
+
+    /**
+     * Binds the rows of one statement built by {@link #buildInsert(int)}.
+     */
+    private BatchExecutor bindRows(final BatchExecutor executor,
+                                   final Resolution resolution,
+                                   final List<MetricRollup> rows,
+                                   final Set<MetricId> metricIds) throws SQLException {
+        final int resolutionInSeconds = (int) resolution.getDurationInSeconds();
+
+        for(int i=0; i < rows.size(); ++i) {
+            final MetricRollup rollup = rows.get(i);
+
+            executor.bind(PARAMS[0] + i, dictionary.getNumber(rollup.getId()))
+                    .bind(PARAMS[1] + i, resolutionInSeconds)
+                    .bind(PARAMS[2] + i, resolution.floor(rollup.getTimestamp()))
+                    .bind(PARAMS[3] + i, rollup.getCount())
+                    .bind(PARAMS[4] + i, rollup.getSum())
+                    .bind(PARAMS[5] + i, rollup.getMin())
+                    .bind(PARAMS[6] + i, rollup.getMax())
+                    .bind(PARAMS[7] + i, rollup.getLast());
+
+            metricIds.add(rollup.getId());
+        }
+
+        return executor;
+    }
+
+    /**
+     * Builds an upsert of the given number of rows: MERGE ... KEY in H2, INSERT ... ON DUPLICATE KEY UPDATE in MySQL.
+     */
+    private String buildInsert(final int rows) {
+        final StringBuilder sb = new StringBuilder(mysql ? "insert into " : "merge into ")
+            .append("metric_rollups (").append(COLUMNS).append(')');
+
+        if(!mysql) {
+            sb.append(" key (metricNumber, resolution, periodStart)");
+        }
+
+        sb.append(" values ");
+
+        for(int i=0; i < rows; ++i) {
+            sb.append(i == 0 ? "(" : ", (");
+
+            for(int p=0; p < PARAMS.length; ++p) {
+                sb.append(p == 0 ? ":" : ", :").append(PARAMS[p]).append(i);
+            }
+
+            sb.append(')');
+        }
+
+        if(mysql) {
+            sb.append(" on duplicate key update pointCount = values(pointCount), sumValue = values(sumValue), "
+                    + "minValue = values(minValue), maxValue = values(maxValue), lastValue = values(lastValue)");
+        }
+
+        return sb.toString();
+    }
+}
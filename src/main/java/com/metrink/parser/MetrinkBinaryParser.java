@@ -0,0 +1,177 @@
+package com.metrink.parser;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.metrink.metric.BinaryMetricEncoder;
+import com.metrink.metric.Metric;
+import com.metrink.metric.MetricId;
+
+/**
+ * Parser for the compact Metrink binary format; see {@link BinaryMetricEncoder} for the layout.
+ *
+ * Dictionary entries used as a device, group, or name are validated once per batch with the same rules as the JSON
+ * parsers, and metrics sharing a group and name share a single {@link MetricId}.
+ */
+public class MetrinkBinaryParser implements Parser {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MetrinkBinaryParser.class);
+
+    // guard against garbage counts causing huge allocations before we run out of input
+    private static final int MAX_INITIAL_CAPACITY = 65536;
+    private static final int MAX_DICTIONARY_SIZE = 1 << 20;
+
+    @Override
+    public List<Metric> parse(final byte[] data) throws ParserException {
+        return parse(new ByteArrayInputStream(data));
+    }
+
+    @Override
+    public List<Metric> parse(final InputStream data) throws ParserException {
+        final DataInputStream in = new DataInputStream(data instanceof ByteArrayInputStream || data instanceof BufferedInputStream
+                                                       ? data
+                                                       : new BufferedInputStream(data));
+
+        try {
+            return parse(in);
+        } catch (final EOFException e) {
+            LOG.error("Unexpected end of binary metrics");
+            throw new ParserException("Unexpected end of binary metrics", e);
+        } catch (final IOException e) {
+            LOG.error("Error reading binary metrics: {}", e.getMessage());
+            throw new ParserException("Error reading binary metrics: " + e.getMessage(), e);
+        }
+    }
+
+    private List<Metric> parse(final DataInputStream in) throws IOException, ParserException {
+        final int magic = in.readInt();
+        final byte version = in.readByte();
+
+        if(magic != BinaryMetricEncoder.MAGIC) {
+            LOG.error("Error bad magic number: {}", Integer.toHexString(magic));
+            throw new ParserException("Not Metrink binary metrics");
+        }
+
+        if(version != BinaryMetricEncoder.VERSION) {
+            LOG.error("Error unsupported version: {}", version);
+            throw new ParserException("Unsupported binary metrics version: " + version);
+        }
+
+        final int dictionarySize = readVarInt(in);
+
+        if(dictionarySize > MAX_DICTIONARY_SIZE) {
+            LOG.error("Error dictionary size {} too large", dictionarySize);
+            throw new ParserException("Dictionary too large: " + dictionarySize);
+        }
+
+        final String[] dictionary = new String[dictionarySize];
+
+        for(int i=0; i < dictionarySize; ++i) {
+            dictionary[i] = in.readUTF();
+        }
+
+        final String device = ParserUtils.validateField("d", lookup(dictionary, readVarInt(in)));
+        final int count = readVarInt(in);
+        final long baseTimestamp = in.readLong();
+
+        final List<Metric> ret = new ArrayList<Metric>(Math.min(count, MAX_INITIAL_CAPACITY));
+
+        if(count == 0) {
+            LOG.error("Error metrics array null or size is zero");
+            return ret;
+        }
+
+        final boolean[] validated = new boolean[dictionarySize];
+        final MetricId[] lastIds = new MetricId[dictionarySize]; // the last id seen for each name index
+        long timestamp = baseTimestamp;
+
+        for(int i=0; i < count; ++i) {
+            final int groupIndex = readVarInt(in);
+            final int nameIndex = readVarInt(in);
+            final int unitsIndex = readVarInt(in);
+
+            timestamp += unZigZag(readVarLong(in));
+
+            final double value = in.readDouble();
+
+            validate(dictionary, validated, "g", groupIndex);
+            validate(dictionary, validated, "n", nameIndex);
+
+            // reuse the id when consecutive metrics with the same name share a group, which is the common case
+            MetricId id = lastIds[nameIndex];
+
+            if(id == null || !id.getGroupName().equals(dictionary[groupIndex])) {
+                id = new MetricId(device, dictionary[groupIndex], dictionary[nameIndex]);
+                lastIds[nameIndex] = id;
+            }
+
+            final String units = unitsIndex == 0 ? "" : lookup(dictionary, unitsIndex - 1);
+
+            ret.add(new Metric(id, timestamp, value, units));
+        }
+
+        return ret;
+    }
+
+    private static String lookup(final String[] dictionary, final int index) throws ParserException {
+        if(index < 0 || index >= dictionary.length) {
+            LOG.error("Error dictionary index {} out of range", index);
+            throw new ParserException("Dictionary index out of range: " + index);
+        }
+
+        return dictionary[index];
+    }
+
+    private static void validate(final String[] dictionary,
+                                 final boolean[] validated,
+                                 final String field,
+                                 final int index) throws ParserException {
+        final String value = lookup(dictionary, index);
+
+        if(!validated[index]) {
+            ParserUtils.validateField(field, value);
+            validated[index] = true;
+        }
+    }
+
+    private static long unZigZag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int readVarInt(final DataInputStream in) throws IOException, ParserException {
+        final long value = readVarLong(in);
+
+        if(value < 0 || value > Integer.MAX_VALUE) {
+            LOG.error("Error varint {} out of range", value);
+            throw new ParserException("Varint out of range: " + value);
+        }
+
+        return (int) value;
+    }
+
+    private static long readVarLong(final DataInputStream in) throws IOException, ParserException {
+        long value = 0;
+
+        for(int shift=0; shift < 64; shift += 7) {
+            final byte b = in.readByte();
+
+            value |= (long) (b & 0x7F) << shift;
+
+            if((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        LOG.error("Error malformed varint");
+        throw new ParserException("Malformed varint");
+    }
+}
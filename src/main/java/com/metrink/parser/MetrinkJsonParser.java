@@ -1,10 +1,12 @@
 package com.metrink.parser;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.io.IOUtils;
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
 import org.json.JSONArray;
@@ -94,6 +96,17 @@ public class MetrinkJsonParser implements Parser {
         return ret;
     }
 
+    @Override
+    public List<Metric> parse(final InputStream data) throws ParserException {
+        // the tree parser needs the whole document anyway
+        try {
+            return parse(IOUtils.toByteArray(data));
+        } catch (final IOException e) {
+            LOG.error("Error reading JSON: {}", e.getMessage());
+            throw new ParserException("Error reading JSON: " + e.getMessage(), e);
+        }
+    }
+
     private String getField(final JSONObject json, final String field) throws ParserException {
         return getField(json, field, new JSONObject());
     }
@@ -108,27 +121,6 @@ public class MetrinkJsonParser implements Parser {
             throw new ParserException(e, field);
         }
 
-        //
-        // Sanity check the value
-        //
-        if(StringUtils.isBlank(res)) {
-            LOG.error("Error {} is blank", field);
-            throw new ParserException(field + " is blank");
-        }
-
-        // check first that we have printable characters
-        if(!StringUtils.isAsciiPrintable(res)) {
-            LOG.error("Error {} contains non-printable characters", field);
-            throw new ParserException(field + " contains non-printable characters");
-        }
-
-        // check for a laundry list of "reserved" characters
-        if(StringUtils.containsAny(res, "'\"`~!@#$%^&*()[]{}<>:;|\\")) {
-            LOG.error("Error {} contains a reserved character", field);
-            throw new ParserException(field + " contains a reserved character");
-        }
-
-        return res;
-
+        return ParserUtils.validateField(field, res);
     }
 }
@@ -0,0 +1,272 @@
+package com.metrink.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.inject.Inject;
+import com.metrink.inject.DateTimeProvider;
+import com.metrink.metric.Metric;
+
+/**
+ * Parser for handling Metrink JSON input using Jackson's streaming API.
+ *
+ * Unlike {@link MetrinkJsonParser} no intermediate tree or String is built; tokens are read straight from the bytes
+ * into {@link Metric}s. The validation rules are the same, with one exception: string values must be quoted
+ * (single or double), as Jackson does not accept bare words as values.
+ */
+public class MetrinkStreamingJsonParser implements Parser {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MetrinkStreamingJsonParser.class);
+
+    // JsonFactory is thread safe once configured, so a single instance is shared
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+        .configure(JsonParser.Feature.ALLOW_SINGLE_QUOTES, true)
+        .configure(JsonParser.Feature.ALLOW_UNQUOTED_FIELD_NAMES, true)
+        .configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
+
+    private final DateTimeProvider dateTimeProvider;
+
+    @Inject
+    public MetrinkStreamingJsonParser(final DateTimeProvider dateTimeProvider) {
+        this.dateTimeProvider = dateTimeProvider;
+    }
+
+    @Override
+    public List<Metric> parse(final byte[] data) throws ParserException {
+        try (final JsonParser jp = JSON_FACTORY.createParser(data)) {
+            return parse(jp);
+        } catch (final JsonProcessingException e) {
+            LOG.error("Error parsing JSON: {}", e.getMessage());
+            throw new ParserException("Error parsing JSON: " + e.getOriginalMessage(), e);
+        } catch (final IOException e) {
+            LOG.error("Error reading JSON: {}", e.getMessage());
+            throw new ParserException("Error reading JSON: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public List<Metric> parse(final InputStream data) throws ParserException {
+        // the caller owns the stream, so don't let Jackson close it
+        try (final JsonParser jp = JSON_FACTORY.createParser(data)) {
+            return parse(jp);
+        } catch (final JsonProcessingException e) {
+            LOG.error("Error parsing JSON: {}", e.getMessage());
+            throw new ParserException("Error parsing JSON: " + e.getOriginalMessage(), e);
+        } catch (final IOException e) {
+            LOG.error("Error reading JSON: {}", e.getMessage());
+            throw new ParserException("Error reading JSON: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Walks the top-level object. The device and group may appear before or after the metrics array, so the
+     * metrics are read first and the device and group are filled in once the whole object has been consumed.
+     */
+    private List<Metric> parse(final JsonParser jp) throws IOException, ParserException {
+        if(jp.nextToken() != JsonToken.START_OBJECT) {
+            LOG.error("Error JSON is not an object");
+            throw new ParserException("JSON is not an object");
+        }
+
+        final long now = dateTimeProvider.get().getMillis();
+
+        String device = null;
+        String group = null;
+        List<Metric> ret = null;
+
+        while(jp.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = jp.getCurrentName();
+
+            jp.nextToken();
+
+            if("d".equals(field)) {
+                device = readString(jp, field);
+            } else if("g".equals(field)) {
+                group = readString(jp, field);
+            } else if("m".equals(field)) {
+                ret = readMetrics(jp, now);
+            } else {
+                jp.skipChildren();
+            }
+        }
+
+        if(device == null) {
+            LOG.error("Error getting d: not found");
+            throw new ParserException("Error getting d: not found");
+        }
+
+        ParserUtils.validateField("d", device);
+
+        if(ret == null) {
+            LOG.error("Error getting metrics array: not found");
+            throw new ParserException("Error getting m: not found");
+        }
+
+        if(ret.isEmpty()) {
+            LOG.error("Error metrics array null or size is zero");
+            return ret;
+        }
+
+        // groups and names repeat heavily within a batch, so only validate each distinct value once
+        final Set<String> validated = new HashSet<String>();
+
+        for(final Metric metric:ret) {
+            // a top-level group takes precedence over the metric's group
+            if(group != null) {
+                metric.setGroupName(group);
+            } else if(metric.getGroupName() == null) {
+                LOG.error("Error getting g: not found");
+                throw new ParserException("Error getting g: not found");
+            }
+
+            if(validated.add(metric.getGroupName())) {
+                ParserUtils.validateField("g", metric.getGroupName());
+            }
+
+            if(validated.add(metric.getName())) {
+                ParserUtils.validateField("n", metric.getName());
+            }
+
+            metric.setDevice(device);
+        }
+
+        return ret;
+    }
+
+    /**
+     * Reads the metrics array. Metrics with a missing or malformed value are skipped, mirroring
+     * {@link MetrinkJsonParser}.
+     */
+    private List<Metric> readMetrics(final JsonParser jp, final long now) throws IOException, ParserException {
+        if(jp.getCurrentToken() != JsonToken.START_ARRAY) {
+            LOG.error("Error getting metrics array: m is not an array");
+            throw new ParserException("Error getting m: not an array");
+        }
+
+        final List<Metric> ret = new ArrayList<Metric>();
+
+        while(jp.nextToken() != JsonToken.END_ARRAY) {
+            if(jp.getCurrentToken() != JsonToken.START_OBJECT) {
+                LOG.warn("Error getting JSON value: metric is not an object");
+                jp.skipChildren();
+                continue;
+            }
+
+            final Metric metric = readMetric(jp, now);
+
+            if(metric != null) {
+                ret.add(metric);
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Reads a single metric object, leaving the device unset.
+     * @return the metric or null if the value or timestamp are missing or malformed.
+     */
+    private Metric readMetric(final JsonParser jp, final long now) throws IOException, ParserException {
+        String group = null;
+        String name = null;
+        String units = "";
+        long timestamp = now;
+        double value = 0.0;
+        boolean hasValue = false;
+        boolean valid = true;
+
+        while(jp.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = jp.getCurrentName();
+            final JsonToken token = jp.nextToken();
+
+            try {
+                switch(field) {
+                case "g":
+                    group = readString(jp, field);
+                    break;
+
+                case "n":
+                    name = readString(jp, field);
+                    break;
+
+                case "t":
+                    if(token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+                        timestamp = jp.getValueAsLong();
+                    } else if(token == JsonToken.VALUE_STRING) {
+                        timestamp = Long.parseLong(jp.getText().trim());
+                    } else {
+                        LOG.warn("Error getting JSON value: t is not a number");
+                        valid = false;
+                    }
+                    break;
+
+                case "v":
+                    if(token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+                        value = jp.getDoubleValue();
+                        hasValue = true;
+                    } else if(token == JsonToken.VALUE_STRING) {
+                        value = Double.parseDouble(jp.getText());
+                        hasValue = true;
+                    } else {
+                        LOG.warn("Error getting JSON value: v is not a number");
+                        valid = false;
+                    }
+                    break;
+
+                case "u":
+                    // should really validate units as well
+                    if(token == JsonToken.VALUE_STRING) {
+                        units = jp.getText();
+                    } else {
+                        LOG.warn("Error getting JSON value: u is not a string");
+                        valid = false;
+                    }
+                    break;
+
+                default:
+                    jp.skipChildren();
+                    break;
+                }
+            } catch (final NumberFormatException e) {
+                LOG.warn("Error getting JSON value: {}", e.getMessage());
+                valid = false;
+            }
+        }
+
+        if(name == null) {
+            LOG.error("Error getting n: not found");
+            throw new ParserException("Error getting n: not found");
+        }
+
+        if(!hasValue) {
+            LOG.warn("Error getting JSON value: v not found");
+            return null;
+        }
+
+        return valid ? new Metric(null, group, name, timestamp, value, units) : null;
+    }
+
+    /**
+     * Reads the current token as a string.
+     * @throws ParserException if the token is not a string.
+     */
+    private String readString(final JsonParser jp, final String field) throws IOException, ParserException {
+        if(jp.getCurrentToken() != JsonToken.VALUE_STRING) {
+            LOG.error("Error getting {}: not a string", field);
+            throw new ParserException("Error getting " + field + ": not a string");
+        }
+
+        return jp.getText();
+    }
+}
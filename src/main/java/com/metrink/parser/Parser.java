@@ -1,5 +1,6 @@
 package com.metrink.parser;
 
+import java.io.InputStream;
 import java.util.List;
 
 import com.metrink.metric.Metric;
@@ -14,4 +15,12 @@ public interface Parser {
      * @param data the data to convert to a metric.
      */
     public List<Metric> parse(byte[] data) throws ParserException;
+
+    /**
+     * Given a stream of bytes, return a Metric.
+     *
+     * The stream is read to the end, but not closed. This method MUST be thread safe!
+     * @param data the stream of data to convert to a metric.
+     */
+    public List<Metric> parse(InputStream data) throws ParserException;
 }
@@ -21,4 +21,8 @@ public class ParserException extends Exception {
     public ParserException(String error) {
         super(error);
     }
+
+    public ParserException(String error, Throwable cause) {
+        super(error, cause);
+    }
 }
@@ -0,0 +1,44 @@
+package com.metrink.parser;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Validation helpers shared by the {@link Parser} implementations.
+ */
+public class ParserUtils {
+    private static final Logger LOG = LoggerFactory.getLogger(ParserUtils.class);
+
+    private static final String RESERVED_CHARACTERS = "'\"`~!@#$%^&*()[]{}<>:;|\\";
+
+    private ParserUtils() { }
+
+    /**
+     * Sanity checks the value of a device, group, or name field.
+     * @param field the name of the field, used for error messages.
+     * @param value the value of the field.
+     * @return the value, if it is valid.
+     * @throws ParserException if the value is blank, non-printable, or contains a reserved character.
+     */
+    public static String validateField(final String field, final String value) throws ParserException {
+        if(StringUtils.isBlank(value)) {
+            LOG.error("Error {} is blank", field);
+            throw new ParserException(field + " is blank");
+        }
+
+        // check first that we have printable characters
+        if(!StringUtils.isAsciiPrintable(value)) {
+            LOG.error("Error {} contains non-printable characters", field);
+            throw new ParserException(field + " contains non-printable characters");
+        }
+
+        // check for a laundry list of "reserved" characters
+        if(StringUtils.containsAny(value, RESERVED_CHARACTERS)) {
+            LOG.error("Error {} contains a reserved character", field);
+            throw new ParserException(field + " contains a reserved character");
+        }
+
+        return value;
+    }
+}
@@ -1,9 +1,5 @@
 package com.metrink.utils;
 
-import static com.google.common.base.Preconditions.checkArgument;
-
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.math3.util.FastMath;
@@ -26,7 +22,6 @@ public class MilliSecondUtils {
     public static final long MIN_IN_MS = TimeUnit.MINUTES.toMillis(1);
     public static final long DAY_IN_MS = TimeUnit.DAYS.toMillis(1);
 
-    private static final DateTimeFormatter YYYYMM_FORMAT = DateTimeFormat.forPattern("YYYYMM").withZoneUTC();
     public static final DateTimeFormatter FULL_DATE_FORMAT = DateTimeFormat.forPattern("YYYY-MM-dd HH:mm:ss").withZoneUTC();
 
     private static final DateTimeFormatter QUERY_DATE_FORMAT = DateTimeFormat.forPattern("YYYY-MM-dd HH:mm");
@@ -72,6 +67,25 @@ public class MilliSecondUtils {
         return (ms / DAY_IN_MS) * DAY_IN_MS;
     }
 
+    /**
+     * Rounds a MS epoch down to the first of its month, UTC.
+     * @param ms the epoch.
+     * @return the epoch rounded down to the month.
+     */
+    public static long roundDown1Month(final long ms) {
+        return new DateTime(ms, DateTimeZone.UTC).withDayOfMonth(1).withTimeAtStartOfDay().getMillis();
+    }
+
+    /**
+     * Adds calendar months to a MS epoch, UTC.
+     * @param ms the epoch.
+     * @param months the number of months to add.
+     * @return the epoch months later.
+     */
+    public static long plusMonths(final long ms, final int months) {
+        return new DateTime(ms, DateTimeZone.UTC).plusMonths(months).getMillis();
+    }
+
     /**
      * Rounds a MS epoch up to the nearest second.
      * @param ms the epoch.
@@ -126,38 +140,6 @@ public class MilliSecondUtils {
         return seconds * SEC_IN_MS;
     }
 
-    /**
-     * Given milliseconds since epoch, get the year and month as a string: YYYYMM.
-     * @param millis the millis since epoch
-     * @return year as integer
-     */
-    public static String millisToYearMonth(final long millis) {
-        return YYYYMM_FORMAT.print(millis);
-    }
-
-    /**
-     * Generates a "range" of YYYYMM given a start and end.
-     * @param start the first time in the "range".
-     * @param end the last time in the "range".
-     * @return a Set of strings that represent the range.
-     */
-    public static SortedSet<String> generateYearMonthSet(final long start, final long end) {
-        checkArgument(start <= end, "Start %s must be less than or equal to end %s", start, end);
-
-        final SortedSet<String> ret = new TreeSet<String>();
-        DateTime cur = new DateTime(start, DateTimeZone.UTC);
-
-        while(cur.isBefore(end)) {
-            ret.add(millisToYearMonth(cur.getMillis()));
-            cur = cur.plusMonths(1);
-        }
-
-        // make sure to get end in the set
-        ret.add(millisToYearMonth(end));
-
-        return ret;
-    }
-
     /**
      * Given an epoch in MS, returns a string representing the date.
      * @param ms the epoch.
@@ -1,49 +1,87 @@
 package com.metrink.aggregation;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.File;
+import java.io.FilenameFilter;
 import java.util.Arrays;
 import java.util.List;
 
 import org.joda.time.DateTime;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import com.metrink.config.MetrinkCollectorSettings;
 import com.metrink.inject.DateTimeProvider;
 import com.metrink.metric.Metric;
+import com.metrink.metric.MetricId;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.Resolution;
+import com.metrink.metric.io.MetricReader;
 import com.metrink.metric.io.MetricWriter;
 
 public class OneMinuteAggregatorTest {
     //private static final Logger LOG = LoggerFactory.getLogger(OneMinuteAggregatorTest.class);
 
     DateTime CURRENT_TIME = new DateTime();
+    DateTime STARTED = CURRENT_TIME.minusMinutes(10);
+    long PAST_MINUTE = (CURRENT_TIME.getMillis() / 60000) * 60000 - 5 * 60000;
+    MetrinkCollectorSettings settings = new MetrinkCollectorSettings();
     OneMinuteAggregator aggregator;
 
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
     @Mock DateTimeProvider dateTimeProvider;
     @Mock MetricWriter metricWriter;
+    @Mock MetricReader metricReader;
 
     @Before
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
 
-        when(dateTimeProvider.get()).thenReturn(CURRENT_TIME);
+        settings.getAggregationSettings().setStripes(1);
+        aggregator = createAggregator(STARTED);
+    }
+
+    /**
+     * Creates an aggregator started at the given time, after which the time is CURRENT_TIME.
+     */
+    private OneMinuteAggregator createAggregator(final DateTime started) {
+        when(dateTimeProvider.get()).thenReturn(started, CURRENT_TIME);
 
-        aggregator = new OneMinuteAggregator(metricWriter, dateTimeProvider);
+        return new OneMinuteAggregator(metricWriter, metricReader, dateTimeProvider, settings);
+    }
+
+    private File enableWriteAheadLog() throws Exception {
+        final File directory = folder.newFolder("wal");
+
+        settings.getAggregationSettings().setWalDirectory(directory.getPath());
+        settings.getAggregationSettings().setWalSegmentSizeMb(1);
+        settings.getAggregationSettings().setWalSyncIntervalMs(10);
+
+        return directory;
     }
 
     @Test
     public void testNoMetrics() {
         aggregator.run();
 
-        verify(metricWriter, never()).writeMetrics(anyList());
+        verify(metricWriter, never()).writeRollups(anyList());
     }
 
     @Test
@@ -51,8 +89,8 @@ public class OneMinuteAggregatorTest {
         Metric m1 = new Metric();
         Metric m2 = new Metric();
 
-        m1.setTimestamp(CURRENT_TIME.getMillis());
-        m2.setTimestamp(CURRENT_TIME.getMillis());
+        m1.setTimestamp(PAST_MINUTE + 1000);
+        m2.setTimestamp(PAST_MINUTE + 2000);
         m1.setValue(23.45);
         m2.setValue(54.32);
 
@@ -62,12 +100,343 @@ public class OneMinuteAggregatorTest {
 
         ArgumentCaptor<List> capture = ArgumentCaptor.forClass(List.class);
 
-        verify(metricWriter, times(1)).writeMetrics(capture.capture());
+        verify(metricWriter, times(1)).writeRollups(capture.capture());
+
+        List<MetricRollup> metrics = capture.getValue();
+
+        assertEquals(1, metrics.size());
+        assertEquals(77.77/2, metrics.get(0).getMean(), 0.001);
+        assertEquals(PAST_MINUTE, metrics.get(0).getTimestamp());
+    }
+
+    @Test
+    public void testDuplicateValues() {
+        final long ts = PAST_MINUTE;
+
+        aggregator.readMetrics(Arrays.asList(new Metric("d", "g", "n", ts, 1.0, ""),
+                                             new Metric("d", "g", "n", ts, 1.0, ""),
+                                             new Metric("d", "g", "n", ts + 1, 4.0, "")));
+
+        aggregator.run();
+
+        ArgumentCaptor<List> capture = ArgumentCaptor.forClass(List.class);
+
+        verify(metricWriter, times(1)).writeRollups(capture.capture());
+
+        List<MetricRollup> metrics = capture.getValue();
+
+        assertEquals(1, metrics.size());
+        assertEquals(2.0, metrics.get(0).getMean(), 0.001);
+        assertEquals(1.0, metrics.get(0).getMin(), 0.001);
+        assertEquals(4.0, metrics.get(0).getMax(), 0.001);
+        assertEquals(6.0, metrics.get(0).getSum(), 0.001);
+        assertEquals(3, metrics.get(0).getCount());
+        assertEquals(4.0, metrics.get(0).getLast(), 0.001);
+        assertEquals(ts, metrics.get(0).getTimestamp());
+    }
+
+    @Test
+    public void testSeparateMinutes() {
+        final long ts = PAST_MINUTE;
+
+        aggregator.readMetrics(Arrays.asList(new Metric("d", "g", "n", ts, 1.0, ""),
+                                             new Metric("d", "g", "n", ts - 60000, 3.0, ""),
+                                             new Metric("d", "g", "m", ts, 5.0, "")));
+
+        aggregator.run();
+
+        ArgumentCaptor<List> capture = ArgumentCaptor.forClass(List.class);
+
+        verify(metricWriter, times(1)).writeRollups(capture.capture());
+
+        assertEquals(3, capture.getValue().size());
+
+        // everything was flushed, so the next run has nothing to write
+        aggregator.run();
+
+        verify(metricWriter, times(1)).writeRollups(anyList());
+    }
+
+    @Test
+    public void testOpenMinuteNotWritten() {
+        final long ts = aggregator.floorTimestamp(CURRENT_TIME.getMillis());
+
+        // the current minute, and the one before it while within the allowed lateness
+        aggregator.readMetrics(Arrays.asList(new Metric("d", "g", "n", ts, 1.0, ""),
+                                             new Metric("d", "g", "n", ts - 60000, 1.0, "")));
+
+        aggregator.run();
+
+        verify(metricWriter, never()).writeRollups(anyList());
+    }
+
+    @Test
+    public void testLateMetricsRewritten() {
+        final MetricId id = new MetricId("d", "g", "n");
+
+        aggregator.readMetrics(Arrays.asList(new Metric("d", "g", "n", PAST_MINUTE, 1.0, "")));
+        aggregator.run();
+
+        // the rewrite starts from what the first run stored
+        when(metricReader.readRollups(eq(id), eq(Resolution.ONE_MINUTE), eq(PAST_MINUTE), anyLong()))
+            .thenReturn(Arrays.asList(new MetricRollup(id, PAST_MINUTE, 1, 1.0, 1.0, 1.0, 1.0, "")));
+
+        aggregator.readMetrics(Arrays.asList(new Metric("d", "g", "n", PAST_MINUTE, 3.0, "")));
+
+        // the stored rollup is only read by the flush, never on ingest
+        verify(metricReader, never()).readRollups(any(MetricId.class), any(Resolution.class), anyLong(), anyLong());
+
+        aggregator.run();
+
+        ArgumentCaptor<List> capture = ArgumentCaptor.forClass(List.class);
+
+        verify(metricWriter, times(2)).writeRollups(capture.capture());
 
-        List<Metric> metrics = capture.getValue();
+        List<MetricRollup> metrics = capture.getAllValues().get(1);
 
         assertEquals(1, metrics.size());
-        assertEquals(77.77/2, metrics.get(0).getValue(), 0.001);
-        assertEquals(aggregator.floorTimestamp(CURRENT_TIME.getMillis()), metrics.get(0).getTimestamp());
+        assertEquals(2.0, metrics.get(0).getMean(), 0.001);
+        assertEquals(2, metrics.get(0).getCount());
+        assertEquals(PAST_MINUTE, metrics.get(0).getTimestamp());
+    }
+
+    @Test
+    public void testLateMetricsDropped() {
+        settings.getAggregationSettings().setLateDataPolicy("drop");
+        aggregator = createAggregator(STARTED);
+
+        aggregator.readMetrics(Arrays.asList(new Metric("d", "g", "n", PAST_MINUTE, 1.0, "")));
+        aggregator.run();
+
+        aggregator.readMetrics(Arrays.asList(new Metric("d", "g", "n", PAST_MINUTE, 3.0, "")));
+        aggregator.run();
+
+        verify(metricWriter, times(1)).writeRollups(anyList());
+        assertEquals(1, aggregator.getDroppedLateMetrics());
+    }
+
+    @Test
+    public void testLateMetricsMergedWithStoredRollup() {
+        final MetricId id = new MetricId("d", "g", "n");
+
+        // the minute closed before the aggregator started, so may have been written by an earlier process
+        aggregator = createAggregator(CURRENT_TIME);
+
+        when(metricReader.readRollups(eq(id), eq(Resolution.ONE_MINUTE), eq(PAST_MINUTE), anyLong()))
+            .thenReturn(Arrays.asList(new MetricRollup(id, PAST_MINUTE, 2, 4.0, 1.0, 3.0, 3.0, "")));
+
+        aggregator.readMetrics(Arrays.asList(new Metric("d", "g", "n", PAST_MINUTE, 5.0, "")));
+        aggregator.run();
+
+        ArgumentCaptor<List> capture = ArgumentCaptor.forClass(List.class);
+
+        verify(metricWriter).writeRollups(capture.capture());
+
+        List<MetricRollup> metrics = capture.getValue();
+
+        assertEquals(3, metrics.get(0).getCount());
+        assertEquals(9.0, metrics.get(0).getSum(), 0.001);
+        assertEquals(1.0, metrics.get(0).getMin(), 0.001);
+        assertEquals(5.0, metrics.get(0).getMax(), 0.001);
+        assertEquals(5.0, metrics.get(0).getLast(), 0.001);
+    }
+
+    @Test
+    public void testLateMetricsKeptWhenStoredRollupUnreadable() {
+        final MetricId id = new MetricId("d", "g", "n");
+
+        aggregator = createAggregator(CURRENT_TIME);
+
+        when(metricReader.readRollups(any(MetricId.class), any(Resolution.class), anyLong(), anyLong()))
+            .thenThrow(new IllegalStateException("down"))
+            .thenReturn(Arrays.asList(new MetricRollup(id, PAST_MINUTE, 2, 4.0, 1.0, 3.0, 3.0, "")));
+
+        aggregator.readMetrics(Arrays.asList(new Metric("d", "g", "n", PAST_MINUTE, 5.0, "")));
+        aggregator.run();
+
+        verify(metricWriter, never()).writeRollups(anyList());
+        assertEquals(0, aggregator.getDroppedLateMetrics());
+
+        aggregator.run();
+
+        ArgumentCaptor<List> capture = ArgumentCaptor.forClass(List.class);
+
+        verify(metricWriter).writeRollups(capture.capture());
+
+        MetricRollup rollup = (MetricRollup) capture.getValue().get(0);
+
+        assertEquals(3, rollup.getCount());
+        assertEquals(9.0, rollup.getSum(), 0.001);
+    }
+
+    @Test
+    public void testStripes() {
+        settings.getAggregationSettings().setStripes(4);
+        aggregator = createAggregator(STARTED);
+
+        for(int i=0; i < 100; ++i) {
+            aggregator.readMetrics(Arrays.asList(new Metric("d", "g", "n" + i, PAST_MINUTE, i, ""),
+                                                 new Metric("d", "g", "n" + i, PAST_MINUTE, i, "")));
+        }
+
+        aggregator.run();
+
+        ArgumentCaptor<List> capture = ArgumentCaptor.forClass(List.class);
+
+        verify(metricWriter, atLeast(2)).writeRollups(capture.capture());
+
+        int written = 0;
+
+        for(List rollups:capture.getAllValues()) {
+            written += rollups.size();
+        }
+
+        assertEquals(100, written);
+    }
+
+    @Test
+    public void testFlushAllWritesOpenMinutes() throws Exception {
+        final long ts = aggregator.floorTimestamp(CURRENT_TIME.getMillis());
+
+        aggregator.readMetrics(Arrays.asList(new Metric("d", "g", "n", ts, 1.0, ""),
+                                             new Metric("d", "g", "n", ts, 2.0, ""),
+                                             new Metric("d", "g", "n", PAST_MINUTE, 3.0, "")));
+
+        OneMinuteAggregator.FlushResult result = aggregator.flushAll(1000);
+
+        ArgumentCaptor<List> capture = ArgumentCaptor.forClass(List.class);
+
+        verify(metricWriter).writeRollups(capture.capture());
+
+        assertEquals(2, capture.getValue().size());
+        assertEquals(3, result.getFlushedPoints());
+        assertEquals(0, result.getLoggedPoints());
+        assertEquals(0, result.getDroppedPoints());
+    }
+
+    @Test
+    public void testFlushAllLeavesOpenMinutesInLog() throws Exception {
+        enableWriteAheadLog();
+
+        final long ts = aggregator.floorTimestamp(CURRENT_TIME.getMillis());
+        final List<Metric> metrics = Arrays.asList(new Metric("d", "g", "n", ts, 1.0, ""),
+                                                   new Metric("d", "g", "n", ts, 2.0, ""),
+                                                   new Metric("d", "g", "n", PAST_MINUTE, 3.0, ""));
+
+        aggregator = createAggregator(STARTED);
+        aggregator.readMetrics(metrics);
+
+        OneMinuteAggregator.FlushResult result = aggregator.flushAll(1000);
+
+        aggregator.shutdown();
+
+        ArgumentCaptor<List> capture = ArgumentCaptor.forClass(List.class);
+
+        verify(metricWriter).writeRollups(capture.capture());
+
+        assertEquals(PAST_MINUTE, ((MetricRollup) capture.getValue().get(0)).getTimestamp());
+        assertEquals(1, result.getFlushedPoints());
+        assertEquals(2, result.getLoggedPoints());
+        assertEquals(0, result.getDroppedPoints());
+
+        // the next process gets the open minute back in full
+        aggregator = createAggregator(STARTED);
+        result = aggregator.flushAll(1000);
+        aggregator.shutdown();
+
+        assertEquals(2, result.getLoggedPoints());
+        verify(metricReader, never()).readRollups(any(MetricId.class), any(Resolution.class), anyLong(), anyLong());
+    }
+
+    @Test
+    public void testOpenMinuteMergedWithStoredRollupAfterRestart() throws Exception {
+        final MetricId id = new MetricId("d", "g", "n");
+        final long ts = aggregator.floorTimestamp(CURRENT_TIME.getMillis());
+
+        // the minute was open when the earlier process wrote it on shutdown
+        aggregator = createAggregator(CURRENT_TIME);
+
+        when(metricReader.readRollups(eq(id), eq(Resolution.ONE_MINUTE), eq(ts), anyLong()))
+            .thenReturn(Arrays.asList(new MetricRollup(id, ts, 2, 4.0, 1.0, 3.0, 3.0, "")));
+
+        aggregator.readMetrics(Arrays.asList(new Metric("d", "g", "n", ts, 5.0, "")));
+        aggregator.flushAll(1000);
+
+        ArgumentCaptor<List> capture = ArgumentCaptor.forClass(List.class);
+
+        verify(metricWriter).writeRollups(capture.capture());
+
+        MetricRollup rollup = (MetricRollup) capture.getValue().get(0);
+
+        assertEquals(3, rollup.getCount());
+        assertEquals(9.0, rollup.getSum(), 0.001);
+    }
+
+    @Test
+    public void testFlushAllCountsFailedWrites() throws Exception {
+        doThrow(new RuntimeException("down")).when(metricWriter).writeRollups(anyList());
+
+        aggregator.readMetrics(Arrays.asList(new Metric("d", "g", "n", PAST_MINUTE, 1.0, ""),
+                                             new Metric("d", "g", "n", PAST_MINUTE, 2.0, "")));
+
+        OneMinuteAggregator.FlushResult result = aggregator.flushAll(1000);
+
+        assertEquals(0, result.getFlushedPoints());
+        assertEquals(0, result.getLoggedPoints());
+        assertEquals(2, result.getDroppedPoints());
+    }
+
+    @Test
+    public void testFailedWriteRetriedByNextRun() throws Exception {
+        doThrow(new RuntimeException("down")).doNothing().when(metricWriter).writeRollups(anyList());
+
+        aggregator.readMetrics(Arrays.asList(new Metric("d", "g", "n", PAST_MINUTE, 1.0, ""),
+                                             new Metric("d", "g", "n", PAST_MINUTE, 2.0, "")));
+
+        aggregator.run();
+        aggregator.run();
+
+        ArgumentCaptor<List> capture = ArgumentCaptor.forClass(List.class);
+
+        verify(metricWriter, times(2)).writeRollups(capture.capture());
+
+        MetricRollup rollup = (MetricRollup) capture.getValue().get(0);
+
+        assertEquals(1, capture.getValue().size());
+        assertEquals(2, rollup.getCount());
+        assertEquals(3.0, rollup.getSum(), 0.0);
+    }
+
+    @Test
+    public void testFailedWriteKeepsLogSegment() throws Exception {
+        final File directory = enableWriteAheadLog();
+
+        doThrow(new RuntimeException("down")).doNothing().when(metricWriter).writeRollups(anyList());
+
+        aggregator = createAggregator(STARTED);
+        aggregator.readMetrics(Arrays.asList(new Metric("d", "g", "n", PAST_MINUTE, 1.0, ""),
+                                             new Metric("d", "g", "n", PAST_MINUTE, 2.0, "")));
+        aggregator.run();
+        aggregator.shutdown();
+
+        final String[] segments = directory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.endsWith(".log");
+            }
+        });
+
+        assertEquals(1, segments.length);
+
+        // the next process replays the points and writes them
+        aggregator = createAggregator(STARTED);
+        aggregator.run();
+        aggregator.shutdown();
+
+        ArgumentCaptor<List> capture = ArgumentCaptor.forClass(List.class);
+
+        verify(metricWriter, times(2)).writeRollups(capture.capture());
+
+        assertEquals(2, ((MetricRollup) capture.getValue().get(0)).getCount());
     }
 }
@@ -0,0 +1,152 @@
+package com.metrink.aggregation;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.metrink.config.MetrinkCollectorSettings;
+import com.metrink.inject.DateTimeProvider;
+import com.metrink.metric.MetricId;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.Resolution;
+import com.metrink.metric.io.MetricMetadata;
+import com.metrink.metric.io.MetricReaderWriter;
+
+public class RollupJobTest {
+
+    // 00:10:00, so with the default five minute delay the first five minutes have closed
+    DateTime CURRENT_TIME = new DateTime(10 * 60000L);
+    MetricId ID = new MetricId("d", "g", "n");
+    MetrinkCollectorSettings settings = new MetrinkCollectorSettings();
+    RollupJob rollupJob;
+
+    @Mock DateTimeProvider dateTimeProvider;
+    @Mock MetricReaderWriter metricReaderWriter;
+    @Mock MetricMetadata metadata;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        when(dateTimeProvider.get()).thenReturn(CURRENT_TIME);
+        when(metadata.readUniqueMetrics()).thenReturn(Arrays.asList(ID));
+        when(metricReaderWriter.readRollups(any(MetricId.class), any(Resolution.class), anyLong(), anyLong()))
+            .thenReturn(Collections.<MetricRollup>emptyList());
+
+        rollupJob = new RollupJob(metricReaderWriter, metadata, dateTimeProvider, settings);
+    }
+
+    @After
+    public void tearDown() {
+        for(final Resolution resolution:Resolution.values()) {
+            resolution.setBuiltFrom(Long.MAX_VALUE);
+        }
+    }
+
+    private static Map<MetricId, List<MetricRollup>> source(final MetricId id, final MetricRollup... rollups) {
+        return Collections.singletonMap(id, Arrays.asList(rollups));
+    }
+
+    @Test
+    public void testFiveMinuteRollup() {
+        when(metricReaderWriter.readRollups(Arrays.asList(ID), Resolution.ONE_MINUTE, 0L, 5 * 60000L - 1))
+            .thenReturn(source(ID, new MetricRollup(ID, 0L, 2, 4.0, 1.0, 3.0, 3.0, ""),
+                                   new MetricRollup(ID, 60000L, 1, 5.0, 5.0, 5.0, 5.0, ""),
+                                   new MetricRollup(ID, 240000L, 1, 1.0, 1.0, 1.0, 1.0, "")));
+
+        rollupJob.run();
+
+        ArgumentCaptor<List> capture = ArgumentCaptor.forClass(List.class);
+
+        verify(metricReaderWriter, times(2)).writeRollups(eq(Resolution.FIVE_MINUTES), capture.capture());
+
+        List<MetricRollup> rollups = capture.getAllValues().get(0);
+
+        assertEquals(1, rollups.size());
+        assertEquals(new MetricRollup(ID, 0L, 4, 10.0, 1.0, 5.0, 1.0, ""), rollups.get(0));
+
+        // then how far it got
+        MetricRollup mark = (MetricRollup) capture.getAllValues().get(1).get(0);
+
+        assertEquals(RollupJob.getMarkId(Resolution.FIVE_MINUTES), mark.getId());
+        assertEquals(0L, mark.getTimestamp());
+        assertEquals(0L, Resolution.FIVE_MINUTES.getBuiltFrom());
+    }
+
+    @Test
+    public void testNothingToRollUp() {
+        rollupJob.run();
+
+        ArgumentCaptor<List> capture = ArgumentCaptor.forClass(List.class);
+
+        // only the mark is written
+        verify(metricReaderWriter).writeRollups(any(Resolution.class), capture.capture());
+        assertEquals(RollupJob.getMarkId(Resolution.FIVE_MINUTES), ((MetricRollup) capture.getValue().get(0)).getId());
+    }
+
+    @Test
+    public void testPeriodsOnlyRolledUpOnce() {
+        rollupJob.run();
+        rollupJob.run();
+
+        verify(metricReaderWriter).readRollups(Arrays.asList(ID), Resolution.ONE_MINUTE, 0L, 5 * 60000L - 1);
+    }
+
+    @Test
+    public void testMarksNotRolledUp() {
+        when(metadata.readUniqueMetrics()).thenReturn(Arrays.asList(ID, RollupJob.getMarkId(Resolution.FIVE_MINUTES)));
+
+        rollupJob.run();
+
+        verify(metricReaderWriter).readRollups(Arrays.asList(ID), Resolution.ONE_MINUTE, 0L, 5 * 60000L - 1);
+    }
+
+    @Test
+    public void testCarriesOnFromStoredMark() {
+        final MetricId markId = RollupJob.getMarkId(Resolution.FIVE_MINUTES);
+
+        // an earlier process rolled up from 00:00 to 00:10
+        when(dateTimeProvider.get()).thenReturn(new DateTime(30 * 60000L));
+        when(metricReaderWriter.readRollups(eq(markId), eq(Resolution.FIVE_MINUTES), anyLong(), anyLong()))
+            .thenReturn(Arrays.asList(new MetricRollup(markId, 5 * 60000L, 1, 0.0, 0.0, 0.0, 0.0, null)));
+
+        rollupJob.run();
+
+        verify(metricReaderWriter).readRollups(Arrays.asList(ID), Resolution.ONE_MINUTE, 10 * 60000L, 25 * 60000L - 1);
+        assertEquals(0L, Resolution.FIVE_MINUTES.getBuiltFrom());
+    }
+
+    @Test
+    public void testFailedWriteRolledUpAgain() {
+        when(metricReaderWriter.readRollups(Arrays.asList(ID), Resolution.ONE_MINUTE, 0L, 5 * 60000L - 1))
+            .thenReturn(source(ID, new MetricRollup(ID, 0L, 1, 1.0, 1.0, 1.0, 1.0, "")));
+        doThrow(new IllegalStateException("down")).doNothing()
+            .when(metricReaderWriter).writeRollups(eq(Resolution.FIVE_MINUTES), anyList());
+
+        rollupJob.run();
+        rollupJob.run();
+
+        // the mark isn't moved past the failed write
+        verify(metricReaderWriter, times(2)).readRollups(Arrays.asList(ID), Resolution.ONE_MINUTE, 0L, 5 * 60000L - 1);
+        verify(metricReaderWriter, times(3)).writeRollups(eq(Resolution.FIVE_MINUTES), anyList());
+    }
+}
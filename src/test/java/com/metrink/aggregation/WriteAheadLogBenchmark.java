@@ -0,0 +1,143 @@
+package com.metrink.aggregation;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+
+import com.metrink.config.MetrinkCollectorSettings;
+import com.metrink.inject.DateTimeProvider;
+import com.metrink.metric.Metric;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.Resolution;
+import com.metrink.metric.io.MetricWriter;
+import com.metrink.parser.MetrinkStreamingJsonParser;
+import com.metrink.parser.Parser;
+
+/**
+ * Compares ingest throughput, parsing JSON bodies and handing them to the {@link OneMinuteAggregator}, with and
+ * without the {@link WriteAheadLog}. Each append waits for the force that covers it, so the bodies are ingested by
+ * several threads, as with more than one ingest aggregation thread, to share the forces.
+ *
+ * Not a unit test; run the main method directly, optionally with the number of threads.
+ */
+public class WriteAheadLogBenchmark {
+    private static final int BATCH_SIZE = 100;
+    private static final int BATCHES = 20000;
+    private static final int DEVICES = 100;
+    private static final int ROUNDS = 10;
+    private static final int DEFAULT_THREADS = 8;
+
+    private static final DateTimeProvider DATE_TIME_PROVIDER = new DateTimeProvider() {
+        @Override
+        public DateTime get() {
+            return new DateTime(60000L);
+        }
+    };
+
+    public static void main(final String[] args) throws Exception {
+        final List<byte[]> bodies = createBodies();
+        final int threads = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_THREADS;
+
+        for(int round=0; round < ROUNDS; ++round) {
+            final double plain = run(bodies, null, threads);
+            final File directory = Files.createTempDirectory("wal-benchmark").toFile();
+            final double durable = run(bodies, directory.getAbsolutePath(), threads);
+
+            System.out.println(String.format("round %d, %d threads: no log %,.0f metrics/s, log %,.0f metrics/s (%+.1f%%)",
+                                             round, threads, plain, durable, 100.0 * (durable - plain) / plain));
+
+            for(final File file:directory.listFiles()) {
+                file.delete();
+            }
+
+            directory.delete();
+        }
+    }
+
+    private static List<byte[]> createBodies() {
+        final List<byte[]> ret = new ArrayList<byte[]>(BATCHES);
+
+        for(int b=0; b < BATCHES; ++b) {
+            final StringBuilder sb = new StringBuilder("{\"d\":\"device" + (b % DEVICES) + "\",\"g\":\"group\",\"m\":[");
+
+            for(int i=0; i < BATCH_SIZE; ++i) {
+                sb.append(i == 0 ? "" : ",")
+                  .append("{\"n\":\"name").append(i)
+                  .append("\",\"t\":").append(60000L + b)
+                  .append(",\"v\":").append(b * i)
+                  .append(",\"u\":\"ms\"}");
+            }
+
+            ret.add(sb.append("]}").toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        return ret;
+    }
+
+    private static double run(final List<byte[]> bodies, final String walDirectory, final int threads) throws Exception {
+        final MetrinkCollectorSettings settings = new MetrinkCollectorSettings();
+
+        settings.getAggregationSettings().setWalDirectory(walDirectory);
+
+        final Parser parser = new MetrinkStreamingJsonParser(DATE_TIME_PROVIDER);
+        // no point is late, so nothing is ever read back
+        final OneMinuteAggregator aggregator = new OneMinuteAggregator(new NullWriter(), null, DATE_TIME_PROVIDER, settings);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final long start = System.nanoTime();
+
+        for(final byte[] body:bodies) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        aggregator.readMetrics(parser.parse(body));
+                    } catch(final Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        aggregator.shutdown();
+
+        final long elapsed = System.nanoTime() - start;
+
+        return (double) bodies.size() * BATCH_SIZE / elapsed * 1e9;
+    }
+
+    private static class NullWriter implements MetricWriter {
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public void writeMetrics(final List<Metric> metrics) {
+        }
+
+        @Override
+        public void writeRollups(final List<MetricRollup> rollups) {
+        }
+
+        @Override
+        public void writeRollups(final Resolution resolution, final List<MetricRollup> rollups) {
+        }
+
+        @Override
+        public int deleteMetrics(final long before) {
+            return 0;
+        }
+    }
+}
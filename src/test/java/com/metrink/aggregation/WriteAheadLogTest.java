@@ -0,0 +1,170 @@
+package com.metrink.aggregation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.metrink.metric.Metric;
+
+public class WriteAheadLogTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    File directory;
+    WriteAheadLog wal;
+    List<Metric> replayed = new ArrayList<Metric>();
+    WriteAheadLog.Replayer replayer = new WriteAheadLog.Replayer() {
+        @Override
+        public void replay(List<Metric> metrics) {
+            replayed.addAll(metrics);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.newFolder("wal");
+        wal = open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        wal.close();
+    }
+
+    private WriteAheadLog open() throws Exception {
+        WriteAheadLog ret = new WriteAheadLog(directory, 4096, 10);
+        ret.replay(replayer);
+        return ret;
+    }
+
+    private void reopen() throws Exception {
+        wal.close();
+        replayed.clear();
+        wal = open();
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        Metric m1 = new Metric("d", "g", "n", 1000L, 1.5, "ms");
+        Metric m2 = new Metric("d", "g", "n2", 2000L, 2.5, null);
+
+        wal.append(Arrays.asList(m1));
+        wal.append(Arrays.asList(m2));
+
+        reopen();
+
+        assertEquals(Arrays.asList(m1, m2), replayed);
+    }
+
+    @Test
+    public void testSegmentsRoll() throws Exception {
+        for(int i=0; i < 1000; ++i) {
+            wal.append(Arrays.asList(new Metric("device", "group", "name", i, i, null)));
+        }
+
+        reopen();
+
+        assertEquals(1000, replayed.size());
+        assertEquals(999L, replayed.get(999).getTimestamp());
+    }
+
+    @Test
+    public void testCheckpointTruncates() throws Exception {
+        wal.append(Arrays.asList(new Metric("d", "g", "n", 1000L, 1, null)));
+        wal.roll();
+        wal.append(Arrays.asList(new Metric("d", "g", "n", 5000L, 2, null)));
+
+        assertEquals(2, wal.getSegmentCount());
+
+        wal.checkpoint(2000L, wal.roll());
+
+        assertEquals(1, wal.getSegmentCount());
+
+        reopen();
+
+        assertEquals(1, replayed.size());
+        assertEquals(5000L, replayed.get(0).getTimestamp());
+    }
+
+    @Test
+    public void testCheckpointSkipsWrittenMetrics() throws Exception {
+        wal.append(Arrays.asList(new Metric("d", "g", "n", 1000L, 1, null),
+                                 new Metric("d", "g", "n", 5000L, 2, null)));
+        wal.checkpoint(2000L, wal.roll());
+
+        reopen();
+
+        assertEquals(1, replayed.size());
+        assertEquals(5000L, replayed.get(0).getTimestamp());
+    }
+
+    @Test
+    public void testLateMetricsAfterCheckpointReplayed() throws Exception {
+        wal.append(Arrays.asList(new Metric("d", "g", "n", 1000L, 1, null)));
+        wal.checkpoint(2000L, wal.roll());
+
+        // late, but appended after the checkpoint so it may not have been written
+        wal.append(Arrays.asList(new Metric("d", "g", "n", 1500L, 2, null)));
+
+        reopen();
+
+        assertEquals(1, replayed.size());
+        assertEquals(1500L, replayed.get(0).getTimestamp());
+        assertEquals(1, wal.getSegmentCount());
+
+        // still after the checkpoint once reopened, as the new segments are numbered after it
+        reopen();
+
+        assertEquals(1, replayed.size());
+    }
+
+    @Test
+    public void testAppendWaitsForWrite() throws Exception {
+        wal.append(Arrays.asList(new Metric("d", "g", "n", 1000L, 1, null)));
+
+        assertEquals(1, wal.getSegmentCount());
+    }
+
+    @Test
+    public void testCorruptRecordEndsReplay() throws Exception {
+        wal.append(Arrays.asList(new Metric("d", "g", "n", 1000L, 1, null)));
+        wal.append(Arrays.asList(new Metric("d", "g", "n", 2000L, 2, null)));
+        wal.close();
+
+        // flip a byte in the second record's payload
+        File segment = directory.listFiles()[0];
+        long secondRecord = findSecondRecord(segment);
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        raf.seek(secondRecord + 20);
+        int b = raf.read();
+        raf.seek(secondRecord + 20);
+        raf.write(b ^ 0xFF);
+        raf.close();
+
+        replayed.clear();
+        wal = open();
+
+        assertEquals(1, replayed.size());
+        assertEquals(1000L, replayed.get(0).getTimestamp());
+    }
+
+    private long findSecondRecord(File segment) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(segment, "r");
+
+        try {
+            return 8 + raf.readInt();
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.metrink.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import org.apache.commons.io.IOUtils;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.metrink.aggregation.OneMinuteAggregator;
+import com.metrink.alert.AlertEngine;
+import com.metrink.alert.AlertTablePoller;
+import com.metrink.ingest.GracefulShutdown;
+import com.metrink.ingest.IngestPipeline;
+import com.metrink.inject.DateTimeProvider;
+import com.metrink.metric.Metric;
+import com.metrink.metric.io.MetricMetadata;
+import com.metrink.metric.io.MetricReader;
+import com.metrink.parser.MetrinkStreamingJsonParser;
+import com.metrink.parser.Parser;
+
+public class MetricApiTest {
+
+    static final String JSON = "{\"d\":\"device\",\"g\":\"group\",\"m\":[{\"n\":\"name\",\"v\":1.0}]}";
+
+    @Mock Parser binaryParser;
+    @Mock OneMinuteAggregator aggregator;
+    @Mock MetricMetadata metricMetadata;
+    @Mock MetricReader metricReader;
+    @Mock AlertEngine alertEngine;
+    @Mock AlertTablePoller alertTablePoller;
+    @Mock IngestPipeline ingestPipeline;
+    @Mock GracefulShutdown gracefulShutdown;
+
+    MetricApi metricApi;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        when(gracefulShutdown.beginRequest()).thenReturn(true);
+        when(ingestPipeline.isEnabled()).thenReturn(false);
+
+        final Parser parser = new MetrinkStreamingJsonParser(new DateTimeProvider() {
+            @Override
+            public DateTime get() {
+                return new DateTime(1394000000000L);
+            }
+        });
+
+        metricApi = new MetricApi(parser,
+                                  binaryParser,
+                                  aggregator,
+                                  metricMetadata,
+                                  metricReader,
+                                  alertEngine,
+                                  alertTablePoller,
+                                  ingestPipeline,
+                                  gracefulShutdown);
+    }
+
+    private static byte[] gzip(final String body) throws IOException {
+        final ByteArrayOutputStream ret = new ByteArrayOutputStream();
+
+        try (final GZIPOutputStream out = new GZIPOutputStream(ret)) {
+            out.write(body.getBytes("UTF-8"));
+        }
+
+        return ret.toByteArray();
+    }
+
+    private static String decode(final byte[] body, final String contentEncoding) throws IOException {
+        try (final InputStream in = MetricApi.decodeBody(new ByteArrayInputStream(body), contentEncoding)) {
+            return IOUtils.toString(in, "UTF-8");
+        }
+    }
+
+    @Test
+    public void testDecodesGzipWithHeader() throws Exception {
+        assertEquals(JSON, decode(gzip(JSON), "gzip"));
+        assertEquals(JSON, decode(gzip(JSON), "x-gzip"));
+    }
+
+    @Test
+    public void testDecodesGzipWithoutHeader() throws Exception {
+        assertEquals(JSON, decode(gzip(JSON), null));
+    }
+
+    @Test
+    public void testIdentityEncoding() throws Exception {
+        assertEquals(JSON, decode(JSON.getBytes("UTF-8"), "identity"));
+        assertEquals(JSON, decode(JSON.getBytes("UTF-8"), null));
+    }
+
+    @Test
+    public void testReadsGzipBody() throws Exception {
+        final Response response = metricApi.readMetrics(new ByteArrayInputStream(gzip(JSON)), null, null);
+
+        assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+        verify(aggregator).readMetrics(anyListOf(Metric.class));
+    }
+
+    @Test
+    public void testTruncatedGzipIsBadRequest() throws Exception {
+        final byte[] body = gzip(JSON);
+
+        for(final String contentEncoding:Arrays.asList("gzip", null)) {
+            try {
+                metricApi.readMetrics(new ByteArrayInputStream(Arrays.copyOf(body, body.length / 2)), contentEncoding, null);
+                fail();
+            } catch(final WebApplicationException e) {
+                assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), e.getResponse().getStatus());
+            }
+        }
+
+        verify(aggregator, never()).readMetrics(anyListOf(Metric.class));
+    }
+
+    @Test
+    public void testBatchThatDoesNotFitIsRejected() throws Exception {
+        when(ingestPipeline.isEnabled()).thenReturn(true);
+        when(ingestPipeline.getMaxQueuedMetrics()).thenReturn(10);
+        when(ingestPipeline.getRetryAfterSeconds()).thenReturn(5);
+        when(ingestPipeline.submit(anyListOf(Metric.class))).thenReturn(false);
+
+        final Response response = metricApi.readMetrics(new ByteArrayInputStream(JSON.getBytes("UTF-8")), null, null);
+
+        assertEquals(429, response.getStatus());
+        assertEquals("5", String.valueOf(response.getMetadata().getFirst(HttpHeaders.RETRY_AFTER)));
+        assertNull(response.getMetadata().getFirst("Warning"));
+    }
+
+    @Test
+    public void testBatchThatFitsIsAccepted() throws Exception {
+        when(ingestPipeline.isEnabled()).thenReturn(true);
+        when(ingestPipeline.getMaxQueuedMetrics()).thenReturn(10);
+        when(ingestPipeline.submit(anyListOf(Metric.class))).thenReturn(true);
+
+        final Response response = metricApi.readMetrics(new ByteArrayInputStream(JSON.getBytes("UTF-8")), null, null);
+
+        assertEquals(Response.Status.ACCEPTED.getStatusCode(), response.getStatus());
+        assertNull(response.getMetadata().getFirst("Warning"));
+    }
+}
@@ -0,0 +1,94 @@
+package com.metrink.ingest;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.metrink.aggregation.OneMinuteAggregator;
+import com.metrink.aggregation.OneMinuteAggregator.FlushResult;
+import com.metrink.config.MetrinkCollectorSettings;
+import com.metrink.metric.io.MetricWriter;
+
+public class GracefulShutdownTest {
+
+    @Mock IngestPipeline ingestPipeline;
+    @Mock OneMinuteAggregator aggregator;
+    @Mock MetricWriter metricWriter;
+    @Mock Listener listener;
+
+    GracefulShutdown gracefulShutdown;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        when(aggregator.flushAll(anyLong())).thenReturn(new FlushResult(5, 0, 0));
+
+        gracefulShutdown = new GracefulShutdown(ingestPipeline, aggregator, metricWriter, new MetrinkCollectorSettings());
+        gracefulShutdown.addListener(listener);
+    }
+
+    @Test
+    public void testShutdownOrder() throws Exception {
+        gracefulShutdown.shutdown();
+
+        InOrder inOrder = inOrder(listener, ingestPipeline, aggregator, metricWriter);
+
+        inOrder.verify(listener).shutdown();
+        inOrder.verify(ingestPipeline).drain(anyLong());
+        inOrder.verify(aggregator).flushAll(anyLong());
+        inOrder.verify(aggregator).shutdown();
+        inOrder.verify(metricWriter).shutdown();
+    }
+
+    @Test
+    public void testRequestsRefusedAfterShutdown() {
+        assertTrue(gracefulShutdown.beginRequest());
+        gracefulShutdown.endRequest();
+
+        gracefulShutdown.shutdown();
+
+        assertFalse(gracefulShutdown.beginRequest());
+    }
+
+    @Test
+    public void testWaitsForRequestsInProgress() throws Exception {
+        assertTrue(gracefulShutdown.beginRequest());
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                gracefulShutdown.shutdown();
+            }
+        }).start();
+
+        Thread.sleep(100);
+
+        verify(ingestPipeline, never()).drain(anyLong());
+
+        gracefulShutdown.endRequest();
+
+        verify(ingestPipeline, timeout(1000)).drain(anyLong());
+    }
+
+    @Test
+    public void testShutdownOnlyOnce() throws Exception {
+        gracefulShutdown.shutdown();
+        gracefulShutdown.shutdown();
+
+        verify(aggregator, times(1)).flushAll(anyLong());
+        verify(metricWriter, times(1)).shutdown();
+    }
+}
@@ -0,0 +1,97 @@
+package com.metrink.ingest;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.metrink.inject.DateTimeProvider;
+import com.metrink.metric.Metric;
+
+public class GraphiteLineParserTest {
+
+    DateTime CURRENT_TIME = new DateTime();
+    @Mock DateTimeProvider dateTimeProvider;
+
+    GraphiteLineParser parser;
+    List<Metric> metrics = new ArrayList<Metric>();
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        when(dateTimeProvider.get()).thenReturn(CURRENT_TIME);
+
+        parser = new GraphiteLineParser(1, dateTimeProvider);
+    }
+
+    private ByteBuffer toBuffer(final String lines) {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+        buffer.put(lines.getBytes());
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void testValidLines() {
+        final ByteBuffer buffer = toBuffer("servers.web01.cpu.load.avg 0.25 1400000000\r\n" +
+                                           "servers.web01.cpu.idle -12.5e1 -1\n" +
+                                           "servers.web01.disk.free 1024\n");
+
+        assertEquals(0, parser.parse(buffer, metrics));
+        assertEquals(3, metrics.size());
+        assertEquals(new Metric("web01", "cpu", "load.avg", 1400000000000L, 0.25, ""), metrics.get(0));
+        assertEquals(new Metric("web01", "cpu", "idle", CURRENT_TIME.getMillis(), -125.0, ""), metrics.get(1));
+        assertEquals(new Metric("web01", "disk", "free", CURRENT_TIME.getMillis(), 1024.0, ""), metrics.get(2));
+        assertEquals(0, buffer.remaining());
+    }
+
+    @Test
+    public void testMalformedLines() {
+        final ByteBuffer buffer = toBuffer("servers.web01.cpu 1 2\n" +
+                                           "servers.web01.mem.free abc 1\n" +
+                                           "servers.a:b.c.d 1 1\n" +
+                                           "servers.web01.cpu.load\n");
+
+        assertEquals(4, parser.parse(buffer, metrics));
+        assertEquals(0, metrics.size());
+    }
+
+    @Test
+    public void testLastLineWithoutNewline() {
+        final ByteBuffer buffer = toBuffer("servers.web01.cpu.load 1 60\nservers.web01.cpu.idle 3.5 60\r");
+
+        assertEquals(0, parser.parseAll(buffer, metrics));
+        assertEquals(2, metrics.size());
+        assertEquals(new Metric("web01", "cpu", "idle", 60000L, 3.5, ""), metrics.get(1));
+        assertEquals(0, buffer.remaining());
+
+        assertEquals(1, parser.parseAll(toBuffer("servers.web01.cpu"), metrics));
+        assertEquals(0, parser.parseAll(toBuffer(""), metrics));
+        assertEquals(2, metrics.size());
+    }
+
+    @Test
+    public void testPartialLine() {
+        final ByteBuffer buffer = toBuffer("servers.web01.cpu.load 1 60\nservers.web01.cpu.id");
+
+        assertEquals(0, parser.parse(buffer, metrics));
+        assertEquals(1, metrics.size());
+
+        buffer.compact();
+        buffer.put("le 3.14159 60\n".getBytes());
+        buffer.flip();
+
+        assertEquals(0, parser.parse(buffer, metrics));
+        assertEquals(2, metrics.size());
+        assertEquals(new Metric("web01", "cpu", "idle", 60000L, 3.14159, ""), metrics.get(1));
+    }
+}
@@ -0,0 +1,136 @@
+package com.metrink.ingest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.metrink.aggregation.OneMinuteAggregator;
+import com.metrink.alert.AlertEngine;
+import com.metrink.config.IngestSettings;
+import com.metrink.config.MetrinkCollectorSettings;
+import com.metrink.metric.Metric;
+
+public class IngestPipelineTest {
+
+    @Mock OneMinuteAggregator aggregator;
+    @Mock AlertEngine alertEngine;
+    @Mock MetrinkCollectorSettings settings;
+
+    final CountDownLatch latch = new CountDownLatch(1);
+    IngestPipeline pipeline;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        final IngestSettings ingestSettings = new IngestSettings();
+        ingestSettings.setAsync(true);
+        ingestSettings.setMaxQueuedMetrics(3);
+
+        when(settings.getIngestSettings()).thenReturn(ingestSettings);
+
+        // block the aggregation stage so metrics stay in the pipeline
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                latch.await();
+                return null;
+            }
+        }).when(aggregator).readMetrics(anyList());
+
+        pipeline = new IngestPipeline(aggregator, alertEngine, settings);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void testRejectsBatchesThatDoNotFit() {
+        final List<Metric> metrics = Arrays.asList(new Metric(), new Metric());
+
+        assertTrue(pipeline.submit(metrics));
+        assertFalse(pipeline.submit(metrics));
+        assertEquals(2, pipeline.getQueuedMetrics());
+
+        // a batch that fits in what is left is still accepted
+        assertTrue(pipeline.submit(Arrays.asList(new Metric())));
+        assertEquals(3, pipeline.getQueuedMetrics());
+    }
+
+    @Test
+    public void testNoThreadsWhenSynchronous() throws Exception {
+        final IngestSettings ingestSettings = new IngestSettings();
+        ingestSettings.setAsync(false);
+
+        when(settings.getIngestSettings()).thenReturn(ingestSettings);
+
+        final IngestPipeline synchronous = new IngestPipeline(aggregator, alertEngine, settings);
+
+        assertFalse(synchronous.submit(Arrays.asList(new Metric())));
+        assertEquals(0, synchronous.drain(1000));
+        synchronous.shutdown();
+    }
+
+    @Test
+    public void testPermitsReleasedAfterAlerts() {
+        final List<Metric> metrics = Arrays.asList(new Metric(), new Metric(), new Metric());
+
+        assertTrue(pipeline.submit(metrics));
+
+        latch.countDown();
+
+        verify(alertEngine, timeout(1000)).processMetrics(metrics);
+        verify(aggregator, timeout(1000)).readMetrics(metrics);
+    }
+
+    @Test
+    public void testDrainWaitsForQueuedMetrics() throws Exception {
+        final List<Metric> metrics = Arrays.asList(new Metric(), new Metric());
+
+        assertTrue(pipeline.submit(metrics));
+
+        latch.countDown();
+
+        assertEquals(0, pipeline.drain(1000));
+        assertEquals(0, pipeline.getQueuedMetrics());
+        verify(alertEngine).processMetrics(metrics);
+    }
+
+    @Test
+    public void testDrainTimesOut() throws Exception {
+        assertTrue(pipeline.submit(Arrays.asList(new Metric())));
+        assertTrue(pipeline.submit(Arrays.asList(new Metric(), new Metric())));
+
+        // the first batch is stuck in the aggregator, so the second is never started
+        assertEquals(2, pipeline.drain(50));
+
+        latch.countDown();
+    }
+
+    @Test
+    public void testSubmitAfterDrainRejected() throws Exception {
+        latch.countDown();
+        pipeline.drain(1000);
+
+        assertFalse(pipeline.submit(Arrays.asList(new Metric())));
+    }
+}
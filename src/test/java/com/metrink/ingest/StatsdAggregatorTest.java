@@ -0,0 +1,174 @@
+package com.metrink.ingest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.metrink.metric.Metric;
+
+public class StatsdAggregatorTest {
+
+    private static final long TIMESTAMP = 1400000000000L;
+    private static final long INTERVAL = 10000L;
+
+    StatsdAggregator aggregator;
+
+    @Before
+    public void setUp() throws Exception {
+        aggregator = new StatsdAggregator("statsd", "app", 10, 1000);
+    }
+
+    private ByteBuffer toBuffer(final String lines) {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+        buffer.put(lines.getBytes());
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void testCounters() {
+        assertEquals(0, aggregator.readPacket(toBuffer("hits:10|c\nhits:5|c|@0.5\r\n")));
+
+        final List<Metric> metrics = aggregator.flush(TIMESTAMP, INTERVAL);
+
+        assertEquals(1, metrics.size());
+        assertEquals(new Metric("statsd", "app", "hits.rate", TIMESTAMP, 2.0, ""), metrics.get(0));
+        assertEquals(0, aggregator.flush(TIMESTAMP + INTERVAL, INTERVAL).size());
+    }
+
+    @Test
+    public void testGauges() {
+        assertEquals(0, aggregator.readPacket(toBuffer("queue:10|g\nqueue:+5|g\nqueue:-3|g")));
+
+        List<Metric> metrics = aggregator.flush(TIMESTAMP, INTERVAL);
+
+        assertEquals(1, metrics.size());
+        assertEquals(new Metric("statsd", "app", "queue", TIMESTAMP, 12.0, ""), metrics.get(0));
+
+        // gauges keep their value, but are only reported when updated
+        assertEquals(0, aggregator.flush(TIMESTAMP + INTERVAL, INTERVAL).size());
+        aggregator.readPacket(toBuffer("queue:+1|g"));
+
+        metrics = aggregator.flush(TIMESTAMP + INTERVAL, INTERVAL);
+        assertEquals(new Metric("statsd", "app", "queue", TIMESTAMP + INTERVAL, 13.0, ""), metrics.get(0));
+    }
+
+    @Test
+    public void testTimers() {
+        final StringBuilder sb = new StringBuilder();
+
+        for(int i=100; i > 0; --i) {
+            sb.append("latency:").append(i).append(i % 2 == 0 ? "|ms\n" : "|h\n");
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        buffer.put(sb.toString().getBytes());
+        buffer.flip();
+
+        assertEquals(0, aggregator.readPacket(buffer));
+
+        final List<Metric> metrics = aggregator.flush(TIMESTAMP, INTERVAL);
+
+        assertEquals(3, metrics.size());
+        assertEquals(new Metric("statsd", "app", "latency.mean", TIMESTAMP, 50.5, ""), metrics.get(0));
+        assertEquals(new Metric("statsd", "app", "latency.p50", TIMESTAMP, 50.0, ""), metrics.get(1));
+        assertEquals(new Metric("statsd", "app", "latency.p99", TIMESTAMP, 99.0, ""), metrics.get(2));
+    }
+
+    @Test
+    public void testMalformedLines() {
+        assertEquals(6, aggregator.readPacket(toBuffer("nocolon|c\n" +
+                                                       "bad:abc|c\n" +
+                                                       "bad:1|x\n" +
+                                                       "bad:1\n" +
+                                                       "a;b:1|c\n" +
+                                                       "rate:1|c|@2\n")));
+        assertEquals(0, aggregator.flush(TIMESTAMP, INTERVAL).size());
+    }
+
+    @Test
+    public void testMaxBuckets() {
+        final StringBuilder sb = new StringBuilder();
+
+        for(int i=0; i < 12; ++i) {
+            sb.append("counter").append(i).append(":1|c\n");
+        }
+
+        assertEquals(2, aggregator.readPacket(toBuffer(sb.toString())));
+        assertEquals(10, aggregator.flush(TIMESTAMP, INTERVAL).size());
+    }
+
+    @Test
+    public void testTimerMeanIsExactPastMaxSamples() {
+        aggregator = new StatsdAggregator("statsd", "app", 10, 10);
+
+        final StringBuilder sb = new StringBuilder();
+
+        for(int i=1; i <= 100; ++i) {
+            sb.append("latency:").append(i).append("|ms\n");
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        buffer.put(sb.toString().getBytes());
+        buffer.flip();
+
+        assertEquals(0, aggregator.readPacket(buffer));
+
+        final List<Metric> metrics = aggregator.flush(TIMESTAMP, INTERVAL);
+
+        assertEquals(3, metrics.size());
+        assertEquals(new Metric("statsd", "app", "latency.mean", TIMESTAMP, 50.5, ""), metrics.get(0));
+
+        // the percentiles come from a sample of the whole interval, not just its first values
+        final double p99 = metrics.get(2).getValue();
+
+        assertTrue(p99 >= 1.0 && p99 <= 100.0);
+    }
+
+    @Test
+    public void testReservoirSamplesWholeInterval() {
+        aggregator = new StatsdAggregator("statsd", "app", 10, 10);
+
+        int later = 0;
+
+        for(int run=0; run < 100; ++run) {
+            for(int i=1; i <= 100; ++i) {
+                aggregator.readPacket(toBuffer("latency:" + i + "|ms"));
+            }
+
+            // with only the first ten samples kept, p99 would always be 10
+            if(aggregator.flush(TIMESTAMP, INTERVAL).get(2).getValue() > 10.0) {
+                later++;
+            }
+        }
+
+        assertTrue(later > 90);
+    }
+
+    @Test
+    public void testIdleBucketsEvicted() {
+        aggregator = new StatsdAggregator("statsd", "app", 2, 1000);
+
+        assertEquals(0, aggregator.readPacket(toBuffer("a:1|c\nb:1|c\nt1:1|ms\nt2:1|ms\ng1:1|g\ng2:1|g")));
+        assertEquals(10, aggregator.flush(TIMESTAMP, INTERVAL).size());
+
+        // the buckets are full until the idle ones are evicted at the next flush; full gauges are evicted too
+        assertEquals(3, aggregator.readPacket(toBuffer("a:1|c\nc:1|c\nt3:1|ms\ng3:1|g")));
+        assertEquals(1, aggregator.flush(TIMESTAMP + INTERVAL, INTERVAL).size());
+
+        assertEquals(0, aggregator.readPacket(toBuffer("c:2|c\nt3:2|ms\ng3:2|g\ng1:+1|g")));
+
+        final List<Metric> metrics = aggregator.flush(TIMESTAMP + 2 * INTERVAL, INTERVAL);
+
+        assertEquals(6, metrics.size());
+        assertEquals(new Metric("statsd", "app", "c.rate", TIMESTAMP + 2 * INTERVAL, 0.2, ""), metrics.get(0));
+        assertEquals(new Metric("statsd", "app", "g1", TIMESTAMP + 2 * INTERVAL, 1.0, ""), metrics.get(1));
+        assertEquals(new Metric("statsd", "app", "g3", TIMESTAMP + 2 * INTERVAL, 2.0, ""), metrics.get(2));
+        assertEquals(new Metric("statsd", "app", "t3.mean", TIMESTAMP + 2 * INTERVAL, 2.0, ""), metrics.get(3));
+    }
+}
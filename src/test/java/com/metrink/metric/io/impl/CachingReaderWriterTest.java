@@ -0,0 +1,205 @@
+package com.metrink.metric.io.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.metrink.config.ReadCacheSettings;
+import com.metrink.inject.DateTimeProvider;
+import com.metrink.metric.MetricId;
+import com.metrink.metric.MetricRequest;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.MetricValueList;
+import com.metrink.metric.Resolution;
+import com.metrink.metric.Statistic;
+
+public class CachingReaderWriterTest {
+
+    static final long MINUTE = 60000L;
+    static final long HOUR = 60 * MINUTE;
+    static final long JANUARY = 1388534400000L; // 2014-01-01 UTC
+    static final long FEBRUARY = 1391212800000L;
+    static final long MARCH = 1393632000000L;
+
+    // January and February are closed, March is open
+    static final DateTimeProvider DATE_TIME_PROVIDER = new DateTimeProvider() {
+        @Override
+        public DateTime get() {
+            return new DateTime(MARCH + 10 * 24 * HOUR);
+        }
+    };
+
+    MetricId ID = new MetricId("d", "g", "n");
+    InMemoryReaderWriter storage = new InMemoryReaderWriter();
+    RollupCache cache = createCache();
+    CachingReaderWriter readerWriter = new CachingReaderWriter(storage, cache, DATE_TIME_PROVIDER, new ReadCacheSettings());
+
+    private static RollupCache createCache() {
+        final ReadCacheSettings settings = new ReadCacheSettings();
+        settings.setMaxMemoryMb(16);
+
+        return new RollupCache(settings);
+    }
+
+    private static List<MetricRollup> minutes(final MetricId id, final long start, final int count, final double offset) {
+        final List<MetricRollup> ret = new ArrayList<MetricRollup>();
+
+        for(int i=0; i < count; ++i) {
+            final double value = offset + i;
+
+            ret.add(new MetricRollup(id, start + i * MINUTE, 1, value, value, value, value, null));
+        }
+
+        return ret;
+    }
+
+    private MetricValueList read(final long start, final long end) {
+        return readerWriter.readMetrics(Arrays.asList(
+                new MetricRequest(ID, start, end, Statistic.MEAN, Resolution.ONE_MINUTE))).get(ID);
+    }
+
+    @Test
+    public void testReadsClosedMonthsOnce() {
+        final long start = JANUARY + 9 * 24 * HOUR;
+
+        storage.writeRollups(minutes(ID, start, 60, 0.0));
+
+        assertEquals(60, read(start, start + HOUR - 1).size());
+        assertEquals(1, storage.rollupReads);
+        assertEquals(0, storage.metricReads);
+
+        // any part of the month is answered from the cache
+        final MetricValueList values = read(start + 30 * MINUTE, start + HOUR - 1);
+
+        assertEquals(30, values.size());
+        assertEquals(30.0, values.getValues().get(0).getValue(), 0.0);
+        assertEquals(30, readerWriter.readRollups(ID, Resolution.ONE_MINUTE, start, start + 30 * MINUTE - 1).size());
+        assertEquals(1, storage.rollupReads);
+
+        assertEquals(2.0 / 3.0, cache.getHitRatio(), 0.001);
+        assertEquals(60 * RollupCache.BYTES_PER_PERIOD + RollupCache.BYTES_PER_PARTITION, cache.getMemoryUsed());
+    }
+
+    @Test
+    public void testStitchesOpenMonthFromStorage() {
+        storage.writeRollups(minutes(ID, MARCH - 30 * MINUTE, 60, 0.0));
+
+        final MetricValueList values = read(MARCH - 30 * MINUTE, MARCH + 30 * MINUTE - 1);
+
+        assertEquals(60, values.size());
+        assertEquals(0.0, values.getValues().get(0).getValue(), 0.0);
+        assertEquals(59.0, values.getValues().get(59).getValue(), 0.0);
+        assertEquals(1, storage.rollupReads);
+        assertEquals(1, storage.metricReads);
+        assertEquals(MARCH, storage.lastRequest.getStart());
+
+        assertEquals(60, read(MARCH - 30 * MINUTE, MARCH + 30 * MINUTE - 1).size());
+        assertEquals(1, storage.rollupReads);
+        assertEquals(2, storage.metricReads);
+    }
+
+    @Test
+    public void testWriteInvalidates() {
+        storage.writeRollups(minutes(ID, JANUARY, 10, 0.0));
+        read(JANUARY, JANUARY + HOUR - 1);
+
+        readerWriter.writeRollups(minutes(ID, JANUARY, 1, 100.0));
+
+        assertEquals(100.0, read(JANUARY, JANUARY + HOUR - 1).getValues().get(0).getValue(), 0.0);
+        assertEquals(2, storage.rollupReads);
+
+        // writes of the open month leave closed partitions alone
+        readerWriter.writeRollups(minutes(ID, MARCH, 1, 0.0));
+        read(JANUARY, JANUARY + HOUR - 1);
+
+        assertEquals(2, storage.rollupReads);
+    }
+
+    @Test
+    public void testDeleteInvalidates() {
+        storage.writeRollups(minutes(ID, JANUARY, 10, 0.0));
+        storage.writeRollups(minutes(ID, FEBRUARY, 10, 0.0));
+        read(JANUARY, FEBRUARY + HOUR - 1);
+
+        assertEquals(10, readerWriter.deleteMetrics(FEBRUARY));
+
+        // January is read again and is empty, February is still cached
+        assertEquals(10, read(JANUARY, FEBRUARY + HOUR - 1).size());
+        assertEquals(3, storage.rollupReads);
+        assertEquals(10 * RollupCache.BYTES_PER_PERIOD + RollupCache.BYTES_PER_PARTITION, cache.getMemoryUsed());
+
+        // as when the metric is deleted
+        cache.invalidate(ID);
+
+        assertEquals(0, cache.getMemoryUsed());
+    }
+
+    @Test
+    public void testReadBeforeWriteDoesNotCacheOldPeriods() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final InMemoryReaderWriter slowStorage = new InMemoryReaderWriter() {
+            @Override
+            public List<MetricRollup> readRollups(final MetricId id, final Resolution resolution, final long start, final long end) {
+                final List<MetricRollup> ret = super.readRollups(id, resolution, start, end);
+
+                entered.countDown();
+
+                try {
+                    release.await();
+                } catch(final InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+
+                return ret;
+            }
+        };
+        final CachingReaderWriter slowReaderWriter = new CachingReaderWriter(slowStorage, cache, DATE_TIME_PROVIDER, new ReadCacheSettings());
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        slowStorage.writeRollups(minutes(ID, JANUARY, 10, 0.0));
+
+        try {
+            final Future<List<MetricRollup>> read = executor.submit(new Callable<List<MetricRollup>>() {
+                @Override
+                public List<MetricRollup> call() {
+                    return slowReaderWriter.readRollups(ID, Resolution.ONE_MINUTE, JANUARY, JANUARY + HOUR - 1);
+                }
+            });
+
+            // the read has the old periods when the write lands
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            slowReaderWriter.writeRollups(minutes(ID, JANUARY, 1, 100.0));
+            release.countDown();
+
+            assertEquals(0.0, read.get().get(0).getLast(), 0.0);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+
+        assertEquals(0, cache.getMemoryUsed());
+        assertEquals(100.0, slowReaderWriter.readRollups(ID, Resolution.ONE_MINUTE, JANUARY, JANUARY + HOUR - 1).get(0).getLast(), 0.0);
+    }
+
+    @Test
+    public void testEmptyPartitionsAreNotCached() {
+        read(JANUARY, JANUARY + HOUR - 1);
+        read(JANUARY, JANUARY + HOUR - 1);
+
+        assertEquals(2, storage.rollupReads);
+        assertEquals(0, cache.getMemoryUsed());
+    }
+}
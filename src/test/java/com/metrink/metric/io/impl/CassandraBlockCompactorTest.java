@@ -0,0 +1,119 @@
+package com.metrink.metric.io.impl;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.metrink.config.CassandraSettings;
+import com.metrink.inject.DateTimeProvider;
+import com.metrink.metric.MetricId;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.Resolution;
+import com.metrink.metric.io.MetricMetadata;
+import com.metrink.utils.MilliSecondUtils;
+
+public class CassandraBlockCompactorTest {
+
+    // 03:00 on the third day, so with the default two hour delay the second day has closed
+    DateTime CURRENT_TIME = new DateTime(2 * MilliSecondUtils.DAY_IN_MS + 3 * 3600000L);
+    MetricId ID = new MetricId("d", "g", "n");
+    CassandraSettings settings = new CassandraSettings();
+
+    @Mock DateTimeProvider dateTimeProvider;
+    @Mock CassandraReaderWriter readerWriter;
+    @Mock MetricMetadata metadata;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        when(dateTimeProvider.get()).thenReturn(CURRENT_TIME);
+        when(metadata.readUniqueMetrics()).thenReturn(Arrays.asList(ID));
+
+        settings.setCompressClosedDays(true);
+    }
+
+    @Test
+    public void testCompactsLastClosedDay() {
+        new CassandraBlockCompactor(readerWriter, metadata, dateTimeProvider, settings).run();
+
+        verify(readerWriter).compactDay(ID, Resolution.ONE_MINUTE, MilliSecondUtils.DAY_IN_MS);
+        verify(readerWriter).compactDay(ID, Resolution.FIVE_MINUTES, MilliSecondUtils.DAY_IN_MS);
+        verify(readerWriter).compactDay(ID, Resolution.ONE_HOUR, MilliSecondUtils.DAY_IN_MS);
+        verify(readerWriter, never()).compactDay(eq(ID), eq(Resolution.ONE_DAY), anyLong());
+    }
+
+    @Test
+    public void testDaysOnlyCompactedOnce() {
+        final CassandraBlockCompactor compactor = new CassandraBlockCompactor(readerWriter, metadata, dateTimeProvider, settings);
+
+        compactor.run();
+        compactor.run();
+
+        verify(readerWriter, times(1)).compactDay(ID, Resolution.ONE_MINUTE, MilliSecondUtils.DAY_IN_MS);
+    }
+
+    @Test
+    public void testFailedDayCompactedAgain() {
+        final CassandraBlockCompactor compactor = new CassandraBlockCompactor(readerWriter, metadata, dateTimeProvider, settings);
+
+        when(readerWriter.compactDay(ID, Resolution.FIVE_MINUTES, MilliSecondUtils.DAY_IN_MS))
+            .thenThrow(new IllegalStateException("failed"))
+            .thenReturn(true);
+
+        compactor.run();
+
+        // the other resolutions are still compacted, but the day isn't marked
+        verify(readerWriter).compactDay(ID, Resolution.ONE_HOUR, MilliSecondUtils.DAY_IN_MS);
+        verify(readerWriter, never()).writeRollups(eq(Resolution.ONE_DAY), anyListOf(MetricRollup.class));
+
+        compactor.run();
+
+        verify(readerWriter, times(2)).compactDay(ID, Resolution.FIVE_MINUTES, MilliSecondUtils.DAY_IN_MS);
+        verify(readerWriter).writeRollups(Resolution.ONE_DAY,
+                                          Arrays.asList(new MetricRollup(CassandraBlockCompactor.MARK_ID, MilliSecondUtils.DAY_IN_MS, 1, 1.0, 1.0, 1.0, 1.0, null)));
+    }
+
+    @Test
+    public void testCarriesOnFromStoredMark() {
+        // the process before compacted the first day
+        when(readerWriter.readRollups(eq(CassandraBlockCompactor.MARK_ID), eq(Resolution.ONE_DAY), anyLong(), anyLong()))
+            .thenReturn(Arrays.asList(new MetricRollup(CassandraBlockCompactor.MARK_ID, 0L, 1, 3.0, 3.0, 3.0, 3.0, null)));
+
+        new CassandraBlockCompactor(readerWriter, metadata, dateTimeProvider, settings).run();
+
+        verify(readerWriter, never()).compactDay(ID, Resolution.ONE_MINUTE, 0L);
+        verify(readerWriter).compactDay(ID, Resolution.ONE_MINUTE, MilliSecondUtils.DAY_IN_MS);
+    }
+
+    @Test
+    public void testMarkNotCompacted() {
+        when(metadata.readUniqueMetrics()).thenReturn(Arrays.asList(ID, CassandraBlockCompactor.MARK_ID));
+
+        new CassandraBlockCompactor(readerWriter, metadata, dateTimeProvider, settings).run();
+
+        verify(readerWriter, never()).compactDay(eq(CassandraBlockCompactor.MARK_ID), any(Resolution.class), anyLong());
+    }
+
+    @Test
+    public void testDisabled() {
+        settings.setCompressClosedDays(false);
+
+        new CassandraBlockCompactor(readerWriter, metadata, dateTimeProvider, settings).run();
+
+        verify(readerWriter, never()).compactDay(any(MetricId.class), any(Resolution.class), anyLong());
+    }
+}
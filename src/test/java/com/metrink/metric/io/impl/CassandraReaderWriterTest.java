@@ -0,0 +1,545 @@
+package com.metrink.metric.io.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.util.concurrent.Futures;
+import com.metrink.config.CassandraSettings;
+import com.metrink.inject.DateTimeProvider;
+import com.metrink.metric.MetricId;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.MetricValue;
+import com.metrink.metric.MetricValueList;
+import com.metrink.metric.Resolution;
+import com.metrink.metric.Statistic;
+import com.metrink.metric.io.MetricIdDictionary;
+import com.metrink.metric.io.MetricMetadata;
+import com.metrink.metric.io.impl.CassandraReaderWriter.BinaryMetricRowKeySerializer;
+import com.metrink.metric.io.impl.CassandraReaderWriter.MetricRowIdSerializer;
+import com.metrink.metric.io.impl.CassandraReaderWriter.MetricRowKey;
+import com.metrink.utils.MilliSecondUtils;
+import com.netflix.astyanax.AstyanaxContext;
+import com.netflix.astyanax.ColumnListMutation;
+import com.netflix.astyanax.Keyspace;
+import com.netflix.astyanax.MutationBatch;
+import com.netflix.astyanax.Serializer;
+import com.netflix.astyanax.connectionpool.OperationResult;
+import com.netflix.astyanax.model.ByteBufferRange;
+import com.netflix.astyanax.model.Column;
+import com.netflix.astyanax.model.ColumnFamily;
+import com.netflix.astyanax.model.ColumnList;
+import com.netflix.astyanax.query.ColumnFamilyQuery;
+import com.netflix.astyanax.query.RowQuery;
+import com.netflix.astyanax.serializers.LongSerializer;
+
+public class CassandraReaderWriterTest {
+
+    static final long MINUTE = MilliSecondUtils.MIN_IN_MS;
+    static final long DAY = MilliSecondUtils.DAY_IN_MS;
+
+    // 2014-03-05, in the middle of a month
+    static final long START = MilliSecondUtils.roundDown1Day(1394000000000L);
+
+    static final MetricId ID = new MetricId("d", "g", "n");
+
+    static final DateTimeProvider DATE_TIME_PROVIDER = new DateTimeProvider() {
+        @Override
+        public DateTime get() {
+            return new DateTime(START + 10 * DAY);
+        }
+    };
+
+    @Test
+    public void testRollupEncoding() {
+        final MetricRollup rollup = new MetricRollup(new MetricId("d", "g", "n"), 60000L, 4, 10.0, 1.0, 4.0, 2.0, "");
+        final ByteBuffer value = CassandraReaderWriter.encodeRollup(rollup);
+
+        assertEquals(2.5, CassandraReaderWriter.decodeStatistic(value, Statistic.MEAN), 0.0);
+        assertEquals(1.0, CassandraReaderWriter.decodeStatistic(value, Statistic.MIN), 0.0);
+        assertEquals(4.0, CassandraReaderWriter.decodeStatistic(value, Statistic.MAX), 0.0);
+        assertEquals(10.0, CassandraReaderWriter.decodeStatistic(value, Statistic.SUM), 0.0);
+        assertEquals(4.0, CassandraReaderWriter.decodeStatistic(value, Statistic.COUNT), 0.0);
+        assertEquals(2.0, CassandraReaderWriter.decodeStatistic(value, Statistic.LAST), 0.0);
+    }
+
+    @Test
+    public void testLegacyValue() {
+        final ByteBuffer value = ByteBuffer.allocate(8);
+
+        value.putDouble(0, 3.5);
+
+        assertEquals(3.5, CassandraReaderWriter.decodeStatistic(value, Statistic.MEAN), 0.0);
+        assertEquals(3.5, CassandraReaderWriter.decodeStatistic(value, Statistic.MAX), 0.0);
+        assertEquals(1.0, CassandraReaderWriter.decodeStatistic(value, Statistic.COUNT), 0.0);
+    }
+
+    @Test
+    public void testRowKeyOf() {
+        final MetricRowKey key = MetricRowKey.of("201403:d:g:n");
+
+        assertEquals(new MetricId("d", "g", "n"), key.getMetricId());
+        assertEquals("201403", key.getPartition());
+        assertEquals(Resolution.ONE_MINUTE, key.getResolution());
+
+        final MetricRowKey hourKey = MetricRowKey.of("201403:d:g:n:1h");
+
+        assertEquals(Resolution.ONE_HOUR, hourKey.getResolution());
+        assertEquals("201403:d:g:n:1h", hourKey.toString());
+    }
+
+    @Test
+    public void testMonthNumber() {
+        assertEquals(0, new MetricRowKey(new MetricId("d", "g", "n"), "197001").getPartitionNumber());
+        assertEquals(530, new MetricRowKey(new MetricId("d", "g", "n"), "201403").getPartitionNumber());
+        assertEquals("201403", PartitionWidth.MONTH.format(530));
+        assertEquals("201412", PartitionWidth.MONTH.format(539));
+    }
+
+    @Test
+    public void testBinaryRowKey() {
+        final MetricId id = new MetricId("d", "g", "n");
+        final MetricIdDictionary dictionary = mock(MetricIdDictionary.class);
+
+        when(dictionary.getNumber(id)).thenReturn(42);
+        when(dictionary.getMetricId(42)).thenReturn(id);
+
+        final BinaryMetricRowKeySerializer serializer = new BinaryMetricRowKeySerializer(dictionary);
+        final ByteBuffer bytes = serializer.toByteBuffer(new MetricRowKey(id, "201403", Resolution.FIVE_MINUTES));
+
+        assertEquals(9, bytes.remaining());
+
+        final MetricRowKey key = serializer.fromByteBuffer(bytes);
+
+        assertEquals(id, key.getMetricId());
+        assertEquals("201403", key.getPartition());
+        assertEquals(Resolution.FIVE_MINUTES, key.getResolution());
+
+        // the width shares the resolution's byte, and month keys are unchanged
+        assertEquals(Resolution.FIVE_MINUTES.ordinal(), bytes.get(8));
+
+        final MetricRowKey dayKey = serializer.fromByteBuffer(serializer.toByteBuffer(new MetricRowKey(id, "20140310", Resolution.ONE_HOUR)));
+
+        assertEquals(PartitionWidth.DAY, dayKey.getPartitionWidth());
+        assertEquals("20140310", dayKey.getPartition());
+        assertEquals(Resolution.ONE_HOUR, dayKey.getResolution());
+    }
+
+    @Test
+    public void testGroupPartitionWidth() {
+        final CassandraSettings settings = new CassandraSettings();
+        final Map<String, String> groupRowPartition = new HashMap<String, String>();
+
+        groupRowPartition.put("busy", "day");
+
+        settings.setRowPartition("week");
+        settings.setGroupRowPartition(groupRowPartition);
+
+        final CassandraReaderWriter readerWriter = new CassandraReaderWriter(null, null, null, null, settings);
+
+        assertEquals(PartitionWidth.WEEK, readerWriter.getPartitionWidth(new MetricId("d", "g", "n"), Resolution.ONE_MINUTE));
+        assertEquals(PartitionWidth.DAY, readerWriter.getPartitionWidth(new MetricId("d", "busy", "n"), Resolution.FIVE_MINUTES));
+
+        // a day holds only 24 hours, hours and days stay monthly
+        assertEquals(PartitionWidth.MONTH, readerWriter.getPartitionWidth(new MetricId("d", "busy", "n"), Resolution.ONE_HOUR));
+        assertEquals(PartitionWidth.MONTH, readerWriter.getPartitionWidth(new MetricId("d", "busy", "n"), Resolution.ONE_DAY));
+    }
+
+    @Test
+    public void testTtl() {
+        final long now = 100 * TimeUnit.DAYS.toMillis(1);
+        final CassandraSettings settings = new CassandraSettings();
+        final Map<String, Integer> groupTtlDays = new HashMap<String, Integer>();
+
+        assertNull(new CassandraReaderWriter(null, null, null, null, settings).getTtl(new MetricId("d", "g", "n"), now, now));
+
+        groupTtlDays.put("cpu", 1);
+        groupTtlDays.put("keep", 0);
+
+        settings.setTtlDays(10);
+        settings.setGroupTtlDays(groupTtlDays);
+
+        final CassandraReaderWriter readerWriter = new CassandraReaderWriter(null, null, null, null, settings);
+        final long yesterday = now - TimeUnit.DAYS.toMillis(1);
+
+        // expires ten days after the period, not after the write
+        assertEquals(Integer.valueOf((int) TimeUnit.DAYS.toSeconds(9)), readerWriter.getTtl(new MetricId("d", "g", "n"), yesterday, now));
+        assertEquals(Integer.valueOf(0), readerWriter.getTtl(new MetricId("d", "cpu", "n"), yesterday - 1, now));
+        assertNull(readerWriter.getTtl(new MetricId("d", "keep", "n"), yesterday, now));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testTtlFromDateTimeProvider() throws Exception {
+        final CassandraSettings settings = new CassandraSettings();
+        final FakeKeyspace keyspace = new FakeKeyspace();
+        final MutationBatch mutation = mock(MutationBatch.class);
+        final ColumnListMutation<Long> row = mock(ColumnListMutation.class);
+
+        settings.setTtlDays(30);
+
+        final CassandraReaderWriter readerWriter = keyspace.createReaderWriter(settings);
+
+        when(keyspace.keyspace.prepareMutationBatch()).thenReturn(mutation);
+        doReturn(row).when(mutation).withRow(any(ColumnFamily.class), any(MetricRowKey.class));
+
+        // the provider's time is ten days after START, the clock's is years later
+        readerWriter.writeRollups(Arrays.asList(rollup(START, 1)));
+
+        verify(row).putColumn(START, column(START, 1), (int) TimeUnit.DAYS.toSeconds(20));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDeleteOnlyPurgesNewPartitions() throws Exception {
+        final CassandraSettings settings = new CassandraSettings();
+        final Map<String, Integer> groupTtlDays = new HashMap<String, Integer>();
+        final FakeKeyspace keyspace = new FakeKeyspace();
+        final MutationBatch mutation = mock(MutationBatch.class);
+        final ColumnListMutation<Long> row = mock(ColumnListMutation.class);
+        final List<MetricRowKey> deleted = new ArrayList<MetricRowKey>();
+
+        groupTtlDays.put("cpu", 30);
+
+        settings.setRowPartition("day");
+        settings.setGroupTtlDays(groupTtlDays);
+
+        final CassandraReaderWriter readerWriter = keyspace.createReaderWriter(settings);
+
+        when(keyspace.metadata.readUniqueMetrics()).thenReturn(Arrays.asList(ID, new MetricId("d", "cpu", "n")));
+        when(keyspace.keyspace.prepareMutationBatch()).thenReturn(mutation);
+        when(mutation.withRow(any(ColumnFamily.class), any(MetricRowKey.class))).thenAnswer(new Answer<ColumnListMutation<Long>>() {
+            @Override
+            public ColumnListMutation<Long> answer(final InvocationOnMock invocation) {
+                deleted.add((MetricRowKey) invocation.getArguments()[1]);
+                return row;
+            }
+        });
+
+        // the first purge goes back 366 days to 2013-02-28: days of minutes and five minutes, months of hours and days
+        final long before = PartitionWidth.MONTH.getStart(PartitionWidth.MONTH.getNumber(START));
+
+        // cpu's TTL passed 30 days before the provider's time, 2014-02-13, its rows are deleted up to there
+        final long ttlPassed = START + 10 * DAY - 30 * DAY;
+
+        assertEquals(2 * 366 + 2 * 13 + 2 * 366 + 2 * 12, readerWriter.deleteMetrics(before));
+
+        for(final MetricRowKey rowKey:deleted) {
+            final long end = rowKey.getPartitionWidth().getStart(rowKey.getPartitionNumber() + 1);
+
+            assertTrue(end <= (rowKey.getMetricId().equals(ID) ? before : ttlPassed));
+        }
+
+        // a day later, only the day's rows are new, as the month of before isn't over and cpu's TTL hasn't moved on
+        deleted.clear();
+
+        assertEquals(2, readerWriter.deleteMetrics(before + DAY));
+        assertEquals("20140301:d:g:n", deleted.get(0).toString());
+        assertEquals("20140301:d:g:n:5m", deleted.get(1).toString());
+    }
+
+    @Test
+    public void testReadsRowAcrossPages() {
+        final CassandraSettings settings = new CassandraSettings();
+        final FakeKeyspace keyspace = new FakeKeyspace();
+
+        settings.setReadPageSize(2);
+
+        for(int i=0; i < 5; ++i) {
+            keyspace.put(PartitionWidth.MONTH, START + i * MINUTE, column(START + i * MINUTE, i));
+        }
+
+        final List<MetricRollup> rollups = keyspace.createReaderWriter(settings)
+                .readRollups(ID, Resolution.ONE_MINUTE, START, START + 10 * MINUTE);
+
+        assertEquals(5, rollups.size());
+
+        for(int i=0; i < 5; ++i) {
+            assertEquals(START + i * MINUTE, rollups.get(i).getTimestamp());
+            assertEquals(i, rollups.get(i).getSum(), 0.0);
+        }
+
+        // each page after the first repeats the last column of the one before
+        assertEquals(5, keyspace.pages);
+    }
+
+    @Test
+    public void testReadsBlocksAndColumnsAcrossPages() {
+        final CassandraSettings settings = new CassandraSettings();
+        final FakeKeyspace keyspace = new FakeKeyspace();
+
+        settings.setReadPageSize(2);
+        settings.setCompressClosedDays(true);
+
+        keyspace.putBlock(START - DAY, Arrays.asList(rollup(START - MINUTE, 99)));
+        keyspace.putBlock(START, Arrays.asList(rollup(START, 1), rollup(START + MINUTE, 2), rollup(START + 2 * MINUTE, 3)));
+        keyspace.putBlock(START + DAY, Arrays.asList(rollup(START + DAY, 5)));
+
+        // written after the day was compacted, the first replaces a period of the block
+        keyspace.put(PartitionWidth.MONTH, START + MINUTE, column(START + MINUTE, 20));
+        keyspace.put(PartitionWidth.MONTH, START + 3 * MINUTE, column(START + 3 * MINUTE, 4));
+
+        final CassandraReaderWriter readerWriter = keyspace.createReaderWriter(settings);
+        final Map<Long, Double> values = toMap(readerWriter.readMetrics(ID, START, START + DAY + 10 * MINUTE - 1));
+
+        assertEquals(5, values.size());
+        assertEquals(1.0, values.get(START), 0.0);
+        assertEquals(20.0, values.get(START + MINUTE), 0.0);
+        assertEquals(3.0, values.get(START + 2 * MINUTE), 0.0);
+        assertEquals(4.0, values.get(START + 3 * MINUTE), 0.0);
+        assertEquals(5.0, values.get(START + DAY), 0.0);
+
+        final List<MetricRollup> rollups = readerWriter.readRollups(ID, Resolution.ONE_MINUTE, START + MINUTE, START + 3 * MINUTE);
+
+        assertEquals(3, rollups.size());
+        assertEquals(20.0, rollups.get(0).getSum(), 0.0);
+        assertEquals(3.0, rollups.get(1).getSum(), 0.0);
+        assertEquals(4.0, rollups.get(2).getSum(), 0.0);
+
+        // the columns are read from the requested start, the blocks with their own query
+        assertEquals(Arrays.asList(START, CassandraReaderWriter.getBlockColumn(START + DAY),
+                                   START + MINUTE, CassandraReaderWriter.getBlockColumn(START)),
+                     keyspace.starts);
+    }
+
+    @Test
+    public void testColumnsAreNeverBlocks() {
+        final CassandraSettings settings = new CassandraSettings();
+        final FakeKeyspace keyspace = new FakeKeyspace();
+
+        settings.setCompressClosedDays(true);
+
+        // one ms before a whole minute, where blocks used to be named
+        keyspace.put(PartitionWidth.MONTH, START + MINUTE - 1, column(START + MINUTE - 1, 7));
+
+        final List<MetricRollup> rollups = keyspace.createReaderWriter(settings)
+                .readRollups(ID, Resolution.ONE_MINUTE, START, START + 10 * MINUTE);
+
+        assertEquals(1, rollups.size());
+        assertEquals(7.0, rollups.get(0).getSum(), 0.0);
+        assertEquals(-1 - START / DAY, CassandraReaderWriter.getBlockColumn(START));
+    }
+
+    @Test
+    public void testReadsAtMostMaxConcurrentReads() {
+        final CassandraSettings settings = new CassandraSettings();
+        final FakeKeyspace keyspace = new FakeKeyspace();
+
+        settings.setReadPageSize(2);
+        settings.setMaxConcurrentReads(2);
+        settings.setRowPartition("day");
+
+        for(int day=0; day < 5; ++day) {
+            for(int i=0; i < 3; ++i) {
+                final long timestamp = START + day * DAY + i * MINUTE;
+
+                keyspace.put(PartitionWidth.DAY, timestamp, column(timestamp, i));
+            }
+        }
+
+        final MetricValueList values = keyspace.createReaderWriter(settings).readMetrics(ID, START, START + 5 * DAY - 1);
+
+        assertEquals(15, values.size());
+        assertEquals(5, keyspace.queries);
+        assertEquals(2, keyspace.maxInFlight);
+    }
+
+    @Test
+    public void testReadsDoNotNumberMetrics() {
+        final FakeKeyspace keyspace = new FakeKeyspace();
+        final MetricIdDictionary dictionary = mock(MetricIdDictionary.class);
+
+        when(dictionary.findNumber(ID)).thenReturn(null);
+
+        keyspace.rowKeySerializer = new BinaryMetricRowKeySerializer(dictionary);
+
+        final CassandraReaderWriter readerWriter = keyspace.createReaderWriter(new CassandraSettings());
+
+        assertEquals(0, readerWriter.readMetrics(ID, START, START + DAY).size());
+        assertEquals(0, readerWriter.readRollups(ID, Resolution.ONE_MINUTE, START, START + DAY).size());
+        assertEquals(0, keyspace.queries);
+        verify(dictionary, never()).getNumber(any(MetricId.class));
+    }
+
+    private static MetricRollup rollup(final long timestamp, final double value) {
+        return new MetricRollup(ID, timestamp, 1, value, value, value, value, null);
+    }
+
+    private static ByteBuffer column(final long timestamp, final double value) {
+        return CassandraReaderWriter.encodeRollup(rollup(timestamp, value));
+    }
+
+    private static Map<Long, Double> toMap(final MetricValueList values) {
+        final Map<Long, Double> ret = new HashMap<Long, Double>();
+
+        for(final MetricValue value:values.getValues()) {
+            ret.put(value.getTimestamp(), value.getValue());
+        }
+
+        return ret;
+    }
+
+    /**
+     * A mocked keyspace holding the one minute rows of {@link #ID}. Each query returns the columns of its range, a page
+     * of the range's limit at a time the way autoPaginate does: each page after the first starts with the last column
+     * of the one before, and a short page is the last.
+     */
+    private static class FakeKeyspace {
+        private final Map<String, TreeMap<Long, ByteBuffer>> rows = new HashMap<String, TreeMap<Long, ByteBuffer>>();
+        private final List<Long> starts = new ArrayList<Long>();
+        private Serializer<MetricRowKey> rowKeySerializer = new MetricRowIdSerializer();
+        private final Keyspace keyspace = mock(Keyspace.class);
+        private final MetricMetadata metadata = mock(MetricMetadata.class);
+        private int pages = 0;
+        private int queries = 0;
+        private int inFlight = 0;
+        private int maxInFlight = 0;
+
+        void put(final PartitionWidth width, final long column, final ByteBuffer value) {
+            put(new MetricRowKey(ID, width, width.getNumber(column), Resolution.ONE_MINUTE).toString(), column, value);
+        }
+
+        void putBlock(final long dayStart, final List<MetricRollup> rollups) {
+            put(new MetricRowKey(ID, PartitionWidth.MONTH, PartitionWidth.MONTH.getNumber(dayStart), Resolution.ONE_MINUTE).toString(),
+                CassandraReaderWriter.getBlockColumn(dayStart),
+                RollupBlock.encode(rollups));
+        }
+
+        private void put(final String rowKey, final long column, final ByteBuffer value) {
+            if(!rows.containsKey(rowKey)) {
+                rows.put(rowKey, new TreeMap<Long, ByteBuffer>());
+            }
+
+            rows.get(rowKey).put(column, value);
+        }
+
+        @SuppressWarnings("unchecked")
+        CassandraReaderWriter createReaderWriter(final CassandraSettings settings) {
+            final AstyanaxContext<Keyspace> context = mock(AstyanaxContext.class);
+            final ColumnFamilyQuery<MetricRowKey, Long> query = mock(ColumnFamilyQuery.class);
+
+            when(context.getClient()).thenReturn(keyspace);
+            doReturn(query).when(keyspace).prepareQuery(any(ColumnFamily.class));
+            when(query.getKey(any(MetricRowKey.class))).thenAnswer(new Answer<RowQuery<MetricRowKey, Long>>() {
+                @Override
+                public RowQuery<MetricRowKey, Long> answer(final InvocationOnMock invocation) throws Exception {
+                    final TreeMap<Long, ByteBuffer> row = rows.get(invocation.getArguments()[0].toString());
+
+                    return createRowQuery(row == null ? new TreeMap<Long, ByteBuffer>() : row);
+                }
+            });
+
+            return new CassandraReaderWriter(context,
+                                             new ColumnFamily<MetricRowKey, Long>("metrics", rowKeySerializer, LongSerializer.get()),
+                                             metadata,
+                                             DATE_TIME_PROVIDER,
+                                             settings);
+        }
+
+        @SuppressWarnings("unchecked")
+        private RowQuery<MetricRowKey, Long> createRowQuery(final TreeMap<Long, ByteBuffer> row) throws Exception {
+            final RowQuery<MetricRowKey, Long> ret = mock(RowQuery.class);
+            final List<Column<Long>> columns = new ArrayList<Column<Long>>();
+            final TreeMap<Long, Column<Long>> rowColumns = new TreeMap<Long, Column<Long>>();
+            final int[] limit = new int[1];
+
+            for(final Map.Entry<Long, ByteBuffer> entry:row.entrySet()) {
+                final Column<Long> column = mock(Column.class);
+
+                when(column.getName()).thenReturn(entry.getKey());
+                when(column.getByteBufferValue()).thenReturn(entry.getValue().duplicate());
+                rowColumns.put(entry.getKey(), column);
+            }
+
+            final Answer<OperationResult<ColumnList<Long>>> nextPage = new Answer<OperationResult<ColumnList<Long>>>() {
+                private int from = 0;
+                private boolean done = false;
+
+                @Override
+                public OperationResult<ColumnList<Long>> answer(final InvocationOnMock invocation) {
+                    final List<Column<Long>> page = new ArrayList<Column<Long>>();
+
+                    if(!done) {
+                        page.addAll(columns.subList(from, Math.min(from + limit[0], columns.size())));
+                        done = page.size() < limit[0];
+                        from += limit[0] - 1;
+                        pages++;
+
+                        if(done) {
+                            inFlight--;
+                        }
+                    }
+
+                    return createResult(page);
+                }
+            };
+
+            when(ret.withColumnRange(any(ByteBufferRange.class))).thenAnswer(new Answer<Object>() {
+                @Override
+                public Object answer(final InvocationOnMock invocation) {
+                    final ByteBufferRange range = (ByteBufferRange) invocation.getArguments()[0];
+                    final long start = range.getStart().getLong(range.getStart().position());
+                    final long end = range.getEnd().getLong(range.getEnd().position());
+
+                    starts.add(start);
+                    columns.addAll(rowColumns.subMap(start, true, end, true).values());
+                    limit[0] = range.getLimit();
+
+                    return ret;
+                }
+            });
+            when(ret.autoPaginate(anyBoolean())).thenReturn(ret);
+            when(ret.execute()).thenAnswer(nextPage);
+            when(ret.executeAsync()).thenAnswer(new Answer<Object>() {
+                @Override
+                public Object answer(final InvocationOnMock invocation) throws Throwable {
+                    queries++;
+                    maxInFlight = Math.max(maxInFlight, ++inFlight);
+
+                    return Futures.immediateFuture(nextPage.answer(invocation));
+                }
+            });
+
+            return ret;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static OperationResult<ColumnList<Long>> createResult(final List<Column<Long>> page) {
+            final OperationResult<ColumnList<Long>> ret = mock(OperationResult.class);
+            final ColumnList<Long> columns = mock(ColumnList.class);
+
+            when(columns.isEmpty()).thenReturn(page.isEmpty());
+            when(columns.size()).thenReturn(page.size());
+            when(columns.iterator()).thenAnswer(new Answer<Object>() {
+                @Override
+                public Object answer(final InvocationOnMock invocation) {
+                    return page.iterator();
+                }
+            });
+            when(ret.getResult()).thenReturn(columns);
+
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.metrink.metric.io.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.metrink.metric.Metric;
+import com.metrink.metric.MetricId;
+import com.metrink.metric.MetricRequest;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.MetricValue;
+import com.metrink.metric.MetricValueList;
+import com.metrink.metric.Resolution;
+import com.metrink.metric.io.MetricReaderWriter;
+
+public class CoalescingReaderWriterTest {
+
+    static final long MINUTE = 60000L;
+    static final long HOUR = 60 * MINUTE;
+    static final long START = 1394000000000L / HOUR * HOUR;
+
+    MetricId ID = new MetricId("d", "g", "n");
+    BlockingStorage storage = new BlockingStorage();
+    CoalescingReaderWriter readerWriter = new CoalescingReaderWriter(storage);
+    ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        storage.release.countDown();
+        executor.shutdownNow();
+    }
+
+    private Future<MetricValueList> read(final long start, final long end) {
+        return executor.submit(new Callable<MetricValueList>() {
+            @Override
+            public MetricValueList call() {
+                return readerWriter.readMetrics(ID, start, end);
+            }
+        });
+    }
+
+    private void awaitCoalesced(final long coalesced) throws InterruptedException {
+        for(int i=0; i < 500 && readerWriter.getCoalescedReads() < coalesced; ++i) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(coalesced, readerWriter.getCoalescedReads());
+    }
+
+    @Test
+    public void testCoalescesCoveredReads() throws Exception {
+        final Future<MetricValueList> leader = read(START, START + HOUR - 1);
+
+        assertTrue(storage.entered.await(5, TimeUnit.SECONDS));
+
+        final Future<MetricValueList> same = read(START, START + HOUR - 1);
+        final Future<MetricValueList> covered = read(START + 30 * MINUTE, START + 40 * MINUTE - 1);
+
+        awaitCoalesced(2);
+        storage.release.countDown();
+
+        assertEquals(60, leader.get().size());
+        assertEquals(60, same.get().size());
+        assertEquals(10, covered.get().size());
+        assertEquals(30.0, covered.get().getValues().get(0).getValue(), 0.0);
+        assertEquals(1, storage.reads.get());
+        assertEquals(3, readerWriter.getReads());
+    }
+
+    @Test
+    public void testReadsUncoveredRanges() throws Exception {
+        final Future<MetricValueList> leader = read(START, START + HOUR - 1);
+
+        assertTrue(storage.entered.await(5, TimeUnit.SECONDS));
+        storage.release.countDown();
+
+        // reaches past the read in flight, or comes after it's done
+        assertEquals(61, readerWriter.readMetrics(ID, START, START + HOUR).size());
+        assertEquals(60, leader.get().size());
+        assertEquals(60, readerWriter.readMetrics(ID, START, START + HOUR - 1).size());
+        assertEquals(3, storage.reads.get());
+        assertEquals(0, readerWriter.getCoalescedReads());
+    }
+
+    @Test
+    public void testCallersGetTheirOwnValues() throws Exception {
+        final Future<MetricValueList> leader = read(START, START + HOUR - 1);
+
+        assertTrue(storage.entered.await(5, TimeUnit.SECONDS));
+
+        final Future<MetricValueList> same = read(START, START + HOUR - 1);
+
+        awaitCoalesced(1);
+        storage.release.countDown();
+
+        leader.get().shiftTimestamp(HOUR);
+
+        assertEquals(START, same.get().getValues().get(0).getTimestamp());
+    }
+
+    @Test
+    public void testCoalescedReadsFailWithTheRead() throws Exception {
+        storage.fail = true;
+
+        final Future<MetricValueList> leader = read(START, START + HOUR - 1);
+
+        assertTrue(storage.entered.await(5, TimeUnit.SECONDS));
+
+        final Future<MetricValueList> same = read(START, START + HOUR - 1);
+
+        awaitCoalesced(1);
+        storage.release.countDown();
+
+        for(final Future<MetricValueList> future:Arrays.asList(leader, same)) {
+            try {
+                future.get();
+                fail();
+            } catch(final ExecutionException e) {
+                assertEquals("read failed", e.getCause().getMessage());
+            }
+        }
+    }
+
+    /**
+     * A value every minute, with the first read held until released.
+     */
+    private static class BlockingStorage implements MetricReaderWriter {
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger reads = new AtomicInteger();
+        private volatile boolean fail = false;
+
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public Map<MetricId, MetricValueList> readMetrics(final List<MetricRequest> requests) {
+            final Map<MetricId, MetricValueList> ret = new HashMap<MetricId, MetricValueList>();
+
+            reads.incrementAndGet();
+            entered.countDown();
+
+            try {
+                release.await();
+            } catch(final InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+
+            if(fail) {
+                throw new IllegalStateException("read failed");
+            }
+
+            for(final MetricRequest request:requests) {
+                final MetricValueList values = new MetricValueList(request.getStart(), request.getEnd());
+
+                for(long timestamp = values.getStartTime(); timestamp <= request.getEnd(); timestamp += MINUTE) {
+                    values.addMetricValue(new MetricValue(timestamp, (timestamp - START) / MINUTE, null));
+                }
+
+                ret.put(request.getId(), values);
+            }
+
+            return ret;
+        }
+
+        @Override
+        public MetricValueList readMetrics(final MetricId id, final long start, final long end) {
+            return readMetrics(Arrays.asList(new MetricRequest(id, start, end))).get(id);
+        }
+
+        @Override
+        public List<MetricRollup> readRollups(final MetricId id, final Resolution resolution, final long start, final long end) {
+            return null;
+        }
+
+        @Override
+        public Map<MetricId, List<MetricRollup>> readRollups(final List<MetricId> ids, final Resolution resolution, final long start, final long end) {
+            return null;
+        }
+
+        @Override
+        public void writeMetrics(final List<Metric> metrics) {
+        }
+
+        @Override
+        public void writeRollups(final List<MetricRollup> rollups) {
+        }
+
+        @Override
+        public void writeRollups(final Resolution resolution, final List<MetricRollup> rollups) {
+        }
+
+        @Override
+        public int deleteMetrics(final long before) {
+            return 0;
+        }
+    }
+}
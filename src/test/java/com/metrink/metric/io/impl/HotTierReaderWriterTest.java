@@ -0,0 +1,163 @@
+package com.metrink.metric.io.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.metrink.config.HotTierSettings;
+import com.metrink.metric.MetricId;
+import com.metrink.metric.MetricRequest;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.MetricValueList;
+import com.metrink.metric.Resolution;
+import com.metrink.metric.Statistic;
+
+public class HotTierReaderWriterTest {
+
+    static final long MINUTE = 60000L;
+    static final long HOUR = 60 * MINUTE;
+    static final long START = 1394000000000L / HOUR * HOUR;
+
+    MetricId ID = new MetricId("d", "g", "n");
+    InMemoryReaderWriter storage = new InMemoryReaderWriter();
+
+    @After
+    public void tearDown() {
+        Resolution.FIVE_MINUTES.setBuiltFrom(Long.MAX_VALUE);
+    }
+
+    private HotTierReaderWriter createHotTier(final int hours, final int maxMemoryMb) {
+        final HotTierSettings settings = new HotTierSettings();
+        settings.setHours(hours);
+        settings.setMaxMemoryMb(maxMemoryMb);
+
+        return new HotTierReaderWriter(storage, settings);
+    }
+
+    private static List<MetricRollup> minutes(final MetricId id, final long start, final int count) {
+        final List<MetricRollup> ret = new ArrayList<MetricRollup>();
+
+        for(int i=0; i < count; ++i) {
+            final double value = (start + i * MINUTE - START) / MINUTE;
+
+            ret.add(new MetricRollup(id, start + i * MINUTE, 1, value, value, value, value, null));
+        }
+
+        return ret;
+    }
+
+    @Test
+    public void testReadsRecentFromMemory() {
+        final HotTierReaderWriter hotTier = createHotTier(2, 16);
+
+        hotTier.writeRollups(minutes(ID, START, 180));
+
+        // written through
+        assertEquals(180, storage.size());
+
+        final MetricValueList values = hotTier.readMetrics(ID, START + 2 * HOUR, START + 3 * HOUR - 1);
+
+        assertEquals(60, values.size());
+        assertEquals(120.0, values.getValues().get(0).getValue(), 0.0);
+        assertEquals(179.0, values.getValues().get(59).getValue(), 0.0);
+        assertEquals(0, storage.metricReads);
+        assertEquals(1, hotTier.getMemoryReads());
+
+        assertEquals(60, hotTier.readRollups(ID, Resolution.ONE_MINUTE, START + 2 * HOUR, START + 3 * HOUR).size());
+        assertEquals(0, storage.metricReads);
+    }
+
+    @Test
+    public void testStitchesOlderFromStorage() {
+        final HotTierReaderWriter hotTier = createHotTier(1, 16);
+
+        // written before this process started, so only the storage has them
+        storage.writeRollups(minutes(ID, START, 60));
+        hotTier.writeRollups(minutes(ID, START + HOUR, 30));
+
+        final MetricValueList values = hotTier.readMetrics(ID, START, START + 2 * HOUR - 1);
+
+        assertEquals(90, values.size());
+        assertEquals(0.0, values.getValues().get(0).getValue(), 0.0);
+        assertEquals(89.0, values.getValues().get(89).getValue(), 0.0);
+        assertEquals(1, storage.metricReads);
+        assertEquals(START + HOUR - 1, storage.lastRequest.getEnd());
+
+        final List<MetricRollup> rollups = hotTier.readRollups(ID, Resolution.ONE_MINUTE, START + 30 * MINUTE, START + 2 * HOUR);
+
+        assertEquals(60, rollups.size());
+        assertEquals(START + 30 * MINUTE, rollups.get(0).getTimestamp());
+        assertEquals(START + 89 * MINUTE, rollups.get(59).getTimestamp());
+    }
+
+    @Test
+    public void testCombinesCoarserResolutions() {
+        final HotTierReaderWriter hotTier = createHotTier(2, 16);
+
+        hotTier.writeRollups(minutes(ID, START, 120));
+        Resolution.FIVE_MINUTES.setBuiltFrom(START);
+
+        // 12 points for an hour reads five minute periods
+        final MetricValueList values = hotTier.readMetrics(Arrays.asList(
+                new MetricRequest(ID, START + HOUR, START + 2 * HOUR - 1, Statistic.SUM, 12))).get(ID);
+
+        assertEquals(12, values.size());
+        assertEquals(60.0 + 61.0 + 62.0 + 63.0 + 64.0, values.getValues().get(0).getValue(), 0.0);
+        assertEquals(0, storage.metricReads);
+
+        final List<MetricRollup> rollups = hotTier.readRollups(ID, Resolution.FIVE_MINUTES, START + HOUR, START + 2 * HOUR);
+
+        assertEquals(12, rollups.size());
+        assertEquals(5, rollups.get(0).getCount());
+        assertEquals(64.0, rollups.get(0).getLast(), 0.0);
+    }
+
+    @Test
+    public void testKeepsOnlyTheLastHours() {
+        final HotTierReaderWriter hotTier = createHotTier(1, 16);
+
+        hotTier.writeRollups(minutes(ID, START, 120));
+
+        // the first hour has been written over
+        assertEquals(60, hotTier.readMetrics(ID, START + HOUR, START + 2 * HOUR - 1).size());
+        assertEquals(0, storage.metricReads);
+
+        assertEquals(120, hotTier.readMetrics(ID, START, START + 2 * HOUR - 1).size());
+        assertEquals(1, storage.metricReads);
+    }
+
+    @Test
+    public void testMemoryBudget() {
+        final HotTierReaderWriter hotTier = createHotTier(1, 1);
+        final int perSeries = 60 * HotTierReaderWriter.BYTES_PER_MINUTE + HotTierReaderWriter.BYTES_PER_SERIES;
+        final int fits = 1024 * 1024 / perSeries;
+
+        for(int i=0; i < fits + 10; ++i) {
+            hotTier.writeRollups(minutes(new MetricId("d", "g", "n" + i), START, 10));
+        }
+
+        assertTrue(hotTier.getMemoryUsed() <= 1024 * 1024);
+
+        // the series that didn't fit are still read, from storage
+        assertEquals(10, hotTier.readMetrics(new MetricId("d", "g", "n" + (fits + 5)), START, START + HOUR).size());
+        assertEquals(1, storage.metricReads);
+        assertEquals(10, hotTier.readMetrics(new MetricId("d", "g", "n0"), START, START + HOUR).size());
+        assertEquals(1, storage.metricReads);
+    }
+
+    @Test
+    public void testDeleteHidesOlderMinutes() {
+        final HotTierReaderWriter hotTier = createHotTier(1, 16);
+
+        hotTier.writeRollups(minutes(ID, START, 60));
+        hotTier.deleteMetrics(START + 30 * MINUTE);
+
+        assertEquals(30, hotTier.readMetrics(ID, START, START + HOUR - 1).size());
+    }
+}
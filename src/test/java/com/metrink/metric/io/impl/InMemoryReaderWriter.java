@@ -0,0 +1,130 @@
+package com.metrink.metric.io.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.metrink.metric.Metric;
+import com.metrink.metric.MetricId;
+import com.metrink.metric.MetricRequest;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.MetricValue;
+import com.metrink.metric.MetricValueList;
+import com.metrink.metric.Resolution;
+import com.metrink.metric.io.MetricReaderWriter;
+
+/**
+ * One minute rollups in a map, counting reads, for the tests of reader/writers that wrap the storage.
+ */
+class InMemoryReaderWriter implements MetricReaderWriter {
+    private final Map<MetricId, TreeMap<Long, MetricRollup>> rollups = new HashMap<MetricId, TreeMap<Long, MetricRollup>>();
+    volatile int metricReads = 0;
+    volatile int rollupReads = 0;
+    volatile MetricRequest lastRequest;
+
+    synchronized int size() {
+        int ret = 0;
+
+        for(final TreeMap<Long, MetricRollup> series:rollups.values()) {
+            ret += series.size();
+        }
+
+        return ret;
+    }
+
+    @Override
+    public void init() {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public synchronized Map<MetricId, MetricValueList> readMetrics(final List<MetricRequest> requests) {
+        final Map<MetricId, MetricValueList> ret = new HashMap<MetricId, MetricValueList>();
+
+        for(final MetricRequest request:requests) {
+            final List<MetricValue> values = new ArrayList<MetricValue>();
+
+            metricReads++;
+            lastRequest = request;
+
+            for(final MetricRollup rollup:getRollups(request.getId(), request.getStart(), request.getEnd())) {
+                values.add(new MetricValue(rollup.getTimestamp(), rollup.get(request.getStatistic()), null));
+            }
+
+            ret.put(request.getId(), new MetricValueList(request.getStart(), request.getEnd()).addMetricValues(values));
+        }
+
+        return ret;
+    }
+
+    @Override
+    public MetricValueList readMetrics(final MetricId id, final long start, final long end) {
+        return readMetrics(Arrays.asList(new MetricRequest(id, start, end))).get(id);
+    }
+
+    @Override
+    public synchronized List<MetricRollup> readRollups(final MetricId id, final Resolution resolution, final long start, final long end) {
+        rollupReads++;
+
+        return getRollups(id, start, end);
+    }
+
+    @Override
+    public Map<MetricId, List<MetricRollup>> readRollups(final List<MetricId> ids, final Resolution resolution, final long start, final long end) {
+        final Map<MetricId, List<MetricRollup>> ret = new HashMap<MetricId, List<MetricRollup>>();
+
+        for(final MetricId id:ids) {
+            ret.put(id, readRollups(id, resolution, start, end));
+        }
+
+        return ret;
+    }
+
+    @Override
+    public void writeMetrics(final List<Metric> metrics) {
+    }
+
+    @Override
+    public void writeRollups(final List<MetricRollup> rollups) {
+        writeRollups(Resolution.ONE_MINUTE, rollups);
+    }
+
+    @Override
+    public synchronized void writeRollups(final Resolution resolution, final List<MetricRollup> written) {
+        for(final MetricRollup rollup:written) {
+            if(!rollups.containsKey(rollup.getId())) {
+                rollups.put(rollup.getId(), new TreeMap<Long, MetricRollup>());
+            }
+
+            rollups.get(rollup.getId()).put(rollup.getTimestamp(), rollup);
+        }
+    }
+
+    @Override
+    public synchronized int deleteMetrics(final long before) {
+        int ret = 0;
+
+        for(final TreeMap<Long, MetricRollup> series:rollups.values()) {
+            final Map<Long, MetricRollup> deleted = series.headMap(before);
+
+            ret += deleted.size();
+            deleted.clear();
+        }
+
+        return ret;
+    }
+
+    private List<MetricRollup> getRollups(final MetricId id, final long start, final long end) {
+        final TreeMap<Long, MetricRollup> series = rollups.get(id);
+
+        return series == null
+                ? new ArrayList<MetricRollup>()
+                : new ArrayList<MetricRollup>(series.subMap(start, true, end, true).values());
+    }
+}
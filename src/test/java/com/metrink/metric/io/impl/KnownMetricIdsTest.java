@@ -0,0 +1,118 @@
+package com.metrink.metric.io.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+import com.metrink.config.MetadataSettings;
+import com.metrink.metric.MetricId;
+
+public class KnownMetricIdsTest {
+
+    MetricId A = new MetricId("d", "g", "a");
+    MetricId B = new MetricId("d", "g", "b");
+    MetricId C = new MetricId("d", "g", "c");
+
+    @Test
+    public void testFiltersKnownIds() {
+        final KnownMetricIds knownIds = new KnownMetricIds(new MetadataSettings());
+
+        knownIds.addAll(Arrays.asList(A, B));
+
+        assertEquals(new HashSet<MetricId>(Arrays.asList(C)), knownIds.filterUnknown(ids(A, B, C)));
+        assertEquals(2, knownIds.getHits());
+        assertEquals(1, knownIds.getMisses());
+
+        knownIds.remove(A);
+
+        assertEquals(ids(A), knownIds.filterUnknown(ids(A, B)));
+    }
+
+    @Test
+    public void testBounded() {
+        final MetadataSettings settings = new MetadataSettings();
+        settings.setMaxKnownIds(2);
+
+        final KnownMetricIds knownIds = new KnownMetricIds(settings);
+
+        knownIds.addAll(Arrays.asList(A, B, C));
+
+        // one was dropped to make room, and is simply written again
+        assertEquals(1, knownIds.filterUnknown(ids(A, B, C)).size());
+    }
+
+    @Test
+    public void testDisabled() {
+        final MetadataSettings settings = new MetadataSettings();
+        settings.setMaxKnownIds(0);
+
+        final KnownMetricIds knownIds = new KnownMetricIds(settings);
+
+        knownIds.addAll(Arrays.asList(A, B));
+
+        assertEquals(ids(A, B), knownIds.filterUnknown(ids(A, B)));
+    }
+
+    @Test
+    public void testBloomFilter() {
+        final MetadataSettings settings = new MetadataSettings();
+        settings.setBloomFilter(true);
+        settings.setMaxKnownIds(1000);
+
+        final KnownMetricIds knownIds = new KnownMetricIds(settings);
+        final Set<MetricId> written = new HashSet<MetricId>();
+
+        for(int i=0; i < 500; ++i) {
+            written.add(new MetricId("d", "g", "n" + i));
+        }
+
+        knownIds.addAll(written);
+
+        // no false negatives
+        assertTrue(knownIds.filterUnknown(written).isEmpty());
+        assertEquals(ids(new MetricId("d", "g", "new")), knownIds.filterUnknown(ids(new MetricId("d", "g", "new"))));
+
+        // removing an id forgets them all
+        knownIds.remove(A);
+
+        assertEquals(written, knownIds.filterUnknown(written));
+    }
+
+    @Test
+    public void testBloomFilterRebuiltOnSchedule() {
+        final MetadataSettings settings = new MetadataSettings();
+        settings.setBloomFilter(true);
+        settings.setBloomFilterRebuildMinutes(60);
+
+        final AtomicLong now = new AtomicLong();
+        final KnownMetricIds knownIds = new KnownMetricIds(settings, new Ticker() {
+            @Override
+            public long read() {
+                return now.get();
+            }
+        });
+
+        knownIds.addAll(Arrays.asList(A, B));
+
+        now.set(TimeUnit.MINUTES.toNanos(59));
+
+        assertTrue(knownIds.filterUnknown(ids(A, B)).isEmpty());
+
+        // an hour on, anything the filter took for known is written again
+        now.set(TimeUnit.MINUTES.toNanos(60));
+
+        assertEquals(ids(A, B), knownIds.filterUnknown(ids(A, B)));
+    }
+
+    private static Set<MetricId> ids(final MetricId... metricIds) {
+        return new HashSet<MetricId>(Arrays.asList(metricIds));
+    }
+}
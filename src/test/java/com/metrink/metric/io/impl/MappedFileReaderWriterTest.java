@@ -0,0 +1,194 @@
+package com.metrink.metric.io.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Matchers.anySetOf;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.metrink.config.EmbeddedSettings;
+import com.metrink.inject.DateTimeProvider;
+import com.metrink.metric.MetricId;
+import com.metrink.metric.MetricRequest;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.MetricValueList;
+import com.metrink.metric.Resolution;
+import com.metrink.metric.Statistic;
+import com.metrink.metric.io.MetricMetadata;
+
+public class MappedFileReaderWriterTest {
+
+    static final long DAY = 86400000L;
+    static final long START = 1394000000000L / DAY * DAY;
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    MetricId ID = new MetricId("d", "g", "n");
+    MetricMetadata metadata = mock(MetricMetadata.class);
+    DateTimeProvider dateTimeProvider = new DateTimeProvider() {
+        @Override
+        public DateTime get() {
+            return new DateTime(START);
+        }
+    };
+
+    File directory;
+    boolean forceWrites = false;
+    MappedFileReaderWriter readerWriter;
+
+    @Before
+    public void setUp() throws Exception {
+        when(metadata.writeMetricIds(anySetOf(MetricId.class))).thenReturn(true);
+
+        directory = folder.newFolder("metrics");
+        readerWriter = open();
+    }
+
+    @After
+    public void tearDown() {
+        readerWriter.shutdown();
+    }
+
+    private MappedFileReaderWriter open() {
+        final EmbeddedSettings settings = new EmbeddedSettings();
+        settings.setDirectory(directory.getPath());
+        settings.setForceWrites(forceWrites);
+
+        final MappedFileReaderWriter ret = new MappedFileReaderWriter(metadata, dateTimeProvider, settings);
+        ret.init();
+        return ret;
+    }
+
+    private void writeDay(final long dayStart, final double value) {
+        final List<MetricRollup> rollups = new ArrayList<MetricRollup>();
+
+        for(int i=0; i < 1440; ++i) {
+            rollups.add(new MetricRollup(ID, dayStart + i * 60000L, 2, value * 2, value - 1, value + 1, value, null));
+        }
+
+        readerWriter.writeRollups(rollups);
+    }
+
+    @Test
+    public void testReadWrite() {
+        writeDay(START, 5.0);
+        readerWriter.writeRollups(Arrays.asList(new MetricRollup(ID, START + 60000L, 1, 7.0, 7.0, 7.0, 7.0, null)));
+
+        final MetricValueList values = readerWriter.readMetrics(ID, START, START + 10 * 60000L);
+
+        assertEquals(11, values.size());
+        assertEquals(5.0, values.getValues().get(0).getValue(), 0.0);
+        // the period written again reads as its last write
+        assertEquals(7.0, values.getValues().get(1).getValue(), 0.0);
+
+        final MetricValueList max = readerWriter.readMetrics(Arrays.asList(
+                new MetricRequest(ID, START, START + DAY - 1, Statistic.MAX))).get(ID);
+
+        assertEquals(1440, max.size());
+        assertEquals(6.0, max.getValues().get(1439).getValue(), 0.0);
+
+        final List<MetricRollup> rollups = readerWriter.readRollups(ID, Resolution.ONE_MINUTE, START, START + DAY);
+
+        assertEquals(1440, rollups.size());
+        assertEquals(1, rollups.get(1).getCount());
+
+        assertEquals(0, readerWriter.readMetrics(new MetricId("d", "g", "unknown"), START, START + DAY).size());
+    }
+
+    @Test
+    public void testSeal() {
+        writeDay(START, 5.0);
+        writeDay(START + DAY, 6.0);
+
+        // only the first day has ended, and then only after the delay
+        assertEquals(0, readerWriter.sealClosedBlocks(START + DAY));
+        assertEquals(1, readerWriter.sealClosedBlocks(START + DAY + 3 * 3600000L));
+
+        // a late write to the sealed day
+        readerWriter.writeRollups(Arrays.asList(new MetricRollup(ID, START, 1, 9.0, 9.0, 9.0, 9.0, null)));
+
+        assertReadsDays(9.0);
+
+        assertEquals(1, readerWriter.sealClosedBlocks(START + DAY + 3 * 3600000L));
+
+        assertReadsDays(9.0);
+    }
+
+    private void assertReadsDays(final double firstValue) {
+        final MetricValueList values = readerWriter.readMetrics(ID, START, START + 2 * DAY - 1);
+
+        assertEquals(2880, values.size());
+        assertEquals(firstValue, values.getValues().get(0).getValue(), 0.0);
+        assertEquals(5.0, values.getValues().get(1).getValue(), 0.0);
+        assertEquals(6.0, values.getValues().get(1440).getValue(), 0.0);
+    }
+
+    @Test
+    public void testReopen() {
+        writeDay(START, 5.0);
+        readerWriter.writeRollups(Resolution.ONE_HOUR, Arrays.asList(new MetricRollup(ID, START, 60, 60.0, 1.0, 1.0, 1.0, null)));
+        readerWriter.sealClosedBlocks(START + 2 * DAY);
+
+        final MetricId other = new MetricId("d", "g", "other");
+        readerWriter.writeRollups(Arrays.asList(new MetricRollup(other, START + DAY, 1, 3.0, 3.0, 3.0, 3.0, null)));
+
+        readerWriter.shutdown();
+        readerWriter = open();
+
+        assertEquals(1440, readerWriter.readMetrics(ID, START, START + DAY - 1).size());
+        assertEquals(1, readerWriter.readRollups(ID, Resolution.ONE_HOUR, START, START + DAY).size());
+        assertEquals(3.0, readerWriter.readMetrics(other, START + DAY, START + DAY).getValues().get(0).getValue(), 0.0);
+    }
+
+    @Test
+    public void testNewSeriesWrittenTogether() {
+        readerWriter.shutdown();
+        forceWrites = true;
+        readerWriter = open();
+
+        writeDay(START, 5.0);
+
+        // one existing series and two new ones, numbered in the order written
+        final List<MetricRollup> rollups = new ArrayList<MetricRollup>();
+
+        for(int i=0; i < 3; ++i) {
+            final MetricId id = i == 0 ? ID : new MetricId("d", "g", "new" + i);
+            rollups.add(new MetricRollup(id, START + DAY, 1, i, i, i, i, null));
+        }
+
+        readerWriter.writeRollups(rollups);
+        readerWriter.shutdown();
+        readerWriter = open();
+
+        assertEquals(1440, readerWriter.readMetrics(ID, START, START + DAY - 1).size());
+
+        for(int i=0; i < 3; ++i) {
+            final MetricId id = i == 0 ? ID : new MetricId("d", "g", "new" + i);
+            assertEquals(i, readerWriter.readMetrics(id, START + DAY, START + DAY).getValues().get(0).getValue(), 0.0);
+        }
+    }
+
+    @Test
+    public void testDelete() {
+        writeDay(START, 5.0);
+        writeDay(START + DAY, 6.0);
+        readerWriter.sealClosedBlocks(START + DAY + 3 * 3600000L);
+
+        assertTrue(readerWriter.deleteMetrics(START + DAY) > 0);
+
+        assertEquals(0, readerWriter.readMetrics(ID, START, START + DAY - 1).size());
+        assertEquals(1440, readerWriter.readMetrics(ID, START + DAY, START + 2 * DAY - 1).size());
+    }
+}
@@ -0,0 +1,192 @@
+package com.metrink.metric.io.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.joda.time.DateTime;
+
+import com.metrink.config.CassandraSettings;
+import com.metrink.config.SqlStorageSettings;
+import com.metrink.inject.DateTimeProvider;
+import com.metrink.metric.MetricId;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.io.MetricMetadata;
+import com.metrink.metric.io.MetricReaderWriter;
+import com.metrink.metric.io.impl.CassandraReaderWriter.MetricRowIdSerializer;
+import com.metrink.metric.io.impl.CassandraReaderWriter.MetricRowKey;
+import com.netflix.astyanax.AstyanaxContext;
+import com.netflix.astyanax.Keyspace;
+import com.netflix.astyanax.connectionpool.NodeDiscoveryType;
+import com.netflix.astyanax.connectionpool.impl.ConnectionPoolConfigurationImpl;
+import com.netflix.astyanax.connectionpool.impl.CountingConnectionPoolMonitor;
+import com.netflix.astyanax.impl.AstyanaxConfigurationImpl;
+import com.netflix.astyanax.model.ColumnFamily;
+import com.netflix.astyanax.serializers.LongSerializer;
+import com.netflix.astyanax.thrift.ThriftFamilyFactory;
+import com.sop4j.dbutils.QueryRunner;
+
+/**
+ * Compares write and read throughput of the {@link SqlReaderWriter}, on an in-memory H2 database, with the
+ * {@link CassandraReaderWriter}. Each write is one minute of every metric, the way the aggregator writes them, and
+ * each read is the whole range of one metric. Metadata writes are left out, so only the stores are timed.
+ *
+ * Cassandra is only run when a seed is given as the first argument, and the keyspace and column family must exist.
+ *
+ * Not a unit test; run the main method directly.
+ */
+public class MetricStoreBenchmark {
+    private static final int METRICS = 1000;
+    private static final int MINUTES = 120;
+    private static final int ROUNDS = 5;
+
+    public static void main(final String[] args) throws Exception {
+        final MetricMetadata metadata = new NullMetadata();
+        final JdbcDataSource dataSource = new JdbcDataSource();
+
+        dataSource.setURL("jdbc:h2:mem:metric-store-benchmark;DB_CLOSE_DELAY=-1");
+
+        final QueryRunner runner = new QueryRunner(dataSource);
+
+        run("sql", new SqlReaderWriter(runner, metadata, new MySqlMetricIdDictionary(runner), new SqlStorageSettings()));
+
+        if(args.length > 0) {
+            final CassandraSettings settings = new CassandraSettings();
+
+            settings.setSeed(args[0]);
+
+            run("cassandra", new CassandraReaderWriter(
+                    createContext(settings),
+                    new ColumnFamily<MetricRowKey, Long>(settings.getColumnFamily(), new MetricRowIdSerializer(), LongSerializer.get()),
+                    metadata,
+                    new DateTimeProvider() {
+                        @Override
+                        public DateTime get() {
+                            return new DateTime();
+                        }
+                    },
+                    settings));
+        }
+    }
+
+    /**
+     * Builds the same context as the CommonModule.
+     */
+    private static AstyanaxContext<Keyspace> createContext(final CassandraSettings settings) {
+        return new AstyanaxContext.Builder()
+            .forCluster(settings.getClusterName())
+            .forKeyspace(settings.getKeyspace())
+            .withAstyanaxConfiguration(new AstyanaxConfigurationImpl()
+                .setDiscoveryType(NodeDiscoveryType.RING_DESCRIBE)
+                .setCqlVersion("3.0.0")
+            )
+            .withConnectionPoolConfiguration(new ConnectionPoolConfigurationImpl(settings.getConnectionPool())
+                .setPort(settings.getPort())
+                .setMaxConnsPerHost(settings.getMaxConnectionsPerHost())
+                .setSeeds(settings.getSeed())
+            )
+            .withConnectionPoolMonitor(new CountingConnectionPoolMonitor())
+            .buildKeyspace(ThriftFamilyFactory.getInstance());
+    }
+
+    private static void run(final String name, final MetricReaderWriter readerWriter) {
+        readerWriter.init();
+
+        try {
+            for(int round=0; round < ROUNDS; ++round) {
+                // each round writes its own day, so rounds don't overwrite each other
+                final long dayStart = round * 86400000L;
+                long start = System.nanoTime();
+
+                for(int minute=0; minute < MINUTES; ++minute) {
+                    readerWriter.writeRollups(createMinute(dayStart + minute * 60000L));
+                }
+
+                final double writes = (double) METRICS * MINUTES / (System.nanoTime() - start) * 1e9;
+
+                start = System.nanoTime();
+
+                long points = 0;
+
+                for(int m=0; m < METRICS; ++m) {
+                    points += readerWriter.readMetrics(metricId(m), dayStart, dayStart + MINUTES * 60000L - 1).size();
+                }
+
+                final double reads = (double) points / (System.nanoTime() - start) * 1e9;
+
+                System.out.println(String.format("%s round %d: write %,.0f rollups/s, read %,.0f points/s",
+                                                 name, round, writes, reads));
+            }
+        } finally {
+            readerWriter.shutdown();
+        }
+    }
+
+    private static List<MetricRollup> createMinute(final long timestamp) {
+        final List<MetricRollup> ret = new ArrayList<MetricRollup>(METRICS);
+
+        for(int m=0; m < METRICS; ++m) {
+            final double value = m + timestamp / 60000L;
+
+            ret.add(new MetricRollup(metricId(m), timestamp, 1, value, value, value, value, null));
+        }
+
+        return ret;
+    }
+
+    private static MetricId metricId(final int m) {
+        return new MetricId("device" + (m % 10), "group", "name" + m);
+    }
+
+    private static class NullMetadata implements MetricMetadata {
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<MetricId> readMetricIds() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<String> readUniqueDevices() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<String> readUniqueGroups() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<String> readUniqueMetricNames(final String group) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<MetricId> expandMetricId(final MetricId id) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<MetricId> readUniqueMetrics() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean writeMetricIds(final Set<MetricId> metricIds) {
+            return true;
+        }
+
+        @Override
+        public int deleteMetricId(final MetricId metricId) {
+            return 0;
+        }
+    }
+}
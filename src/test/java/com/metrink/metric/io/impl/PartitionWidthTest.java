@@ -0,0 +1,87 @@
+package com.metrink.metric.io.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.junit.Test;
+
+public class PartitionWidthTest {
+
+    static final long DAY = TimeUnit.DAYS.toMillis(1);
+    static final DateTimeFormatter YYYYMM = DateTimeFormat.forPattern("YYYYMM").withZoneUTC();
+    static final DateTimeFormatter YYYYMMDD = DateTimeFormat.forPattern("YYYYMMdd").withZoneUTC();
+
+    // every 17 hours from 1960 to 2100, so every day of the month and hour of the day comes up
+    private static final long FIRST = new DateTime(1960, 1, 1, 0, 0, DateTimeZone.UTC).getMillis();
+    private static final long LAST = new DateTime(2100, 1, 1, 0, 0, DateTimeZone.UTC).getMillis();
+    private static final long STEP = TimeUnit.HOURS.toMillis(17);
+
+    @Test
+    public void testMonthMatchesCalendar() {
+        for(long ms = FIRST; ms < LAST; ms += STEP) {
+            final int number = PartitionWidth.MONTH.getNumber(ms);
+            final DateTime monthStart = new DateTime(ms, DateTimeZone.UTC).withDayOfMonth(1).withTimeAtStartOfDay();
+
+            assertEquals(YYYYMM.print(ms), PartitionWidth.MONTH.format(number));
+            assertEquals(monthStart.getMillis(), PartitionWidth.MONTH.getStart(number));
+            assertEquals(number, PartitionWidth.MONTH.parse(PartitionWidth.MONTH.format(number)));
+        }
+
+        assertEquals(0, PartitionWidth.MONTH.getNumber(0));
+        assertEquals(-1, PartitionWidth.MONTH.getNumber(-1));
+        assertEquals(1, PartitionWidth.MONTH.getNumber(31 * DAY));
+    }
+
+    @Test
+    public void testWeeksStartOnMonday() {
+        for(long ms = FIRST; ms < LAST; ms += STEP) {
+            final int number = PartitionWidth.WEEK.getNumber(ms);
+            final long start = PartitionWidth.WEEK.getStart(number);
+
+            assertTrue(start <= ms && ms < start + 7 * DAY);
+            assertEquals(DateTimeConstants.MONDAY, new DateTime(start, DateTimeZone.UTC).getDayOfWeek());
+            assertEquals(YYYYMMDD.print(start) + "W", PartitionWidth.WEEK.format(number));
+            assertEquals(number, PartitionWidth.WEEK.parse(PartitionWidth.WEEK.format(number)));
+        }
+
+        // 1970-01-01 is a Thursday
+        assertEquals(0, PartitionWidth.WEEK.getNumber(0));
+        assertEquals(-3 * DAY, PartitionWidth.WEEK.getStart(0));
+        assertEquals(1, PartitionWidth.WEEK.getNumber(4 * DAY));
+    }
+
+    @Test
+    public void testDays() {
+        for(long ms = FIRST; ms < LAST; ms += STEP) {
+            final int number = PartitionWidth.DAY.getNumber(ms);
+
+            assertEquals(new DateTime(ms, DateTimeZone.UTC).withTimeAtStartOfDay().getMillis(), PartitionWidth.DAY.getStart(number));
+            assertEquals(YYYYMMDD.print(ms), PartitionWidth.DAY.format(number));
+            assertEquals(number, PartitionWidth.DAY.parse(PartitionWidth.DAY.format(number)));
+        }
+    }
+
+    @Test
+    public void testFromPartition() {
+        assertEquals(PartitionWidth.MONTH, PartitionWidth.fromPartition("201403"));
+        assertEquals(PartitionWidth.WEEK, PartitionWidth.fromPartition("20140310W"));
+        assertEquals(PartitionWidth.DAY, PartitionWidth.fromPartition("20140310"));
+        assertEquals(PartitionWidth.DAY, PartitionWidth.fromString(" Day "));
+
+        for(final PartitionWidth width:PartitionWidth.values()) {
+            assertEquals(width, PartitionWidth.fromCode(width.getCode()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWeekNeedsSuffix() {
+        PartitionWidth.WEEK.parse("201403101");
+    }
+}
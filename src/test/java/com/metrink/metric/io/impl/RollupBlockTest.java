@@ -0,0 +1,87 @@
+package com.metrink.metric.io.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.metrink.metric.MetricId;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.Statistic;
+
+public class RollupBlockTest {
+
+    MetricId ID = new MetricId("d", "g", "n");
+
+    @Test
+    public void testRoundTrip() {
+        final Random random = new Random(42);
+        final List<MetricRollup> rollups = new ArrayList<MetricRollup>();
+        long timestamp = 1394000000000L / 60000L * 60000L;
+
+        for(int i=0; i < 1440; ++i) {
+            // mostly evenly spaced, with the odd gap
+            timestamp += (random.nextInt(10) == 0 ? 3 : 1) * 60000L;
+
+            final double value = random.nextGaussian() * 1000.0;
+
+            rollups.add(new MetricRollup(ID, timestamp, random.nextInt(5), value * 3, value - 1, value + 1, value, null));
+        }
+
+        rollups.add(new MetricRollup(ID, timestamp + 60000L, 0, Double.NaN, Double.NEGATIVE_INFINITY, -0.0, Double.MAX_VALUE, null));
+
+        assertRoundTrip(rollups);
+    }
+
+    @Test
+    public void testMillisecondTimestamps() {
+        assertRoundTrip(Arrays.asList(new MetricRollup(ID, 1001L, 1, 1.0, 1.0, 1.0, 1.0, null),
+                                      new MetricRollup(ID, 2003L, Long.MAX_VALUE, 2.0, 2.0, 2.0, 2.0, null),
+                                      new MetricRollup(ID, 9000000007L, 1, 3.0, 3.0, 3.0, 3.0, null)));
+    }
+
+    @Test
+    public void testSingleRollup() {
+        assertRoundTrip(Arrays.asList(new MetricRollup(ID, 60000L, 4, 10.0, 1.0, 4.0, 2.0, null)));
+    }
+
+    @Test
+    public void testSteadySeriesCompresses() {
+        final List<MetricRollup> rollups = new ArrayList<MetricRollup>();
+
+        for(int i=0; i < 1440; ++i) {
+            rollups.add(new MetricRollup(ID, i * 60000L, 1, 12.5, 12.5, 12.5, 12.5, null));
+        }
+
+        final ByteBuffer block = RollupBlock.encode(rollups);
+
+        // a column is at least 8 bytes of name and 40 of value
+        assertTrue(block.remaining() < 1440 * 48 / 40);
+
+        assertEquals(12.5, RollupBlock.decode(block).getStatistic(1439, Statistic.MEAN), 0.0);
+    }
+
+    private void assertRoundTrip(final List<MetricRollup> rollups) {
+        final RollupBlock block = RollupBlock.decode(RollupBlock.encode(rollups));
+
+        assertEquals(rollups.size(), block.size());
+
+        for(int i=0; i < rollups.size(); ++i) {
+            final MetricRollup expected = rollups.get(i);
+            final MetricRollup actual = block.getRollup(ID, i);
+
+            assertEquals(expected.getTimestamp(), actual.getTimestamp());
+            assertEquals(expected.getCount(), actual.getCount());
+            assertEquals(Double.doubleToRawLongBits(expected.getSum()), Double.doubleToRawLongBits(actual.getSum()));
+            assertEquals(Double.doubleToRawLongBits(expected.getMin()), Double.doubleToRawLongBits(actual.getMin()));
+            assertEquals(Double.doubleToRawLongBits(expected.getMax()), Double.doubleToRawLongBits(actual.getMax()));
+            assertEquals(Double.doubleToRawLongBits(expected.getLast()), Double.doubleToRawLongBits(actual.getLast()));
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.metrink.metric.io.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.metrink.config.SqlStorageSettings;
+import com.metrink.metric.MetricId;
+import com.metrink.metric.MetricRequest;
+import com.metrink.metric.MetricRollup;
+import com.metrink.metric.MetricValueList;
+import com.metrink.metric.Resolution;
+import com.metrink.metric.Statistic;
+import com.metrink.metric.io.MetricIdDictionary;
+import com.metrink.metric.io.MetricMetadata;
+import com.sop4j.dbutils.QueryRunner;
+
+public class SqlReaderWriterTest {
+
+    static final long DAY = 86400000L;
+    static final long START = 1394000000000L / DAY * DAY;
+
+    static int databases = 0;
+
+    MetricId ID = new MetricId("d", "g", "n");
+    MetricMetadata metadata = mock(MetricMetadata.class);
+
+    QueryRunner runner;
+    SqlReaderWriter readerWriter;
+
+    @Before
+    public void setUp() {
+        when(metadata.writeMetricIds(anySetOf(MetricId.class))).thenReturn(true);
+
+        final JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:sql-reader-writer-" + databases++ + ";DB_CLOSE_DELAY=-1");
+
+        runner = new QueryRunner(dataSource);
+        final SqlStorageSettings settings = new SqlStorageSettings();
+
+        // small enough that a day takes several full statements and a short one
+        settings.setInsertBatchRows(100);
+
+        readerWriter = new SqlReaderWriter(runner, metadata, new MySqlMetricIdDictionary(runner), settings);
+        readerWriter.init();
+    }
+
+    @After
+    public void tearDown() {
+        readerWriter.shutdown();
+    }
+
+    private void writeDay(final long dayStart, final double value) {
+        final List<MetricRollup> rollups = new ArrayList<MetricRollup>();
+
+        for(int i=0; i < 1440; ++i) {
+            rollups.add(new MetricRollup(ID, dayStart + i * 60000L, 2, value * 2, value - 1, value + 1, value, null));
+        }
+
+        readerWriter.writeRollups(rollups);
+    }
+
+    @Test
+    public void testReadWrite() {
+        writeDay(START, 5.0);
+        readerWriter.writeRollups(Arrays.asList(new MetricRollup(ID, START + 60000L, 1, 7.0, 7.0, 7.0, 7.0, null)));
+
+        final MetricValueList values = readerWriter.readMetrics(ID, START, START + 10 * 60000L);
+
+        assertEquals(11, values.size());
+        assertEquals(5.0, values.getValues().get(0).getValue(), 0.0);
+        // the period written again reads as its last write
+        assertEquals(7.0, values.getValues().get(1).getValue(), 0.0);
+
+        final MetricValueList max = readerWriter.readMetrics(Arrays.asList(
+                new MetricRequest(ID, START, START + DAY - 1, Statistic.MAX))).get(ID);
+
+        assertEquals(1440, max.size());
+        assertEquals(6.0, max.getValues().get(1439).getValue(), 0.0);
+
+        final List<MetricRollup> rollups = readerWriter.readRollups(ID, Resolution.ONE_MINUTE, START, START + DAY);
+
+        assertEquals(1440, rollups.size());
+        assertEquals(1, rollups.get(1).getCount());
+
+        assertEquals(0, readerWriter.readMetrics(new MetricId("d", "g", "unknown"), START, START + DAY).size());
+    }
+
+    @Test
+    public void testResolutions() {
+        writeDay(START, 5.0);
+        readerWriter.writeRollups(Resolution.ONE_HOUR, Arrays.asList(new MetricRollup(ID, START, 60, 60.0, 1.0, 1.0, 1.0, null)));
+
+        assertEquals(1, readerWriter.readRollups(ID, Resolution.ONE_HOUR, START, START + DAY).size());
+        assertEquals(1440, readerWriter.readRollups(ID, Resolution.ONE_MINUTE, START, START + DAY).size());
+    }
+
+    @Test
+    public void testDelete() {
+        writeDay(START, 5.0);
+        writeDay(START + DAY, 6.0);
+
+        assertEquals(1440, readerWriter.deleteMetrics(START + DAY));
+
+        assertEquals(0, readerWriter.readMetrics(ID, START, START + DAY - 1).size());
+        assertEquals(1440, readerWriter.readMetrics(ID, START + DAY, START + 2 * DAY - 1).size());
+    }
+
+    @Test
+    public void testReadsDoNotNumberMetrics() {
+        final MetricIdDictionary dictionary = mock(MetricIdDictionary.class);
+        final SqlReaderWriter reader = new SqlReaderWriter(runner, metadata, dictionary, new SqlStorageSettings());
+        final MetricId failing = new MetricId("d", "g", "failing");
+
+        when(dictionary.findNumber(ID)).thenReturn(null);
+        when(dictionary.findNumber(failing)).thenThrow(new IllegalStateException("dictionary down"));
+
+        assertEquals(0, reader.readMetrics(ID, START, START + DAY).size());
+        assertEquals(0, reader.readRollups(ID, Resolution.ONE_MINUTE, START, START + DAY).size());
+        assertEquals(0, reader.readMetrics(failing, START, START + DAY).size());
+
+        verify(dictionary, never()).getNumber(ID);
+    }
+}
@@ -0,0 +1,60 @@
+package com.metrink.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.metrink.metric.BinaryMetricEncoder;
+import com.metrink.metric.Metric;
+
+public class MetrinkBinaryParserTest {
+
+    MetrinkBinaryParser parser = new MetrinkBinaryParser();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final byte[] data = new BinaryMetricEncoder("db-server")
+            .add("mysql", "Bytes_received", 3506, 120000L, "B")
+            .add("mysql", "Bytes_sent", 34782, 120000L, null)
+            .add("mysql", "Bytes_received", 3507.5, 180000L, "B")
+            .add("disk", "/ free", -1.25, 60000L, "")
+            .toByteArray();
+
+        List<Metric> metrics = parser.parse(data);
+
+        assertEquals(4, metrics.size());
+        assertEquals(new Metric("db-server", "mysql", "Bytes_received", 120000L, 3506, "B"), metrics.get(0));
+        assertEquals(new Metric("db-server", "mysql", "Bytes_sent", 120000L, 34782, ""), metrics.get(1));
+        assertEquals(new Metric("db-server", "mysql", "Bytes_received", 180000L, 3507.5, "B"), metrics.get(2));
+        assertEquals(new Metric("db-server", "disk", "/ free", 60000L, -1.25, ""), metrics.get(3));
+
+        // the same series shares an id
+        assertSame(metrics.get(0).getId(), metrics.get(2).getId());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertEquals(0, parser.parse(new BinaryMetricEncoder("db-server").toByteArray()).size());
+    }
+
+    @Test(expected=ParserException.class)
+    public void testTruncated() throws Exception {
+        final byte[] data = new BinaryMetricEncoder("db-server").add("mysql", "Bytes_sent", 1, 1, null).toByteArray();
+
+        parser.parse(Arrays.copyOf(data, data.length - 1));
+    }
+
+    @Test(expected=ParserException.class)
+    public void testReservedCharacter() throws Exception {
+        parser.parse(new BinaryMetricEncoder("db-server").add("my:group", "name", 1, 1, null).toByteArray());
+    }
+
+    @Test(expected=ParserException.class)
+    public void testNotBinary() throws Exception {
+        parser.parse("{'d':'db-server','m':[]}".getBytes());
+    }
+}
@@ -0,0 +1,133 @@
+package com.metrink.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.metrink.inject.DateTimeProvider;
+import com.metrink.metric.Metric;
+
+public class MetrinkStreamingJsonParserTest {
+
+    MetrinkStreamingJsonParser parser;
+
+    DateTime CURRENT_TIME = new DateTime();
+    @Mock DateTimeProvider dateTimeProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        when(dateTimeProvider.get()).thenReturn(CURRENT_TIME);
+
+        parser = new MetrinkStreamingJsonParser(dateTimeProvider);
+    }
+
+    @Test
+    public void testValidJson1() throws Exception {
+        String line = "{'d':'db-server','m':[{'g':'mysql','n':'Bytes_received','v':'3506'},{'g':'mysql','n':'Bytes_sent','v':'34782'}]}";
+
+        List<Metric> metrics = parser.parse(line.getBytes());
+
+        assertEquals(2, metrics.size());
+        assertEquals("db-server", metrics.get(0).getDevice());
+        assertEquals("mysql", metrics.get(0).getGroupName());
+        assertEquals("Bytes_received", metrics.get(0).getName());
+        assertEquals(3506, metrics.get(0).getValue(), 0.0001);
+        assertEquals(CURRENT_TIME.getMillis(), metrics.get(0).getTimestamp());
+
+        assertEquals("db-server", metrics.get(1).getDevice());
+        assertEquals("mysql", metrics.get(1).getGroupName());
+        assertEquals("Bytes_sent", metrics.get(1).getName());
+        assertEquals(34782, metrics.get(1).getValue(), 0.0001);
+    }
+
+    @Test
+    public void testDeviceAfterMetrics() throws Exception {
+        String line = "{'m':[{ 't': 123454789, 'g': 'mygroup', 'n':'myname', 'v':23.45, 'u':'%' }], 'd': 'mydevice' }";
+
+        List<Metric> metrics = parser.parse(line.getBytes());
+
+        assertEquals(1, metrics.size());
+        assertEquals("mydevice", metrics.get(0).getDevice());
+        assertEquals("mygroup", metrics.get(0).getGroupName());
+        assertEquals("myname", metrics.get(0).getName());
+        assertEquals(123454789, metrics.get(0).getTimestamp());
+        assertEquals(23.45, metrics.get(0).getValue(), 0.0001);
+        assertEquals("%", metrics.get(0).getUnits());
+    }
+
+    @Test
+    public void testEmptyMetrics() throws Exception {
+        String line = "{'m':[ ], 'd': 'mydevice' }";
+
+        assertEquals(0, parser.parse(line.getBytes()).size());
+    }
+
+    @Test
+    public void testStringTimestampAndExtraFields() throws Exception {
+        String line = "{\"co\":\"heroku\",\"m\":[{ \"t\": \"123454789\", \"g\": \"mygroup\", \"n\":\"myname\", \"v\":23.45, \"x\":{\"a\":[1,2]} }], \"d\": \"mydevice\" }";
+
+        List<Metric> metrics = parser.parse(line.getBytes());
+
+        assertEquals(1, metrics.size());
+        assertEquals(123454789, metrics.get(0).getTimestamp());
+        assertEquals(23.45, metrics.get(0).getValue(), 0.0001);
+    }
+
+    @Test
+    public void testTopLevelGroup() throws Exception {
+        String line = "{'d':'mydevice','g':'toplevel','m':[{'g':'mygroup','n':'a','v':1},{'n':'b','v':2}]}";
+
+        List<Metric> metrics = parser.parse(line.getBytes());
+
+        assertEquals(2, metrics.size());
+        assertEquals("toplevel", metrics.get(0).getGroupName());
+        assertEquals("toplevel", metrics.get(1).getGroupName());
+    }
+
+    @Test
+    public void testBadValueSkipped() throws Exception {
+        String line = "{'d':'mydevice','m':[{'g':'mygroup','n':'a','v':'abc'},{'g':'mygroup','n':'b'},{'g':'mygroup','n':'c','v':3}]}";
+
+        List<Metric> metrics = parser.parse(line.getBytes());
+
+        assertEquals(1, metrics.size());
+        assertEquals("c", metrics.get(0).getName());
+    }
+
+    @Test(expected=ParserException.class)
+    public void testMissingDevice() throws Exception {
+        String line = "{'m':[{ 't': 123454789, 'g': 'mygroup', 'n':'myname', 'v':23.45 }] }";
+
+        parser.parse(line.getBytes());
+    }
+
+    @Test(expected=ParserException.class)
+    public void testMissingGroup() throws Exception {
+        String line = "{'d':'mydevice','m':[{'n':'myname','v':23.45 }] }";
+
+        parser.parse(line.getBytes());
+    }
+
+    @Test(expected=ParserException.class)
+    public void testReservedCharacter() throws Exception {
+        String line = "{'d':'mydevice','m':[{'g':'my:group','n':'myname','v':23.45 }] }";
+
+        parser.parse(line.getBytes());
+    }
+
+    @Test(expected=ParserException.class)
+    public void testMalformedJson() throws Exception {
+        String line = "{'d':'mydevice','m':[{'g':'mygroup','n':'myname','v':23.45 }";
+
+        parser.parse(line.getBytes());
+    }
+}